@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The representative schemas used by the benchmarks.
+ * The rows are generated with a fixed seed, loaded in an in-memory Derby table,
+ * and serialized once using the cache format.
+ */
+public enum BenchmarkSchema {
+
+    NARROW_NUMERIC(0, Types.INTEGER, Types.SMALLINT, Types.BIGINT, Types.DOUBLE, Types.REAL),
+
+    WIDE_STRING(0, withId(Types.VARCHAR, 20)),
+
+    CLOB_HEAVY(0, Types.INTEGER, Types.VARCHAR, Types.CLOB, Types.CLOB),
+
+    NULL_HEAVY(0.9, Types.INTEGER, Types.VARCHAR, Types.BIGINT, Types.DOUBLE, Types.TIMESTAMP, Types.DATE,
+            Types.VARCHAR, Types.INTEGER, Types.CLOB, Types.VARCHAR);
+
+    final static String BACKEND_URL = "jdbc:derby:memory:benchmark;create=true";
+
+    private final static int VARCHAR_SIZE = 64;
+    private final static int CLOB_SIZE = 4096;
+
+    private final double nullRatio;
+    final int[] types;
+
+    BenchmarkSchema(final double nullRatio, final int... types) {
+        this.nullRatio = nullRatio;
+        this.types = types;
+    }
+
+    private static int[] withId(final int type, final int count) {
+        final int[] types = new int[count + 1];
+        Arrays.fill(types, type);
+        types[0] = Types.INTEGER;
+        return types;
+    }
+
+    private static String columnType(final int type) {
+        switch (type) {
+        case Types.INTEGER:
+            return "INT";
+        case Types.VARCHAR:
+            return "VARCHAR(" + VARCHAR_SIZE + ')';
+        case Types.CLOB:
+            return "CLOB";
+        case Types.SMALLINT:
+            return "SMALLINT";
+        case Types.BIGINT:
+            return "BIGINT";
+        case Types.DOUBLE:
+            return "DOUBLE";
+        case Types.REAL:
+            return "REAL";
+        case Types.TIMESTAMP:
+            return "TIMESTAMP";
+        case Types.DATE:
+            return "DATE";
+        default:
+            throw new IllegalArgumentException("Unsupported type: " + type);
+        }
+    }
+
+    private static String randomString(final Random random, final int minLength, final int maxLength) {
+        final int length = minLength + random.nextInt(maxLength - minLength + 1);
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+
+    private static Object randomValue(final Random random, final int type) {
+        switch (type) {
+        case Types.INTEGER:
+            return random.nextInt();
+        case Types.VARCHAR:
+            return randomString(random, 8, VARCHAR_SIZE);
+        case Types.CLOB:
+            return randomString(random, CLOB_SIZE / 2, CLOB_SIZE);
+        case Types.SMALLINT:
+            return (short) random.nextInt(Short.MAX_VALUE);
+        case Types.BIGINT:
+            return random.nextLong();
+        case Types.DOUBLE:
+            return random.nextDouble();
+        case Types.REAL:
+            return random.nextFloat();
+        case Types.TIMESTAMP:
+            return new Timestamp(random.nextInt() & Integer.MAX_VALUE);
+        case Types.DATE:
+            return new Date(86400000L * random.nextInt(20000));
+        default:
+            throw new IllegalArgumentException("Unsupported type: " + type);
+        }
+    }
+
+    /**
+     * Generate the rows and serialize them using the cache format.
+     *
+     * @param rows the number of rows
+     * @return the serialized ResultSet
+     * @throws SQLException if the rows cannot be generated
+     */
+    byte[] serialize(final int rows) throws SQLException {
+        final String table = name() + '_' + rows;
+        final StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(table).append(" (");
+        final StringBuilder insert = new StringBuilder("INSERT INTO ").append(table).append(" VALUES (");
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                ddl.append(", ");
+                insert.append(", ");
+            }
+            ddl.append('C').append(i).append(' ').append(columnType(types[i]));
+            insert.append('?');
+        }
+        ddl.append(')');
+        insert.append(')');
+
+        final Random random = new Random(rows);
+        try (final Connection connection = DriverManager.getConnection(BACKEND_URL)) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeUpdate(ddl.toString());
+                try {
+                    try (final PreparedStatement prepared = connection.prepareStatement(insert.toString())) {
+                        for (int row = 0; row < rows; row++) {
+                            prepared.setInt(1, row);
+                            for (int i = 1; i < types.length; i++) {
+                                if (random.nextDouble() < nullRatio)
+                                    prepared.setNull(i + 1, types[i]);
+                                else
+                                    prepared.setObject(i + 1, randomValue(random, types[i]), types[i]);
+                            }
+                            prepared.addBatch();
+                        }
+                        prepared.executeBatch();
+                    }
+                    try (final ResultSet resultSet = statement.executeQuery("SELECT * FROM " + table)) {
+                        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                        ResultSetWriter.write(output, resultSet);
+                        return output.toByteArray();
+                    }
+                } finally {
+                    statement.executeUpdate("DROP TABLE " + table);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read every column of every row using the getter an application would use for the type.
+     *
+     * @param resultSet the ResultSet to consume
+     * @param blackhole receives the values
+     * @return the number of rows
+     * @throws SQLException if the ResultSet cannot be read
+     */
+    int consume(final ResultSet resultSet, final Blackhole blackhole) throws SQLException {
+        int rows = 0;
+        while (resultSet.next()) {
+            rows++;
+            for (int i = 0; i < types.length; i++) {
+                final int column = i + 1;
+                switch (types[i]) {
+                case Types.INTEGER:
+                    blackhole.consume(resultSet.getInt(column));
+                    break;
+                case Types.SMALLINT:
+                    blackhole.consume(resultSet.getShort(column));
+                    break;
+                case Types.BIGINT:
+                    blackhole.consume(resultSet.getLong(column));
+                    break;
+                case Types.DOUBLE:
+                    blackhole.consume(resultSet.getDouble(column));
+                    break;
+                case Types.REAL:
+                    blackhole.consume(resultSet.getFloat(column));
+                    break;
+                case Types.TIMESTAMP:
+                    blackhole.consume(resultSet.getTimestamp(column));
+                    break;
+                case Types.DATE:
+                    blackhole.consume(resultSet.getDate(column));
+                    break;
+                default:
+                    blackhole.consume(resultSet.getString(column));
+                    break;
+                }
+            }
+        }
+        return rows;
+    }
+}
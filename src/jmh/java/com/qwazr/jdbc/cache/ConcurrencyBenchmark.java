@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Concurrent lookups in the cache (ResultSetCache.get), measuring the throughput and the latency distribution
+ * (the SampleTime mode reports the percentiles).
+ * <p>
+ * The lookup benchmark requests the keys following the given distribution.
+ * In the miss storm benchmark, every thread requests the same new key, which is replaced after stormSize lookups:
+ * the concurrent misses on one key measure the cost of the entry builds (buildCache).
+ * The backend is simulated by a pause of backendMicros before returning a small pre-serialized ResultSet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ConcurrencyBenchmark {
+
+    public enum Storage {
+        MEM, FILE
+    }
+
+    @Param({ "MEM", "FILE" })
+    Storage storage;
+
+    @Param({ "UNIFORM", "ZIPFIAN", "HOT_KEY" })
+    KeyDistribution distribution;
+
+    @Param({ "1000" })
+    int keys;
+
+    @Param({ "200" })
+    int backendMicros;
+
+    @Param({ "64" })
+    int stormSize;
+
+    @Param({ "10" })
+    int rows;
+
+    private byte[] serialized;
+    private Path directory;
+    private ResultSetCacheImpl cache;
+    private String[] keyNames;
+    private KeyDistribution.Sampler sampler;
+    private ResultSetCache.Provider provider;
+    private AtomicLong stormOperations;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException, IOException {
+        serialized = BenchmarkSchema.NARROW_NUMERIC.serialize(rows);
+        if (storage == Storage.FILE) {
+            directory = Files.createTempDirectory("jdbc-cache-benchmark");
+            cache = new ResultSetOnDiskCacheImpl(directory);
+        } else
+            cache = new ResultSetInMemoryCacheImpl();
+        keyNames = new String[keys];
+        for (int i = 0; i < keys; i++)
+            keyNames[i] = CachedStatement.generateCacheKey("key" + i);
+        sampler = distribution.sampler(keys);
+        provider = () -> {
+            if (backendMicros > 0)
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(backendMicros));
+            return new CachedInMemoryResultSet(null, serialized);
+        };
+        stormOperations = new AtomicLong();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException, IOException {
+        cache.flush();
+        if (directory == null)
+            return;
+        try (final Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private boolean get(final String key) throws SQLException {
+        try (final ResultSet resultSet = cache.get(null, key, provider)) {
+            return resultSet.next();
+        }
+    }
+
+    @Benchmark
+    public boolean lookup() throws SQLException {
+        return get(keyNames[sampler.next(ThreadLocalRandom.current())]);
+    }
+
+    @Benchmark
+    public boolean missStorm() throws SQLException {
+        final long operation = stormOperations.getAndIncrement();
+        final long generation = operation / stormSize;
+        // The first lookup of a generation removes the entry of the generation before the previous one
+        if (operation % stormSize == 0 && generation >= 2)
+            cache.remove(stormKey(generation - 2));
+        return get(stormKey(generation));
+    }
+
+    private static String stormKey(final long generation) {
+        return String.format("%032X", generation);
+    }
+}
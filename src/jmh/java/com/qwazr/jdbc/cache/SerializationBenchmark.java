@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the serialization (ResultSetWriter) and of the deserialization (CachedResultSet),
+ * in memory and on disk. One operation is a whole ResultSet of the given number of rows.
+ * <p>
+ * The write benchmarks read their source from an in-memory cached ResultSet,
+ * so the backend is not measured: the readInMemory score gives the cost of this source.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({ "NARROW_NUMERIC", "WIDE_STRING", "CLOB_HEAVY", "NULL_HEAVY" })
+    BenchmarkSchema schema;
+
+    @Param({ "1000" })
+    int rows;
+
+    private byte[] serialized;
+    private Path directory;
+    private Path onDiskEntry;
+    private Path onDiskOutput;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException, IOException {
+        serialized = schema.serialize(rows);
+        directory = Files.createTempDirectory("jdbc-cache-benchmark");
+        onDiskEntry = directory.resolve("entry");
+        onDiskOutput = directory.resolve("output");
+        ResultSetWriter.write(onDiskEntry, source());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(onDiskEntry);
+        Files.deleteIfExists(onDiskOutput);
+        Files.deleteIfExists(directory);
+    }
+
+    private ResultSet source() throws SQLException {
+        return new CachedInMemoryResultSet(null, serialized);
+    }
+
+    @Benchmark
+    public int writeInMemory() throws SQLException {
+        try (final ResultSet source = source()) {
+            return ResultSetWriter.write(new ByteArrayOutputStream(serialized.length), source);
+        }
+    }
+
+    @Benchmark
+    public int writeOnDisk() throws SQLException {
+        try (final ResultSet source = source()) {
+            return ResultSetWriter.write(onDiskOutput, source);
+        }
+    }
+
+    @Benchmark
+    public int readInMemory(final Blackhole blackhole) throws SQLException {
+        try (final ResultSet resultSet = source()) {
+            return schema.consume(resultSet, blackhole);
+        }
+    }
+
+    @Benchmark
+    public int readOnDisk(final Blackhole blackhole) throws SQLException, IOException {
+        try (final ResultSet resultSet = new CachedOnDiskResultSet(null, onDiskEntry, SchemaRegistry.MEMORY,
+                null, false)) {
+            return schema.consume(resultSet, blackhole);
+        }
+    }
+
+    @Benchmark
+    public int iterateInMemory() throws SQLException {
+        int count = 0;
+        try (final ResultSet resultSet = source()) {
+            while (resultSet.next())
+                count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost-based admission of the new entries.
+ * An entry is stored only if the backend time it is expected to save is greater than its storage cost:
+ * <pre>
+ * populate time * expected reuse &gt;= entry cost + bytes * byte cost
+ * </pre>
+ * The expected reuse is the mean number of executions per entry of the query template,
+ * or the number of times the key has already been rejected plus one if it is greater.
+ * A rejected entry is still returned to the caller, it is just not kept.
+ * <p>
+ * The policy also gives the maximum size of an entry (serialized bytes before compression, and rows).
+ * The limits are checked while the entry is written, so a huge result is never fully buffered or stored.
+ */
+class AdmissionPolicy {
+
+    private final long entryCostNanos;
+    private final double byteCostNanos;
+    private final long maxBytes;
+    private final long maxRows;
+
+    AdmissionPolicy(final long entryCostNanos, final double byteCostNanos, final long maxBytes,
+            final long maxRows) {
+        this.entryCostNanos = entryCostNanos;
+        this.byteCostNanos = byteCostNanos;
+        this.maxBytes = maxBytes;
+        this.maxRows = maxRows;
+    }
+
+    private static String getProperty(final Properties info, final String name) {
+        final String value = info.getProperty(name);
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    /**
+     * Build the policy from the connection properties.
+     *
+     * @param info the properties of the connection
+     * @return the policy, or null if every entry is admitted
+     * @throws SQLException if a property is not valid
+     */
+    static AdmissionPolicy of(final Properties info) throws SQLException {
+        final String entryCost = getProperty(info, Driver.CACHE_ADMISSION_ENTRY_COST);
+        final String byteCost = getProperty(info, Driver.CACHE_ADMISSION_BYTE_COST);
+        final String maxBytes = getProperty(info, Driver.CACHE_ENTRY_MAX_BYTES);
+        final String maxRows = getProperty(info, Driver.CACHE_ENTRY_MAX_ROWS);
+        if (entryCost == null && byteCost == null && maxBytes == null && maxRows == null)
+            return null;
+        try {
+            return new AdmissionPolicy(
+                    entryCost == null ? 0 : TimeUnit.MICROSECONDS.toNanos(Long.parseLong(entryCost)),
+                    byteCost == null ? 0 : Double.parseDouble(byteCost),
+                    maxBytes == null ? Long.MAX_VALUE : Long.parseLong(maxBytes),
+                    maxRows == null ? Long.MAX_VALUE : Long.parseLong(maxRows));
+        } catch (NumberFormatException e) {
+            throw new SQLException("Wrong admission property: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param template     the statistics of the query template (the current execution being already counted)
+     * @param rejectedKeys the number of times the key has already been rejected
+     * @return the expected number of executions served by the entry
+     */
+    static double expectedReuse(final QueryTemplateStatistics.Template template, final int rejectedKeys) {
+        final double templateReuse = template == null ?
+                1 :
+                (double) template.getExecutions() / (template.getLoads() + template.getRejections() + 1);
+        return Math.max(templateReuse, rejectedKeys + 1);
+    }
+
+    boolean admit(final long populateNanos, final long bytes, final double expectedReuse) {
+        return populateNanos * expectedReuse >= entryCostNanos + bytes * byteCostNanos;
+    }
+
+    /**
+     * @param rows  the number of rows already written
+     * @param bytes the number of bytes already written
+     * @return true if the entry is too large to be stored
+     */
+    boolean exceeds(final long rows, final long bytes) {
+        return rows > maxRows || bytes > maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "entryCost=" + entryCostNanos + "ns, byteCost=" + byteCostNanos + "ns, maxBytes=" + maxBytes
+                + ", maxRows=" + maxRows;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Serialize the remaining rows of a backend ResultSet on demand, one row at a time,
+ * using the format of the ResultSetWriter.
+ */
+class BackendRowsInputStream extends InputStream {
+
+    private final ResultSet resultSet;
+    private final int[] types;
+    private final ByteArrayOutputStream buffer;
+    private final DataOutputStream output;
+    private int pos;
+    private byte[] row;
+    private int offset;
+
+    /**
+     * @param resultSet the backend ResultSet, positioned on the last row already written
+     * @param types     the SQL types of the columns
+     * @param pos       the position of the last row already written
+     */
+    BackendRowsInputStream(final ResultSet resultSet, final int[] types, final int pos) {
+        this.resultSet = resultSet;
+        this.types = types;
+        this.buffer = new ByteArrayOutputStream();
+        this.output = new DataOutputStream(buffer);
+        this.pos = pos;
+        this.row = new byte[0];
+        this.offset = 0;
+    }
+
+    /**
+     * @return false if there is no more row
+     */
+    private boolean fill() throws IOException {
+        if (row == null)
+            return false;
+        try {
+            if (!resultSet.next()) {
+                row = null;
+                return false;
+            }
+            buffer.reset();
+            output.writeInt(++pos);
+            ResultSetWriter.writeRow(output, resultSet, types);
+            row = buffer.toByteArray();
+            offset = 0;
+            return true;
+        } catch (SQLException e) {
+            throw new IOException("Cannot read the backend ResultSet - pos " + pos, e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (row != null && offset >= row.length)
+            if (!fill())
+                return -1;
+        return row == null ? -1 : row[offset++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (row != null && offset >= row.length)
+            if (!fill())
+                return -1;
+        if (row == null)
+            return -1;
+        final int length = Math.min(len, row.length - offset);
+        System.arraycopy(row, offset, b, off, length);
+        offset += length;
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        row = null;
+        try {
+            resultSet.close();
+        } catch (SQLException e) {
+            throw new IOException("Cannot close the backend ResultSet", e);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * The file receiving the large binary and text values of an on-disk entry, next to the entry file.
+ * The entry only keeps a reference (id, offset, length) to the value. A text value is encoded in UTF-8.
+ * Each sidecar has a random id, stored in its name (entry.id.blob), in its first bytes and in the header of the entry.
+ * A new build of the entry writes a new sidecar: the reader opens the entry first, then the exact sidecar
+ * it references, so a sidecar is never read with the references of another entry.
+ * The reference also keeps the CRC32 of the value, verified before the value is first read.
+ */
+class BlobSidecar implements Closeable {
+
+    /**
+     * The values up to this size are written in the entry
+     */
+    final static int INLINE_THRESHOLD = 65536;
+
+    final static String EXTENSION = ".blob";
+
+    private final static int MAGIC = 0x514A4342; // QJCB
+    private final static int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    private final static int CHUNK_SIZE = 65536;
+
+    private final Path path;
+    private final long id;
+    private final ByteBuffer chunk;
+    private final CRC32 checksum;
+    private FileChannel channel;
+    private long position;
+
+    /**
+     * @param entryPath the path of the entry, the sidecar is only created by the first spilled value
+     */
+    BlobSidecar(final Path entryPath) {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        this.id = id;
+        this.path = of(entryPath, id);
+        this.chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        this.checksum = new CRC32();
+        this.position = 0;
+    }
+
+    /**
+     * @param entryPath the path of the entry
+     * @param id        the id of the sidecar
+     * @return the path of the sidecar
+     */
+    static Path of(final Path entryPath, final long id) {
+        return entryPath.resolveSibling(entryPath.getFileName().toString() + '.' + Long.toHexString(id) + EXTENSION);
+    }
+
+    /**
+     * @param entryPath the path of the entry
+     * @return the sidecars found next to the entry, the current one and the ones of the replaced builds
+     * @throws IOException if the directory of the entry cannot be listed
+     */
+    static List<Path> list(final Path entryPath) throws IOException {
+        final List<Path> sidecars = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(entryPath.getParent(),
+                entryPath.getFileName().toString() + ".*" + EXTENSION)) {
+            stream.forEach(sidecars::add);
+        } catch (NoSuchFileException e) {
+            // No directory, no sidecar
+        }
+        return sidecars;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    /**
+     * @return the id of the sidecar if a value has been written in it, 0 otherwise
+     */
+    long getWrittenId() {
+        return channel == null ? 0 : id;
+    }
+
+    /**
+     * @return the CRC32 of the last value appended
+     */
+    int getChecksum() {
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * @return the number of bytes written in the sidecar
+     */
+    long size() {
+        return position;
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putLong(id);
+        header.flip();
+        while (header.hasRemaining())
+            channel.write(header);
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * Append a value: the given head (already read) followed by the rest of the stream.
+     *
+     * @param head       the first bytes of the value
+     * @param headLength the number of bytes in the head
+     * @param input      the rest of the value
+     * @return the offset of the value in the sidecar
+     * @throws IOException if the value cannot be written
+     */
+    long append(final byte[] head, final int headLength, final InputStream input) throws IOException {
+        if (channel == null)
+            open();
+        checksum.reset();
+        final long offset = position;
+        write(ByteBuffer.wrap(head, 0, headLength));
+        final byte[] buffer = chunk.array();
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            chunk.clear();
+            chunk.limit(read);
+            write(chunk);
+        }
+        return offset;
+    }
+
+    /**
+     * Open a stream appending a value. The value starts at the size of the sidecar once the stream is opened,
+     * the stream must be closed before appending the next value.
+     *
+     * @return the stream
+     * @throws IOException if the sidecar cannot be created
+     */
+    OutputStream append() throws IOException {
+        if (channel == null)
+            open();
+        checksum.reset();
+        chunk.clear();
+        return new Appender();
+    }
+
+    private void write(final ByteBuffer buffer) throws IOException {
+        checksum.update(buffer.duplicate());
+        while (buffer.hasRemaining())
+            position += channel.write(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null)
+            channel.close();
+    }
+
+    /**
+     * Buffers the bytes in the chunk, closing the stream does not close the sidecar
+     */
+    private class Appender extends OutputStream {
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (!chunk.hasRemaining())
+                flush();
+            chunk.put((byte) b);
+        }
+
+        @Override
+        public void write(final byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!chunk.hasRemaining())
+                    flush();
+                final int size = Math.min(len, chunk.remaining());
+                chunk.put(b, off, size);
+                off += size;
+                len -= size;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            chunk.flip();
+            BlobSidecar.this.write(chunk);
+            chunk.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * The sidecar opened by a reader
+     */
+    final static class Source implements Closeable {
+
+        private final FileChannel channel;
+        private final long id;
+
+        private Source(final FileChannel channel, final long id) {
+            this.channel = channel;
+            this.id = id;
+        }
+
+        /**
+         * @param entryPath the path of the entry
+         * @param id        the id of the sidecar given by the header of the entry, 0 if there is no sidecar
+         * @return the sidecar of the entry, or null if the entry has no sidecar
+         * @throws NoSuchFileException if the sidecar does not exist
+         * @throws IOException         if the sidecar cannot be read
+         */
+        static Source open(final Path entryPath, final long id) throws IOException {
+            if (id == 0)
+                return null;
+            final Path path = of(entryPath, id);
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (header.hasRemaining())
+                    if (channel.read(header) < 0)
+                        throw new CorruptEntryException("Truncated blob file: " + path);
+                header.flip();
+                if (header.getInt() != MAGIC || header.getLong() != id)
+                    throw new CorruptEntryException("Not the blob file of the entry: " + path);
+                return new Source(channel, id);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @param id       the id of the sidecar referenced by the entry
+         * @param offset   the offset of the value
+         * @param length   the length of the value
+         * @param checksum the CRC32 of the value
+         * @return the value
+         * @throws IOException if the sidecar does not match the entry
+         */
+        SpilledBlob blob(final long id, final long offset, final long length, final int checksum)
+                throws IOException {
+            if (id != this.id)
+                throw new IOException("The blob file does not match the entry");
+            return new SpilledBlob(channel, offset, length, checksum);
+        }
+
+        /**
+         * @param id       the id of the sidecar referenced by the entry
+         * @param offset   the offset of the UTF-8 encoded value
+         * @param length   the length of the value in bytes
+         * @param chars    the length of the value in characters
+         * @param checksum the CRC32 of the UTF-8 encoded value
+         * @return the value
+         * @throws IOException if the sidecar does not match the entry
+         */
+        SpilledClob clob(final long id, final long offset, final long length, final long chars,
+                final int checksum) throws IOException {
+            return new SpilledClob(blob(id, offset, length, checksum), chars);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
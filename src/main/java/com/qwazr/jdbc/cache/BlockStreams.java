@@ -0,0 +1,336 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The I/O pipeline of the entry files. The small reads and writes of the DataInput/DataOutput
+ * are gathered in blocks of {@link #BLOCK_SIZE} bytes before going through the (de)compressor,
+ * which exchanges blocks of the same size with the FileChannel.
+ * The compressed body follows the {@link EntryHeader} of the file.
+ * <p>
+ * Each block is framed with its length and its CRC32, verified before any byte of the block is returned:
+ * a truncated or corrupted entry fails with a {@link CorruptEntryException}.
+ * <p>
+ * The block buffers are reused through a small per-thread pool: a buffer is taken when a stream is opened
+ * and given back when it is closed.
+ */
+final class BlockStreams {
+
+    final static int BLOCK_SIZE = 65536;
+
+    private final static int POOL_SIZE = 4;
+
+    private final static int FRAME_HEADER_SIZE = Integer.BYTES * 2;
+
+    private final static ThreadLocal<ArrayDeque<byte[]>> BUFFERS = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private static byte[] acquire() {
+        final byte[] buffer = BUFFERS.get().pollFirst();
+        return buffer == null ? new byte[BLOCK_SIZE] : buffer;
+    }
+
+    private static void release(final byte[] buffer) {
+        final ArrayDeque<byte[]> buffers = BUFFERS.get();
+        if (buffers.size() < POOL_SIZE)
+            buffers.addFirst(buffer);
+    }
+
+    private static void putInt(final byte[] b, final int off, final int value) {
+        b[off] = (byte) (value >>> 24);
+        b[off + 1] = (byte) (value >>> 16);
+        b[off + 2] = (byte) (value >>> 8);
+        b[off + 3] = (byte) value;
+    }
+
+    private static int getInt(final byte[] b, final int off) {
+        return (b[off] & 0xFF) << 24 | (b[off + 1] & 0xFF) << 16 | (b[off + 2] & 0xFF) << 8 | b[off + 3] & 0xFF;
+    }
+
+    /**
+     * @param channel the entry file, written from its current position.
+     *                The channel is not closed with the output, so the header can be written once the body is complete
+     * @return the output writing the compressed body
+     * @throws IOException if the compressed stream cannot be started
+     */
+    static DataOutputStream write(final FileChannel channel) throws IOException {
+        return new DataOutputStream(new BlockOutputStream(new GZIPOutputStream(new ChannelOutputStream(channel),
+                BLOCK_SIZE)));
+    }
+
+    /**
+     * @param channel the entry file, read from its current position. The channel is closed with the input.
+     * @return the input reading the decompressed body
+     * @throws CorruptEntryException if the first block is corrupt
+     * @throws IOException           if the body cannot be read
+     */
+    static InputStream read(final FileChannel channel) throws IOException {
+        final InputStream input;
+        try {
+            input = new GZIPInputStream(Channels.newInputStream(channel), BLOCK_SIZE);
+        } catch (ZipException | EOFException e) {
+            throw new CorruptEntryException("The compressed stream is corrupt: " + e.getMessage(), e);
+        }
+        final BlockInputStream blocks = new BlockInputStream(input);
+        try {
+            // The first block is verified when the entry is opened
+            blocks.fill();
+            return blocks;
+        } catch (IOException | RuntimeException e) {
+            blocks.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes in the channel, without closing it
+     */
+    private static class ChannelOutputStream extends OutputStream {
+
+        private final FileChannel channel;
+
+        private ChannelOutputStream(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+    }
+
+    private static class BlockOutputStream extends OutputStream {
+
+        private final OutputStream output;
+        private final CRC32 crc;
+        private final byte[] frame;
+        private byte[] buffer;
+        private int count;
+
+        private BlockOutputStream(final OutputStream output) {
+            this.output = output;
+            this.crc = new CRC32();
+            this.frame = new byte[FRAME_HEADER_SIZE];
+            this.buffer = acquire();
+            this.count = 0;
+        }
+
+        private void writeFrame(final byte[] b, final int off, final int len) throws IOException {
+            crc.reset();
+            crc.update(b, off, len);
+            putInt(frame, 0, len);
+            putInt(frame, Integer.BYTES, (int) crc.getValue());
+            output.write(frame, 0, FRAME_HEADER_SIZE);
+            output.write(b, off, len);
+        }
+
+        private void flushBlock() throws IOException {
+            if (count > 0) {
+                writeFrame(buffer, 0, count);
+                count = 0;
+            }
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (count == BLOCK_SIZE)
+                flushBlock();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, int off, int len) throws IOException {
+            if (len >= BLOCK_SIZE) {
+                // A large write is framed without copy
+                flushBlock();
+                while (len > 0) {
+                    final int size = Math.min(len, BLOCK_SIZE);
+                    writeFrame(b, off, size);
+                    off += size;
+                    len -= size;
+                }
+                return;
+            }
+            if (len > BLOCK_SIZE - count)
+                flushBlock();
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBlock();
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer == null)
+                return;
+            // The compressed stream is closed (its deflater released) even if the last block cannot be written
+            try (final OutputStream compressed = output) {
+                flushBlock();
+            } finally {
+                release(buffer);
+                buffer = null;
+            }
+        }
+    }
+
+    private static class BlockInputStream extends InputStream {
+
+        private final InputStream input;
+        private final CRC32 crc;
+        private final byte[] frame;
+        private byte[] buffer;
+        private int position;
+        private int limit;
+
+        private BlockInputStream(final InputStream input) {
+            this.input = input;
+            this.crc = new CRC32();
+            this.frame = new byte[FRAME_HEADER_SIZE];
+            this.buffer = acquire();
+            this.position = 0;
+            this.limit = 0;
+        }
+
+        /**
+         * @return the number of bytes read, less than the length at the end of the stream
+         */
+        private int readFully(final byte[] b, final int off, final int len) throws IOException {
+            int total = 0;
+            while (total < len) {
+                final int read = input.read(b, off + total, len - total);
+                if (read < 0)
+                    break;
+                total += read;
+            }
+            return total;
+        }
+
+        /**
+         * Read and verify the next frame
+         *
+         * @return the length of the block, or -1 at the end of the stream
+         */
+        private int readFrame(final byte[] b, final int off) throws IOException {
+            try {
+                final int header = readFully(frame, 0, FRAME_HEADER_SIZE);
+                if (header == 0)
+                    return -1;
+                if (header < FRAME_HEADER_SIZE)
+                    throw new CorruptEntryException("Truncated block header");
+                final int length = getInt(frame, 0);
+                if (length <= 0 || length > BLOCK_SIZE)
+                    throw new CorruptEntryException("Wrong block length: " + length);
+                if (readFully(b, off, length) < length)
+                    throw new CorruptEntryException("Truncated block");
+                crc.reset();
+                crc.update(b, off, length);
+                if ((int) crc.getValue() != getInt(frame, Integer.BYTES))
+                    throw new CorruptEntryException("Wrong block checksum");
+                return length;
+            } catch (ZipException | EOFException e) {
+                throw new CorruptEntryException("The compressed stream is corrupt: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * @return false at the end of the stream
+         */
+        private boolean fill() throws IOException {
+            final int read = readFrame(buffer, 0);
+            if (read < 0)
+                return false;
+            position = 0;
+            limit = read;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !fill())
+                return -1;
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (position == limit) {
+                // A large read bypasses the block
+                if (len >= BLOCK_SIZE)
+                    return readFrame(b, off);
+                if (!fill())
+                    return -1;
+            }
+            final int size = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, size);
+            position += size;
+            return size;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            if (n <= 0)
+                return 0;
+            if (position == limit && !fill())
+                return 0;
+            final int size = (int) Math.min(n, limit - position);
+            position += size;
+            return size;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer == null)
+                return;
+            try {
+                input.close();
+            } finally {
+                release(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks shared by every JVM using the same cache directory.
+ * Each key is mapped to a one byte region of a lock file. As a FileLock is held on behalf of the whole JVM,
+ * the region is also protected by a ReentrantLock for the threads of the current JVM.
+ */
+class CacheBuildLocks implements Closeable {
+
+    final static String FILENAME = ".locks";
+
+    private final static int STRIPES = 4096;
+
+    private final FileChannel channel;
+    private final ReentrantLock[] locks;
+
+    CacheBuildLocks(final Path cacheDirectory) throws IOException {
+        this.channel = FileChannel.open(cacheDirectory.resolve(FILENAME), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.locks = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            locks[i] = new ReentrantLock(true);
+    }
+
+    /**
+     * Acquire the lock for the given key, waiting for any other thread or process building the same stripe.
+     *
+     * @param key the key of the entry
+     * @return the acquired lock, which must be closed
+     * @throws IOException if the lock file cannot be locked
+     */
+    Lock lock(final String key) throws IOException {
+        final int stripe = stripe(key);
+        final ReentrantLock lock = locks[stripe];
+        lock.lock();
+        try {
+            return new Lock(lock, channel.lock(stripe, 1, false));
+        } catch (IOException | RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Acquire the lock for the given key if no other thread or process holds it.
+     *
+     * @param key the key of the entry
+     * @return the acquired lock, which must be closed, or null if the lock is held
+     * @throws IOException if the lock file cannot be locked
+     */
+    Lock tryLock(final String key) throws IOException {
+        final int stripe = stripe(key);
+        final ReentrantLock lock = locks[stripe];
+        if (!lock.tryLock())
+            return null;
+        try {
+            final FileLock fileLock = channel.tryLock(stripe, 1, false);
+            if (fileLock != null)
+                return new Lock(lock, fileLock);
+        } catch (OverlappingFileLockException e) {
+            // Held through another channel of this JVM
+        } catch (IOException | RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+        lock.unlock();
+        return null;
+    }
+
+    private static int stripe(final String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    final static class Lock implements Closeable {
+
+        private final ReentrantLock lock;
+        private final FileLock fileLock;
+
+        private Lock(final ReentrantLock lock, final FileLock fileLock) {
+            this.lock = lock;
+            this.fileLock = fileLock;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                fileLock.release();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
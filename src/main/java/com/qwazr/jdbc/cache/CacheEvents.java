@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+/**
+ * Flight Recorder events of the cache.
+ * The JFR API (jdk.jfr) is not available on every Java 8 runtime, this implementation does nothing.
+ * When the API is available, the JFR implementation (JfrCacheEvents) is used.
+ * The begin methods return the started event, or null if the event is not recorded,
+ * which must be given to the matching commit method.
+ */
+class CacheEvents {
+
+    final static CacheEvents INSTANCE = load();
+
+    private static CacheEvents load() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (CacheEvents) Class.forName(CacheEvents.class.getPackage().getName() + ".JfrCacheEvents")
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new CacheEvents();
+        }
+    }
+
+    /**
+     * The hash of the SQL normalized by QueryTemplateStatistics: the executions of a template share one hash
+     */
+    static int templateHash(final CachedStatement statement) {
+        final String sql = statement == null ? null : statement.executedSql;
+        return sql == null ? 0 : QueryTemplateStatistics.normalize(sql).hashCode();
+    }
+
+    Object beginGet() {
+        return null;
+    }
+
+    void commitGet(final Object event, final String key, final CachedStatement statement, final boolean hit,
+            final long rows, final long bytes) {
+    }
+
+    Object beginPopulate() {
+        return null;
+    }
+
+    void commitPopulate(final Object event, final String key, final CachedStatement statement, final long rows,
+            final long bytes, final boolean success) {
+    }
+
+    Object beginWrite() {
+        return null;
+    }
+
+    void commitWrite(final Object event, final int rows, final long bytes) {
+    }
+
+    Object beginFlush() {
+        return null;
+    }
+
+    void commitFlush(final Object event, final String key, final String tag, final long entries) {
+    }
+}
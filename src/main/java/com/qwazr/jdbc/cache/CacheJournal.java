@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Append-only journal shared by every JVM using the same cache directory.
+ * Each invalidation is appended as a fixed size record, a full flush starts a new epoch.
+ * A builder takes a mark before querying the backend and checks it before publishing its entry,
+ * so an invalidation issued by any process while the entry was built is never lost.
+ * Every access is done under an exclusive FileLock.
+ */
+class CacheJournal implements Closeable {
+
+    final static String FILENAME = ".journal";
+
+    private final static int MAGIC = 0x514A434A; // QJCJ
+    private final static int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    private final static byte INVALIDATE = 1;
+    private final static int KEY_SIZE = 32;
+    private final static int RECORD_SIZE = 1 + KEY_SIZE;
+    private final static long MAX_SIZE = HEADER_SIZE + RECORD_SIZE * 32768L;
+
+    private final Path journalPath;
+    private final FileChannel channel;
+
+    CacheJournal(final Path cacheDirectory) throws IOException {
+        this.journalPath = cacheDirectory.resolve(FILENAME);
+        this.channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * A position in the journal
+     */
+    final static class Mark {
+
+        private final long epoch;
+        private final long position;
+
+        private Mark(final long epoch, final long position) {
+            this.epoch = epoch;
+            this.position = position;
+        }
+    }
+
+    /**
+     * @return the current position of the journal
+     * @throws IOException if the journal cannot be read
+     */
+    synchronized Mark mark() throws IOException {
+        try (final FileLock ignored = channel.lock()) {
+            final long epoch = checkEpoch();
+            return new Mark(epoch, channel.size());
+        }
+    }
+
+    /**
+     * Record the invalidation of one entry
+     *
+     * @param key the key of the invalidated entry
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void invalidate(final String key) throws IOException {
+        try (final FileLock ignored = channel.lock()) {
+            checkEpoch();
+            final long size = channel.size();
+            // A partial record (crash during an append) or an oversized journal starts a new epoch
+            if ((size - HEADER_SIZE) % RECORD_SIZE != 0 || size >= MAX_SIZE) {
+                newEpoch();
+                return;
+            }
+            final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            record.put(INVALIDATE);
+            record.put(checkKey(key));
+            record.flip();
+            writeFully(record, size);
+        }
+    }
+
+    /**
+     * Record the invalidation of all the entries
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void invalidateAll() throws IOException {
+        try (final FileLock ignored = channel.lock()) {
+            newEpoch();
+        }
+    }
+
+    /**
+     * Execute the action if the entry has not been invalidated since the given mark.
+     * The journal stays locked during the execution of the action.
+     *
+     * @param mark   the mark taken before the entry was built
+     * @param key    the key of the entry
+     * @param action the action to run
+     * @return true if the action has been executed
+     * @throws IOException if the journal cannot be read, or if the action failed
+     */
+    synchronized boolean ifNotInvalidated(final Mark mark, final String key, final IOAction action)
+            throws IOException {
+        try (final FileLock ignored = channel.lock()) {
+            if (checkEpoch() != mark.epoch)
+                return false;
+            final long size = channel.size();
+            if (size < mark.position || (size - mark.position) % RECORD_SIZE != 0)
+                return false;
+            final byte[] keyBytes = checkKey(key);
+            final ByteBuffer records = ByteBuffer.allocate((int) (size - mark.position));
+            readFully(records, mark.position);
+            records.flip();
+            final byte[] recordKey = new byte[KEY_SIZE];
+            while (records.hasRemaining()) {
+                records.get();
+                records.get(recordKey);
+                if (Arrays.equals(keyBytes, recordKey))
+                    return false;
+            }
+            action.run();
+            return true;
+        }
+    }
+
+    interface IOAction {
+        void run() throws IOException;
+    }
+
+    private static byte[] checkKey(final String key) {
+        final byte[] bytes = key.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length != KEY_SIZE)
+            throw new IllegalArgumentException("Unexpected key: " + key);
+        return bytes;
+    }
+
+    /**
+     * Read the current epoch, the header is created if the journal is empty or not valid.
+     */
+    private long checkEpoch() throws IOException {
+        if (channel.size() >= HEADER_SIZE) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            header.flip();
+            if (header.getInt() == MAGIC)
+                return header.getLong();
+        }
+        return newEpoch();
+    }
+
+    private long newEpoch() throws IOException {
+        final long epoch = ThreadLocalRandom.current().nextLong();
+        channel.truncate(0);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putLong(epoch);
+        header.flip();
+        writeFully(header, 0);
+        return epoch;
+    }
+
+    private void readFully(final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new IOException("Unexpected end of the journal: " + journalPath);
+            position += read;
+        }
+    }
+
+    private void writeFully(final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
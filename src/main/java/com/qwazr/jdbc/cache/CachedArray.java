@@ -0,0 +1,233 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Array;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A cached SQL ARRAY. The elements are written with a type tag, the unknown types are written as strings.
+ */
+class CachedArray implements Array {
+
+    private final static byte NULL = 0;
+    private final static byte STRING = 1;
+    private final static byte INTEGER = 2;
+    private final static byte LONG = 3;
+    private final static byte DOUBLE = 4;
+    private final static byte FLOAT = 5;
+    private final static byte SHORT = 6;
+    private final static byte BYTE = 7;
+    private final static byte BOOLEAN = 8;
+    private final static byte DECIMAL = 9;
+    private final static byte BYTES = 10;
+    private final static byte DATE = 11;
+    private final static byte TIME = 12;
+    private final static byte TIMESTAMP = 13;
+
+    private final int baseType;
+    private final String baseTypeName;
+    private final Object[] elements;
+
+    CachedArray(final int baseType, final String baseTypeName, final Object[] elements) {
+        this.baseType = baseType;
+        this.baseTypeName = baseTypeName;
+        this.elements = elements;
+    }
+
+    static void write(final Array array, final DataOutputStream output) throws SQLException, IOException {
+        output.writeInt(array.getBaseType());
+        // Some drivers do not name the base type
+        final String baseTypeName = array.getBaseTypeName();
+        output.writeBoolean(baseTypeName != null);
+        if (baseTypeName != null)
+            output.writeUTF(baseTypeName);
+        final Object elements = array.getArray();
+        final int length = java.lang.reflect.Array.getLength(elements);
+        output.writeInt(length);
+        for (int i = 0; i < length; i++)
+            writeElement(java.lang.reflect.Array.get(elements, i), output);
+    }
+
+    private static void writeElement(final Object value, final DataOutputStream output) throws IOException {
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof String) {
+            output.writeByte(STRING);
+            ResultSetWriter.writeText((String) value, output);
+        } else if (value instanceof Integer) {
+            output.writeByte(INTEGER);
+            output.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            output.writeByte(LONG);
+            output.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            output.writeByte(FLOAT);
+            output.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            output.writeByte(SHORT);
+            output.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            output.writeByte(BYTE);
+            output.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            output.writeByte(BOOLEAN);
+            output.writeBoolean((Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            output.writeByte(DECIMAL);
+            ResultSetWriter.writeDecimal((BigDecimal) value, output);
+        } else if (value instanceof byte[]) {
+            output.writeByte(BYTES);
+            output.writeInt(((byte[]) value).length);
+            output.write((byte[]) value);
+        } else if (value instanceof Date) {
+            output.writeByte(DATE);
+            output.writeLong(((Date) value).getTime());
+        } else if (value instanceof Time) {
+            output.writeByte(TIME);
+            output.writeLong(((Time) value).getTime());
+        } else if (value instanceof Timestamp) {
+            output.writeByte(TIMESTAMP);
+            output.writeLong(((Timestamp) value).getTime());
+        } else {
+            output.writeByte(STRING);
+            ResultSetWriter.writeText(value.toString(), output);
+        }
+    }
+
+    static CachedArray read(final DataInputStream input) throws IOException {
+        final int baseType = input.readInt();
+        final String baseTypeName = input.readBoolean() ? input.readUTF() : null;
+        final Object[] elements = new Object[input.readInt()];
+        for (int i = 0; i < elements.length; i++)
+            elements[i] = readElement(input);
+        return new CachedArray(baseType, baseTypeName, elements);
+    }
+
+    private static Object readElement(final DataInputStream input) throws IOException {
+        final byte tag = input.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case STRING:
+            return ResultSetWriter.readText(input);
+        case INTEGER:
+            return input.readInt();
+        case LONG:
+            return input.readLong();
+        case DOUBLE:
+            return input.readDouble();
+        case FLOAT:
+            return input.readFloat();
+        case SHORT:
+            return input.readShort();
+        case BYTE:
+            return input.readByte();
+        case BOOLEAN:
+            return input.readBoolean();
+        case DECIMAL:
+            return ResultSetWriter.readDecimal(input);
+        case BYTES:
+            final byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            return bytes;
+        case DATE:
+            return new Date(input.readLong());
+        case TIME:
+            return new Time(input.readLong());
+        case TIMESTAMP:
+            return new Timestamp(input.readLong());
+        default:
+            throw new IOException("Unknown array element type: " + tag);
+        }
+    }
+
+    @Override
+    public String getBaseTypeName() throws SQLException {
+        return baseTypeName;
+    }
+
+    @Override
+    public int getBaseType() throws SQLException {
+        return baseType;
+    }
+
+    @Override
+    public Object getArray() throws SQLException {
+        return elements.clone();
+    }
+
+    @Override
+    public Object getArray(final Map<String, Class<?>> map) throws SQLException {
+        return getArray();
+    }
+
+    @Override
+    public Object getArray(final long index, final int count) throws SQLException {
+        if (index < 1 || count < 0 || index - 1 + count > elements.length)
+            throw new SQLException("Out of the array bounds: " + index + " / " + count);
+        return Arrays.copyOfRange(elements, (int) index - 1, (int) index - 1 + count);
+    }
+
+    @Override
+    public Object getArray(final long index, final int count, final Map<String, Class<?>> map) throws SQLException {
+        return getArray(index, count);
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public ResultSet getResultSet(final Map<String, Class<?>> map) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public ResultSet getResultSet(final long index, final int count) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public ResultSet getResultSet(final long index, final int count, final Map<String, Class<?>> map)
+            throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void free() throws SQLException {
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(elements);
+    }
+}
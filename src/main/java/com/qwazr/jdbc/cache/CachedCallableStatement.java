@@ -15,6 +15,7 @@
  */
 package com.qwazr.jdbc.cache;
 
+import javax.sql.rowset.CachedRowSet;
 import java.io.InputStream;
 import java.io.Reader;
 import java.math.BigDecimal;
@@ -26,19 +27,31 @@ import java.sql.Clob;
 import java.sql.Date;
 import java.sql.NClob;
 import java.sql.Ref;
+import java.sql.ResultSet;
 import java.sql.RowId;
 import java.sql.SQLException;
 import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 class CachedCallableStatement extends CachedPreparedStatement<CallableStatement> implements CallableStatement {
 
+    private final static Pattern PROCEDURE = Pattern.compile("^\\s*\\{?\\s*(?:\\?\\s*=\\s*)?call\\s+([^\\s(}]+)",
+            Pattern.CASE_INSENSITIVE);
+
     private final SortedMap<String, Object> namedParameters;
+    private final SortedMap<Integer, Integer> outIndexes;
+    private final SortedMap<String, Integer> outNames;
 
     CachedCallableStatement(final CachedConnection connection, final ResultSetCache resultSetCache,
             final CallableStatement backendStatement, final String sql, final int resultSetConcurrency,
@@ -46,6 +59,8 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
         super(connection, resultSetCache, backendStatement, sql, resultSetConcurrency, resultSetType,
                 resultSetHoldability);
         this.namedParameters = new TreeMap<>();
+        this.outIndexes = new TreeMap<>();
+        this.outNames = new TreeMap<>();
     }
 
     CachedCallableStatement(final CachedConnection connection, final ResultSetCache resultSetCache,
@@ -53,23 +68,131 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
         this(connection, resultSetCache, backendStatement, sql, 0, 0, 0);
     }
 
+    @Override
+    StringBuilder keySource() {
+        final StringBuilder sb = super.keySource();
+        namedParameters.forEach((name, value) -> {
+            sb.append('•');
+            sb.append(name);
+            sb.append('=');
+            sb.append(value.toString());
+        });
+        return sb;
+    }
+
+    /**
+     * The key of a results entry also contains the registered OUT parameters
+     */
+    private void generateResultsKey() throws SQLException {
+        final StringBuilder sb = keySource();
+        sb.append("•OUT");
+        outIndexes.forEach((index, sqlType) -> sb.append('•').append(index).append(':').append(sqlType));
+        outNames.forEach((name, sqlType) -> sb.append('•').append(name).append(':').append(sqlType));
+        generatedKey = generateCacheKey(sb.toString());
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+        if (!isCacheCallable())
+            return super.executeQuery();
+        if (!execute())
+            throw new SQLException("The call did not return a ResultSet");
+        return getResultSet();
+    }
+
+    @Override
+    public boolean execute() throws SQLException {
+        final boolean hasOutParameters = !outIndexes.isEmpty() || !outNames.isEmpty();
+        if (!isCacheCallable()) {
+            if (!hasOutParameters)
+                return super.execute();
+            // Without cache.callable the OUT parameters are read from the backend
+            closeResults();
+            return checkBackendStatement().execute();
+        }
+        generateResultsKey();
+        return executeResults(generatedKey, backendStatement == null ?
+                null :
+                new CachedResults.Capture(this, backendStatement, false, backendStatement::execute,
+                        hasOutParameters ? this::captureOutParameters : null, getAdmissionPolicy(),
+                        callableTags()));
+    }
+
+    /**
+     * The tables read by the procedure are not known, they are given by the cache.callable.tags properties
+     *
+     * @return the tags of the called procedure
+     */
+    private Set<String> callableTags() {
+        final Matcher matcher = executedSql == null ? null : PROCEDURE.matcher(executedSql);
+        return matcher != null && matcher.find() ?
+                getCallableTags(ResultSetCacheImpl.normalizeTag(matcher.group(1))) :
+                Collections.emptySet();
+    }
+
+    /**
+     * @return the OUT parameters of the backend statement as a ResultSet of one row
+     */
+    private ResultSet captureOutParameters() throws SQLException {
+        final List<String> labels = new ArrayList<>();
+        final List<Integer> types = new ArrayList<>();
+        final List<Object> values = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : outIndexes.entrySet()) {
+            labels.add(outLabel(entry.getKey()));
+            types.add(entry.getValue());
+            values.add(backendStatement.getObject(entry.getKey()));
+        }
+        for (Map.Entry<String, Integer> entry : outNames.entrySet()) {
+            labels.add(entry.getKey());
+            types.add(entry.getValue());
+            values.add(backendStatement.getObject(entry.getKey()));
+        }
+        final CachedRowSet rowSet = CachedResults.newRowSet(labels.toArray(new String[labels.size()]),
+                types.stream().mapToInt(Integer::intValue).toArray());
+        CachedResults.insert(rowSet, values.toArray());
+        rowSet.beforeFirst();
+        return rowSet;
+    }
+
+    private static String outLabel(final int parameterIndex) {
+        return Integer.toString(parameterIndex);
+    }
+
+    /**
+     * @return the cached OUT parameters of the last execution, or null if they are read from the backend
+     */
+    private ResultSet outParameters() throws SQLException {
+        final CachedResults r = results;
+        return r == null ? null : r.getOutParameters();
+    }
+
     @Override
     public void registerOutParameter(int parameterIndex, int sqlType) throws SQLException {
-        checkBackendStatement().registerOutParameter(parameterIndex, sqlType);
+        if (backendStatement != null)
+            backendStatement.registerOutParameter(parameterIndex, sqlType);
+        outIndexes.put(parameterIndex, sqlType);
     }
 
     @Override
     public void registerOutParameter(int parameterIndex, int sqlType, int scale) throws SQLException {
-        checkBackendStatement().registerOutParameter(parameterIndex, sqlType, scale);
+        if (backendStatement != null)
+            backendStatement.registerOutParameter(parameterIndex, sqlType, scale);
+        outIndexes.put(parameterIndex, sqlType);
     }
 
     @Override
     public boolean wasNull() throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.wasNull();
         return checkBackendStatement().wasNull();
     }
 
     @Override
     public String getString(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getString(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getString(parameterIndex);
         else
@@ -78,6 +201,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public boolean getBoolean(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getBoolean(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getBoolean(parameterIndex);
         else
@@ -86,6 +212,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public byte getByte(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getByte(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getByte(parameterIndex);
         else
@@ -94,6 +223,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public short getShort(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getShort(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getShort(parameterIndex);
         else
@@ -102,6 +234,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public int getInt(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getInt(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getInt(parameterIndex);
         else
@@ -110,6 +245,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public long getLong(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getLong(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getLong(parameterIndex);
         else
@@ -118,6 +256,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public float getFloat(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getFloat(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getFloat(parameterIndex);
         else
@@ -126,6 +267,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public double getDouble(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getDouble(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getDouble(parameterIndex);
         else
@@ -135,6 +279,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
     @Override
     @Deprecated
     public BigDecimal getBigDecimal(int parameterIndex, int scale) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getBigDecimal(outLabel(parameterIndex), scale);
         if (backendStatement != null)
             return backendStatement.getBigDecimal(parameterIndex, scale);
         else
@@ -143,6 +290,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public byte[] getBytes(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getBytes(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getBytes(parameterIndex);
         else
@@ -151,6 +301,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Date getDate(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getDate(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getDate(parameterIndex);
         else
@@ -159,6 +312,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Time getTime(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getTime(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getTime(parameterIndex);
         else
@@ -167,6 +323,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Timestamp getTimestamp(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getTimestamp(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getTimestamp(parameterIndex);
         else
@@ -175,6 +334,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Object getObject(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getObject(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getObject(parameterIndex);
         else
@@ -183,6 +345,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public BigDecimal getBigDecimal(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getBigDecimal(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getBigDecimal(parameterIndex);
         else
@@ -191,6 +356,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Object getObject(int parameterIndex, Map<String, Class<?>> map) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getObject(outLabel(parameterIndex), map);
         if (backendStatement != null)
             return backendStatement.getObject(parameterIndex, map);
         else
@@ -199,6 +367,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Ref getRef(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getRef(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getRef(parameterIndex);
         else
@@ -207,6 +378,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Blob getBlob(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getBlob(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getBlob(parameterIndex);
         else
@@ -215,6 +389,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Clob getClob(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getClob(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getClob(parameterIndex);
         else
@@ -223,6 +400,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Array getArray(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getArray(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getArray(parameterIndex);
         else
@@ -231,14 +411,20 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Date getDate(int parameterIndex, Calendar cal) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getDate(outLabel(parameterIndex), cal);
         if (backendStatement != null)
-            return backendStatement.getDate(parameterIndex);
+            return backendStatement.getDate(parameterIndex, cal);
         else
             return (Date) parameters.get(parameterIndex);
     }
 
     @Override
     public Time getTime(int parameterIndex, Calendar cal) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getTime(outLabel(parameterIndex), cal);
         if (backendStatement != null)
             return backendStatement.getTime(parameterIndex, cal);
         else
@@ -247,6 +433,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Timestamp getTimestamp(int parameterIndex, Calendar cal) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getTimestamp(outLabel(parameterIndex), cal);
         if (backendStatement != null)
             return backendStatement.getTimestamp(parameterIndex, cal);
         else
@@ -257,28 +446,35 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
     public void registerOutParameter(int parameterIndex, int sqlType, String typeName) throws SQLException {
         if (backendStatement != null)
             backendStatement.registerOutParameter(parameterIndex, sqlType, typeName);
+        outIndexes.put(parameterIndex, sqlType);
     }
 
     @Override
     public void registerOutParameter(String parameterName, int sqlType) throws SQLException {
         if (backendStatement != null)
             backendStatement.registerOutParameter(parameterName, sqlType);
+        outNames.put(parameterName, sqlType);
     }
 
     @Override
     public void registerOutParameter(String parameterName, int sqlType, int scale) throws SQLException {
         if (backendStatement != null)
             backendStatement.registerOutParameter(parameterName, sqlType, scale);
+        outNames.put(parameterName, sqlType);
     }
 
     @Override
     public void registerOutParameter(String parameterName, int sqlType, String typeName) throws SQLException {
         if (backendStatement != null)
             backendStatement.registerOutParameter(parameterName, sqlType, typeName);
+        outNames.put(parameterName, sqlType);
     }
 
     @Override
     public URL getURL(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getURL(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getURL(parameterIndex);
         else
@@ -456,6 +652,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public String getString(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getString(parameterName);
         if (backendStatement != null)
             return backendStatement.getString(parameterName);
         else
@@ -464,6 +663,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public boolean getBoolean(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getBoolean(parameterName);
         if (backendStatement != null)
             return backendStatement.getBoolean(parameterName);
         else
@@ -472,6 +674,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public byte getByte(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getByte(parameterName);
         if (backendStatement != null)
             return backendStatement.getByte(parameterName);
         else
@@ -480,6 +685,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public short getShort(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getShort(parameterName);
         if (backendStatement != null)
             return backendStatement.getShort(parameterName);
         else
@@ -488,6 +696,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public int getInt(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getInt(parameterName);
         if (backendStatement != null)
             return backendStatement.getInt(parameterName);
         else
@@ -496,6 +707,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public long getLong(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getLong(parameterName);
         if (backendStatement != null)
             return backendStatement.getLong(parameterName);
         else
@@ -504,6 +718,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public float getFloat(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getFloat(parameterName);
         if (backendStatement != null)
             return backendStatement.getFloat(parameterName);
         else
@@ -512,6 +729,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public double getDouble(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getDouble(parameterName);
         if (backendStatement != null)
             return backendStatement.getDouble(parameterName);
         else
@@ -520,6 +740,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public byte[] getBytes(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getBytes(parameterName);
         if (backendStatement != null)
             return backendStatement.getBytes(parameterName);
         else
@@ -528,6 +751,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Date getDate(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getDate(parameterName);
         if (backendStatement != null)
             return backendStatement.getDate(parameterName);
         else
@@ -536,6 +762,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Time getTime(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getTime(parameterName);
         if (backendStatement != null)
             return backendStatement.getTime(parameterName);
         else
@@ -544,6 +773,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Timestamp getTimestamp(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getTimestamp(parameterName);
         if (backendStatement != null)
             return backendStatement.getTimestamp(parameterName);
         else
@@ -552,6 +784,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Object getObject(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getObject(parameterName);
         if (backendStatement != null)
             return backendStatement.getObject(parameterName);
         else
@@ -560,6 +795,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public BigDecimal getBigDecimal(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getBigDecimal(parameterName);
         if (backendStatement != null)
             return backendStatement.getBigDecimal(parameterName);
         else
@@ -568,6 +806,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Object getObject(String parameterName, Map<String, Class<?>> map) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getObject(parameterName, map);
         if (backendStatement != null)
             return backendStatement.getObject(parameterName, map);
         else
@@ -576,6 +817,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Ref getRef(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getRef(parameterName);
         if (backendStatement != null)
             return backendStatement.getRef(parameterName);
         else
@@ -584,6 +828,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Blob getBlob(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getBlob(parameterName);
         if (backendStatement != null)
             return backendStatement.getBlob(parameterName);
         else
@@ -592,6 +839,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Clob getClob(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getClob(parameterName);
         if (backendStatement != null)
             return backendStatement.getClob(parameterName);
         else
@@ -600,6 +850,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Array getArray(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getArray(parameterName);
         if (backendStatement != null)
             return backendStatement.getArray(parameterName);
         else
@@ -608,22 +861,31 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Date getDate(String parameterName, Calendar cal) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getDate(parameterName, cal);
         if (backendStatement != null)
-            return backendStatement.getDate(parameterName);
+            return backendStatement.getDate(parameterName, cal);
         else
             return (Date) namedParameters.get(parameterName);
     }
 
     @Override
     public Time getTime(String parameterName, Calendar cal) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getTime(parameterName, cal);
         if (backendStatement != null)
-            return backendStatement.getTime(parameterName);
+            return backendStatement.getTime(parameterName, cal);
         else
             return (Time) namedParameters.get(parameterName);
     }
 
     @Override
     public Timestamp getTimestamp(String parameterName, Calendar cal) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getTimestamp(parameterName, cal);
         if (backendStatement != null)
             return backendStatement.getTimestamp(parameterName, cal);
         else
@@ -632,6 +894,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public URL getURL(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getURL(parameterName);
         if (backendStatement != null)
             return backendStatement.getURL(parameterName);
         else
@@ -640,6 +905,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public RowId getRowId(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getRowId(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getRowId(parameterIndex);
         else
@@ -648,6 +916,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public RowId getRowId(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getRowId(parameterName);
         if (backendStatement != null)
             return backendStatement.getRowId(parameterName);
         else
@@ -696,6 +967,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public NClob getNClob(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getNClob(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getNClob(parameterIndex);
         else
@@ -704,6 +978,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public NClob getNClob(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getNClob(parameterName);
         if (backendStatement != null)
             return backendStatement.getNClob(parameterName);
         else
@@ -717,6 +994,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public SQLXML getSQLXML(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getSQLXML(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getSQLXML(parameterIndex);
         else
@@ -725,6 +1005,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public SQLXML getSQLXML(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getSQLXML(parameterName);
         if (backendStatement != null)
             return backendStatement.getSQLXML(parameterName);
         else
@@ -733,6 +1016,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public String getNString(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getNString(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getNString(parameterIndex);
         else
@@ -741,6 +1027,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public String getNString(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getNString(parameterName);
         if (backendStatement != null)
             return backendStatement.getNString(parameterName);
         else
@@ -749,6 +1038,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Reader getNCharacterStream(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getNCharacterStream(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getNCharacterStream(parameterIndex);
         else
@@ -757,6 +1049,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Reader getNCharacterStream(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getNCharacterStream(parameterName);
         if (backendStatement != null)
             return backendStatement.getNCharacterStream(parameterName);
         else
@@ -765,6 +1060,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Reader getCharacterStream(int parameterIndex) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getCharacterStream(outLabel(parameterIndex));
         if (backendStatement != null)
             return backendStatement.getCharacterStream(parameterIndex);
         else
@@ -773,6 +1071,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public Reader getCharacterStream(String parameterName) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getCharacterStream(parameterName);
         if (backendStatement != null)
             return backendStatement.getCharacterStream(parameterName);
         else
@@ -841,6 +1142,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public <T> T getObject(int parameterIndex, Class<T> type) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getObject(outLabel(parameterIndex), type);
         if (backendStatement != null)
             return backendStatement.getObject(parameterIndex, type);
         else
@@ -849,6 +1153,9 @@ class CachedCallableStatement extends CachedPreparedStatement<CallableStatement>
 
     @Override
     public <T> T getObject(String parameterName, Class<T> type) throws SQLException {
+        final ResultSet out = outParameters();
+        if (out != null)
+            return out.getObject(parameterName, type);
         if (backendStatement != null)
             return backendStatement.getObject(parameterName, type);
         else
@@ -31,8 +31,10 @@ import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Executor;
 
 class CachedConnection implements Connection {
@@ -49,10 +51,18 @@ class CachedConnection implements Connection {
 
     private final Connection connection;
     private final ResultSetCache resultSetCache;
+    private final AdmissionPolicy admissionPolicy;
+    private final boolean cacheCallable;
+    private final Map<String, Set<String>> callableTags;
 
-    CachedConnection(final Connection backendConnection, final ResultSetCache resultSetCache) throws SQLException {
+    CachedConnection(final Connection backendConnection, final ResultSetCache resultSetCache,
+            final AdmissionPolicy admissionPolicy, final boolean cacheCallable,
+            final Map<String, Set<String>> callableTags) throws SQLException {
         this.connection = backendConnection;
         this.resultSetCache = resultSetCache;
+        this.admissionPolicy = admissionPolicy;
+        this.cacheCallable = cacheCallable;
+        this.callableTags = callableTags;
         this.autocommit = false;
         this.closed = false;
         this.readOnly = false;
@@ -64,10 +74,38 @@ class CachedConnection implements Connection {
         this.schema = null;
     }
 
+    CachedConnection(final Connection backendConnection, final ResultSetCache resultSetCache)
+            throws SQLException {
+        this(backendConnection, resultSetCache, null, false, Collections.emptyMap());
+    }
+
     ResultSetCache getResultSetCache() {
         return resultSetCache;
     }
 
+    /**
+     * @return the admission policy of the new entries, or null if every entry is admitted
+     */
+    AdmissionPolicy getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    /**
+     * @return true if the executions of the CallableStatements (results and OUT parameters) are cached
+     */
+    boolean isCacheCallable() {
+        return cacheCallable;
+    }
+
+    /**
+     * @param procedure the normalized name of a procedure
+     * @return the tags of the calls of the procedure, given by the cache.callable.tags properties
+     */
+    Set<String> getCallableTags(final String procedure) {
+        final Set<String> tags = procedure == null ? null : callableTags.get(procedure);
+        return tags == null ? Collections.emptySet() : tags;
+    }
+
     @Override
     public Statement createStatement() throws SQLException {
         final Statement statement = connection == null ? null : connection.createStatement();
@@ -136,10 +174,12 @@ class CachedConnection implements Connection {
 
     @Override
     public DatabaseMetaData getMetaData() throws SQLException {
-        if (connection != null)
-            return connection.getMetaData();
-        else
-            throw new SQLFeatureNotSupportedException();
+        final DatabaseMetaData metaData = connection == null ? null : connection.getMetaData();
+        if (resultSetCache != null)
+            return new CachedDatabaseMetaData(this, resultSetCache, metaData);
+        if (metaData != null)
+            return metaData;
+        throw new SQLFeatureNotSupportedException();
     }
 
     @Override
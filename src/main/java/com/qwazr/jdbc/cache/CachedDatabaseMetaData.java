@@ -0,0 +1,1023 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.RowIdLifetime;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Arrays;
+
+/**
+ * The DatabaseMetaData of a cached connection. The methods returning a ResultSet (getTables, getColumns,
+ * getPrimaryKeys, getIndexInfo...) are cached in the ResultSetCache of the connection,
+ * the key being built from the name of the method and its arguments. The other methods are delegated to the backend.
+ * <p>
+ * Without backend connection, only the cached ResultSets are available.
+ */
+class CachedDatabaseMetaData implements DatabaseMetaData {
+
+    private final static String KEY_PREFIX = "DatabaseMetaData.";
+
+    private final CachedConnection connection;
+    private final ResultSetCache resultSetCache;
+    private final DatabaseMetaData backend;
+
+    CachedDatabaseMetaData(final CachedConnection connection, final ResultSetCache resultSetCache,
+            final DatabaseMetaData backend) {
+        this.connection = connection;
+        this.resultSetCache = resultSetCache;
+        this.backend = backend;
+    }
+
+    private DatabaseMetaData checkBackend() throws SQLException {
+        if (backend != null)
+            return backend;
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    /**
+     * Each string is prefixed by its length, so the key of two different argument lists is never the same
+     * (e.g. a pattern containing a quote or a comma).
+     *
+     * @param method the name of the method
+     * @param args   the arguments of the method
+     * @return the key of the ResultSet
+     */
+    static String generateKey(final String method, final Object... args) throws SQLException {
+        final StringBuilder sb = new StringBuilder(KEY_PREFIX).append(method).append('(');
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            appendArgument(sb, args[i]);
+        }
+        return CachedStatement.generateCacheKey(sb.append(')').toString());
+    }
+
+    private static void appendArgument(final StringBuilder sb, final Object arg) {
+        if (arg instanceof String) {
+            final String value = (String) arg;
+            sb.append(value.length()).append(':').append(value);
+        } else if (arg instanceof String[]) {
+            sb.append('[');
+            final String[] values = (String[]) arg;
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0)
+                    sb.append(", ");
+                appendArgument(sb, values[i]);
+            }
+            sb.append(']');
+        } else if (arg instanceof int[])
+            sb.append(Arrays.toString((int[]) arg));
+        else
+            sb.append(arg);
+    }
+
+    private ResultSet get(final String method, final ResultSetCache.Provider provider, final Object... args)
+            throws SQLException {
+        return resultSetCache.get(null, generateKey(method, args), backend == null ? null : provider);
+    }
+
+    @Override
+    public boolean allProceduresAreCallable() throws SQLException {
+        return checkBackend().allProceduresAreCallable();
+    }
+
+    @Override
+    public boolean allTablesAreSelectable() throws SQLException {
+        return checkBackend().allTablesAreSelectable();
+    }
+
+    @Override
+    public String getURL() throws SQLException {
+        return checkBackend().getURL();
+    }
+
+    @Override
+    public String getUserName() throws SQLException {
+        return checkBackend().getUserName();
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        return checkBackend().isReadOnly();
+    }
+
+    @Override
+    public boolean nullsAreSortedHigh() throws SQLException {
+        return checkBackend().nullsAreSortedHigh();
+    }
+
+    @Override
+    public boolean nullsAreSortedLow() throws SQLException {
+        return checkBackend().nullsAreSortedLow();
+    }
+
+    @Override
+    public boolean nullsAreSortedAtStart() throws SQLException {
+        return checkBackend().nullsAreSortedAtStart();
+    }
+
+    @Override
+    public boolean nullsAreSortedAtEnd() throws SQLException {
+        return checkBackend().nullsAreSortedAtEnd();
+    }
+
+    @Override
+    public String getDatabaseProductName() throws SQLException {
+        return checkBackend().getDatabaseProductName();
+    }
+
+    @Override
+    public String getDatabaseProductVersion() throws SQLException {
+        return checkBackend().getDatabaseProductVersion();
+    }
+
+    @Override
+    public String getDriverName() throws SQLException {
+        return checkBackend().getDriverName();
+    }
+
+    @Override
+    public String getDriverVersion() throws SQLException {
+        return checkBackend().getDriverVersion();
+    }
+
+    @Override
+    public int getDriverMajorVersion() {
+        return backend == null ? 0 : backend.getDriverMajorVersion();
+    }
+
+    @Override
+    public int getDriverMinorVersion() {
+        return backend == null ? 0 : backend.getDriverMinorVersion();
+    }
+
+    @Override
+    public boolean usesLocalFiles() throws SQLException {
+        return checkBackend().usesLocalFiles();
+    }
+
+    @Override
+    public boolean usesLocalFilePerTable() throws SQLException {
+        return checkBackend().usesLocalFilePerTable();
+    }
+
+    @Override
+    public boolean supportsMixedCaseIdentifiers() throws SQLException {
+        return checkBackend().supportsMixedCaseIdentifiers();
+    }
+
+    @Override
+    public boolean storesUpperCaseIdentifiers() throws SQLException {
+        return checkBackend().storesUpperCaseIdentifiers();
+    }
+
+    @Override
+    public boolean storesLowerCaseIdentifiers() throws SQLException {
+        return checkBackend().storesLowerCaseIdentifiers();
+    }
+
+    @Override
+    public boolean storesMixedCaseIdentifiers() throws SQLException {
+        return checkBackend().storesMixedCaseIdentifiers();
+    }
+
+    @Override
+    public boolean supportsMixedCaseQuotedIdentifiers() throws SQLException {
+        return checkBackend().supportsMixedCaseQuotedIdentifiers();
+    }
+
+    @Override
+    public boolean storesUpperCaseQuotedIdentifiers() throws SQLException {
+        return checkBackend().storesUpperCaseQuotedIdentifiers();
+    }
+
+    @Override
+    public boolean storesLowerCaseQuotedIdentifiers() throws SQLException {
+        return checkBackend().storesLowerCaseQuotedIdentifiers();
+    }
+
+    @Override
+    public boolean storesMixedCaseQuotedIdentifiers() throws SQLException {
+        return checkBackend().storesMixedCaseQuotedIdentifiers();
+    }
+
+    @Override
+    public String getIdentifierQuoteString() throws SQLException {
+        return checkBackend().getIdentifierQuoteString();
+    }
+
+    @Override
+    public String getSQLKeywords() throws SQLException {
+        return checkBackend().getSQLKeywords();
+    }
+
+    @Override
+    public String getNumericFunctions() throws SQLException {
+        return checkBackend().getNumericFunctions();
+    }
+
+    @Override
+    public String getStringFunctions() throws SQLException {
+        return checkBackend().getStringFunctions();
+    }
+
+    @Override
+    public String getSystemFunctions() throws SQLException {
+        return checkBackend().getSystemFunctions();
+    }
+
+    @Override
+    public String getTimeDateFunctions() throws SQLException {
+        return checkBackend().getTimeDateFunctions();
+    }
+
+    @Override
+    public String getSearchStringEscape() throws SQLException {
+        return checkBackend().getSearchStringEscape();
+    }
+
+    @Override
+    public String getExtraNameCharacters() throws SQLException {
+        return checkBackend().getExtraNameCharacters();
+    }
+
+    @Override
+    public boolean supportsAlterTableWithAddColumn() throws SQLException {
+        return checkBackend().supportsAlterTableWithAddColumn();
+    }
+
+    @Override
+    public boolean supportsAlterTableWithDropColumn() throws SQLException {
+        return checkBackend().supportsAlterTableWithDropColumn();
+    }
+
+    @Override
+    public boolean supportsColumnAliasing() throws SQLException {
+        return checkBackend().supportsColumnAliasing();
+    }
+
+    @Override
+    public boolean nullPlusNonNullIsNull() throws SQLException {
+        return checkBackend().nullPlusNonNullIsNull();
+    }
+
+    @Override
+    public boolean supportsConvert() throws SQLException {
+        return checkBackend().supportsConvert();
+    }
+
+    @Override
+    public boolean supportsConvert(final int fromType, final int toType) throws SQLException {
+        return checkBackend().supportsConvert(fromType, toType);
+    }
+
+    @Override
+    public boolean supportsTableCorrelationNames() throws SQLException {
+        return checkBackend().supportsTableCorrelationNames();
+    }
+
+    @Override
+    public boolean supportsDifferentTableCorrelationNames() throws SQLException {
+        return checkBackend().supportsDifferentTableCorrelationNames();
+    }
+
+    @Override
+    public boolean supportsExpressionsInOrderBy() throws SQLException {
+        return checkBackend().supportsExpressionsInOrderBy();
+    }
+
+    @Override
+    public boolean supportsOrderByUnrelated() throws SQLException {
+        return checkBackend().supportsOrderByUnrelated();
+    }
+
+    @Override
+    public boolean supportsGroupBy() throws SQLException {
+        return checkBackend().supportsGroupBy();
+    }
+
+    @Override
+    public boolean supportsGroupByUnrelated() throws SQLException {
+        return checkBackend().supportsGroupByUnrelated();
+    }
+
+    @Override
+    public boolean supportsGroupByBeyondSelect() throws SQLException {
+        return checkBackend().supportsGroupByBeyondSelect();
+    }
+
+    @Override
+    public boolean supportsLikeEscapeClause() throws SQLException {
+        return checkBackend().supportsLikeEscapeClause();
+    }
+
+    @Override
+    public boolean supportsMultipleResultSets() throws SQLException {
+        return checkBackend().supportsMultipleResultSets();
+    }
+
+    @Override
+    public boolean supportsMultipleTransactions() throws SQLException {
+        return checkBackend().supportsMultipleTransactions();
+    }
+
+    @Override
+    public boolean supportsNonNullableColumns() throws SQLException {
+        return checkBackend().supportsNonNullableColumns();
+    }
+
+    @Override
+    public boolean supportsMinimumSQLGrammar() throws SQLException {
+        return checkBackend().supportsMinimumSQLGrammar();
+    }
+
+    @Override
+    public boolean supportsCoreSQLGrammar() throws SQLException {
+        return checkBackend().supportsCoreSQLGrammar();
+    }
+
+    @Override
+    public boolean supportsExtendedSQLGrammar() throws SQLException {
+        return checkBackend().supportsExtendedSQLGrammar();
+    }
+
+    @Override
+    public boolean supportsANSI92EntryLevelSQL() throws SQLException {
+        return checkBackend().supportsANSI92EntryLevelSQL();
+    }
+
+    @Override
+    public boolean supportsANSI92IntermediateSQL() throws SQLException {
+        return checkBackend().supportsANSI92IntermediateSQL();
+    }
+
+    @Override
+    public boolean supportsANSI92FullSQL() throws SQLException {
+        return checkBackend().supportsANSI92FullSQL();
+    }
+
+    @Override
+    public boolean supportsIntegrityEnhancementFacility() throws SQLException {
+        return checkBackend().supportsIntegrityEnhancementFacility();
+    }
+
+    @Override
+    public boolean supportsOuterJoins() throws SQLException {
+        return checkBackend().supportsOuterJoins();
+    }
+
+    @Override
+    public boolean supportsFullOuterJoins() throws SQLException {
+        return checkBackend().supportsFullOuterJoins();
+    }
+
+    @Override
+    public boolean supportsLimitedOuterJoins() throws SQLException {
+        return checkBackend().supportsLimitedOuterJoins();
+    }
+
+    @Override
+    public String getSchemaTerm() throws SQLException {
+        return checkBackend().getSchemaTerm();
+    }
+
+    @Override
+    public String getProcedureTerm() throws SQLException {
+        return checkBackend().getProcedureTerm();
+    }
+
+    @Override
+    public String getCatalogTerm() throws SQLException {
+        return checkBackend().getCatalogTerm();
+    }
+
+    @Override
+    public boolean isCatalogAtStart() throws SQLException {
+        return checkBackend().isCatalogAtStart();
+    }
+
+    @Override
+    public String getCatalogSeparator() throws SQLException {
+        return checkBackend().getCatalogSeparator();
+    }
+
+    @Override
+    public boolean supportsSchemasInDataManipulation() throws SQLException {
+        return checkBackend().supportsSchemasInDataManipulation();
+    }
+
+    @Override
+    public boolean supportsSchemasInProcedureCalls() throws SQLException {
+        return checkBackend().supportsSchemasInProcedureCalls();
+    }
+
+    @Override
+    public boolean supportsSchemasInTableDefinitions() throws SQLException {
+        return checkBackend().supportsSchemasInTableDefinitions();
+    }
+
+    @Override
+    public boolean supportsSchemasInIndexDefinitions() throws SQLException {
+        return checkBackend().supportsSchemasInIndexDefinitions();
+    }
+
+    @Override
+    public boolean supportsSchemasInPrivilegeDefinitions() throws SQLException {
+        return checkBackend().supportsSchemasInPrivilegeDefinitions();
+    }
+
+    @Override
+    public boolean supportsCatalogsInDataManipulation() throws SQLException {
+        return checkBackend().supportsCatalogsInDataManipulation();
+    }
+
+    @Override
+    public boolean supportsCatalogsInProcedureCalls() throws SQLException {
+        return checkBackend().supportsCatalogsInProcedureCalls();
+    }
+
+    @Override
+    public boolean supportsCatalogsInTableDefinitions() throws SQLException {
+        return checkBackend().supportsCatalogsInTableDefinitions();
+    }
+
+    @Override
+    public boolean supportsCatalogsInIndexDefinitions() throws SQLException {
+        return checkBackend().supportsCatalogsInIndexDefinitions();
+    }
+
+    @Override
+    public boolean supportsCatalogsInPrivilegeDefinitions() throws SQLException {
+        return checkBackend().supportsCatalogsInPrivilegeDefinitions();
+    }
+
+    @Override
+    public boolean supportsPositionedDelete() throws SQLException {
+        return checkBackend().supportsPositionedDelete();
+    }
+
+    @Override
+    public boolean supportsPositionedUpdate() throws SQLException {
+        return checkBackend().supportsPositionedUpdate();
+    }
+
+    @Override
+    public boolean supportsSelectForUpdate() throws SQLException {
+        return checkBackend().supportsSelectForUpdate();
+    }
+
+    @Override
+    public boolean supportsStoredProcedures() throws SQLException {
+        return checkBackend().supportsStoredProcedures();
+    }
+
+    @Override
+    public boolean supportsSubqueriesInComparisons() throws SQLException {
+        return checkBackend().supportsSubqueriesInComparisons();
+    }
+
+    @Override
+    public boolean supportsSubqueriesInExists() throws SQLException {
+        return checkBackend().supportsSubqueriesInExists();
+    }
+
+    @Override
+    public boolean supportsSubqueriesInIns() throws SQLException {
+        return checkBackend().supportsSubqueriesInIns();
+    }
+
+    @Override
+    public boolean supportsSubqueriesInQuantifieds() throws SQLException {
+        return checkBackend().supportsSubqueriesInQuantifieds();
+    }
+
+    @Override
+    public boolean supportsCorrelatedSubqueries() throws SQLException {
+        return checkBackend().supportsCorrelatedSubqueries();
+    }
+
+    @Override
+    public boolean supportsUnion() throws SQLException {
+        return checkBackend().supportsUnion();
+    }
+
+    @Override
+    public boolean supportsUnionAll() throws SQLException {
+        return checkBackend().supportsUnionAll();
+    }
+
+    @Override
+    public boolean supportsOpenCursorsAcrossCommit() throws SQLException {
+        return checkBackend().supportsOpenCursorsAcrossCommit();
+    }
+
+    @Override
+    public boolean supportsOpenCursorsAcrossRollback() throws SQLException {
+        return checkBackend().supportsOpenCursorsAcrossRollback();
+    }
+
+    @Override
+    public boolean supportsOpenStatementsAcrossCommit() throws SQLException {
+        return checkBackend().supportsOpenStatementsAcrossCommit();
+    }
+
+    @Override
+    public boolean supportsOpenStatementsAcrossRollback() throws SQLException {
+        return checkBackend().supportsOpenStatementsAcrossRollback();
+    }
+
+    @Override
+    public int getMaxBinaryLiteralLength() throws SQLException {
+        return checkBackend().getMaxBinaryLiteralLength();
+    }
+
+    @Override
+    public int getMaxCharLiteralLength() throws SQLException {
+        return checkBackend().getMaxCharLiteralLength();
+    }
+
+    @Override
+    public int getMaxColumnNameLength() throws SQLException {
+        return checkBackend().getMaxColumnNameLength();
+    }
+
+    @Override
+    public int getMaxColumnsInGroupBy() throws SQLException {
+        return checkBackend().getMaxColumnsInGroupBy();
+    }
+
+    @Override
+    public int getMaxColumnsInIndex() throws SQLException {
+        return checkBackend().getMaxColumnsInIndex();
+    }
+
+    @Override
+    public int getMaxColumnsInOrderBy() throws SQLException {
+        return checkBackend().getMaxColumnsInOrderBy();
+    }
+
+    @Override
+    public int getMaxColumnsInSelect() throws SQLException {
+        return checkBackend().getMaxColumnsInSelect();
+    }
+
+    @Override
+    public int getMaxColumnsInTable() throws SQLException {
+        return checkBackend().getMaxColumnsInTable();
+    }
+
+    @Override
+    public int getMaxConnections() throws SQLException {
+        return checkBackend().getMaxConnections();
+    }
+
+    @Override
+    public int getMaxCursorNameLength() throws SQLException {
+        return checkBackend().getMaxCursorNameLength();
+    }
+
+    @Override
+    public int getMaxIndexLength() throws SQLException {
+        return checkBackend().getMaxIndexLength();
+    }
+
+    @Override
+    public int getMaxSchemaNameLength() throws SQLException {
+        return checkBackend().getMaxSchemaNameLength();
+    }
+
+    @Override
+    public int getMaxProcedureNameLength() throws SQLException {
+        return checkBackend().getMaxProcedureNameLength();
+    }
+
+    @Override
+    public int getMaxCatalogNameLength() throws SQLException {
+        return checkBackend().getMaxCatalogNameLength();
+    }
+
+    @Override
+    public int getMaxRowSize() throws SQLException {
+        return checkBackend().getMaxRowSize();
+    }
+
+    @Override
+    public boolean doesMaxRowSizeIncludeBlobs() throws SQLException {
+        return checkBackend().doesMaxRowSizeIncludeBlobs();
+    }
+
+    @Override
+    public int getMaxStatementLength() throws SQLException {
+        return checkBackend().getMaxStatementLength();
+    }
+
+    @Override
+    public int getMaxStatements() throws SQLException {
+        return checkBackend().getMaxStatements();
+    }
+
+    @Override
+    public int getMaxTableNameLength() throws SQLException {
+        return checkBackend().getMaxTableNameLength();
+    }
+
+    @Override
+    public int getMaxTablesInSelect() throws SQLException {
+        return checkBackend().getMaxTablesInSelect();
+    }
+
+    @Override
+    public int getMaxUserNameLength() throws SQLException {
+        return checkBackend().getMaxUserNameLength();
+    }
+
+    @Override
+    public int getDefaultTransactionIsolation() throws SQLException {
+        return checkBackend().getDefaultTransactionIsolation();
+    }
+
+    @Override
+    public boolean supportsTransactions() throws SQLException {
+        return checkBackend().supportsTransactions();
+    }
+
+    @Override
+    public boolean supportsTransactionIsolationLevel(final int level) throws SQLException {
+        return checkBackend().supportsTransactionIsolationLevel(level);
+    }
+
+    @Override
+    public boolean supportsDataDefinitionAndDataManipulationTransactions() throws SQLException {
+        return checkBackend().supportsDataDefinitionAndDataManipulationTransactions();
+    }
+
+    @Override
+    public boolean supportsDataManipulationTransactionsOnly() throws SQLException {
+        return checkBackend().supportsDataManipulationTransactionsOnly();
+    }
+
+    @Override
+    public boolean dataDefinitionCausesTransactionCommit() throws SQLException {
+        return checkBackend().dataDefinitionCausesTransactionCommit();
+    }
+
+    @Override
+    public boolean dataDefinitionIgnoredInTransactions() throws SQLException {
+        return checkBackend().dataDefinitionIgnoredInTransactions();
+    }
+
+    @Override
+    public ResultSet getProcedures(final String catalog, final String schemaPattern,
+            final String procedureNamePattern) throws SQLException {
+        return get("getProcedures", () -> backend.getProcedures(catalog, schemaPattern, procedureNamePattern), catalog,
+                schemaPattern, procedureNamePattern);
+    }
+
+    @Override
+    public ResultSet getProcedureColumns(final String catalog, final String schemaPattern,
+            final String procedureNamePattern, final String columnNamePattern) throws SQLException {
+        return get("getProcedureColumns", () -> backend.getProcedureColumns(catalog, schemaPattern,
+                procedureNamePattern, columnNamePattern), catalog, schemaPattern, procedureNamePattern,
+                columnNamePattern);
+    }
+
+    @Override
+    public ResultSet getTables(final String catalog, final String schemaPattern, final String tableNamePattern,
+            final String[] types) throws SQLException {
+        return get("getTables", () -> backend.getTables(catalog, schemaPattern, tableNamePattern, types), catalog,
+                schemaPattern, tableNamePattern, types);
+    }
+
+    @Override
+    public ResultSet getSchemas() throws SQLException {
+        return get("getSchemas", () -> backend.getSchemas());
+    }
+
+    @Override
+    public ResultSet getCatalogs() throws SQLException {
+        return get("getCatalogs", () -> backend.getCatalogs());
+    }
+
+    @Override
+    public ResultSet getTableTypes() throws SQLException {
+        return get("getTableTypes", () -> backend.getTableTypes());
+    }
+
+    @Override
+    public ResultSet getColumns(final String catalog, final String schemaPattern, final String tableNamePattern,
+            final String columnNamePattern) throws SQLException {
+        return get("getColumns", () -> backend.getColumns(catalog, schemaPattern, tableNamePattern, columnNamePattern),
+                catalog, schemaPattern, tableNamePattern, columnNamePattern);
+    }
+
+    @Override
+    public ResultSet getColumnPrivileges(final String catalog, final String schema, final String table,
+            final String columnNamePattern) throws SQLException {
+        return get("getColumnPrivileges", () -> backend.getColumnPrivileges(catalog, schema, table, columnNamePattern),
+                catalog, schema, table, columnNamePattern);
+    }
+
+    @Override
+    public ResultSet getTablePrivileges(final String catalog, final String schemaPattern,
+            final String tableNamePattern) throws SQLException {
+        return get("getTablePrivileges", () -> backend.getTablePrivileges(catalog, schemaPattern, tableNamePattern),
+                catalog, schemaPattern, tableNamePattern);
+    }
+
+    @Override
+    public ResultSet getBestRowIdentifier(final String catalog, final String schema, final String table,
+            final int scope, final boolean nullable) throws SQLException {
+        return get("getBestRowIdentifier", () -> backend.getBestRowIdentifier(catalog, schema, table, scope, nullable),
+                catalog, schema, table, scope, nullable);
+    }
+
+    @Override
+    public ResultSet getVersionColumns(final String catalog, final String schema,
+            final String table) throws SQLException {
+        return get("getVersionColumns", () -> backend.getVersionColumns(catalog, schema, table), catalog, schema,
+                table);
+    }
+
+    @Override
+    public ResultSet getPrimaryKeys(final String catalog, final String schema, final String table) throws SQLException {
+        return get("getPrimaryKeys", () -> backend.getPrimaryKeys(catalog, schema, table), catalog, schema, table);
+    }
+
+    @Override
+    public ResultSet getImportedKeys(final String catalog, final String schema,
+            final String table) throws SQLException {
+        return get("getImportedKeys", () -> backend.getImportedKeys(catalog, schema, table), catalog, schema, table);
+    }
+
+    @Override
+    public ResultSet getExportedKeys(final String catalog, final String schema,
+            final String table) throws SQLException {
+        return get("getExportedKeys", () -> backend.getExportedKeys(catalog, schema, table), catalog, schema, table);
+    }
+
+    @Override
+    public ResultSet getCrossReference(final String parentCatalog, final String parentSchema, final String parentTable,
+            final String foreignCatalog, final String foreignSchema, final String foreignTable) throws SQLException {
+        return get("getCrossReference", () -> backend.getCrossReference(parentCatalog, parentSchema, parentTable,
+                foreignCatalog, foreignSchema, foreignTable), parentCatalog, parentSchema, parentTable, foreignCatalog,
+                foreignSchema, foreignTable);
+    }
+
+    @Override
+    public ResultSet getTypeInfo() throws SQLException {
+        return get("getTypeInfo", () -> backend.getTypeInfo());
+    }
+
+    @Override
+    public ResultSet getIndexInfo(final String catalog, final String schema, final String table, final boolean unique,
+            final boolean approximate) throws SQLException {
+        return get("getIndexInfo", () -> backend.getIndexInfo(catalog, schema, table, unique, approximate), catalog,
+                schema, table, unique, approximate);
+    }
+
+    @Override
+    public boolean supportsResultSetType(final int type) throws SQLException {
+        return checkBackend().supportsResultSetType(type);
+    }
+
+    @Override
+    public boolean supportsResultSetConcurrency(final int type, final int concurrency) throws SQLException {
+        return checkBackend().supportsResultSetConcurrency(type, concurrency);
+    }
+
+    @Override
+    public boolean ownUpdatesAreVisible(final int type) throws SQLException {
+        return checkBackend().ownUpdatesAreVisible(type);
+    }
+
+    @Override
+    public boolean ownDeletesAreVisible(final int type) throws SQLException {
+        return checkBackend().ownDeletesAreVisible(type);
+    }
+
+    @Override
+    public boolean ownInsertsAreVisible(final int type) throws SQLException {
+        return checkBackend().ownInsertsAreVisible(type);
+    }
+
+    @Override
+    public boolean othersUpdatesAreVisible(final int type) throws SQLException {
+        return checkBackend().othersUpdatesAreVisible(type);
+    }
+
+    @Override
+    public boolean othersDeletesAreVisible(final int type) throws SQLException {
+        return checkBackend().othersDeletesAreVisible(type);
+    }
+
+    @Override
+    public boolean othersInsertsAreVisible(final int type) throws SQLException {
+        return checkBackend().othersInsertsAreVisible(type);
+    }
+
+    @Override
+    public boolean updatesAreDetected(final int type) throws SQLException {
+        return checkBackend().updatesAreDetected(type);
+    }
+
+    @Override
+    public boolean deletesAreDetected(final int type) throws SQLException {
+        return checkBackend().deletesAreDetected(type);
+    }
+
+    @Override
+    public boolean insertsAreDetected(final int type) throws SQLException {
+        return checkBackend().insertsAreDetected(type);
+    }
+
+    @Override
+    public boolean supportsBatchUpdates() throws SQLException {
+        return checkBackend().supportsBatchUpdates();
+    }
+
+    @Override
+    public ResultSet getUDTs(final String catalog, final String schemaPattern, final String typeNamePattern,
+            final int[] types) throws SQLException {
+        return get("getUDTs", () -> backend.getUDTs(catalog, schemaPattern, typeNamePattern, types), catalog,
+                schemaPattern, typeNamePattern, types);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connection;
+    }
+
+    @Override
+    public boolean supportsSavepoints() throws SQLException {
+        return checkBackend().supportsSavepoints();
+    }
+
+    @Override
+    public boolean supportsNamedParameters() throws SQLException {
+        return checkBackend().supportsNamedParameters();
+    }
+
+    @Override
+    public boolean supportsMultipleOpenResults() throws SQLException {
+        return checkBackend().supportsMultipleOpenResults();
+    }
+
+    @Override
+    public boolean supportsGetGeneratedKeys() throws SQLException {
+        return checkBackend().supportsGetGeneratedKeys();
+    }
+
+    @Override
+    public ResultSet getSuperTypes(final String catalog, final String schemaPattern,
+            final String typeNamePattern) throws SQLException {
+        return get("getSuperTypes", () -> backend.getSuperTypes(catalog, schemaPattern, typeNamePattern), catalog,
+                schemaPattern, typeNamePattern);
+    }
+
+    @Override
+    public ResultSet getSuperTables(final String catalog, final String schemaPattern,
+            final String tableNamePattern) throws SQLException {
+        return get("getSuperTables", () -> backend.getSuperTables(catalog, schemaPattern, tableNamePattern), catalog,
+                schemaPattern, tableNamePattern);
+    }
+
+    @Override
+    public ResultSet getAttributes(final String catalog, final String schemaPattern, final String typeNamePattern,
+            final String attributeNamePattern) throws SQLException {
+        return get("getAttributes", () -> backend.getAttributes(catalog, schemaPattern, typeNamePattern,
+                attributeNamePattern), catalog, schemaPattern, typeNamePattern, attributeNamePattern);
+    }
+
+    @Override
+    public boolean supportsResultSetHoldability(final int holdability) throws SQLException {
+        return checkBackend().supportsResultSetHoldability(holdability);
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return checkBackend().getResultSetHoldability();
+    }
+
+    @Override
+    public int getDatabaseMajorVersion() throws SQLException {
+        return checkBackend().getDatabaseMajorVersion();
+    }
+
+    @Override
+    public int getDatabaseMinorVersion() throws SQLException {
+        return checkBackend().getDatabaseMinorVersion();
+    }
+
+    @Override
+    public int getJDBCMajorVersion() throws SQLException {
+        return checkBackend().getJDBCMajorVersion();
+    }
+
+    @Override
+    public int getJDBCMinorVersion() throws SQLException {
+        return checkBackend().getJDBCMinorVersion();
+    }
+
+    @Override
+    public int getSQLStateType() throws SQLException {
+        return checkBackend().getSQLStateType();
+    }
+
+    @Override
+    public boolean locatorsUpdateCopy() throws SQLException {
+        return checkBackend().locatorsUpdateCopy();
+    }
+
+    @Override
+    public boolean supportsStatementPooling() throws SQLException {
+        return checkBackend().supportsStatementPooling();
+    }
+
+    @Override
+    public RowIdLifetime getRowIdLifetime() throws SQLException {
+        return checkBackend().getRowIdLifetime();
+    }
+
+    @Override
+    public ResultSet getSchemas(final String catalog, final String schemaPattern) throws SQLException {
+        return get("getSchemas", () -> backend.getSchemas(catalog, schemaPattern), catalog, schemaPattern);
+    }
+
+    @Override
+    public boolean supportsStoredFunctionsUsingCallSyntax() throws SQLException {
+        return checkBackend().supportsStoredFunctionsUsingCallSyntax();
+    }
+
+    @Override
+    public boolean autoCommitFailureClosesAllResultSets() throws SQLException {
+        return checkBackend().autoCommitFailureClosesAllResultSets();
+    }
+
+    @Override
+    public ResultSet getClientInfoProperties() throws SQLException {
+        return get("getClientInfoProperties", () -> backend.getClientInfoProperties());
+    }
+
+    @Override
+    public ResultSet getFunctions(final String catalog, final String schemaPattern,
+            final String functionNamePattern) throws SQLException {
+        return get("getFunctions", () -> backend.getFunctions(catalog, schemaPattern, functionNamePattern), catalog,
+                schemaPattern, functionNamePattern);
+    }
+
+    @Override
+    public ResultSet getFunctionColumns(final String catalog, final String schemaPattern,
+            final String functionNamePattern, final String columnNamePattern) throws SQLException {
+        return get("getFunctionColumns", () -> backend.getFunctionColumns(catalog, schemaPattern, functionNamePattern,
+                columnNamePattern), catalog, schemaPattern, functionNamePattern, columnNamePattern);
+    }
+
+    @Override
+    public ResultSet getPseudoColumns(final String catalog, final String schemaPattern, final String tableNamePattern,
+            final String columnNamePattern) throws SQLException {
+        return get("getPseudoColumns", () -> backend.getPseudoColumns(catalog, schemaPattern, tableNamePattern,
+                columnNamePattern), catalog, schemaPattern, tableNamePattern, columnNamePattern);
+    }
+
+    @Override
+    public boolean generatedKeyAlwaysReturned() throws SQLException {
+        return checkBackend().generatedKeyAlwaysReturned();
+    }
+
+    @Override
+    public long getMaxLogicalLobSize() throws SQLException {
+        return checkBackend().getMaxLogicalLobSize();
+    }
+
+    @Override
+    public boolean supportsRefCursors() throws SQLException {
+        return checkBackend().supportsRefCursors();
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        return checkBackend().unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+        return checkBackend().isWrapperFor(iface);
+    }
+}
@@ -27,6 +27,11 @@ import java.sql.SQLException;
  */
 class CachedInMemoryResultSet extends CachedResultSet {
     CachedInMemoryResultSet(final CachedStatement statement, byte[] bytes) throws SQLException {
-        super(statement, new DataInputStream(new ByteArrayInputStream(bytes)));
+        this(statement, bytes, SchemaRegistry.MEMORY, null);
+    }
+
+    CachedInMemoryResultSet(final CachedStatement statement, byte[] bytes, final SchemaRegistry registry,
+            final StringDictionary dictionary) throws SQLException {
+        super(statement, new DataInputStream(new ByteArrayInputStream(bytes)), registry, dictionary, null);
     }
 }
@@ -16,17 +16,145 @@
 package com.qwazr.jdbc.cache;
 
 import java.io.DataInputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
-import java.util.zip.GZIPInputStream;
 
 /**
  * Uses disk persistence for caching
  */
 class CachedOnDiskResultSet extends CachedResultSet {
-    CachedOnDiskResultSet(final CachedStatement statement, final Path resultSetPath) throws SQLException, IOException {
-        super(statement, new DataInputStream(new GZIPInputStream(new FileInputStream(resultSetPath.toFile()))));
+
+    private final Path resultSetPath;
+    private final boolean deleteOnClose;
+    private final long rowCount;
+
+    CachedOnDiskResultSet(final CachedStatement statement, final Path resultSetPath, final SchemaRegistry registry,
+            final StringDictionary dictionary, final boolean deleteOnClose) throws SQLException, IOException {
+        this(statement, resultSetPath, registry, dictionary, deleteOnClose, null);
+    }
+
+    /**
+     * @param statement     the statement
+     * @param resultSetPath the entry file
+     * @param registry      the registry of the schema of the entry
+     * @param dictionary    the optional dictionary of the frequent strings
+     * @param deleteOnClose true to delete the entry when the ResultSet is closed
+     * @param recovery      the optional provider of the rows if the entry is found corrupt while it is read
+     * @throws CorruptEntryException if the first block of the entry is corrupt
+     * @throws SQLException          if the entry cannot be read
+     * @throws IOException           if the entry cannot be opened
+     */
+    CachedOnDiskResultSet(final CachedStatement statement, final Path resultSetPath, final SchemaRegistry registry,
+            final StringDictionary dictionary, final boolean deleteOnClose, final Recovery recovery)
+            throws SQLException, IOException {
+        this(statement, resultSetPath, registry, dictionary, deleteOnClose, recovery,
+                openEntry(resultSetPath, registry, dictionary));
+    }
+
+    private CachedOnDiskResultSet(final CachedStatement statement, final Path resultSetPath,
+            final SchemaRegistry registry, final StringDictionary dictionary, final boolean deleteOnClose,
+            final Recovery recovery, final Entry entry) throws SQLException {
+        super(statement, entry, entry.metaData, dictionary, entry.sidecar, recovery);
+        this.resultSetPath = resultSetPath;
+        this.deleteOnClose = deleteOnClose;
+        this.rowCount = entry.header.rows;
+    }
+
+    /**
+     * @return the number of rows of the entry, as given by its header
+     */
+    long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * The body of an entry, with its header, its schema and its optional sidecar
+     */
+    static class Entry extends DataInputStream {
+
+        final EntryHeader header;
+        final CachedResultSetMetaData metaData;
+        final BlobSidecar.Source sidecar;
+
+        private Entry(final EntryHeader header, final CachedResultSetMetaData metaData, final InputStream body,
+                final BlobSidecar.Source sidecar) {
+            super(body);
+            this.header = header;
+            this.metaData = metaData;
+            this.sidecar = sidecar;
+        }
+    }
+
+    /**
+     * Open the entry file, the decoder is chosen using the header.
+     * The sidecar referenced by the header is then opened.
+     *
+     * @throws IncompatibleEntryException if the entry has been written using another format, its schema is missing,
+     *                                    or it uses another generation of the dictionary
+     * @throws CorruptEntryException      if the sidecar of the entry is missing
+     * @throws NoSuchFileException        if the entry has been removed or replaced while it is opened
+     */
+    static Entry openEntry(final Path resultSetPath, final SchemaRegistry registry,
+            final StringDictionary dictionary) throws IOException {
+        final FileChannel channel = FileChannel.open(resultSetPath, StandardOpenOption.READ);
+        try {
+            final EntryHeader header = EntryHeader.read(channel);
+            final CachedResultSetMetaData metaData;
+            try {
+                metaData = registry.get(header.schemaId);
+            } catch (NoSuchFileException e) {
+                throw new IncompatibleEntryException("The schema of the entry is missing: " + e.getMessage());
+            }
+            if (header.dictionary != 0 && (dictionary == null || header.dictionary != dictionary.getGeneration()))
+                throw new IncompatibleEntryException("The entry uses another generation of the string dictionary");
+            if (header.codec != EntryHeader.CODEC_GZIP)
+                throw new IncompatibleEntryException("Unsupported entry codec: " + header.codec);
+            final BlobSidecar.Source sidecar = openSidecar(resultSetPath, header);
+            try {
+                return new Entry(header, metaData, BlockStreams.read(channel), sidecar);
+            } catch (IOException | RuntimeException e) {
+                if (sidecar != null)
+                    sidecar.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * A missing sidecar is a corruption only if the entry still references it,
+     * otherwise the entry has been replaced or deleted meanwhile.
+     */
+    private static BlobSidecar.Source openSidecar(final Path resultSetPath, final EntryHeader header)
+            throws IOException {
+        try {
+            return BlobSidecar.Source.open(resultSetPath, header.sidecar);
+        } catch (NoSuchFileException e) {
+            if (EntryHeader.read(resultSetPath).sidecar == header.sidecar)
+                throw new CorruptEntryException("The blob file of the entry is missing: " + e.getMessage(), e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            super.close();
+        } finally {
+            if (deleteOnClose) {
+                try {
+                    DiskCacheLayout.delete(resultSetPath);
+                } catch (IOException e) {
+                    // Quiet
+                }
+            }
+        }
     }
 }
@@ -58,23 +58,32 @@ class CachedPreparedStatement<T extends PreparedStatement> extends CachedStateme
 
     @Override
     protected void generateKey() throws SQLException {
+        generatedKey = generateCacheKey(keySource().toString());
+    }
+
+    /**
+     * @return the SQL followed by the parameters
+     */
+    StringBuilder keySource() {
         final StringBuilder sb = new StringBuilder(executedSql);
         parameters.forEach((index, value) -> {
             sb.append('•');
             sb.append(index);
             sb.append(value.toString());
         });
-        generatedKey = generateCacheKey(sb.toString());
+        return sb;
     }
 
     @Override
     public ResultSet executeQuery() throws SQLException {
+        closeResults();
         generateKey();
         return resultSetCache.get(this, generatedKey, backendStatement != null ? () -> backendStatement.executeQuery() : null);
     }
 
     @Override
     public int executeUpdate() throws SQLException {
+        closeResults();
         if (backendStatement != null)
             return backendStatement.executeUpdate();
         else
@@ -217,7 +226,7 @@ class CachedPreparedStatement<T extends PreparedStatement> extends CachedStateme
     @Override
     public boolean execute() throws SQLException {
         generateKey();
-        return resultSetCache.checkIfExists(generatedKey) || checkBackendStatement("No cache entry").execute();
+        return executeCached(backendStatement == null ? null : backendStatement::execute);
     }
 
     @Override
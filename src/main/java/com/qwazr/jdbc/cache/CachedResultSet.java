@@ -15,11 +15,14 @@
  */
 package com.qwazr.jdbc.cache;
 
+import javax.sql.rowset.serial.SerialBlob;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.io.StringReader;
 import java.math.BigDecimal;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -42,7 +45,6 @@ import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -51,35 +53,89 @@ import java.util.Map;
 abstract class CachedResultSet implements ResultSet {
 
     private final CachedStatement statement;
-    private final DataInputStream input;
+    private DataInputStream input;
+    private final BlobSidecar.Source sidecar;
+    private final StringDictionary dictionary;
     private final CachedResultSetMetaData metaData;
     private final Object[] currentRow;
     private final Object[] nextRow;
-    private final HashMap<String, Integer> columnNames;
     private volatile boolean wasNull;
     private volatile int currentPos;
     private volatile int nextPos;
     private volatile boolean closed;
+    private Recovery recovery;
 
     CachedResultSet(final CachedStatement statement, DataInputStream input) throws SQLException {
+        this(statement, input, SchemaRegistry.MEMORY, null, null);
+    }
+
+    /**
+     * @param statement the statement
+     * @param input     the entry
+     * @param registry   the registry of the schema of the entry
+     * @param dictionary the optional dictionary of the frequent strings
+     * @param sidecar    the optional sidecar holding the large binary values, closed with the ResultSet
+     * @throws SQLException if the entry cannot be read
+     */
+    CachedResultSet(final CachedStatement statement, DataInputStream input, final SchemaRegistry registry,
+            final StringDictionary dictionary, final BlobSidecar.Source sidecar) throws SQLException {
+        this(statement, input, registry, dictionary, sidecar, null);
+    }
+
+    /**
+     * @param statement  the statement
+     * @param input      the entry
+     * @param registry   the registry of the schema of the entry
+     * @param dictionary the optional dictionary of the frequent strings
+     * @param sidecar    the optional sidecar holding the large binary values, closed with the ResultSet
+     * @param recovery   the optional provider of the rows if the entry is found corrupt
+     * @throws SQLException if the entry cannot be read
+     */
+    CachedResultSet(final CachedStatement statement, DataInputStream input, final SchemaRegistry registry,
+            final StringDictionary dictionary, final BlobSidecar.Source sidecar, final Recovery recovery)
+            throws SQLException {
+        this(statement, input, readSchema(statement, input, registry, sidecar), dictionary, sidecar, recovery);
+    }
+
+    /**
+     * @param statement  the statement
+     * @param input      the rows, the schema being already known
+     * @param metaData   the schema of the rows
+     * @param dictionary the optional dictionary of the frequent strings
+     * @param sidecar    the optional sidecar holding the large binary values, closed with the ResultSet
+     * @param recovery   the optional provider of the rows if the entry is found corrupt
+     * @throws SQLException if the rows cannot be read
+     */
+    CachedResultSet(final CachedStatement statement, DataInputStream input, final CachedResultSetMetaData metaData,
+            final StringDictionary dictionary, final BlobSidecar.Source sidecar, final Recovery recovery)
+            throws SQLException {
         this.statement = statement;
+        this.recovery = recovery;
+        this.sidecar = sidecar;
+        this.dictionary = dictionary;
         this.wasNull = false;
         this.currentPos = 0;
         this.nextPos = 0;
         this.closed = false;
         this.input = input;
+        this.metaData = metaData;
+        this.currentRow = new Object[metaData.columns.length];
+        this.nextRow = new Object[metaData.columns.length];
+        readNext();
+    }
+
+    private static CachedResultSetMetaData readSchema(final CachedStatement statement, final DataInputStream input,
+            final SchemaRegistry registry, final BlobSidecar.Source sidecar) throws SQLException {
         try {
-            this.metaData = new CachedResultSetMetaData(ResultSetWriter.readColumns(input));
-            this.currentRow = new Object[metaData.columns.length];
-            this.nextRow = new Object[metaData.columns.length];
-            this.columnNames = new HashMap<>();
-            int i = 0;
-            for (ResultSetWriter.ColumnDef column : metaData.columns)
-                this.columnNames.put(column.label, ++i);
-            readNext();
+            return registry.get(input.readLong());
         } catch (IOException e) {
             try {
-                close();
+                try {
+                    input.close();
+                } finally {
+                    if (sidecar != null)
+                        sidecar.close();
+                }
             } catch (Exception ex) {
                 //Close quietly
             }
@@ -88,6 +144,23 @@ abstract class CachedResultSet implements ResultSet {
     }
 
     private void readNext() throws SQLException {
+        try {
+            readNextRow();
+        } catch (CorruptEntryException e) {
+            if (recovery == null)
+                throw new SQLException("The cache entry is corrupt - pos " + (currentPos + 1), e);
+            recover(e);
+            try {
+                readNextRow();
+            } catch (IOException ex) {
+                throw new SQLException(ex);
+            }
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private void readNextRow() throws SQLException, IOException {
         try {
             nextPos = input.readInt();
             if (nextPos != currentPos + 1)
@@ -95,18 +168,35 @@ abstract class CachedResultSet implements ResultSet {
         } catch (EOFException e) {
             nextPos = 0;
             return;
-        } catch (IOException e) {
-            throw new SQLException(e);
         }
         int i = 0;
         try {
             for (ResultSetWriter.ColumnDef column : metaData.columns)
-                nextRow[i++] = ResultSetWriter.readRow(column.type, input);
+                nextRow[i++] = ResultSetWriter.readRow(column.type, input, sidecar, dictionary);
+        } catch (CorruptEntryException e) {
+            throw e;
         } catch (IOException e) {
             throw new SQLException("Cannot extract column " + i + " - pos " + nextPos, e);
         }
     }
 
+    /**
+     * The rows are read from the backend. The backend may not return the rows in the same order,
+     * so the recovery is only possible before the first row is returned, otherwise the read fails.
+     * The recovery is done once.
+     */
+    private void recover(final CorruptEntryException cause) throws SQLException {
+        final ResultSet backend = recovery.recover(cause, currentPos);
+        recovery = null;
+        try {
+            input.close();
+        } catch (IOException e) {
+            // Quiet, the entry is corrupt
+        }
+        input = new DataInputStream(
+                new BackendRowsInputStream(backend, ResultSetWriter.getColumnTypes(backend), 0));
+    }
+
     @Override
     public boolean next() throws SQLException {
         currentPos = nextPos;
@@ -122,7 +212,12 @@ abstract class CachedResultSet implements ResultSet {
     @Override
     public void close() throws SQLException {
         try {
-            input.close();
+            try {
+                input.close();
+            } finally {
+                if (sidecar != null)
+                    sidecar.close();
+            }
             closed = true;
         } catch (IOException e) {
             throw new SQLException(e);
@@ -145,7 +240,13 @@ abstract class CachedResultSet implements ResultSet {
     @Override
     public String getString(int columnIndex) throws SQLException {
         final Object val = checkColumn(columnIndex);
-        return val == null ? null : val.toString();
+        if (val == null)
+            return null;
+        if (val instanceof Clob) {
+            final Clob clob = (Clob) val;
+            return clob.getSubString(1, (int) Math.min(Integer.MAX_VALUE, clob.length()));
+        }
+        return val.toString();
     }
 
     @Override
@@ -245,6 +346,8 @@ abstract class CachedResultSet implements ResultSet {
             return null;
         if (val instanceof byte[])
             return (byte[]) val;
+        if (val instanceof Blob)
+            return ((Blob) val).getBytes(1, (int) Math.min(Integer.MAX_VALUE, ((Blob) val).length()));
         return new byte[0];
     }
 
@@ -313,12 +416,18 @@ abstract class CachedResultSet implements ResultSet {
 
     @Override
     public InputStream getBinaryStream(int columnIndex) throws SQLException {
-        checkColumn(columnIndex);
+        final Object val = checkColumn(columnIndex);
+        if (val == null)
+            return null;
+        if (val instanceof byte[])
+            return new ByteArrayInputStream((byte[]) val);
+        if (val instanceof Blob)
+            return ((Blob) val).getBinaryStream();
         return null;
     }
 
     private int checkColumn(final String label) throws SQLException {
-        final Integer colIdx = columnNames.get(label);
+        final Integer colIdx = metaData.columnNames.get(label);
         if (colIdx == null)
             throw new SQLException("Column not found: " + label);
         return colIdx;
@@ -440,14 +549,18 @@ abstract class CachedResultSet implements ResultSet {
 
     @Override
     public int findColumn(String columnLabel) throws SQLException {
-        final Integer colIdx = columnNames.get(columnLabel);
+        final Integer colIdx = metaData.columnNames.get(columnLabel);
         return colIdx == null ? 0 : colIdx;
     }
 
     @Override
     public Reader getCharacterStream(int columnIndex) throws SQLException {
-        checkColumn(columnIndex);
-        return null;
+        final Object val = checkColumn(columnIndex);
+        if (val == null)
+            return null;
+        if (val instanceof Clob)
+            return ((Clob) val).getCharacterStream();
+        return new StringReader(val.toString());
     }
 
     @Override
@@ -462,9 +575,11 @@ abstract class CachedResultSet implements ResultSet {
             return null;
         if (val instanceof BigDecimal)
             return (BigDecimal) val;
+        if (val instanceof Long || val instanceof Integer || val instanceof Short || val instanceof Byte)
+            return BigDecimal.valueOf(((Number) val).longValue());
         if (val instanceof Number)
             return new BigDecimal(((Number) val).doubleValue());
-        return new BigDecimal(Double.parseDouble(val.toString()));
+        return new BigDecimal(val.toString());
     }
 
     @Override
@@ -819,7 +934,13 @@ abstract class CachedResultSet implements ResultSet {
 
     @Override
     public Blob getBlob(int columnIndex) throws SQLException {
-        checkColumn(columnIndex);
+        final Object val = checkColumn(columnIndex);
+        if (val == null)
+            return null;
+        if (val instanceof Blob)
+            return (Blob) val;
+        if (val instanceof byte[])
+            return new SerialBlob((byte[]) val);
         return null;
     }
 
@@ -828,13 +949,15 @@ abstract class CachedResultSet implements ResultSet {
         final Object val = checkColumn(columnIndex);
         if (val == null)
             return null;
+        if (val instanceof Clob)
+            return (Clob) val;
         return new ClobString(val.toString());
     }
 
     @Override
     public Array getArray(int columnIndex) throws SQLException {
-        checkColumn(columnIndex);
-        return null;
+        final Object val = checkColumn(columnIndex);
+        return val instanceof Array ? (Array) val : null;
     }
 
     @Override
@@ -1008,8 +1131,12 @@ abstract class CachedResultSet implements ResultSet {
 
     @Override
     public NClob getNClob(int columnIndex) throws SQLException {
-        checkColumn(columnIndex);
-        return null;
+        final Object val = checkColumn(columnIndex);
+        if (val == null)
+            return null;
+        if (val instanceof NClob)
+            return (NClob) val;
+        return new ClobString(val.toString());
     }
 
     @Override
@@ -1050,8 +1177,7 @@ abstract class CachedResultSet implements ResultSet {
 
     @Override
     public Reader getNCharacterStream(int columnIndex) throws SQLException {
-        checkColumn(columnIndex);
-        return null;
+        return getCharacterStream(columnIndex);
     }
 
     @Override
@@ -1218,4 +1344,18 @@ abstract class CachedResultSet implements ResultSet {
     public boolean isWrapperFor(Class<?> iface) throws SQLException {
         throw new SQLFeatureNotSupportedException();
     }
+
+    /**
+     * Gives the rows of an entry found corrupt while it is read
+     */
+    interface Recovery {
+
+        /**
+         * @param cause the corruption
+         * @param rows  the number of rows already returned
+         * @return the backend ResultSet, positioned before the first row
+         * @throws SQLException if the backend cannot be queried, or if rows have already been returned
+         */
+        ResultSet recover(CorruptEntryException cause, int rows) throws SQLException;
+    }
 }
@@ -18,13 +18,24 @@ package com.qwazr.jdbc.cache;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * The metadata of a schema, immutable and shared by the ResultSets of the same schema (see {@link SchemaRegistry}).
+ */
 class CachedResultSetMetaData implements ResultSetMetaData {
 
     final ResultSetWriter.ColumnDef[] columns;
+    final Map<String, Integer> columnNames;
 
     CachedResultSetMetaData(ResultSetWriter.ColumnDef[] columns) {
         this.columns = columns;
+        final HashMap<String, Integer> names = new HashMap<>();
+        int i = 0;
+        for (ResultSetWriter.ColumnDef column : columns)
+            names.put(column.label, ++i);
+        this.columnNames = names;
     }
 
     @Override
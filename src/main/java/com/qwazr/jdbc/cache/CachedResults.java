@@ -0,0 +1,538 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import javax.sql.rowset.serial.SerialBlob;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.sql.Blob;
+import java.sql.JDBCType;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The results of an execution stored as one entry: the sequence of the ResultSets and update counts
+ * returned by the statement, followed by the OUT parameters of a call.
+ * <p>
+ * The entry is itself a ResultSet having one row per result (KIND, UPDATE_COUNT, RESULT).
+ * A returned ResultSet is embedded in the RESULT column with its column definitions.
+ * The OUT parameters are embedded as a ResultSet of one row, the label of a column being the index
+ * or the name of the parameter. The entry is then admitted, limited, checksummed and evicted as any other entry.
+ * <p>
+ * The results of an execution returning a single ResultSet are read from a regular entry (see {@link #single}).
+ * The first ResultSet of an execution returning several results is also stored as a regular entry:
+ * it is not embedded again, the results entry only references it.
+ * If that ResultSet is too large to be stored, the results following it are read from the backend statement
+ * (see {@link #streamed}).
+ */
+class CachedResults {
+
+    final static int RESULT_SET = 1;
+    final static int UPDATE_COUNT = 2;
+    final static int OUT_PARAMETERS = 3;
+    final static int FIRST_RESULT_SET = 4;
+
+    private final static String[] LABELS = { "KIND", "UPDATE_COUNT", "RESULT" };
+    private final static int[] TYPES = { Types.INTEGER, Types.INTEGER, Types.BLOB };
+
+    private final CachedStatement statement;
+    private final ResultSet entry;
+    private final List<Object> results;
+    private final Blob outParametersValue;
+    private final List<ResultSet> currentResultSets;
+    private final List<ResultSet> keptResultSets;
+    private final Statement backend;
+    private int current;
+    private ResultSet outParameters;
+    private ResultSet opened;
+    private boolean backendIsResultSet;
+
+    private CachedResults(final CachedStatement statement, final ResultSet entry, final List<Object> results,
+            final Blob outParametersValue, final ResultSet opened, final Statement backend) {
+        this.statement = statement;
+        this.entry = entry;
+        this.results = results;
+        this.outParametersValue = outParametersValue;
+        this.opened = opened;
+        this.backend = backend;
+        this.currentResultSets = new ArrayList<>();
+        this.keptResultSets = new ArrayList<>();
+        this.current = 0;
+    }
+
+    /**
+     * @param statement the statement
+     * @param entry     the cached results entry, closed with the results
+     * @return the results read from the entry
+     * @throws SQLException if the entry cannot be read
+     */
+    static CachedResults of(final CachedStatement statement, final ResultSet entry) throws SQLException {
+        return of(statement, entry, null, null);
+    }
+
+    /**
+     * @param statement the statement
+     * @param entry     the cached results entry, closed with the results
+     * @param opened    the first ResultSet already opened by the execution, returned by the first call
+     *                  to {@link #getResultSet()}, or null
+     * @param first     opens the first ResultSet from its regular entry, if the results entry references it
+     * @return the results read from the entry
+     * @throws SQLException if the entry cannot be read
+     */
+    static CachedResults of(final CachedStatement statement, final ResultSet entry, final ResultSet opened,
+            final ResultSetCache.Provider first) throws SQLException {
+        final List<Object> results = new ArrayList<>();
+        final Blob out;
+        try {
+            out = read(entry, first, results);
+        } catch (SQLException e) {
+            entry.close();
+            throw e;
+        }
+        return new CachedResults(statement, entry, results, out, opened, null);
+    }
+
+    /**
+     * Read the rows of a results entry.
+     *
+     * @param results receives the results, in order
+     * @return the OUT parameters, or null if there is none
+     */
+    private static Blob read(final ResultSet entry, final ResultSetCache.Provider first, final List<Object> results)
+            throws SQLException {
+        Blob out = null;
+        while (entry.next()) {
+            final int kind = entry.getInt(1);
+            switch (kind) {
+            case FIRST_RESULT_SET:
+                if (first == null)
+                    throw new SQLException("The entry of the first ResultSet is not available");
+                results.add(first);
+                break;
+            case RESULT_SET:
+                results.add(entry.getBlob(3));
+                break;
+            case UPDATE_COUNT:
+                results.add(entry.getInt(2));
+                break;
+            case OUT_PARAMETERS:
+                out = entry.getBlob(3);
+                break;
+            default:
+                throw new SQLException("Unknown kind of result: " + kind);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @param statement the statement
+     * @param resultSet opens the single ResultSet, which is stored as a regular entry
+     * @return the results made of one ResultSet
+     */
+    static CachedResults single(final CachedStatement statement, final ResultSetCache.Provider resultSet) {
+        return single(statement, null, resultSet);
+    }
+
+    /**
+     * @param statement the statement
+     * @param opened    the single ResultSet already opened by the execution, returned by the first call
+     *                  to {@link #getResultSet()}, or null
+     * @param resultSet opens the single ResultSet again, which is stored as a regular entry
+     * @return the results made of one ResultSet
+     */
+    static CachedResults single(final CachedStatement statement, final ResultSet opened,
+            final ResultSetCache.Provider resultSet) {
+        final List<Object> results = new ArrayList<>(1);
+        results.add(resultSet);
+        return new CachedResults(statement, null, results, null, opened, null);
+    }
+
+    /**
+     * @param statement the statement
+     * @param first     the first ResultSet, which is not stored and still reads the backend
+     * @param backend   the executed backend statement, which returns the following results
+     * @return the results made of the first ResultSet followed by the results of the backend
+     */
+    static CachedResults streamed(final CachedStatement statement, final ResultSet first, final Statement backend) {
+        final List<Object> results = new ArrayList<>(1);
+        results.add((ResultSetCache.Provider) () -> first);
+        return new CachedResults(statement, null, results, null, null, backend);
+    }
+
+    private boolean isOnBackend() {
+        return backend != null && current >= results.size();
+    }
+
+    /**
+     * @return true if the current result is a ResultSet
+     */
+    boolean isResultSet() {
+        if (isOnBackend())
+            return backendIsResultSet;
+        return current < results.size() && !(results.get(current) instanceof Integer);
+    }
+
+    /**
+     * Each call returns a new ResultSet read from the cache.
+     *
+     * @return the current result as a ResultSet, or null if it is an update count or if there are no more results
+     * @throws SQLException if the ResultSet cannot be read
+     */
+    ResultSet getResultSet() throws SQLException {
+        if (!isResultSet())
+            return null;
+        if (isOnBackend())
+            return backend.getResultSet();
+        final Object result = results.get(current);
+        final ResultSet resultSet;
+        if (opened != null) {
+            resultSet = opened;
+            opened = null;
+        } else if (result instanceof Blob)
+            resultSet = open(statement, (Blob) result);
+        else {
+            try {
+                resultSet = ((ResultSetCache.Provider) result).provide();
+            } catch (IOException e) {
+                throw new SQLException("Cannot read the ResultSet for statement " + statement, e);
+            }
+        }
+        currentResultSets.add(resultSet);
+        return resultSet;
+    }
+
+    /**
+     * @return the current result as an update count, or -1 if it is a ResultSet or if there are no more results
+     * @throws SQLException if the update count cannot be read from the backend
+     */
+    int getUpdateCount() throws SQLException {
+        if (isOnBackend())
+            return backend.getUpdateCount();
+        if (current >= results.size())
+            return -1;
+        final Object result = results.get(current);
+        return result instanceof Integer ? (Integer) result : -1;
+    }
+
+    /**
+     * Move to the next result, following {@link Statement#getMoreResults(int)}.
+     *
+     * @param current what to do with the current ResultSets
+     * @return true if the next result is a ResultSet
+     * @throws SQLException if a ResultSet cannot be closed
+     */
+    boolean getMoreResults(final int current) throws SQLException {
+        if (current == Statement.KEEP_CURRENT_RESULT)
+            keptResultSets.addAll(currentResultSets);
+        else {
+            close(currentResultSets);
+            if (current == Statement.CLOSE_ALL_RESULTS)
+                close(keptResultSets);
+        }
+        currentResultSets.clear();
+        if (this.current < results.size())
+            this.current++;
+        if (isOnBackend())
+            backendIsResultSet = backend.getMoreResults(current);
+        return isResultSet();
+    }
+
+    /**
+     * @return the OUT parameters positioned on their row, or null if the entry has no OUT parameter
+     * @throws SQLException if the OUT parameters cannot be read
+     */
+    ResultSet getOutParameters() throws SQLException {
+        if (outParameters == null && outParametersValue != null) {
+            outParameters = open(statement, outParametersValue);
+            outParameters.next();
+        }
+        return outParameters;
+    }
+
+    private static ResultSet open(final CachedStatement statement, final Blob value) throws SQLException {
+        final DataInputStream input = new DataInputStream(value.getBinaryStream());
+        final CachedResultSetMetaData metaData;
+        try {
+            metaData = new CachedResultSetMetaData(ResultSetWriter.readColumns(input));
+        } catch (IOException e) {
+            try {
+                input.close();
+            } catch (IOException ex) {
+                //Close quietly
+            }
+            throw new SQLException("Cannot read the embedded ResultSet for statement " + statement, e);
+        }
+        return new Embedded(statement, input, metaData);
+    }
+
+    private static void close(final List<ResultSet> resultSets) throws SQLException {
+        for (ResultSet resultSet : resultSets)
+            resultSet.close();
+        resultSets.clear();
+    }
+
+    void close() throws SQLException {
+        try {
+            close(currentResultSets);
+            close(keptResultSets);
+            if (outParameters != null)
+                outParameters.close();
+            if (opened != null)
+                opened.close();
+        } finally {
+            if (entry != null)
+                entry.close();
+        }
+    }
+
+    /**
+     * Builds a results entry by executing the remaining steps of an execution:
+     * the results are read in order using getMoreResults, then the OUT parameters are read.
+     * <p>
+     * Each ResultSet is written through the limits of the admission policy, the rows and the bytes being counted
+     * over the whole entry, so the entry is never larger than a regular entry. When the limits are exceeded,
+     * the capture stops and {@link #provide()} throws an {@link EntryLimitException}: nothing is stored,
+     * and the results are served by {@link #getPartial(ResultSet, ResultSetCache.Provider)}.
+     * The results already captured are followed by the ResultSet being captured, whose remaining rows are read
+     * from the backend, then by the next results of the backend statement.
+     * The OUT parameters are then read from the backend.
+     * A ResultSet or OUT parameters having a column type which cannot be cached stop the capture the same way.
+     * <p>
+     * The entry is tagged by the tables of every captured ResultSet and by the given tags,
+     * so it is invalidated like the regular entries it is made of.
+     */
+    static class Capture implements ResultSetCacheImpl.TaggedProvider {
+
+        private final CachedStatement statement;
+        private final Statement backend;
+        private final boolean first;
+        private final CachedStatement.Execution execution;
+        private final ResultSetCache.Provider outParameters;
+        private final AdmissionPolicy policy;
+        private final Set<String> tags;
+        private CachedRowSet captured;
+        private ResultSetCache.Provider current;
+
+        /**
+         * @param statement     the statement
+         * @param backend       the backend statement
+         * @param first         true if the first ResultSet is stored as a regular entry, the entry then references it
+         * @param execution     executes the backend statement, or tells the current result of a statement already
+         *                      executed: returns true if the current result is a ResultSet
+         * @param outParameters the optional provider of the OUT parameters
+         * @param policy        the optional policy giving the limits of the entry
+         * @param tags          the tags known before the capture, like the tables of the referenced first ResultSet
+         */
+        Capture(final CachedStatement statement, final Statement backend, final boolean first,
+                final CachedStatement.Execution execution, final ResultSetCache.Provider outParameters,
+                final AdmissionPolicy policy, final Set<String> tags) {
+            this.statement = statement;
+            this.backend = backend;
+            this.first = first;
+            this.execution = execution;
+            this.outParameters = outParameters;
+            this.policy = policy;
+            this.tags = new HashSet<>(tags);
+        }
+
+        /**
+         * @return the given tags and the tables of the ResultSets captured so far
+         */
+        @Override
+        public Set<String> getTags() {
+            return tags;
+        }
+
+        /**
+         * @return the entry to store
+         * @throws EntryLimitException if the entry exceeds the limits, the results are then given by getPartial
+         * @throws SQLException        if the results or the OUT parameters cannot be read
+         */
+        @Override
+        public CachedRowSet provide() throws SQLException {
+            final CachedRowSet entry = newRowSet(LABELS, TYPES);
+            if (first)
+                insert(entry, FIRST_RESULT_SET, null, null);
+            boolean isResultSet = execution.execute();
+            long rows = 0;
+            long size = 0;
+            for (; ; ) {
+                if (isResultSet) {
+                    final ResultSet resultSet = backend.getResultSet();
+                    if (!ResultSetWriter.isSupported(ResultSetWriter.getColumnTypes(resultSet))) {
+                        // Not cacheable, the ResultSet is read from the backend
+                        captured = entry;
+                        current = () -> resultSet;
+                        throw new EntryLimitException(0);
+                    }
+                    ResultSetCacheImpl.tables(resultSet.getMetaData(), tags);
+                    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    boolean streamed = false;
+                    try {
+                        rows += ResultSetWriter.writeEmbedded(bytes, resultSet, policy, rows, size);
+                    } catch (EntryLimitException e) {
+                        // The backend ResultSet stays open, its remaining rows are read by the partial results
+                        streamed = true;
+                        captured = entry;
+                        current = streamed(statement, bytes.toByteArray(), resultSet, e.rows);
+                        throw e;
+                    } finally {
+                        if (!streamed)
+                            resultSet.close();
+                    }
+                    size += bytes.size();
+                    insert(entry, RESULT_SET, null, bytes.toByteArray());
+                } else {
+                    final int updateCount = backend.getUpdateCount();
+                    if (updateCount == -1)
+                        break;
+                    insert(entry, UPDATE_COUNT, updateCount, null);
+                }
+                isResultSet = backend.getMoreResults();
+            }
+            if (outParameters != null) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (final ResultSet resultSet = outParameters.provide()) {
+                    if (!ResultSetWriter.isSupported(ResultSetWriter.getColumnTypes(resultSet)))
+                        throw new EntryLimitException(0);
+                    ResultSetWriter.writeEmbedded(bytes, resultSet, policy, rows, size);
+                } catch (EntryLimitException e) {
+                    // The OUT parameters are read from the backend statement
+                    captured = entry;
+                    throw e;
+                } catch (IOException e) {
+                    throw new SQLException("Cannot read the OUT parameters", e);
+                }
+                insert(entry, OUT_PARAMETERS, null, bytes.toByteArray());
+            }
+            entry.beforeFirst();
+            return entry;
+        }
+
+        /**
+         * @param opened the first ResultSet already opened by the execution, or null
+         * @param first  opens the first ResultSet from its regular entry
+         * @return the results served when the limits have been exceeded, or null if they have not been exceeded
+         * @throws SQLException if the captured results cannot be read
+         */
+        CachedResults getPartial(final ResultSet opened, final ResultSetCache.Provider first) throws SQLException {
+            if (captured == null)
+                return null;
+            final List<Object> results = new ArrayList<>();
+            captured.beforeFirst();
+            read(captured, first, results);
+            if (current != null)
+                results.add(current);
+            return new CachedResults(statement, null, results, null, opened, backend);
+        }
+
+        private static ResultSetCache.Provider streamed(final CachedStatement statement, final byte[] prefix,
+                final ResultSet backend, final int pos) {
+            return () -> {
+                final DataInputStream input = new DataInputStream(new ByteArrayInputStream(prefix));
+                return new CachedStreamingResultSet(statement, input,
+                        new CachedResultSetMetaData(ResultSetWriter.readColumns(input)), backend, pos);
+            };
+        }
+    }
+
+    /**
+     * @param labels the labels of the columns
+     * @param types  the SQL types of the columns
+     * @return an empty RowSet, the rows are appended using {@link #insert(CachedRowSet, Object...)}
+     * @throws SQLException if the RowSet cannot be created
+     */
+    static CachedRowSet newRowSet(final String[] labels, final int[] types) throws SQLException {
+        final RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(labels.length);
+        for (int i = 0; i < labels.length; i++) {
+            final int column = i + 1;
+            metaData.setColumnLabel(column, labels[i]);
+            metaData.setColumnName(column, labels[i]);
+            final int type = binaryType(types[i]);
+            metaData.setColumnType(column, type);
+            metaData.setColumnTypeName(column, typeName(type));
+            metaData.setNullable(column, ResultSetMetaData.columnNullable);
+        }
+        final CachedRowSet rowSet = RowSetProvider.newFactory().createCachedRowSet();
+        rowSet.setMetaData(metaData);
+        return rowSet;
+    }
+
+    /**
+     * The getBytes and getBinaryStream methods of the RowSet do not reset wasNull,
+     * the binary values are stored as BLOB.
+     */
+    private static int binaryType(final int type) {
+        return type == Types.BINARY || type == Types.VARBINARY || type == Types.LONGVARBINARY ? Types.BLOB : type;
+    }
+
+    private static String typeName(final int type) {
+        try {
+            return JDBCType.valueOf(type).getName();
+        } catch (IllegalArgumentException e) {
+            // Vendor specific type
+            return Integer.toString(type);
+        }
+    }
+
+    /**
+     * Append a row to the RowSet.
+     *
+     * @param rowSet the RowSet
+     * @param values the values of the row, in the order of the columns
+     * @throws SQLException if the row cannot be inserted
+     */
+    static void insert(final CachedRowSet rowSet, final Object... values) throws SQLException {
+        // The insert row is inserted after the current row
+        rowSet.last();
+        rowSet.moveToInsertRow();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null)
+                rowSet.updateNull(i + 1);
+            else if (values[i] instanceof byte[])
+                rowSet.updateObject(i + 1, new SerialBlob((byte[]) values[i]));
+            else
+                rowSet.updateObject(i + 1, values[i]);
+        }
+        rowSet.insertRow();
+        rowSet.moveToCurrentRow();
+    }
+
+    /**
+     * A ResultSet embedded in a value of the entry
+     */
+    private static class Embedded extends CachedResultSet {
+
+        private Embedded(final CachedStatement statement, final DataInputStream input,
+                final CachedResultSetMetaData metaData) throws SQLException {
+            super(statement, input, metaData, null, null, null);
+        }
+    }
+}
@@ -24,6 +24,9 @@ import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 class CachedStatement<T extends Statement> implements Statement {
 
@@ -46,6 +49,7 @@ class CachedStatement<T extends Statement> implements Statement {
 
     volatile String executedSql;
     volatile String generatedKey;
+    volatile CachedResults results;
 
     CachedStatement(final CachedConnection connection, final ResultSetCache resultSetCache,
             final T backendStatement, final int resultSetConcurrency, final int resultSetType,
@@ -72,6 +76,18 @@ class CachedStatement<T extends Statement> implements Statement {
         this(connection, resultSetCache, backendStatement, 0, 0, 0);
     }
 
+    final AdmissionPolicy getAdmissionPolicy() {
+        return connection == null ? null : connection.getAdmissionPolicy();
+    }
+
+    final boolean isCacheCallable() {
+        return connection != null && connection.isCacheCallable();
+    }
+
+    final Set<String> getCallableTags(final String procedure) {
+        return connection == null ? Collections.emptySet() : connection.getCallableTags(procedure);
+    }
+
     final T checkBackendStatement() throws SQLException {
         return checkBackendStatement(null);
     }
@@ -83,6 +99,128 @@ class CachedStatement<T extends Statement> implements Statement {
             throw error == null ? new SQLFeatureNotSupportedException() : new SQLException(error);
     }
 
+    /**
+     * Serve the execution from a results entry (see {@link CachedResults}).
+     * The current results are closed.
+     *
+     * @param key     the key of the results entry
+     * @param capture the optional capture of the entry, which executes the backend statement
+     * @return true if the first result is a ResultSet
+     * @throws SQLException if the entry cannot be read or populated
+     */
+    final boolean executeResults(final String key, final CachedResults.Capture capture) throws SQLException {
+        return executeResults(key, null, null, capture);
+    }
+
+    /**
+     * Serve the execution from a results entry which may reference the regular entry of the first ResultSet.
+     * If the captured results exceed the limits of an entry, they are served without being stored.
+     *
+     * @param key     the key of the results entry
+     * @param opened  the first ResultSet already opened by the execution, closed on failure, or null
+     * @param first   opens the first ResultSet from its regular entry
+     * @param capture the optional capture of the entry, which executes the backend statement
+     * @return true if the first result is a ResultSet
+     * @throws SQLException if the entry cannot be read or populated
+     */
+    private boolean executeResults(final String key, final ResultSet opened, final ResultSetCache.Provider first,
+            final CachedResults.Capture capture) throws SQLException {
+        closeResults();
+        try {
+            try {
+                results = CachedResults.of(this, resultSetCache.get(this, key, capture), opened, first);
+            } catch (EntryLimitException e) {
+                final CachedResults partial = capture == null ? null : capture.getPartial(opened, first);
+                if (partial == null)
+                    throw e;
+                results = partial;
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (opened != null)
+                opened.close();
+            throw e;
+        }
+        return results.isResultSet();
+    }
+
+    interface Execution {
+        boolean execute() throws SQLException;
+    }
+
+    /**
+     * Serve an execute method from the cache, the key must already be generated.
+     * The first ResultSet is streamed into a regular entry, shared with executeQuery.
+     * If the backend returns another result, the sequence of the results is stored as one results entry
+     * (see {@link CachedResults}) which references the entry of the first ResultSet instead of embedding it.
+     * If the first ResultSet is too large to be stored, the following results are read from the backend.
+     * An execution whose first result is an update count is not cached: its results are read from the backend.
+     *
+     * @param execution the execution of the backend statement, or null if there is no backend
+     * @return true if the first result is a ResultSet
+     * @throws SQLException if the statement cannot be executed
+     */
+    final boolean executeCached(final Execution execution) throws SQLException {
+        closeResults();
+        final String key = generatedKey;
+        final String resultsKey = generateCacheKey(key + "•RESULTS");
+        final ResultSetCache.Provider firstEntry =
+                () -> resultSetCache.get(this, key, execution == null ? null : () -> executeFirst(execution));
+        if (resultSetCache.checkIfExists(resultsKey))
+            return executeResults(resultsKey, null, firstEntry, execution == null ?
+                    null :
+                    new CachedResults.Capture(this, backendStatement, false, execution, null,
+                            getAdmissionPolicy(), Collections.emptySet()));
+        if (resultSetCache.checkIfExists(key)) {
+            results = CachedResults.single(this, firstEntry);
+            return true;
+        }
+        if (execution == null)
+            throw new SQLException("No cache entry");
+        if (!execution.execute())
+            return false;
+        final ResultSet first = resultSetCache.get(this, key, backendStatement::getResultSet);
+        if (first instanceof CachedStreamingResultSet || !(first instanceof CachedResultSet)) {
+            // The backend ResultSet is still being read (too large or not cacheable),
+            // the next results cannot be reached yet
+            results = CachedResults.streamed(this, first, backendStatement);
+            return true;
+        }
+        final boolean isResultSet;
+        // The results entry is invalidated with the entry of the first ResultSet
+        final Set<String> firstTables = new HashSet<>();
+        try {
+            ResultSetCacheImpl.tables(first.getMetaData(), firstTables);
+            isResultSet = backendStatement.getMoreResults();
+            if (!isResultSet && backendStatement.getUpdateCount() == -1) {
+                results = CachedResults.single(this, first,
+                        () -> resultSetCache.get(this, key, () -> executeFirst(execution)));
+                return true;
+            }
+        } catch (SQLException e) {
+            first.close();
+            throw e;
+        }
+        return executeResults(resultsKey, first, firstEntry,
+                new CachedResults.Capture(this, backendStatement, true, () -> isResultSet, null,
+                        getAdmissionPolicy(), firstTables));
+    }
+
+    /**
+     * Used if the entry of a single or of a first ResultSet is removed before it is read
+     */
+    private ResultSet executeFirst(final Execution execution) throws SQLException {
+        if (!execution.execute())
+            throw new SQLException("The first result is not a ResultSet");
+        return backendStatement.getResultSet();
+    }
+
+    final void closeResults() throws SQLException {
+        final CachedResults r = results;
+        results = null;
+        if (r != null)
+            r.close();
+    }
+
     static String generateCacheKey(final String src) throws SQLException {
         try {
             MessageDigest md = MessageDigest.getInstance("MD5");
@@ -104,6 +242,7 @@ class CachedStatement<T extends Statement> implements Statement {
 
     @Override
     public ResultSet executeQuery(String sql) throws SQLException {
+        closeResults();
         this.executedSql = sql;
         generateKey();
         return resultSetCache
@@ -112,14 +251,19 @@ class CachedStatement<T extends Statement> implements Statement {
 
     @Override
     public int executeUpdate(String sql) throws SQLException {
+        closeResults();
         this.executedSql = sql;
         return checkBackendStatement().executeUpdate(sql);
     }
 
     @Override
     public void close() throws SQLException {
-        if (backendStatement != null)
-            backendStatement.close();
+        try {
+            closeResults();
+        } finally {
+            if (backendStatement != null)
+                backendStatement.close();
+        }
         closed = true;
     }
 
@@ -204,22 +348,31 @@ class CachedStatement<T extends Statement> implements Statement {
     public boolean execute(String sql) throws SQLException {
         this.executedSql = sql;
         generateKey();
-        return resultSetCache.checkIfExists(generatedKey) || checkBackendStatement("No cache entry").execute(sql);
+        return executeCached(backendStatement == null ? null : () -> backendStatement.execute(sql));
     }
 
     @Override
     final public ResultSet getResultSet() throws SQLException {
+        final CachedResults r = results;
+        if (r != null)
+            return r.getResultSet();
         generateKey();
         return resultSetCache.get(this, generatedKey, backendStatement == null ? null : backendStatement::getResultSet);
     }
 
     @Override
     public int getUpdateCount() throws SQLException {
+        final CachedResults r = results;
+        if (r != null)
+            return r.getUpdateCount();
         return checkBackendStatement().getUpdateCount();
     }
 
     @Override
     public boolean getMoreResults() throws SQLException {
+        final CachedResults r = results;
+        if (r != null)
+            return r.getMoreResults(CLOSE_CURRENT_RESULT);
         return checkBackendStatement().getMoreResults();
     }
 
@@ -275,6 +428,7 @@ class CachedStatement<T extends Statement> implements Statement {
 
     @Override
     public int[] executeBatch() throws SQLException {
+        closeResults();
         return checkBackendStatement().executeBatch();
     }
 
@@ -285,6 +439,9 @@ class CachedStatement<T extends Statement> implements Statement {
 
     @Override
     public boolean getMoreResults(int current) throws SQLException {
+        final CachedResults r = results;
+        if (r != null)
+            return r.getMoreResults(current);
         return checkBackendStatement().getMoreResults(current);
     }
 
@@ -295,18 +452,21 @@ class CachedStatement<T extends Statement> implements Statement {
 
     @Override
     public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        closeResults();
         executedSql = sql;
         return checkBackendStatement().executeUpdate(sql, autoGeneratedKeys);
     }
 
     @Override
     public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        closeResults();
         executedSql = sql;
         return checkBackendStatement().executeUpdate(sql, columnIndexes);
     }
 
     @Override
     public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        closeResults();
         executedSql = sql;
         return checkBackendStatement().executeUpdate(sql, columnNames);
     }
@@ -315,24 +475,24 @@ class CachedStatement<T extends Statement> implements Statement {
     public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
         executedSql = sql;
         generateKey();
-        return resultSetCache.checkIfExists(generatedKey) || checkBackendStatement("No cache entry")
-                .execute(sql, autoGeneratedKeys);
+        return executeCached(
+                backendStatement == null ? null : () -> backendStatement.execute(sql, autoGeneratedKeys));
     }
 
     @Override
     public boolean execute(String sql, int[] columnIndexes) throws SQLException {
         executedSql = sql;
         generateKey();
-        return resultSetCache.checkIfExists(generatedKey) || checkBackendStatement("No cache entry")
-                .execute(sql, columnIndexes);
+        return executeCached(
+                backendStatement == null ? null : () -> backendStatement.execute(sql, columnIndexes));
     }
 
     @Override
     public boolean execute(String sql, String[] columnNames) throws SQLException {
         executedSql = sql;
         generateKey();
-        return resultSetCache.checkIfExists(generatedKey) || checkBackendStatement("No cache entry")
-                .execute(sql, columnNames);
+        return executeCached(
+                backendStatement == null ? null : () -> backendStatement.execute(sql, columnNames));
     }
 
     @Override
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A ResultSet which has not been stored because it exceeds the maximum entry size.
+ * The rows already written are read back from the prefix, the remaining rows are read from the backend.
+ */
+class CachedStreamingResultSet extends CachedResultSet {
+
+    private final Path prefixPath;
+
+    /**
+     * @param statement  the cached statement
+     * @param prefix     the rows already written, including the schema id
+     * @param registry   the registry of the schema
+     * @param dictionary the optional dictionary of the frequent strings
+     * @param prefixPath the optional file of the prefix, deleted on close with its sidecar
+     * @param sidecar    the optional sidecar of the prefix
+     * @param backend    the backend ResultSet, positioned on the last row of the prefix
+     * @param pos        the number of rows in the prefix
+     * @throws SQLException if the prefix cannot be read
+     */
+    CachedStreamingResultSet(final CachedStatement statement, final InputStream prefix,
+            final SchemaRegistry registry, final StringDictionary dictionary, final Path prefixPath,
+            final BlobSidecar.Source sidecar, final ResultSet backend, final int pos) throws SQLException {
+        super(statement, rows(prefix, backend, pos), registry, dictionary, sidecar);
+        this.prefixPath = prefixPath;
+    }
+
+    /**
+     * @param statement  the cached statement
+     * @param prefix     the entry holding the rows already written, its schema is given by its header
+     * @param dictionary the optional dictionary of the frequent strings
+     * @param prefixPath the file of the entry, deleted on close with its sidecar
+     * @param backend    the backend ResultSet, positioned on the last row of the prefix
+     * @param pos        the number of rows in the prefix
+     * @throws SQLException if the prefix cannot be read
+     */
+    CachedStreamingResultSet(final CachedStatement statement, final CachedOnDiskResultSet.Entry prefix,
+            final StringDictionary dictionary, final Path prefixPath, final ResultSet backend, final int pos)
+            throws SQLException {
+        super(statement, rows(prefix, backend, pos), prefix.metaData, dictionary, prefix.sidecar, null);
+        this.prefixPath = prefixPath;
+    }
+
+    /**
+     * @param statement the cached statement
+     * @param prefix    the rows already embedded in a results entry, the column definitions being already read
+     * @param metaData  the schema of the rows
+     * @param backend   the backend ResultSet, positioned on the last row of the prefix
+     * @param pos       the number of rows in the prefix
+     * @throws SQLException if the prefix cannot be read
+     */
+    CachedStreamingResultSet(final CachedStatement statement, final DataInputStream prefix,
+            final CachedResultSetMetaData metaData, final ResultSet backend, final int pos) throws SQLException {
+        super(statement, rows(prefix, backend, pos), metaData, null, null, null);
+        this.prefixPath = null;
+    }
+
+    private static DataInputStream rows(final InputStream prefix, final ResultSet backend, final int pos)
+            throws SQLException {
+        return new DataInputStream(new SequenceInputStream(prefix,
+                new BackendRowsInputStream(backend, ResultSetWriter.getColumnTypes(backend), pos)));
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            super.close();
+        } finally {
+            if (prefixPath != null) {
+                try {
+                    DiskCacheLayout.delete(prefixPath);
+                } catch (IOException e) {
+                    // Quiet
+                }
+            }
+        }
+    }
+}
@@ -22,10 +22,11 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.io.Writer;
 import java.sql.Clob;
+import java.sql.NClob;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 
-class ClobString implements Clob {
+class ClobString implements NClob {
 
     final String content;
 
@@ -40,7 +41,7 @@ class ClobString implements Clob {
 
     @Override
     public String getSubString(long pos, int length) throws SQLException {
-        return content == null ? null : content.substring((int) pos - 1, length);
+        return content == null ? null : content.substring((int) pos - 1, (int) pos - 1 + length);
     }
 
     @Override
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Keep an on-disk cache under its quota. The quota covers the published entries and the temporary files
+ * (the entries being built, or served without being published). When the quota is exceeded,
+ * the least recently used entries are deleted in a background (daemon) thread until the size falls
+ * under 90% of the quota.
+ * An entry whose key is locked (e.g. being built) is skipped: the evictor never waits for a key lock.
+ */
+class DiskCacheEvictor {
+
+    private final ResultSetOnDiskCacheImpl cache;
+    private final DiskCacheIndex index;
+    private final long quota;
+    private final long lowWatermark;
+    private final AtomicBoolean scheduled;
+    private final ExecutorService executor;
+
+    /**
+     * @param cache the cache to evict from
+     * @param index the index of the cache
+     * @param quota the maximum size of the cache directory in bytes
+     */
+    DiskCacheEvictor(final ResultSetOnDiskCacheImpl cache, final DiskCacheIndex index, final long quota) {
+        this.cache = cache;
+        this.index = index;
+        this.quota = quota;
+        this.lowWatermark = quota - quota / 10;
+        this.scheduled = new AtomicBoolean();
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "jdbc-cache-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    long getQuota() {
+        return quota;
+    }
+
+    /**
+     * Schedule an eviction if the quota is exceeded and no eviction is pending.
+     */
+    void check() {
+        if (executor.isShutdown() || scheduled.get())
+            return;
+        try {
+            if (size() > quota && scheduled.compareAndSet(false, true))
+                executor.execute(this::evictQuietly);
+        } catch (SQLException e) {
+            Driver.LOGGER.log(Level.WARNING, "The disk cache size cannot be checked: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the size of the indexed entries, of the temporary files and of the quarantined entries
+     */
+    private long size() throws SQLException {
+        final long bytes = index.getBytes();
+        return bytes > quota ? bytes : bytes + cache.getTemporaryUsage() + cache.getQuarantineUsage();
+    }
+
+    /**
+     * Delete the least recently used entries until the size falls under the low watermark.
+     *
+     * @return the number of deleted entries
+     * @throws SQLException if an entry cannot be deleted
+     */
+    int evict() throws SQLException {
+        final long bytes = size();
+        if (bytes <= quota)
+            return 0;
+        int count = 0;
+        for (String key : index.leastRecentlyUsed(bytes - lowWatermark))
+            if (cache.evict(key))
+                count++;
+        return count;
+    }
+
+    /**
+     * Stop the background thread, a pending eviction is abandoned
+     */
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    private void evictQuietly() {
+        scheduled.set(false);
+        try {
+            evict();
+        } catch (SQLException | RuntimeException e) {
+            Driver.LOGGER.log(Level.WARNING, "The disk cache eviction failed: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * In-memory index of the entries of an on-disk cache: the size of each file and its last access.
+ * The last access is a logical clock.
+ * <p>
+ * The index is persisted by an optional DiskCacheIndexStore, so the startup does not scan the directory.
+ * Without a valid snapshot, the index is rebuilt from the files, ordered by modification time.
+ * The accesses are not persisted, the snapshot only keeps their order.
+ */
+class DiskCacheIndex implements DiskCacheIndexStore.Target, Closeable {
+
+    private final DiskCacheIndexStore store;
+    private volatile ConcurrentHashMap<String, Entry> entries;
+    private final AtomicLong bytes;
+    private final AtomicLong clock;
+
+    DiskCacheIndex() {
+        this(null);
+    }
+
+    /**
+     * @param store the optional persistence of the index
+     */
+    DiskCacheIndex(final DiskCacheIndexStore store) {
+        this.store = store;
+        this.entries = new ConcurrentHashMap<>();
+        this.bytes = new AtomicLong();
+        this.clock = new AtomicLong();
+    }
+
+    /**
+     * @param name the name of a file of the cache directory
+     * @return true if the file is an entry (named by its key)
+     */
+    static boolean isEntry(final String name) {
+        if (name.length() != 32)
+            return false;
+        for (int i = 0; i < name.length(); i++)
+            if (Character.digit(name.charAt(i), 16) < 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Load the persisted index, or rebuild it from the files of the directory.
+     *
+     * @param directory the cache directory
+     * @throws IOException if the index or the directory cannot be read
+     */
+    void load(final Path directory) throws IOException {
+        if (store != null && store.load(this))
+            return;
+        rebuild(directory);
+        if (store != null)
+            store.snapshot(this);
+    }
+
+    /**
+     * Index the entries found in the directory, ordered by modification time.
+     *
+     * @param directory the cache directory
+     * @throws IOException if the directory cannot be read
+     */
+    void rebuild(final Path directory) throws IOException {
+        final List<Snapshot> found = Collections.synchronizedList(new ArrayList<>());
+        DiskCacheLayout.forEachEntry(directory, path -> {
+            try {
+                found.add(new Snapshot(path.getFileName().toString(), DiskCacheLayout.size(path),
+                        Files.getLastModifiedTime(path).toMillis()));
+            } catch (IOException e) {
+                // The entry has been removed meanwhile
+            }
+        });
+        found.sort(Comparator.comparingLong(f -> f.lastAccess));
+        for (Snapshot f : found)
+            apply(DiskCacheIndexStore.PUT, f.key, f.size);
+    }
+
+    private void update(final byte operation, final String key, final long size) {
+        if (store == null) {
+            apply(operation, key, size);
+            return;
+        }
+        try {
+            store.append(this, operation, key, size);
+        } catch (IOException e) {
+            Driver.LOGGER.log(Level.WARNING, "Cannot write the cache index, it will be rebuilt: " + e.getMessage(),
+                    e);
+            store.invalidate();
+            apply(operation, key, size);
+        }
+    }
+
+    @Override
+    public void apply(final byte operation, final String key, final long size) {
+        switch (operation) {
+        case DiskCacheIndexStore.PUT:
+            final Entry previous = entries.put(key, new Entry(size, clock.incrementAndGet()));
+            bytes.addAndGet(previous == null ? size : size - previous.size);
+            break;
+        case DiskCacheIndexStore.REMOVE:
+            final Entry entry = entries.remove(key);
+            if (entry != null)
+                bytes.addAndGet(-entry.size);
+            break;
+        case DiskCacheIndexStore.CLEAR:
+            for (String k : entries.keySet())
+                apply(DiskCacheIndexStore.REMOVE, k, 0);
+            break;
+        default:
+            break;
+        }
+    }
+
+    @Override
+    public void reset(final List<Snapshot> snapshot) {
+        final ConcurrentHashMap<String, Entry> loaded = new ConcurrentHashMap<>(snapshot.size());
+        long size = 0;
+        for (Snapshot s : snapshot) {
+            final Entry previous = loaded.put(s.key, new Entry(s.size, clock.incrementAndGet()));
+            size += previous == null ? s.size : s.size - previous.size;
+        }
+        entries = loaded;
+        bytes.set(size);
+    }
+
+    @Override
+    public List<Snapshot> snapshot() {
+        final List<Snapshot> snapshot = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Entry> e : entries.entrySet())
+            snapshot.add(new Snapshot(e.getKey(), e.getValue().size, e.getValue().lastAccess));
+        snapshot.sort(Comparator.comparingLong(s -> s.lastAccess));
+        return snapshot;
+    }
+
+    /**
+     * Add or replace an entry, which becomes the most recently used.
+     */
+    void put(final String key, final long size) {
+        update(DiskCacheIndexStore.PUT, key, size);
+    }
+
+    /**
+     * Record an access. An entry which is not indexed (e.g. built by another JVM) is added.
+     */
+    void touch(final String key, final Path path) {
+        final Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.lastAccess = clock.incrementAndGet();
+            return;
+        }
+        try {
+            put(key, DiskCacheLayout.size(path));
+        } catch (IOException e) {
+            // The entry has been removed meanwhile
+        }
+    }
+
+    void remove(final String key) {
+        update(DiskCacheIndexStore.REMOVE, key, 0);
+    }
+
+    void clear() {
+        update(DiskCacheIndexStore.CLEAR, null, 0);
+    }
+
+    boolean contains(final String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * @return the size of the entry, or 0 if the entry is not indexed
+     */
+    long size(final String key) {
+        final Entry entry = entries.get(key);
+        return entry == null ? 0 : entry.size;
+    }
+
+    /**
+     * @return the total size of the indexed entries
+     */
+    long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return the number of indexed entries
+     */
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param bytesToFree the number of bytes to free
+     * @return the least recently used keys whose total size is at least the given number of bytes
+     */
+    List<String> leastRecentlyUsed(final long bytesToFree) {
+        final List<String> keys = new ArrayList<>();
+        long freed = 0;
+        for (Snapshot s : snapshot()) {
+            if (freed >= bytesToFree)
+                break;
+            keys.add(s.key);
+            freed += s.size;
+        }
+        return keys;
+    }
+
+    /**
+     * Close the persistence of the index
+     */
+    @Override
+    public void close() throws IOException {
+        if (store != null)
+            store.close();
+    }
+
+    private static class Entry {
+
+        private final long size;
+        private volatile long lastAccess;
+
+        private Entry(final long size, final long lastAccess) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * An immutable copy of an entry
+     */
+    final static class Snapshot {
+
+        final String key;
+        final long size;
+        final long lastAccess;
+
+        Snapshot(final String key, final long size, final long lastAccess) {
+            this.key = key;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Persistence of the DiskCacheIndex: a snapshot of the entries, followed by an append-only log of the changes.
+ * Both files share an epoch: the log is only replayed on top of the snapshot having the same epoch.
+ * <p>
+ * A compaction writes a new snapshot (in a temporary file atomically renamed) with a new epoch,
+ * then restarts the log. A crash between the two steps leaves a log with an older epoch, which is ignored
+ * because its changes are already in the snapshot. A partial record left by a crash is dropped.
+ * The snapshot is forced to the disk before it is renamed, the rename is forced with its directory (when the
+ * file system allows it), and the log is forced after each write, so a crash of the system does not lose them.
+ * <p>
+ * Several JVMs may share the files: every access is done under an exclusive FileLock,
+ * and the records appended by the other processes are applied before appending a new one.
+ */
+class DiskCacheIndexStore implements Closeable {
+
+    final static String SNAPSHOT_FILENAME = ".index";
+    final static String LOG_FILENAME = ".index.log";
+
+    final static byte PUT = 1;
+    final static byte REMOVE = 2;
+    final static byte CLEAR = 3;
+
+    private final static int SNAPSHOT_MAGIC = 0x514A4353; // QJCS
+    private final static int LOG_MAGIC = 0x514A434C; // QJCL
+    private final static int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    private final static int KEY_SIZE = 32;
+    private final static int RECORD_SIZE = 1 + KEY_SIZE + Long.BYTES;
+    private final static int MIN_COMPACTION_RECORDS = 65536;
+
+    /**
+     * Receives the changes read from the files
+     */
+    interface Target {
+
+        void apply(byte operation, String key, long size);
+
+        /**
+         * Replace all the entries at once, the readers never see a partially loaded index
+         *
+         * @param entries the entries, from the least to the most recently used
+         */
+        void reset(List<DiskCacheIndex.Snapshot> entries);
+
+        /**
+         * @return the entries to write in a snapshot, from the least to the most recently used
+         */
+        List<DiskCacheIndex.Snapshot> snapshot();
+
+        int size();
+    }
+
+    private final Path snapshotPath;
+    private final Path logPath;
+    private final FileChannel channel;
+    private final ByteBuffer record;
+
+    private long epoch;
+    private long position;
+
+    DiskCacheIndexStore(final Path cacheDirectory) throws IOException {
+        this.snapshotPath = cacheDirectory.resolve(SNAPSHOT_FILENAME);
+        this.logPath = cacheDirectory.resolve(LOG_FILENAME);
+        this.channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.record = ByteBuffer.allocate(RECORD_SIZE);
+    }
+
+    /**
+     * Load the snapshot and replay the log.
+     *
+     * @param target receives the entries
+     * @return false if there is no valid snapshot: the entries must be rebuilt and then compacted
+     * @throws IOException if the files cannot be read
+     */
+    synchronized boolean load(final Target target) throws IOException {
+        try (final FileLock ignored = channel.lock()) {
+            deleteTemporarySnapshots();
+            return reload(target);
+        }
+    }
+
+    /**
+     * Delete the temporary snapshots left by a crash. A compaction is always done under the lock,
+     * so a temporary snapshot found while the lock is held is orphaned.
+     */
+    private void deleteTemporarySnapshots() throws IOException {
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(snapshotPath.getParent(),
+                SNAPSHOT_FILENAME + ".*.tmp")) {
+            for (Path path : stream)
+                Files.deleteIfExists(path);
+        }
+    }
+
+    private boolean reload(final Target target) throws IOException {
+        final List<DiskCacheIndex.Snapshot> entries = new ArrayList<>();
+        epoch = readSnapshot(entries);
+        target.reset(entries);
+        if (epoch == 0) {
+            position = channel.size();
+            return false;
+        }
+        if (readLogEpoch() == epoch) {
+            position = HEADER_SIZE;
+            replay(target);
+        } else
+            resetLog();
+        return true;
+    }
+
+    /**
+     * Append a change and apply it to the target, after the changes appended by the other processes.
+     *
+     * @param target    the index to update
+     * @param operation PUT, REMOVE or CLEAR
+     * @param key       the key of the entry, or null for CLEAR
+     * @param size      the size of the entry for PUT
+     * @throws IOException if the log cannot be written
+     */
+    synchronized void append(final Target target, final byte operation, final String key, final long size)
+            throws IOException {
+        if (epoch == 0) {
+            // No valid snapshot, the changes are only kept in memory until the next startup
+            target.apply(operation, key, size);
+            return;
+        }
+        try (final FileLock ignored = channel.lock()) {
+            if (readLogEpoch() != epoch) {
+                // Compacted by another process
+                if (!reload(target)) {
+                    target.apply(operation, key, size);
+                    return;
+                }
+            } else
+                replay(target);
+            record.clear();
+            record.put(operation);
+            if (key == null)
+                record.put(new byte[KEY_SIZE]);
+            else
+                record.put(checkKey(key));
+            record.putLong(size);
+            record.flip();
+            writeFully(record, position);
+            channel.force(false);
+            position += RECORD_SIZE;
+            target.apply(operation, key, size);
+            if ((position - HEADER_SIZE) / RECORD_SIZE >= Math.max(MIN_COMPACTION_RECORDS, target.size()))
+                compact(target);
+        }
+    }
+
+    /**
+     * Write a snapshot of the target and restart the log.
+     *
+     * @param target the index to persist
+     * @throws IOException if the files cannot be written
+     */
+    synchronized void snapshot(final Target target) throws IOException {
+        try (final FileLock ignored = channel.lock()) {
+            if (epoch != 0 && readLogEpoch() == epoch)
+                replay(target);
+            compact(target);
+        }
+    }
+
+    /**
+     * Remove the snapshot, so the index is rebuilt from the files at the next startup.
+     */
+    synchronized void invalidate() {
+        try {
+            Files.deleteIfExists(snapshotPath);
+        } catch (IOException e) {
+            // Quiet
+        }
+        epoch = 0;
+    }
+
+    private void compact(final Target target) throws IOException {
+        long newEpoch;
+        do {
+            newEpoch = ThreadLocalRandom.current().nextLong();
+        } while (newEpoch == 0 || newEpoch == epoch);
+        final List<DiskCacheIndex.Snapshot> entries = target.snapshot();
+        final Path tempPath = snapshotPath.resolveSibling(
+                SNAPSHOT_FILENAME + '.' + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        try {
+            try (final FileChannel file = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                final DataOutputStream output =
+                        new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(file)));
+                output.writeInt(SNAPSHOT_MAGIC);
+                output.writeLong(newEpoch);
+                output.writeInt(entries.size());
+                for (DiskCacheIndex.Snapshot entry : entries) {
+                    output.write(checkKey(entry.key));
+                    output.writeLong(entry.size);
+                }
+                output.flush();
+                file.force(true);
+            }
+            Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(snapshotPath.getParent());
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        epoch = newEpoch;
+        resetLog();
+    }
+
+    /**
+     * @param entries receives the entries of the snapshot, nothing if there is no valid snapshot
+     * @return the epoch of the snapshot, or 0 if there is no valid snapshot
+     */
+    private long readSnapshot(final List<DiskCacheIndex.Snapshot> entries) throws IOException {
+        try (final InputStream is = Files.newInputStream(snapshotPath)) {
+            try (final DataInputStream input = new DataInputStream(new BufferedInputStream(is))) {
+                if (input.readInt() != SNAPSHOT_MAGIC)
+                    return 0;
+                final long snapshotEpoch = input.readLong();
+                final int count = input.readInt();
+                final byte[] key = new byte[KEY_SIZE];
+                for (int i = 0; i < count; i++) {
+                    input.readFully(key);
+                    entries.add(new DiskCacheIndex.Snapshot(new String(key, StandardCharsets.US_ASCII),
+                            input.readLong(), i));
+                }
+                return snapshotEpoch;
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            // A truncated or corrupted snapshot
+            entries.clear();
+            return 0;
+        }
+    }
+
+    private long readLogEpoch() throws IOException {
+        if (channel.size() < HEADER_SIZE)
+            return 0;
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+        return header.getInt() == LOG_MAGIC ? header.getLong() : 0;
+    }
+
+    private void resetLog() throws IOException {
+        channel.truncate(0);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(LOG_MAGIC);
+        header.putLong(epoch);
+        header.flip();
+        writeFully(header, 0);
+        channel.force(false);
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * Force the entries of a directory (a rename) to the disk.
+     * Some file systems (Windows) cannot open a directory: the rename is then left to the system.
+     */
+    private static void forceDirectory(final Path directory) {
+        try (final FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Not supported
+        }
+    }
+
+    /**
+     * Apply the complete records written after the current position. A partial record is dropped.
+     */
+    private void replay(final Target target) throws IOException {
+        final long size = channel.size();
+        final long end = position + (size - position) / RECORD_SIZE * RECORD_SIZE;
+        if (end != size)
+            channel.truncate(end);
+        if (end == position)
+            return;
+        final ByteBuffer records = ByteBuffer.allocate((int) (end - position));
+        readFully(records, position);
+        records.flip();
+        final byte[] key = new byte[KEY_SIZE];
+        while (records.hasRemaining()) {
+            final byte operation = records.get();
+            records.get(key);
+            final long entrySize = records.getLong();
+            target.apply(operation, operation == CLEAR ? null : new String(key, StandardCharsets.US_ASCII),
+                    entrySize);
+        }
+        position = end;
+    }
+
+    private static byte[] checkKey(final String key) {
+        final byte[] bytes = key.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length != KEY_SIZE)
+            throw new IllegalArgumentException("Unexpected key: " + key);
+        return bytes;
+    }
+
+    private void readFully(final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new IOException("Unexpected end of the index log: " + logPath);
+            position += read;
+        }
+    }
+
+    private void writeFully(final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Layout of the entries in the cache directory. The entries are spread over two levels of sub-directories
+ * named by the first two and the next two hex digits of the key (e.g. 3F/A2/3FA2...),
+ * so no directory holds more than 256 sub-directories or the files of 1/65536 of the keys.
+ * A shard left empty by a deletion is removed, it is created again by the next publication.
+ * The first level shards are visited in parallel by the operations visiting every entry.
+ */
+class DiskCacheLayout {
+
+    /**
+     * The directory keeping the corrupt entries, for diagnosis
+     */
+    final static String QUARANTINE = ".quarantine";
+
+    /**
+     * The maximum number of entries kept in the quarantine directory, the oldest ones are deleted
+     */
+    final static int MAX_QUARANTINED = 16;
+
+    /**
+     * The directory receiving the entries being built, named by their key followed by a random suffix
+     */
+    final static String TEMPORARY = ".temp";
+
+    /**
+     * The file created once the entries of a previous version have been moved to the shards
+     */
+    final static String LAYOUT_FILENAME = ".layout";
+
+    private final static int SHARD_LENGTH = 2;
+
+    /**
+     * The maximum number of threads visiting the shards: the visit mostly waits for the file system,
+     * at least 2 threads are used
+     */
+    private final static int VISITORS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The number of attempts to move a file in a shard removed meanwhile
+     */
+    private final static int MOVE_ATTEMPTS = 3;
+
+    /**
+     * @param cacheDirectory the cache directory
+     * @param key            the key of the entry
+     * @return the path of the file of the entry
+     */
+    static Path entryPath(final Path cacheDirectory, final String key) {
+        return cacheDirectory.resolve(key.substring(0, SHARD_LENGTH))
+                .resolve(key.substring(SHARD_LENGTH, SHARD_LENGTH * 2))
+                .resolve(key);
+    }
+
+    /**
+     * @param cacheDirectory the cache directory
+     * @param key            the key of the entry
+     * @return a new path for building the entry, on the file system of the entries so it can be atomically moved
+     * @throws IOException if the temporary directory cannot be created
+     */
+    static Path tempPath(final Path cacheDirectory, final String key) throws IOException {
+        final Path directory = cacheDirectory.resolve(TEMPORARY);
+        Files.createDirectories(directory);
+        return directory.resolve(key + '.' + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+    }
+
+    /**
+     * @param tempPath a file of the temporary directory
+     * @return the key of the entry the file has been written for, or null if the file is not a temporary entry
+     */
+    static String tempKey(final Path tempPath) {
+        final String name = tempPath.getFileName().toString();
+        final int dot = name.indexOf('.');
+        if (dot < 0)
+            return null;
+        final String key = name.substring(0, dot);
+        return DiskCacheIndex.isEntry(key) ? key : null;
+    }
+
+    /**
+     * @param cacheDirectory the cache directory
+     * @return the files of the temporary directory
+     * @throws IOException if the directory cannot be listed
+     */
+    static List<Path> listTemporary(final Path cacheDirectory) throws IOException {
+        final Path directory = cacheDirectory.resolve(TEMPORARY);
+        return Files.isDirectory(directory) ? list(directory) : Collections.emptyList();
+    }
+
+    /**
+     * @param cacheDirectory the cache directory
+     * @return the size of the temporary files, the entries being built or served without being published
+     * @throws IOException if the temporary directory cannot be listed
+     */
+    static long temporarySize(final Path cacheDirectory) throws IOException {
+        long size = 0;
+        for (Path path : listTemporary(cacheDirectory)) {
+            try {
+                size += Files.size(path);
+            } catch (NoSuchFileException e) {
+                // Already published or deleted
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @param cacheDirectory the cache directory
+     * @return the size of the quarantined entries and of their sidecars
+     * @throws IOException if the quarantine directory cannot be listed
+     */
+    static long quarantineSize(final Path cacheDirectory) throws IOException {
+        final Path quarantine = cacheDirectory.resolve(QUARANTINE);
+        if (!Files.isDirectory(quarantine))
+            return 0;
+        long size = 0;
+        for (Path path : list(quarantine)) {
+            try {
+                size += Files.size(path);
+            } catch (NoSuchFileException e) {
+                // Deleted meanwhile
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @param entryPath the path of an entry
+     * @return the size of the entry, including its sidecars
+     * @throws IOException if the entry does not exist
+     */
+    static long size(final Path entryPath) throws IOException {
+        long size = Files.size(entryPath);
+        for (Path sidecar : BlobSidecar.list(entryPath)) {
+            try {
+                size += Files.size(sidecar);
+            } catch (NoSuchFileException e) {
+                // Replaced meanwhile
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Delete an entry, then its sidecars: a reader opening the entry first never misses its sidecar
+     * unless the entry itself is gone.
+     *
+     * @param entryPath the path of the entry
+     * @return true if the entry existed
+     * @throws IOException if the files cannot be deleted
+     */
+    static boolean delete(final Path entryPath) throws IOException {
+        final boolean deleted = Files.deleteIfExists(entryPath);
+        for (Path sidecar : BlobSidecar.list(entryPath))
+            Files.deleteIfExists(sidecar);
+        prune(entryPath.getParent());
+        return deleted;
+    }
+
+    /**
+     * Remove a shard and its parent shard if they are empty. The other directories (e.g. the temporary directory)
+     * are kept.
+     */
+    private static void prune(final Path shard) throws IOException {
+        if (!isShardName(shard) || !isShardName(shard.getParent()))
+            return;
+        try {
+            Files.deleteIfExists(shard);
+            Files.deleteIfExists(shard.getParent());
+        } catch (DirectoryNotEmptyException e) {
+            // Still used
+        }
+    }
+
+    /**
+     * Move a file in its shard, the shard is created again if it has been pruned meanwhile.
+     */
+    private static void moveToShard(final Path source, final Path target) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return;
+            } catch (NoSuchFileException e) {
+                if (attempt >= MOVE_ATTEMPTS || !Files.exists(source))
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Publish an entry written in a temporary file. Its sidecar, named by its own id, is moved first,
+     * so it never replaces the sidecar of the previous entry. The sidecars of the replaced entry are then deleted.
+     *
+     * @param tempPath  the temporary entry
+     * @param entryPath the final path of the entry
+     * @throws IOException if the entry cannot be moved
+     */
+    static void publish(final Path tempPath, final Path entryPath) throws IOException {
+        final long id = EntryHeader.read(tempPath).sidecar;
+        final Path sidecar = BlobSidecar.of(entryPath, id);
+        if (id != 0)
+            moveToShard(BlobSidecar.of(tempPath, id), sidecar);
+        moveToShard(tempPath, entryPath);
+        for (Path replaced : BlobSidecar.list(entryPath)) {
+            if (replaced.equals(sidecar))
+                continue;
+            try {
+                Files.deleteIfExists(replaced);
+            } catch (IOException e) {
+                // Still open (e.g. on Windows), deleted with the entry
+            }
+        }
+    }
+
+    /**
+     * Move a corrupt entry and its sidecars to the quarantine directory.
+     * A previous quarantined copy of the same entry is replaced, only the {@link #MAX_QUARANTINED} last entries
+     * are kept.
+     *
+     * @param cacheDirectory the cache directory
+     * @param entryPath      the path of the entry
+     * @return true if the entry existed
+     * @throws IOException if the entry cannot be moved
+     */
+    static boolean quarantine(final Path cacheDirectory, final Path entryPath) throws IOException {
+        final Path target = cacheDirectory.resolve(QUARANTINE).resolve(entryPath.getFileName());
+        Files.createDirectories(target.getParent());
+        for (Path previous : BlobSidecar.list(target))
+            Files.deleteIfExists(previous);
+        try {
+            Files.move(entryPath, target, StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        for (Path sidecar : BlobSidecar.list(entryPath)) {
+            try {
+                Files.move(sidecar, target.resolveSibling(sidecar.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            } catch (NoSuchFileException e) {
+                // Deleted meanwhile
+            }
+        }
+        prune(entryPath.getParent());
+        trimQuarantine(target.getParent());
+        return true;
+    }
+
+    /**
+     * Delete the oldest quarantined entries beyond {@link #MAX_QUARANTINED}
+     */
+    private static void trimQuarantine(final Path quarantine) throws IOException {
+        final List<Path> entries = list(quarantine).stream()
+                .filter(path -> !path.getFileName().toString().endsWith(BlobSidecar.EXTENSION))
+                .sorted(Comparator.comparingLong(DiskCacheLayout::lastModified).reversed())
+                .collect(Collectors.toList());
+        for (Path path : entries.subList(Math.min(MAX_QUARANTINED, entries.size()), entries.size()))
+            delete(path);
+    }
+
+    private static long lastModified(final Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            // Deleted meanwhile
+            return 0;
+        }
+    }
+
+    private static boolean isShardName(final Path path) {
+        final String name = path.getFileName().toString();
+        return name.length() == SHARD_LENGTH && Character.digit(name.charAt(0), 16) >= 0
+                && Character.digit(name.charAt(1), 16) >= 0;
+    }
+
+    private static boolean isShard(final Path path) {
+        return isShardName(path) && Files.isDirectory(path);
+    }
+
+    private static List<Path> list(final Path directory) throws IOException {
+        try (final Stream<Path> stream = Files.list(directory)) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Visit the files of the entries. The first level shards are visited in parallel by a pool of 2 to 8
+     * threads dedicated to this call: the consumer may block (e.g. on the lock of a key),
+     * so the common ForkJoinPool is not used. The consumer must be thread-safe.
+     * The method returns once every shard has been visited, or has failed.
+     * A shard removed while it is visited is skipped.
+     *
+     * @param cacheDirectory the cache directory
+     * @param consumer       receives the path of each entry
+     * @throws IOException if a directory cannot be listed
+     */
+    static void forEachEntry(final Path cacheDirectory, final Consumer<Path> consumer) throws IOException {
+        final List<Path> shards = new ArrayList<>();
+        for (Path shard : list(cacheDirectory))
+            if (isShard(shard))
+                shards.add(shard);
+        if (shards.size() <= 1) {
+            for (Path shard : shards)
+                visitShard(shard, consumer);
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(VISITORS, shards.size()), runnable -> {
+            final Thread thread = new Thread(runnable, "jdbc-cache-shard-visitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<?>> futures = new ArrayList<>(shards.size());
+            for (Path shard : shards)
+                futures.add(executor.submit(() -> {
+                    visitShard(shard, consumer);
+                    return null;
+                }));
+            Throwable failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = e.getCause();
+                    else
+                        failure.addSuppressed(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while visiting the entries of " + cacheDirectory);
+                }
+            }
+            if (failure instanceof IOException)
+                throw (IOException) failure;
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException) failure;
+            if (failure instanceof Error)
+                throw (Error) failure;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void visitShard(final Path shard, final Consumer<Path> consumer) throws IOException {
+        try {
+            for (Path subShard : list(shard)) {
+                if (!isShard(subShard))
+                    continue;
+                for (Path path : list(subShard))
+                    if (DiskCacheIndex.isEntry(path.getFileName().toString()))
+                        consumer.accept(path);
+            }
+        } catch (NoSuchFileException e) {
+            // Pruned meanwhile
+        }
+    }
+
+    /**
+     * Move the entries of a flat directory (written by a previous version) to their shard.
+     * The directory is only listed once: the migration is then recorded by the layout file.
+     *
+     * @param cacheDirectory the cache directory
+     * @return the number of moved entries
+     * @throws IOException if an entry cannot be moved
+     */
+    static int migrate(final Path cacheDirectory) throws IOException {
+        final Path layout = cacheDirectory.resolve(LAYOUT_FILENAME);
+        if (Files.exists(layout))
+            return 0;
+        int moved = 0;
+        for (Path path : list(cacheDirectory)) {
+            if (!DiskCacheIndex.isEntry(path.getFileName().toString()) || !Files.isRegularFile(path))
+                continue;
+            moveToShard(path, entryPath(cacheDirectory, path.getFileName().toString()));
+            moved++;
+        }
+        try {
+            Files.createFile(layout);
+        } catch (FileAlreadyExistsException e) {
+            // Migrated by another process
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The tags of the on-disk entries, kept across restarts and shared by the processes using the cache directory.
+ * Each tag has a file in the .tags sub-directory, named by the MD5 of the tag, listing the keys of the entries
+ * tagged since the last invalidation of the tag. The key of an entry is appended when the entry is built,
+ * the file is read and emptied when the tag is invalidated. Every access is done under an exclusive FileLock,
+ * the threads of the current JVM being serialized by the monitor of the instance.
+ * The keys of the entries removed otherwise (evicted, flushed by statement) are dropped when the file is compacted.
+ */
+class DiskCacheTags {
+
+    final static String DIRECTORY = ".tags";
+
+    private final static int KEY_SIZE = 32;
+    private final static int COMPACTION_KEYS = 4096;
+
+    private final Path cacheDirectory;
+    private final Path directory;
+
+    DiskCacheTags(final Path cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+        this.directory = cacheDirectory.resolve(DIRECTORY);
+    }
+
+    private Path path(final String tag) throws IOException {
+        try {
+            return directory.resolve(CachedStatement.generateCacheKey(tag));
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Append the key of an entry to the file of each of its tags.
+     * Every 4096 keys, the keys of the entries which no longer exist are removed from the file.
+     *
+     * @param key  the key of the entry
+     * @param tags the tags of the entry
+     * @throws IOException if a file cannot be written
+     */
+    synchronized void add(final String key, final Set<String> tags) throws IOException {
+        if (tags.isEmpty())
+            return;
+        final byte[] bytes = key.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length != KEY_SIZE)
+            throw new IllegalArgumentException("Unexpected key: " + key);
+        Files.createDirectories(directory);
+        for (String tag : tags) {
+            try (final FileChannel channel = FileChannel.open(path(tag), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE); final FileLock ignored = channel.lock()) {
+                // A partial key left by a crash is overwritten
+                final long position = channel.size() / KEY_SIZE * KEY_SIZE;
+                writeFully(channel, ByteBuffer.wrap(bytes), position);
+                if ((position / KEY_SIZE + 1) % COMPACTION_KEYS == 0)
+                    compact(channel);
+            }
+        }
+    }
+
+    /**
+     * Read and empty the file of a tag.
+     *
+     * @param tag the invalidated tag
+     * @return the keys of the entries tagged since the last invalidation, some of them may no longer exist
+     * @throws IOException if the file cannot be read
+     */
+    synchronized Set<String> take(final String tag) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path(tag), StandardOpenOption.READ,
+                StandardOpenOption.WRITE); final FileLock ignored = channel.lock()) {
+            final Set<String> keys = read(channel);
+            channel.truncate(0);
+            return keys;
+        } catch (NoSuchFileException e) {
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * Empty the file of every tag, once every entry has been removed.
+     * The files are kept: a process may be waiting for their lock.
+     *
+     * @throws IOException if a file cannot be emptied
+     */
+    synchronized void clear() throws IOException {
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+                        final FileLock ignored = channel.lock()) {
+                    channel.truncate(0);
+                } catch (NoSuchFileException e) {
+                    // Quiet
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // No tag
+        }
+    }
+
+    /**
+     * Keep the keys of the entries which exist or are being built
+     */
+    private void compact(final FileChannel channel) throws IOException {
+        final Set<String> building = new HashSet<>();
+        for (Path tempPath : DiskCacheLayout.listTemporary(cacheDirectory)) {
+            final String key = DiskCacheLayout.tempKey(tempPath);
+            if (key != null)
+                building.add(key);
+        }
+        final Set<String> keys = read(channel);
+        keys.removeIf(
+                key -> !building.contains(key) && !Files.exists(DiskCacheLayout.entryPath(cacheDirectory, key)));
+        final ByteBuffer buffer = ByteBuffer.allocate(keys.size() * KEY_SIZE);
+        for (String key : keys)
+            buffer.put(key.getBytes(StandardCharsets.US_ASCII));
+        buffer.flip();
+        channel.truncate(0);
+        writeFully(channel, buffer, 0);
+    }
+
+    private static Set<String> read(final FileChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() / KEY_SIZE * KEY_SIZE));
+        long position = 0;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0)
+                break;
+            position += read;
+        }
+        buffer.flip();
+        final Set<String> keys = new LinkedHashSet<>();
+        final byte[] key = new byte[KEY_SIZE];
+        while (buffer.remaining() >= KEY_SIZE) {
+            buffer.get(key);
+            keys.add(new String(key, StandardCharsets.US_ASCII));
+        }
+        return keys;
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+}
@@ -22,7 +22,12 @@ import java.sql.DriverManager;
 import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,6 +41,17 @@ public class Driver implements java.sql.Driver {
     public final static String CACHE_DRIVER_URL = "cache.driver.url";
     public final static String CACHE_DRIVER_CLASS = "cache.driver.class";
     public final static String CACHE_DRIVER_ACTIVE = "cache.driver.active";
+    public final static String CACHE_POLL_INTERVAL = "cache.poll.interval";
+    public final static String CACHE_POLL_FROM = "cache.poll.from";
+    public final static String CACHE_POLL_PROBE_PREFIX = "cache.poll.probe.";
+    public final static String CACHE_ADMISSION_ENTRY_COST = "cache.admission.entry.cost";
+    public final static String CACHE_ADMISSION_BYTE_COST = "cache.admission.byte.cost";
+    public final static String CACHE_ENTRY_MAX_BYTES = "cache.entry.max.bytes";
+    public final static String CACHE_ENTRY_MAX_ROWS = "cache.entry.max.rows";
+    public final static String CACHE_DISK_QUOTA = "cache.disk.quota";
+    public final static String CACHE_DICTIONARY_SIZE = "cache.dictionary.size";
+    public final static String CACHE_CALLABLE = "cache.callable";
+    public final static String CACHE_CALLABLE_TAGS_PREFIX = "cache.callable.tags.";
 
     static {
         try {
@@ -80,20 +96,134 @@ public class Driver implements java.sql.Driver {
             }
             // Check the cache directory
             final String cacheName = url.substring(URL_FILE_PREFIX.length());
-            final Path cacheDirectory = FileSystems.getDefault().getPath(cacheName);
-            resultSetCache = resultSetCacheMap.computeIfAbsent(cacheName, (foo) -> new ResultSetOnDiskCacheImpl(cacheDirectory));
+            final Path cacheDirectory = FileSystems.getDefault().getPath(cacheName).toAbsolutePath().normalize();
+            final long quota = getDiskQuota(info);
+            final int dictionarySize = getDictionarySize(info);
+            final long pollInterval = getPollInterval(info);
+            // The directory is locked by the cache, the same directory must be shared by a single instance
+            resultSetCache = resultSetCacheMap.computeIfAbsent(cacheDirectory.toString(),
+                    (key) -> ResultSetCacheManagement.register("file", key, register(key,
+                            startPoller(new ResultSetOnDiskCacheImpl(cacheDirectory, quota, dictionarySize),
+                                    cacheDriverUrl, info, pollInterval))));
         } else if (url.startsWith(URL_MEM_PREFIX)) {
             if (url.length() <= URL_MEM_PREFIX.length()) {
                 throw new SQLException("The name is empty: " + url);
             }
             // Check the cache directory
             final String cacheName = url.substring(URL_MEM_PREFIX.length());
-            resultSetCache = resultSetCacheMap.computeIfAbsent(cacheName, (foo) -> new ResultSetInMemoryCacheImpl());
+            final int dictionarySize = getDictionarySize(info);
+            final long pollInterval = getPollInterval(info);
+            resultSetCache = resultSetCacheMap.computeIfAbsent(cacheName,
+                    (key) -> ResultSetCacheManagement.register("mem", key, register(key,
+                            startPoller(new ResultSetInMemoryCacheImpl(dictionarySize), cacheDriverUrl, info,
+                                    pollInterval))));
         } else {
             throw new IllegalArgumentException("Can not find cache implementation for " + url);
         }
 
-        return new CachedConnection(backendConnection, resultSetCache);
+        return new CachedConnection(backendConnection, resultSetCache, AdmissionPolicy.of(info),
+                Boolean.parseBoolean(info.getProperty(CACHE_CALLABLE)), getCallableTags(info));
+    }
+
+    /**
+     * @return the tags of the calls by procedure name, both normalized like the tags of the cache
+     */
+    private static Map<String, Set<String>> getCallableTags(final Properties info) {
+        final Map<String, Set<String>> callableTags = new HashMap<>();
+        for (String name : info.stringPropertyNames()) {
+            if (!name.startsWith(CACHE_CALLABLE_TAGS_PREFIX))
+                continue;
+            final Set<String> tags = new HashSet<>();
+            for (String tag : info.getProperty(name).split(","))
+                if (!tag.trim().isEmpty())
+                    tags.add(ResultSetCacheImpl.normalizeTag(tag));
+            callableTags.put(ResultSetCacheImpl.normalizeTag(name.substring(CACHE_CALLABLE_TAGS_PREFIX.length())),
+                    tags);
+        }
+        return callableTags;
+    }
+
+    /**
+     * Keep a new cache until it is closed, a closed cache is opened again by the next connection.
+     */
+    private ResultSetCacheImpl register(final String key, final ResultSetCacheImpl resultSetCache) {
+        resultSetCache.onClose(() -> resultSetCacheMap.remove(key, resultSetCache));
+        return resultSetCache;
+    }
+
+    /**
+     * @return the disk quota of a new on-disk cache in bytes, 0 if there is no quota
+     */
+    private static long getDiskQuota(final Properties info) throws SQLException {
+        final String quota = info.getProperty(CACHE_DISK_QUOTA);
+        try {
+            return quota == null || quota.trim().isEmpty() ? 0 : Long.parseLong(quota.trim());
+        } catch (NumberFormatException e) {
+            throw new SQLException("Wrong disk quota: " + quota, e);
+        }
+    }
+
+    /**
+     * @return the maximum number of strings of the dictionary of a new cache, 0 if there is no dictionary
+     */
+    private static int getDictionarySize(final Properties info) throws SQLException {
+        final String size = info.getProperty(CACHE_DICTIONARY_SIZE);
+        try {
+            return size == null || size.trim().isEmpty() ? 0 : Integer.parseInt(size.trim());
+        } catch (NumberFormatException e) {
+            throw new SQLException("Wrong dictionary size: " + size, e);
+        }
+    }
+
+    /**
+     * @return the delay between two polls of the table change poller in milliseconds, 0 if there is no poller
+     */
+    private static long getPollInterval(final Properties info) throws SQLException {
+        final String interval = info.getProperty(CACHE_POLL_INTERVAL);
+        if (interval == null || interval.trim().isEmpty())
+            return 0;
+        final long value;
+        try {
+            value = Long.parseLong(interval.trim());
+        } catch (NumberFormatException e) {
+            throw new SQLException("Wrong poll interval: " + interval, e);
+        }
+        if (value <= 0)
+            throw new SQLException("Wrong poll interval: " + interval);
+        return value;
+    }
+
+    /**
+     * Start the optional table change poller of a new cache, stopped when the cache is closed.
+     * The poller is configured by the properties of the connection creating the cache.
+     * If the poller cannot be started, the cache is closed.
+     */
+    private static ResultSetCacheImpl startPoller(final ResultSetCacheImpl resultSetCache, final String cacheDriverUrl,
+            final Properties info, final long interval) {
+        if (interval == 0 || cacheDriverUrl == null || cacheDriverUrl.isEmpty())
+            return resultSetCache;
+        final Map<String, String> probes = new TreeMap<>();
+        for (String name : info.stringPropertyNames())
+            if (name.startsWith(CACHE_POLL_PROBE_PREFIX))
+                probes.put(name.substring(CACHE_POLL_PROBE_PREFIX.length()), info.getProperty(name));
+        if (probes.isEmpty())
+            return resultSetCache;
+        final Properties backendInfo = new Properties();
+        backendInfo.putAll(info);
+        try {
+            final TableChangePoller poller = new TableChangePoller(resultSetCache,
+                    () -> DriverManager.getConnection(cacheDriverUrl, backendInfo), probes,
+                    info.getProperty(CACHE_POLL_FROM)).start(interval);
+            resultSetCache.onClose(poller::stop);
+        } catch (RuntimeException e) {
+            try {
+                resultSetCache.close();
+            } catch (SQLException ex) {
+                e.addSuppressed(ex);
+            }
+            throw e;
+        }
+        return resultSetCache;
     }
 
     public boolean acceptsURL(String url) throws SQLException {
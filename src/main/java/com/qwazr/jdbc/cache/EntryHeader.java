@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The uncompressed header at the start of an entry file:
+ * <pre>
+ * int magic, short format version, byte codec, byte reserved, long schema id, long row count, long sidecar id,
+ * long dictionary generation
+ * </pre>
+ * The sidecar id is the id of the {@link BlobSidecar} of the entry, or 0 if the entry has no sidecar.
+ * The dictionary generation is the one of the {@link StringDictionary} used by the writer, or 0 if there was none.
+ * The reader checks the magic and the version before choosing the decoder of the body.
+ * The body starts with the first row, the schema being given by the schema id of the header.
+ * The header is written once the body is complete, so the row count can be read without decompressing the entry,
+ * and an entry whose write has not completed has no valid magic.
+ */
+final class EntryHeader {
+
+    final static int SIZE =
+            Integer.BYTES + Short.BYTES + Byte.BYTES + Byte.BYTES + Long.BYTES + Long.BYTES + Long.BYTES
+                    + Long.BYTES;
+
+    final static int FORMAT_VERSION = 7;
+
+    /**
+     * The body is a GZIP stream (see {@link BlockStreams})
+     */
+    final static int CODEC_GZIP = 1;
+
+    private final static int MAGIC = 0x514A4345; // QJCE
+
+    final int version;
+    final int codec;
+    final long schemaId;
+    final long rows;
+    final long sidecar;
+    final long dictionary;
+
+    EntryHeader(final int version, final int codec, final long schemaId, final long rows, final long sidecar,
+            final long dictionary) {
+        this.version = version;
+        this.codec = codec;
+        this.schemaId = schemaId;
+        this.rows = rows;
+        this.sidecar = sidecar;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Write the header at the start of the file, the position of the channel is not changed.
+     *
+     * @param channel the entry file
+     * @throws IOException if the header cannot be written
+     */
+    void write(final FileChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        buffer.putInt(MAGIC).putShort((short) version).put((byte) codec).put((byte) 0).putLong(schemaId).putLong(
+                rows).putLong(sidecar).putLong(dictionary);
+        buffer.flip();
+        long position = 0;
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    /**
+     * Read the header at the start of the file, the channel is then positioned at the start of the body.
+     *
+     * @param channel the entry file
+     * @return the header
+     * @throws IncompatibleEntryException if the file is not an entry, or has been written using a newer format
+     * @throws IOException                if the file cannot be read
+     */
+    static EntryHeader read(final FileChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, buffer.position()) < 0)
+                throw new IncompatibleEntryException("The entry header is truncated");
+        buffer.flip();
+        if (buffer.getInt() != MAGIC)
+            throw new IncompatibleEntryException("The file is not a versioned cache entry");
+        final int version = buffer.getShort();
+        if (version != FORMAT_VERSION)
+            throw new IncompatibleEntryException("Unsupported entry format version: " + version,
+                    version > FORMAT_VERSION);
+        final int codec = buffer.get();
+        buffer.get();
+        final EntryHeader header = new EntryHeader(version, codec, buffer.getLong(), buffer.getLong(),
+                buffer.getLong(), buffer.getLong());
+        channel.position(SIZE);
+        return header;
+    }
+
+    /**
+     * @param path the entry file
+     * @return the header of the entry
+     * @throws IOException if the header cannot be read or is not compatible
+     */
+    static EntryHeader read(final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown by the ResultSetWriter when an entry exceeds the limits of the admission policy.
+ * The output ends with the last complete row, the backend ResultSet is positioned on this row.
+ */
+class EntryLimitException extends SQLException {
+
+    final int rows;
+
+    EntryLimitException(final int rows) {
+        super("The entry exceeds the maximum size after " + rows + " rows");
+        this.rows = rows;
+    }
+}
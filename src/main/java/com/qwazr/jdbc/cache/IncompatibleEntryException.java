@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an entry file has not been written by a compatible version of the driver
+ * (unknown magic, format version or codec, or schema not available).
+ * The entry is handled as a miss and built again.
+ */
+class IncompatibleEntryException extends IOException {
+
+    /**
+     * True if the entry has been written by a newer version of the driver, the entry is then kept for it
+     */
+    final boolean newer;
+
+    IncompatibleEntryException(final String message) {
+        this(message, false);
+    }
+
+    IncompatibleEntryException(final String message, final boolean newer) {
+        super(message);
+        this.newer = newer;
+    }
+}
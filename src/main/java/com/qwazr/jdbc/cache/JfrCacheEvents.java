@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.util.function.Supplier;
+
+/**
+ * Flight Recorder implementation of the cache events.
+ * Only loaded by CacheEvents when the JFR API is available.
+ * The default thresholds keep the lookups and the writes out of the recordings unless they are slow.
+ */
+class JfrCacheEvents extends CacheEvents {
+
+    private final static String CATEGORY = "JDBC Cache";
+
+    @Name("com.qwazr.jdbc.cache.Get")
+    @Label("Cache Get")
+    @Description("Lookup of a cached ResultSet, including the population on a miss")
+    @Category(CATEGORY)
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class GetEvent extends Event {
+
+        @Label("Key")
+        String key;
+
+        @Label("SQL Template Hash")
+        int templateHash;
+
+        @Label("Hit")
+        boolean hit;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.qwazr.jdbc.cache.Populate")
+    @Label("Cache Populate")
+    @Description("Execution of the backend query and storage of the cache entry")
+    @Category(CATEGORY)
+    @Threshold("0 ms")
+    @StackTrace(false)
+    static class PopulateEvent extends Event {
+
+        @Label("Key")
+        String key;
+
+        @Label("SQL Template Hash")
+        int templateHash;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("com.qwazr.jdbc.cache.Write")
+    @Label("Cache Write")
+    @Description("Serialization of a ResultSet")
+    @Category(CATEGORY)
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class WriteEvent extends Event {
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.qwazr.jdbc.cache.Flush")
+    @Label("Cache Flush")
+    @Description("Invalidation of one entry, of a tag, or of the whole cache")
+    @Category(CATEGORY)
+    @Threshold("0 ms")
+    @StackTrace(false)
+    static class FlushEvent extends Event {
+
+        @Label("Key")
+        String key;
+
+        @Label("Tag")
+        String tag;
+
+        @Label("Entries")
+        long entries;
+    }
+
+    private final static EventType GET = EventType.getEventType(GetEvent.class);
+    private final static EventType POPULATE = EventType.getEventType(PopulateEvent.class);
+    private final static EventType WRITE = EventType.getEventType(WriteEvent.class);
+    private final static EventType FLUSH = EventType.getEventType(FlushEvent.class);
+
+    /**
+     * @return the started event, or null if the event is not enabled in any recording: nothing is allocated
+     */
+    private static <T extends Event> T begin(final EventType type, final Supplier<T> supplier) {
+        if (!type.isEnabled())
+            return null;
+        final T event = supplier.get();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    Object beginGet() {
+        return begin(GET, GetEvent::new);
+    }
+
+    @Override
+    void commitGet(final Object event, final String key, final CachedStatement statement, final boolean hit,
+            final long rows, final long bytes) {
+        if (event == null)
+            return;
+        final GetEvent getEvent = (GetEvent) event;
+        getEvent.end();
+        if (!getEvent.shouldCommit())
+            return;
+        getEvent.key = key;
+        getEvent.templateHash = templateHash(statement);
+        getEvent.hit = hit;
+        getEvent.rows = rows;
+        getEvent.bytes = bytes;
+        getEvent.commit();
+    }
+
+    @Override
+    Object beginPopulate() {
+        return begin(POPULATE, PopulateEvent::new);
+    }
+
+    @Override
+    void commitPopulate(final Object event, final String key, final CachedStatement statement, final long rows,
+            final long bytes, final boolean success) {
+        if (event == null)
+            return;
+        final PopulateEvent populateEvent = (PopulateEvent) event;
+        populateEvent.end();
+        if (!populateEvent.shouldCommit())
+            return;
+        populateEvent.key = key;
+        populateEvent.templateHash = templateHash(statement);
+        populateEvent.rows = rows;
+        populateEvent.bytes = bytes;
+        populateEvent.success = success;
+        populateEvent.commit();
+    }
+
+    @Override
+    Object beginWrite() {
+        return begin(WRITE, WriteEvent::new);
+    }
+
+    @Override
+    void commitWrite(final Object event, final int rows, final long bytes) {
+        if (event == null)
+            return;
+        final WriteEvent writeEvent = (WriteEvent) event;
+        writeEvent.end();
+        if (!writeEvent.shouldCommit())
+            return;
+        writeEvent.rows = rows;
+        writeEvent.bytes = bytes;
+        writeEvent.commit();
+    }
+
+    @Override
+    Object beginFlush() {
+        return begin(FLUSH, FlushEvent::new);
+    }
+
+    @Override
+    void commitFlush(final Object event, final String key, final String tag, final long entries) {
+        if (event == null)
+            return;
+        final FlushEvent flushEvent = (FlushEvent) event;
+        flushEvent.end();
+        if (!flushEvent.shouldCommit())
+            return;
+        flushEvent.key = key;
+        flushEvent.tag = tag;
+        flushEvent.entries = entries;
+        flushEvent.commit();
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics per query template. The template of a query is its SQL with the literals replaced by '?',
+ * so the executions of a prepared statement and of its literal variants are counted together.
+ * <p>
+ * The number of tracked templates is bounded using the Space-Saving algorithm:
+ * when the table is full, the least executed template is replaced by the new one,
+ * which inherits its execution count as an over-estimation (see {@link Template#getError()}).
+ * The most executed templates are always kept.
+ */
+public class QueryTemplateStatistics {
+
+    final static int DEFAULT_CAPACITY = 256;
+
+    /**
+     * Sort by descending number of executions
+     */
+    public final static Comparator<Template> BY_EXECUTIONS =
+            Comparator.comparingLong(Template::getExecutions).reversed();
+
+    /**
+     * Sort by descending backend time saved by the hits
+     */
+    public final static Comparator<Template> BY_TIME_SAVED =
+            Comparator.comparingLong(Template::getTimeSavedNanos).reversed();
+
+    /**
+     * Sort by descending bytes stored
+     */
+    public final static Comparator<Template> BY_BYTES_STORED =
+            Comparator.comparingLong(Template::getBytesStored).reversed();
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Template> templates;
+
+    QueryTemplateStatistics(final int capacity) {
+        this.capacity = capacity;
+        this.templates = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Record an execution of the given SQL.
+     *
+     * @param sql the executed SQL
+     * @return the template, or null if there is no SQL
+     */
+    Template execution(final String sql) {
+        if (sql == null)
+            return null;
+        final String normalized = normalize(sql);
+        Template template = templates.get(normalized);
+        if (template == null)
+            template = insert(normalized);
+        template.executions.increment();
+        return template;
+    }
+
+    private synchronized Template insert(final String normalized) {
+        Template template = templates.get(normalized);
+        if (template != null)
+            return template;
+        long error = 0;
+        if (templates.size() >= capacity) {
+            Template min = null;
+            long minExecutions = Long.MAX_VALUE;
+            for (Template t : templates.values()) {
+                final long executions = t.getExecutions();
+                if (executions < minExecutions) {
+                    min = t;
+                    minExecutions = executions;
+                }
+            }
+            if (min != null) {
+                templates.remove(min.sql);
+                error = minExecutions;
+            }
+        }
+        template = new Template(normalized, error);
+        templates.put(normalized, template);
+        return template;
+    }
+
+    /**
+     * @return the maximum number of tracked templates
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return a snapshot of the tracked templates
+     */
+    public List<Template> getTemplates() {
+        return new ArrayList<>(templates.values());
+    }
+
+    /**
+     * @param n          the maximum number of templates to return
+     * @param comparator the order (e.g. {@link #BY_EXECUTIONS}, {@link #BY_TIME_SAVED})
+     * @return the first n templates in the given order
+     */
+    public List<Template> getTop(final int n, final Comparator<Template> comparator) {
+        final List<Template> list = getTemplates();
+        list.sort(comparator);
+        return list.size() > n ? new ArrayList<>(list.subList(0, n)) : list;
+    }
+
+    void clear() {
+        templates.clear();
+    }
+
+    /**
+     * Replace the string and numeric literals by '?' and collapse the whitespaces.
+     *
+     * @param sql the SQL query
+     * @return the normalized SQL
+     */
+    static String normalize(final String sql) {
+        final int length = sql.length();
+        final StringBuilder sb = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            final char c = sql.charAt(i);
+            if (c == '\'') {
+                // String literal, a quote is escaped by doubling it
+                i++;
+                while (i < length) {
+                    if (sql.charAt(i++) == '\'') {
+                        if (i < length && sql.charAt(i) == '\'')
+                            i++;
+                        else
+                            break;
+                    }
+                }
+                sb.append('?');
+            } else if (c == '"') {
+                // Quoted identifier, kept as is
+                final int end = sql.indexOf('"', i + 1);
+                final int next = end == -1 ? length : end + 1;
+                sb.append(sql, i, next);
+                i = next;
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(sql.charAt(i)))
+                    i++;
+                if (sb.length() > 0 && i < length)
+                    sb.append(' ');
+            } else if (Character.isDigit(c) && (sb.length() == 0 || !isIdentifierPart(
+                    sb.charAt(sb.length() - 1)))) {
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+                    i++;
+                sb.append('?');
+            } else if (isIdentifierPart(c)) {
+                while (i < length && isIdentifierPart(sql.charAt(i)))
+                    sb.append(sql.charAt(i++));
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isIdentifierPart(final char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /**
+     * The statistics of one query template.
+     */
+    public static class Template {
+
+        private final String sql;
+        private final long error;
+        private final LongAdder executions;
+        private final LongAdder hits;
+        private final LongAdder misses;
+        private final LongAdder loads;
+        private final LongAdder rejections;
+        private final LongAdder loadNanos;
+        private final LongAdder bytesStored;
+        private final LongAdder rowsStored;
+
+        private Template(final String sql, final long error) {
+            this.sql = sql;
+            this.error = error;
+            this.executions = new LongAdder();
+            this.executions.add(error);
+            this.hits = new LongAdder();
+            this.misses = new LongAdder();
+            this.loads = new LongAdder();
+            this.rejections = new LongAdder();
+            this.loadNanos = new LongAdder();
+            this.bytesStored = new LongAdder();
+            this.rowsStored = new LongAdder();
+        }
+
+        void hit() {
+            hits.increment();
+        }
+
+        void miss() {
+            misses.increment();
+        }
+
+        void load(final long nanos, final long bytes, final long rows) {
+            loads.increment();
+            loadNanos.add(nanos);
+            bytesStored.add(bytes);
+            rowsStored.add(rows);
+        }
+
+        void rejection() {
+            rejections.increment();
+        }
+
+        /**
+         * @return the normalized SQL
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * @return the number of executions, including the over-estimation given by {@link #getError()}
+         */
+        public long getExecutions() {
+            return executions.sum();
+        }
+
+        /**
+         * @return the maximum over-estimation of the number of executions
+         */
+        public long getError() {
+            return error;
+        }
+
+        /**
+         * @return the number of executions served by an existing entry
+         */
+        public long getHits() {
+            return hits.sum();
+        }
+
+        /**
+         * @return the number of executions which did not find any entry
+         */
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        /**
+         * @return the number of entries populated from the backend
+         */
+        public long getLoads() {
+            return loads.sum();
+        }
+
+        /**
+         * @return the number of populated entries which have not been stored, following the admission policy
+         */
+        public long getRejections() {
+            return rejections.sum();
+        }
+
+        /**
+         * @return the mean duration of a population (backend query and serialization) in nanoseconds
+         */
+        public long getMeanLoadNanos() {
+            final long l = getLoads();
+            return l == 0 ? 0 : loadNanos.sum() / l;
+        }
+
+        /**
+         * @return the backend time saved by the hits, estimated using the mean population duration
+         */
+        public long getTimeSavedNanos() {
+            return getHits() * getMeanLoadNanos();
+        }
+
+        /**
+         * @return the total number of bytes written for this template
+         */
+        public long getBytesStored() {
+            return bytesStored.sum();
+        }
+
+        /**
+         * @return the mean size of an entry in bytes
+         */
+        public long getMeanEntryBytes() {
+            final long l = getLoads();
+            return l == 0 ? 0 : getBytesStored() / l;
+        }
+
+        /**
+         * @return the mean number of rows of an entry
+         */
+        public long getMeanEntryRows() {
+            final long l = getLoads();
+            return l == 0 ? 0 : rowsStored.sum() / l;
+        }
+
+        @Override
+        public String toString() {
+            return "executions=" + getExecutions() + " (error=" + error + "), hits=" + getHits() + ", misses="
+                    + getMisses() + ", rejections=" + getRejections() + ", timeSaved=" + getTimeSavedNanos()
+                    + "ns, meanBytes=" + getMeanEntryBytes()
+                    + ", meanRows=" + getMeanEntryRows() + ", sql=" + sql;
+        }
+    }
+}
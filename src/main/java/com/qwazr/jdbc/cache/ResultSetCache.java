@@ -37,6 +37,16 @@ public interface ResultSetCache {
      */
     void flush(Statement stmt) throws SQLException;
 
+    /**
+     * Remove every entry depending on the given tag.
+     * The tags of an entry are the tables it has been read from.
+     *
+     * @param tag the tag, usually a table name
+     * @return the number of entries removed
+     * @throws SQLException if any SQL error occurs
+     */
+    int invalidateTag(String tag) throws SQLException;
+
     /**
      * @return the number of entries in the cache
      * @throws SQLException if any SQL error occurs
@@ -52,6 +62,13 @@ public interface ResultSetCache {
      */
     boolean exists(Statement stmt) throws SQLException;
 
+    /**
+     * @param stmt the statement to check
+     * @return the number of rows of the cache entry of the statement, or -1 if there is no entry
+     * @throws SQLException if any SQL error occurs
+     */
+    long getRowCount(Statement stmt) throws SQLException;
+
     /**
      * @return the number of cache entry build currently in progress
      */
@@ -64,6 +81,24 @@ public interface ResultSetCache {
      */
     boolean active(Statement stmt) throws SQLException;
 
+    /**
+     * @return the statistics of the cache
+     */
+    ResultSetCacheStatistics getStatistics();
+
+    /**
+     * @return the statistics per query template
+     */
+    QueryTemplateStatistics getTemplateStatistics();
+
+    /**
+     * Release the resources of the cache: the background threads, the open files.
+     * The entries are kept, the next connection using the same URL opens the cache again.
+     *
+     * @throws SQLException if any SQL error occurs
+     */
+    void close() throws SQLException;
+
     <T extends Statement> ResultSet get(CachedStatement statement, String key, Provider s) throws SQLException;
 
     boolean checkIfExists(String key);
@@ -15,37 +15,340 @@
  */
 package com.qwazr.jdbc.cache;
 
-import java.io.ByteArrayOutputStream;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
 
 abstract class ResultSetCacheImpl implements ResultSetCache {
 
-    private final ConcurrentHashMap<String, ReentrantLock> activeKeys;
-    private final ConcurrentHashMap<String, ByteArrayOutputStream> cache;
+    private final static int MAX_REJECTED_KEYS = 16384;
+
+    final ConcurrentHashMap<String, ReentrantLock> activeKeys;
+    private final ConcurrentHashMap<String, Set<String>> taggedKeys;
+    private final ConcurrentHashMap<String, Set<String>> keyTags;
+    private final ConcurrentHashMap<String, Pattern> watchedTags;
+    final ResultSetCacheStatistics statistics;
+    final QueryTemplateStatistics templateStatistics;
+    private final ConcurrentHashMap<String, Integer> rejectedKeys;
+    private final AtomicLong invalidationClock;
+    private final ConcurrentHashMap<String, Long> tagInvalidations;
+    private volatile long flushInvalidation;
+    private final List<Runnable> closeActions;
+    private final AtomicBoolean closed;
 
     ResultSetCacheImpl() {
         this.activeKeys = new ConcurrentHashMap<>();
-        this.cache = new ConcurrentHashMap<>();
+        this.taggedKeys = new ConcurrentHashMap<>();
+        this.keyTags = new ConcurrentHashMap<>();
+        this.watchedTags = new ConcurrentHashMap<>();
+        this.statistics = new ResultSetCacheStatistics();
+        this.templateStatistics = new QueryTemplateStatistics(QueryTemplateStatistics.DEFAULT_CAPACITY);
+        this.rejectedKeys = new ConcurrentHashMap<>();
+        this.invalidationClock = new AtomicLong();
+        this.tagInvalidations = new ConcurrentHashMap<>();
+        this.flushInvalidation = 0;
+        this.closeActions = new CopyOnWriteArrayList<>();
+        this.closed = new AtomicBoolean();
+    }
+
+    @Override
+    public ResultSetCacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public QueryTemplateStatistics getTemplateStatistics() {
+        return templateStatistics;
+    }
+
+    /**
+     * Record a lookup in the cache statistics and in the statistics of the query template.
+     *
+     * @param statement the cached statement
+     * @param hit       true if the entry exists
+     * @return the template of the statement, or null
+     */
+    QueryTemplateStatistics.Template lookup(final CachedStatement statement, final boolean hit) {
+        final QueryTemplateStatistics.Template template =
+                templateStatistics.execution(statement == null ? null : statement.executedSql);
+        if (hit) {
+            statistics.hit();
+            if (template != null)
+                template.hit();
+        } else {
+            statistics.miss();
+            if (template != null)
+                template.miss();
+        }
+        return template;
+    }
+
+    /**
+     * Record a successful population in the cache statistics and in the statistics of the query template.
+     */
+    void loaded(final QueryTemplateStatistics.Template template, final long nanos, final long bytes,
+            final long rows) {
+        statistics.load(nanos, bytes);
+        if (template != null)
+            template.load(nanos, bytes, rows);
     }
 
     /**
-     * Check if an entry is available for this key.
+     * Remove the entry for the given key.
      *
      * @param key the computed key
-     * @return always true if the cache entry exists
+     * @return true if an entry has been removed
+     * @throws SQLException if any SQL error occurs
      */
+    abstract boolean remove(String key) throws SQLException;
 
-    public boolean checkIfExists(final String key) {
-        return cache.containsKey(key);
+    /**
+     * Decide if a new entry is stored, following the admission policy of the connection.
+     * The rejections are recorded in the statistics.
+     *
+     * @param statement the cached statement
+     * @param template  the template of the statement, or null
+     * @param key       the computed key
+     * @param nanos     the duration of the population
+     * @param bytes     the size of the entry
+     * @return true if the entry must be stored
+     */
+    boolean admit(final CachedStatement statement, final QueryTemplateStatistics.Template template,
+            final String key, final long nanos, final long bytes) {
+        final AdmissionPolicy policy = statement == null ? null : statement.getAdmissionPolicy();
+        if (policy == null)
+            return true;
+        final Integer rejected = rejectedKeys.get(key);
+        if (policy.admit(nanos, bytes, AdmissionPolicy.expectedReuse(template, rejected == null ? 0 : rejected))) {
+            if (rejected != null)
+                rejectedKeys.remove(key);
+            return true;
+        }
+        // The rejected keys are only kept to detect the reuse, a full map is just reset
+        if (rejectedKeys.size() >= MAX_REJECTED_KEYS)
+            rejectedKeys.clear();
+        rejectedKeys.merge(key, 1, Integer::sum);
+        statistics.rejection(nanos);
+        if (template != null)
+            template.rejection();
+        return false;
+    }
+
+    /**
+     * Record an entry which has not been stored because it exceeds the maximum entry size,
+     * or because it has a column type which cannot be cached.
+     * The key is not remembered by the admission: it would be refused again.
+     *
+     * @param template the template of the statement, or null
+     * @param nanos    the duration of the population until the limit was reached
+     */
+    void oversized(final QueryTemplateStatistics.Template template, final long nanos) {
+        statistics.rejection(nanos);
+        if (template != null)
+            template.rejection();
     }
 
     @Override
     public void flush() throws SQLException {
-        cache.clear();
+        flushInvalidation = invalidationClock.incrementAndGet();
+        taggedKeys.clear();
+        keyTags.clear();
+    }
+
+    /**
+     * Register an action executed when the cache is closed, in the reverse order of the registrations.
+     *
+     * @param action the action to run
+     */
+    void onClose(final Runnable action) {
+        closeActions.add(action);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (!closed.compareAndSet(false, true))
+            return;
+        for (int i = closeActions.size() - 1; i >= 0; i--)
+            closeActions.get(i).run();
+    }
+
+    static String normalizeTag(final String tag) {
+        return tag.trim().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Register a tag (usually a table name) which will be searched in the SQL of the cached statements.
+     * The metadata of a ResultSet does not always give the tables (aggregates, views).
+     *
+     * @param tag the tag to watch
+     */
+    void watchTag(final String tag) {
+        watchedTags.computeIfAbsent(normalizeTag(tag),
+                t -> Pattern.compile("\\b" + Pattern.quote(t) + "\\b", Pattern.CASE_INSENSITIVE));
+    }
+
+    /**
+     * @return the position of the invalidations, taken before querying the backend for a new entry
+     */
+    long invalidationMark() {
+        return invalidationClock.get();
+    }
+
+    /**
+     * A provider which knows tags of the entry which are not given by the metadata of the provided ResultSet,
+     * like the tables of the ResultSets embedded in a results entry.
+     */
+    interface TaggedProvider extends Provider {
+
+        /**
+         * @return the additional tags of the entry, complete once the entry has been provided
+         */
+        Set<String> getTags();
+    }
+
+    /**
+     * Collect the tags of a new entry: the tables given by the metadata, the tags given by a {@link TaggedProvider},
+     * and the watched tags found in the SQL.
+     *
+     * @param statement the cached statement
+     * @param provider  the provider of the entry
+     * @param metaData  the metadata of the provided ResultSet
+     * @return the tags of the entry
+     * @throws SQLException if the metadata cannot be read
+     */
+    Set<String> tags(final CachedStatement statement, final Provider provider, final ResultSetMetaData metaData)
+            throws SQLException {
+        final Set<String> tags = new HashSet<>();
+        tables(metaData, tags);
+        if (provider instanceof TaggedProvider)
+            tags.addAll(((TaggedProvider) provider).getTags());
+        final String sql = statement == null ? null : statement.executedSql;
+        if (sql != null)
+            watchedTags.forEach((tag, pattern) -> {
+                if (pattern.matcher(sql).find())
+                    tags.add(tag);
+            });
+        return tags;
+    }
+
+    /**
+     * Collect the normalized names of the tables given by the metadata of a ResultSet.
+     *
+     * @param metaData the metadata of the ResultSet
+     * @param tags     the set receiving the table names
+     * @throws SQLException if the metadata cannot be read
+     */
+    static void tables(final ResultSetMetaData metaData, final Set<String> tags) throws SQLException {
+        final int columnCount = metaData.getColumnCount();
+        for (int i = 1; i <= columnCount; i++) {
+            final String table = metaData.getTableName(i);
+            if (table != null && !table.isEmpty())
+                tags.add(normalizeTag(table));
+        }
+    }
+
+    /**
+     * Tag an entry. The entry must already be stored, so an invalidation issued from now on finds it.
+     * If one of the tags has been invalidated since the given mark (while the entry was built), the entry is removed.
+     *
+     * @param key  the computed key
+     * @param tags the tags of the entry
+     * @param mark the mark taken before the entry was built
+     * @return false if the entry has been removed
+     * @throws SQLException if the entry cannot be removed
+     */
+    boolean tag(final String key, final Set<String> tags, final long mark) throws SQLException {
+        // The tags of a rebuilt entry replace the tags of the previous build
+        untag(key);
+        keyTags.put(key, tags);
+        for (String tag : tags)
+            taggedKeys.compute(tag, (t, keys) -> {
+                final Set<String> tagged = keys == null ? ConcurrentHashMap.newKeySet() : keys;
+                tagged.add(key);
+                return tagged;
+            });
+        persistTags(key, tags);
+        boolean invalidated = flushInvalidation > mark;
+        for (String tag : tags)
+            invalidated |= tagInvalidations.getOrDefault(tag, 0L) > mark;
+        if (!invalidated)
+            return true;
+        remove(key);
+        return false;
+    }
+
+    /**
+     * Persist the tags of a new entry, so the entry can be invalidated by another process or after a restart.
+     * The entries of the in-memory caches are only tagged in memory.
+     *
+     * @param key  the computed key
+     * @param tags the tags of the entry
+     * @throws SQLException if the tags cannot be persisted
+     */
+    void persistTags(final String key, final Set<String> tags) throws SQLException {
+    }
+
+    /**
+     * Read and forget the persisted keys of a tag.
+     *
+     * @param tag the invalidated tag
+     * @return the keys of the entries tagged by any process since the last invalidation of the tag
+     * @throws SQLException if the tags cannot be read
+     */
+    Set<String> takePersistedKeys(final String tag) throws SQLException {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Forget the tags of an entry which is removed, evicted or not stored.
+     *
+     * @param key the computed key
+     */
+    void untag(final String key) {
+        final Set<String> tags = keyTags.remove(key);
+        if (tags != null)
+            for (String tag : tags)
+                taggedKeys.computeIfPresent(tag, (t, keys) -> {
+                    keys.remove(key);
+                    return keys.isEmpty() ? null : keys;
+                });
+    }
+
+    /**
+     * @return the number of tagged entries
+     */
+    int taggedEntries() {
+        return keyTags.size();
+    }
+
+    @Override
+    public int invalidateTag(final String tag) throws SQLException {
+        final Object event = CacheEvents.INSTANCE.beginFlush();
+        final String normalizedTag = normalizeTag(tag);
+        // Recorded first, so an entry built meanwhile is either found or removed when it is tagged
+        tagInvalidations.put(normalizedTag, invalidationClock.incrementAndGet());
+        final Set<String> keys = new HashSet<>(takePersistedKeys(normalizedTag));
+        final Set<String> tagged = taggedKeys.remove(normalizedTag);
+        if (tagged != null)
+            keys.addAll(tagged);
+        int entries = 0;
+        for (String key : keys)
+            if (remove(key))
+                entries++;
+        CacheEvents.INSTANCE.commitFlush(event, null, tag, entries);
+        return entries;
     }
 
     private ConcurrentHashMap<String, ReentrantLock> checkCacheMap() {
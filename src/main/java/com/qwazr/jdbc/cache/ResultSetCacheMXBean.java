@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+/**
+ * Management interface of a cache, registered in the platform MBeanServer as
+ * com.qwazr.jdbc.cache:type=ResultSetCache,storage={file|mem},name={name of the cache}
+ */
+public interface ResultSetCacheMXBean {
+
+    /**
+     * @return the type of storage: file or mem
+     */
+    String getStorage();
+
+    /**
+     * @return the name of the cache: the absolute normalized path of the directory of a file cache,
+     * the name given in the JDBC URL of a memory cache
+     */
+    String getName();
+
+    /**
+     * @return the number of entries in the cache
+     */
+    int getSize();
+
+    /**
+     * @return the number of cache entry build currently in progress
+     */
+    int getActiveBuilds();
+
+    long getHits();
+
+    long getMisses();
+
+    /**
+     * @return the ratio of hits over the lookups, or NaN if there was no lookup
+     */
+    double getHitRatio();
+
+    long getLoads();
+
+    long getLoadFailures();
+
+    long getRejections();
+
+    long getEvictions();
+
+    /**
+     * @return the number of corrupt entries detected and quarantined
+     */
+    long getCorruptions();
+
+    /**
+     * @return the total number of bytes written in the cache
+     */
+    long getBytesStored();
+
+    /**
+     * @return the current size in bytes of the entries of a file cache, 0 for a memory cache
+     */
+    long getDiskUsage();
+
+    /**
+     * @return the disk quota in bytes of a file cache, 0 if there is no quota or for a memory cache
+     */
+    long getDiskQuota();
+
+    long getGetLatencyMeanNanos();
+
+    long getGetLatencyP99Nanos();
+
+    long getPopulateLatencyMeanNanos();
+
+    long getPopulateLatencyP99Nanos();
+
+    /**
+     * Flush all entries in the cache
+     */
+    void flush();
+
+    /**
+     * Remove every entry depending on the given tag (a table name).
+     *
+     * @param tag the tag, usually a table name
+     * @return the number of entries removed
+     */
+    int invalidateTag(String tag);
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.logging.Level;
+
+class ResultSetCacheManagement implements ResultSetCacheMXBean {
+
+    private final String storage;
+    private final String name;
+    private final ResultSetCache resultSetCache;
+
+    private ResultSetCacheManagement(final String storage, final String name, final ResultSetCache resultSetCache) {
+        this.storage = storage;
+        this.name = name;
+        this.resultSetCache = resultSetCache;
+    }
+
+    static ObjectName objectName(final String storage, final String name) throws MalformedObjectNameException {
+        return new ObjectName(Driver.class.getPackage().getName() + ":type=ResultSetCache,storage=" + storage + ",name="
+                + ObjectName.quote(name));
+    }
+
+    /**
+     * Register the MBean of the given cache in the platform MBeanServer, the MBean is unregistered
+     * when the cache is closed. A failure is logged, but does not prevent the cache to be used.
+     *
+     * @param storage        the type of storage (file or mem)
+     * @param name           the name of the cache
+     * @param resultSetCache the cache
+     * @param <T>            the type of the cache
+     * @return the given cache
+     */
+    static <T extends ResultSetCacheImpl> T register(final String storage, final String name, final T resultSetCache) {
+        try {
+            final ObjectName objectName = objectName(storage, name);
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new ResultSetCacheManagement(storage, name, resultSetCache), objectName);
+            resultSetCache.onClose(() -> unregister(objectName));
+        } catch (JMException | RuntimeException e) {
+            Driver.LOGGER.log(Level.WARNING, "Cannot register the MBean of the cache " + name, e);
+        }
+        return resultSetCache;
+    }
+
+    private static void unregister(final ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException | RuntimeException e) {
+            Driver.LOGGER.log(Level.WARNING, "Cannot unregister the MBean " + objectName, e);
+        }
+    }
+
+    @Override
+    public String getStorage() {
+        return storage;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getSize() {
+        try {
+            return resultSetCache.size();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int getActiveBuilds() {
+        return resultSetCache.active();
+    }
+
+    @Override
+    public long getHits() {
+        return resultSetCache.getStatistics().getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return resultSetCache.getStatistics().getMisses();
+    }
+
+    @Override
+    public double getHitRatio() {
+        return resultSetCache.getStatistics().getHitRatio();
+    }
+
+    @Override
+    public long getLoads() {
+        return resultSetCache.getStatistics().getLoads();
+    }
+
+    @Override
+    public long getLoadFailures() {
+        return resultSetCache.getStatistics().getLoadFailures();
+    }
+
+    @Override
+    public long getRejections() {
+        return resultSetCache.getStatistics().getRejections();
+    }
+
+    @Override
+    public long getEvictions() {
+        return resultSetCache.getStatistics().getEvictions();
+    }
+
+    @Override
+    public long getCorruptions() {
+        return resultSetCache.getStatistics().getCorruptions();
+    }
+
+    @Override
+    public long getBytesStored() {
+        return resultSetCache.getStatistics().getBytesStored();
+    }
+
+    @Override
+    public long getDiskUsage() {
+        return resultSetCache instanceof ResultSetOnDiskCacheImpl ?
+                ((ResultSetOnDiskCacheImpl) resultSetCache).getDiskUsage() :
+                0;
+    }
+
+    @Override
+    public long getDiskQuota() {
+        return resultSetCache instanceof ResultSetOnDiskCacheImpl ?
+                ((ResultSetOnDiskCacheImpl) resultSetCache).getDiskQuota() :
+                0;
+    }
+
+    @Override
+    public long getGetLatencyMeanNanos() {
+        return resultSetCache.getStatistics().getGetLatency().getMeanNanos();
+    }
+
+    @Override
+    public long getGetLatencyP99Nanos() {
+        return resultSetCache.getStatistics().getGetLatency().getPercentileNanos(99);
+    }
+
+    @Override
+    public long getPopulateLatencyMeanNanos() {
+        return resultSetCache.getStatistics().getPopulateLatency().getMeanNanos();
+    }
+
+    @Override
+    public long getPopulateLatencyP99Nanos() {
+        return resultSetCache.getStatistics().getPopulateLatency().getPercentileNanos(99);
+    }
+
+    @Override
+    public void flush() {
+        try {
+            resultSetCache.flush();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int invalidateTag(final String tag) {
+        try {
+            return resultSetCache.invalidateTag(tag);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of a cache. The counters are striped (LongAdder), recording does not contend between threads.
+ */
+public class ResultSetCacheStatistics {
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder loads;
+    private final LongAdder loadFailures;
+    private final LongAdder rejections;
+    private final LongAdder evictions;
+    private final LongAdder corruptions;
+    private final LongAdder bytesStored;
+    private final Histogram getLatency;
+    private final Histogram populateLatency;
+    private final Histogram readLatency;
+
+    ResultSetCacheStatistics() {
+        hits = new LongAdder();
+        misses = new LongAdder();
+        loads = new LongAdder();
+        loadFailures = new LongAdder();
+        rejections = new LongAdder();
+        evictions = new LongAdder();
+        corruptions = new LongAdder();
+        bytesStored = new LongAdder();
+        getLatency = new Histogram();
+        populateLatency = new Histogram();
+        readLatency = new Histogram();
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void load(final long nanos, final long bytes) {
+        loads.increment();
+        bytesStored.add(bytes);
+        populateLatency.record(nanos);
+    }
+
+    void loadFailure(final long nanos) {
+        loadFailures.increment();
+        populateLatency.record(nanos);
+    }
+
+    void rejection(final long nanos) {
+        rejections.increment();
+        populateLatency.record(nanos);
+    }
+
+    void evictions(final long count) {
+        evictions.add(count);
+    }
+
+    void corruption() {
+        corruptions.increment();
+    }
+
+    void get(final long nanos) {
+        getLatency.record(nanos);
+    }
+
+    void read(final long nanos) {
+        readLatency.record(nanos);
+    }
+
+    /**
+     * @return the number of lookups served by an existing entry
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups which did not find any entry
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the ratio of hits over the lookups, or NaN if there was no lookup
+     */
+    public double getHitRatio() {
+        final long h = getHits();
+        final long total = h + getMisses();
+        return total == 0 ? Double.NaN : (double) h / total;
+    }
+
+    /**
+     * @return the number of entries successfully populated from the backend
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * @return the number of populations which failed
+     */
+    public long getLoadFailures() {
+        return loadFailures.sum();
+    }
+
+    /**
+     * @return the number of populated entries which have not been stored, following the admission policy
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * @return the number of entries removed from the cache
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of corrupt entries detected and quarantined
+     */
+    public long getCorruptions() {
+        return corruptions.sum();
+    }
+
+    /**
+     * @return the total number of bytes written in the cache
+     */
+    public long getBytesStored() {
+        return bytesStored.sum();
+    }
+
+    /**
+     * @return the latency of the lookups, including the population on a miss
+     */
+    public Histogram getGetLatency() {
+        return getLatency;
+    }
+
+    /**
+     * @return the latency of the populations (backend query and serialization)
+     */
+    public Histogram getPopulateLatency() {
+        return populateLatency;
+    }
+
+    /**
+     * @return the latency of the opening of a cached ResultSet
+     */
+    public Histogram getReadLatency() {
+        return readLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHits() + ", misses=" + getMisses() + ", loads=" + getLoads() + ", loadFailures="
+                + getLoadFailures() + ", rejections=" + getRejections() + ", evictions=" + getEvictions()
+                + ", corruptions=" + getCorruptions() + ", bytesStored=" + getBytesStored()
+                + ", get=[" + getLatency + "], populate=[" + populateLatency + "], read=[" + readLatency + ']';
+    }
+
+    /**
+     * Latency histogram with power of two buckets (in nanoseconds).
+     */
+    public static class Histogram {
+
+        private final static int BUCKETS = Long.SIZE;
+
+        private final LongAdder[] buckets;
+        private final LongAdder totalNanos;
+        private final LongAccumulator maxNanos;
+
+        private Histogram() {
+            buckets = new LongAdder[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++)
+                buckets[i] = new LongAdder();
+            totalNanos = new LongAdder();
+            maxNanos = new LongAccumulator(Math::max, 0);
+        }
+
+        void record(final long nanos) {
+            final long value = nanos < 0 ? 0 : nanos;
+            // The bucket i contains the values from 2^i to 2^(i+1)-1 (and zero for the first bucket)
+            buckets[Math.max(0, BUCKETS - 1 - Long.numberOfLeadingZeros(value))].increment();
+            totalNanos.add(value);
+            maxNanos.accumulate(value);
+        }
+
+        /**
+         * @return the number of recorded values
+         */
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets)
+                count += bucket.sum();
+            return count;
+        }
+
+        /**
+         * @return the sum of the recorded values in nanoseconds
+         */
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        /**
+         * @return the mean of the recorded values in nanoseconds
+         */
+        public long getMeanNanos() {
+            final long count = getCount();
+            return count == 0 ? 0 : getTotalNanos() / count;
+        }
+
+        /**
+         * @return the highest recorded value in nanoseconds
+         */
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * @param percentile the percentile (between 0 and 100)
+         * @return the upper bound (in nanoseconds) of the bucket containing the given percentile
+         */
+        public long getPercentileNanos(final double percentile) {
+            final long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++)
+                count += counts[i] = buckets[i].sum();
+            if (count == 0)
+                return 0;
+            final long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0)
+                    return Math.min(i >= BUCKETS - 2 ? Long.MAX_VALUE : (2L << i) - 1, getMaxNanos());
+            }
+            return getMaxNanos();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + ", mean=" + getMeanNanos() + "ns, p50=" + getPercentileNanos(50)
+                    + "ns, p99=" + getPercentileNanos(99) + "ns, max=" + getMaxNanos() + "ns";
+        }
+    }
+}
@@ -15,23 +15,38 @@
  */
 package com.qwazr.jdbc.cache;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 class ResultSetInMemoryCacheImpl extends ResultSetCacheImpl {
 
-    private final ConcurrentHashMap<String, ReentrantLock> activeKeys;
-    private final ConcurrentHashMap<String, byte[]> cache;
+    private final ConcurrentHashMap<String, Entry> cache;
+    private final SchemaRegistry schemas;
+    private volatile StringDictionary dictionary;
 
     ResultSetInMemoryCacheImpl() {
-        this.activeKeys = new ConcurrentHashMap<>();
+        this(0);
+    }
+
+    /**
+     * @param dictionarySize the maximum number of strings of the dictionary, or 0 for no dictionary
+     */
+    ResultSetInMemoryCacheImpl(final int dictionarySize) {
         this.cache = new ConcurrentHashMap<>();
+        this.schemas = SchemaRegistry.memory();
+        try {
+            this.dictionary = dictionarySize > 0 ? new StringDictionary(null, dictionarySize) : null;
+        } catch (IOException e) {
+            throw CacheException.of("Cannot create the string dictionary", e);
+        }
     }
 
     /**
@@ -47,30 +62,98 @@ class ResultSetInMemoryCacheImpl extends ResultSetCacheImpl {
      */
     public ResultSet get(final CachedStatement statement, final String key, final ResultSetCache.Provider resultSetProvider)
             throws SQLException {
-        if (!cache.containsKey(key)) {
+        final long start = System.nanoTime();
+        final Object event = CacheEvents.INSTANCE.beginGet();
+        // The entry is read once, it may be removed concurrently
+        final Entry entry = cache.get(key);
+        final boolean hit = entry != null;
+        try {
+            final QueryTemplateStatistics.Template template = lookup(statement, hit);
+            if (hit)
+                return open(statement, entry.bytes, entry.dictionary);
             if (resultSetProvider == null)
                 throw new SQLException("No cache available");
             try {
-                buildCache(key, resultSetProvider);
+                return buildCache(statement, template, key, resultSetProvider);
             } catch (IOException e) {
                 throw new SQLException("Can not read cache", e);
             }
+        } finally {
+            statistics.get(System.nanoTime() - start);
+            final Entry served = hit ? entry : cache.get(key);
+            CacheEvents.INSTANCE.commitGet(event, key, statement, hit, served == null ? 0 : served.rows,
+                    served == null ? 0 : served.bytes.length);
         }
-        return new CachedInMemoryResultSet(statement, cache.get(key));
     }
 
-    private void buildCache(final String key, final Provider resultSetProvider)
-            throws SQLException, IOException {
+    private ResultSet open(final CachedStatement statement, final byte[] bytes, final StringDictionary dictionary)
+            throws SQLException {
+        final long start = System.nanoTime();
+        try {
+            return new CachedInMemoryResultSet(statement, bytes, schemas, dictionary);
+        } finally {
+            statistics.read(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Build the cache entry. If the entry exceeds the maximum size it is not stored,
+     * the returned ResultSet then reads the remaining rows from the backend.
+     * A ResultSet having a column type which cannot be cached is returned as is.
+     */
+    private ResultSet buildCache(final CachedStatement statement, final QueryTemplateStatistics.Template template,
+            final String key, final Provider resultSetProvider) throws SQLException, IOException {
         final Lock keyLock = activeKeys.computeIfAbsent(key, s -> new ReentrantLock(true));
         try {
             keyLock.lock();
+            final long start = System.nanoTime();
+            final Object event = CacheEvents.INSTANCE.beginPopulate();
+            final byte[] bytes;
+            // The entry keeps the dictionary it has been written with, a flush starts a new one
+            final StringDictionary dictionary = this.dictionary;
             try {
+                final long mark = invalidationMark();
                 final ResultSet providedResultSet = resultSetProvider.provide();
-                ByteArrayOutputStream outputStream = ResultSetWriter.write(providedResultSet);
-                cache.put(key, outputStream.toByteArray());
+                if (!ResultSetWriter.isSupported(ResultSetWriter.getColumnTypes(providedResultSet))) {
+                    // Served by the backend
+                    oversized(template, System.nanoTime() - start);
+                    CacheEvents.INSTANCE.commitPopulate(event, key, statement, 0, 0, true);
+                    return providedResultSet;
+                }
+                final Set<String> tags = tags(statement, resultSetProvider, providedResultSet.getMetaData());
+                final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                final int rows;
+                try {
+                    rows = ResultSetWriter.write(outputStream, providedResultSet, schemas, dictionary,
+                            statement == null ? null : statement.getAdmissionPolicy());
+                } catch (EntryLimitException e) {
+                    oversized(template, System.nanoTime() - start);
+                    CacheEvents.INSTANCE.commitPopulate(event, key, statement, e.rows, outputStream.size(), true);
+                    return new CachedStreamingResultSet(statement,
+                            new ByteArrayInputStream(outputStream.toByteArray()), schemas, dictionary,
+                            null, null, providedResultSet, e.rows);
+                }
+                bytes = outputStream.toByteArray();
+                final long nanos = System.nanoTime() - start;
+                if (admit(statement, template, key, nanos, bytes.length)) {
+                    cache.put(key, new Entry(bytes, rows, dictionary));
+                    tag(key, tags, mark);
+                    loaded(template, nanos, bytes.length, rows);
+                }
+                CacheEvents.INSTANCE.commitPopulate(event, key, statement, rows, bytes.length, true);
+            } catch (EntryLimitException e) {
+                // Thrown by a provider capturing several results (see CachedResults.Capture)
+                oversized(template, System.nanoTime() - start);
+                CacheEvents.INSTANCE.commitPopulate(event, key, statement, e.rows, 0, true);
+                throw e;
+            } catch (SQLException | IOException | RuntimeException e) {
+                statistics.loadFailure(System.nanoTime() - start);
+                CacheEvents.INSTANCE.commitPopulate(event, key, statement, 0, 0, false);
+                throw e;
             } finally {
                 keyLock.unlock();
             }
+            return open(statement, bytes, dictionary);
         } finally {
             activeKeys.remove(key);
         }
@@ -89,12 +172,34 @@ class ResultSetInMemoryCacheImpl extends ResultSetCacheImpl {
 
     @Override
     public void flush() throws SQLException {
+        final Object event = CacheEvents.INSTANCE.beginFlush();
+        super.flush();
+        final int entries = cache.size();
         cache.clear();
+        if (dictionary != null) {
+            try {
+                dictionary = dictionary.reset();
+            } catch (IOException e) {
+                throw new SQLException("Cannot reset the string dictionary", e);
+            }
+        }
+        statistics.evictions(entries);
+        CacheEvents.INSTANCE.commitFlush(event, null, null, entries);
     }
 
     @Override
     public void flush(final Statement stmt) throws SQLException {
-        cache.remove(checkKey(stmt));
+        remove(checkKey(stmt));
+    }
+
+    @Override
+    boolean remove(final String key) {
+        final Object event = CacheEvents.INSTANCE.beginFlush();
+        untag(key);
+        final int entries = cache.remove(key) != null ? 1 : 0;
+        statistics.evictions(entries);
+        CacheEvents.INSTANCE.commitFlush(event, key, null, entries);
+        return entries > 0;
     }
 
     @Override
@@ -106,4 +211,26 @@ class ResultSetInMemoryCacheImpl extends ResultSetCacheImpl {
     public boolean exists(Statement stmt) throws SQLException {
         return cache.containsKey(checkKey(stmt));
     }
+
+    @Override
+    public long getRowCount(final Statement stmt) throws SQLException {
+        final Entry entry = cache.get(checkKey(stmt));
+        return entry == null ? -1 : entry.rows;
+    }
+
+    /**
+     * A stored entry: the serialized ResultSet, its number of rows and the optional dictionary of its strings
+     */
+    private final static class Entry {
+
+        private final byte[] bytes;
+        private final int rows;
+        private final StringDictionary dictionary;
+
+        private Entry(final byte[] bytes, final int rows, final StringDictionary dictionary) {
+            this.bytes = bytes;
+            this.rows = rows;
+            this.dictionary = dictionary;
+        }
+    }
 }
@@ -15,27 +15,53 @@
  */
 package com.qwazr.jdbc.cache;
 
+import java.io.Closeable;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
-import java.util.stream.Stream;
+import java.util.logging.Level;
 
 class ResultSetOnDiskCacheImpl extends ResultSetCacheImpl {
 
+    /**
+     * The number of builds of a missing entry, before the result is served without being cached
+     */
+    private final static int MAX_BUILD_ATTEMPTS = 2;
+
     private final Path cacheDirectory;
-    private final ConcurrentHashMap<String, ReentrantLock> activeKeys;
+    private final CacheJournal journal;
+    private final CacheBuildLocks buildLocks;
+    private final DiskCacheTags tags;
+    private final DiskCacheIndex index;
+    private final DiskCacheEvictor evictor;
+    private final SchemaRegistry schemas;
+    private final int dictionarySize;
+    private volatile StringDictionary dictionary;
 
     ResultSetOnDiskCacheImpl(final Path cacheDirectory) {
+        this(cacheDirectory, 0);
+    }
+
+    ResultSetOnDiskCacheImpl(final Path cacheDirectory, final long quota) {
+        this(cacheDirectory, quota, 0);
+    }
+
+    /**
+     * @param cacheDirectory the cache directory
+     * @param quota          the maximum size of the cache directory in bytes, or 0 for no limit
+     * @param dictionarySize the maximum number of strings of the dictionary, or 0 to not add any string
+     */
+    ResultSetOnDiskCacheImpl(final Path cacheDirectory, final long quota, final int dictionarySize) {
         if (!Files.exists(cacheDirectory)) {
             try {
                 Files.createDirectories(cacheDirectory);
@@ -47,7 +73,64 @@ class ResultSetOnDiskCacheImpl extends ResultSetCacheImpl {
             throw CacheException
                     .of("The path is not a directory, or the directory cannot be created: " + cacheDirectory);
         this.cacheDirectory = cacheDirectory;
-        this.activeKeys = new ConcurrentHashMap<>();
+        this.schemas = SchemaRegistry.of(cacheDirectory);
+        this.dictionarySize = dictionarySize;
+        this.tags = new DiskCacheTags(cacheDirectory);
+        try {
+            this.journal = new CacheJournal(cacheDirectory);
+            this.buildLocks = new CacheBuildLocks(cacheDirectory);
+        } catch (IOException e) {
+            throw CacheException.of("Cannot open the journal of the cache directory: " + cacheDirectory, e);
+        }
+        try {
+            // Always opened: the entries written by another JVM may use the dictionary
+            this.dictionary = StringDictionary.of(cacheDirectory, dictionarySize);
+        } catch (IOException e) {
+            throw CacheException.of("Cannot open the string dictionary of the cache directory: " + cacheDirectory,
+                    e);
+        }
+        try {
+            final int migrated = DiskCacheLayout.migrate(cacheDirectory);
+            if (migrated > 0)
+                Driver.LOGGER.info(() -> "Entries moved to the sharded layout: " + migrated + " in " + cacheDirectory);
+        } catch (IOException e) {
+            throw CacheException.of("Cannot migrate the entries of the cache directory: " + cacheDirectory, e);
+        }
+        try {
+            this.index = new DiskCacheIndex(new DiskCacheIndexStore(cacheDirectory));
+            this.index.load(cacheDirectory);
+        } catch (IOException e) {
+            throw CacheException.of("Cannot load the index of the cache directory: " + cacheDirectory, e);
+        }
+        deleteOrphanedFiles();
+        this.evictor = quota > 0 ? new DiskCacheEvictor(this, index, quota) : null;
+        if (evictor != null)
+            evictor.check();
+    }
+
+    /**
+     * Delete the temporary files left by a build which did not complete (e.g. a crash).
+     * A file is only deleted if no thread or process holds the build lock of its key.
+     */
+    private void deleteOrphanedFiles() {
+        try {
+            int deleted = 0;
+            for (Path tempPath : DiskCacheLayout.listTemporary(cacheDirectory)) {
+                final String key = DiskCacheLayout.tempKey(tempPath);
+                if (key == null)
+                    continue;
+                try (final CacheBuildLocks.Lock lock = buildLocks.tryLock(key)) {
+                    if (lock != null && Files.deleteIfExists(tempPath))
+                        deleted++;
+                }
+            }
+            if (deleted > 0) {
+                final int count = deleted;
+                Driver.LOGGER.info(() -> "Orphaned temporary files deleted: " + count + " in " + cacheDirectory);
+            }
+        } catch (IOException e) {
+            Driver.LOGGER.log(Level.WARNING, "Cannot delete the temporary files of " + cacheDirectory, e);
+        }
     }
 
     /**
@@ -61,43 +144,304 @@ class ResultSetOnDiskCacheImpl extends ResultSetCacheImpl {
      * @return the cached ResultSet
      * @throws SQLException if the statement cannot be executed
      */
-    public CachedOnDiskResultSet get(final CachedStatement statement, final String key, final Provider resultSetProvider)
+    public ResultSet get(final CachedStatement statement, final String key, final Provider resultSetProvider)
             throws SQLException {
-        final Path resultSetPath = cacheDirectory.resolve(key);
-        if (!Files.exists(resultSetPath)) {
+        final long start = System.nanoTime();
+        final Object event = CacheEvents.INSTANCE.beginGet();
+        final Path resultSetPath = DiskCacheLayout.entryPath(cacheDirectory, key);
+        boolean hit = false;
+        ResultSet served = null;
+        try {
+            // The file system is only checked for the entries not indexed yet (e.g. built by another JVM)
+            if (index.contains(key) || Files.exists(resultSetPath)) {
+                final CachedOnDiskResultSet resultSet =
+                        open(statement, resultSetPath, dictionary, false, resultSetProvider);
+                // An entry removed, quarantined or incompatible is counted as a miss
+                if (resultSet != null) {
+                    hit = true;
+                    lookup(statement, true);
+                    index.touch(key, resultSetPath);
+                    return served = resultSet;
+                }
+            }
+            final QueryTemplateStatistics.Template template = lookup(statement, false);
             if (resultSetProvider == null)
                 throw new SQLException("No cache available");
-            buildCache(key, resultSetPath, resultSetProvider);
+            // The entry may be invalidated between its build and its opening, it is then built again
+            for (int attempt = 0; attempt < MAX_BUILD_ATTEMPTS; attempt++) {
+                final ResultSet unpublished =
+                        buildCache(statement, template, key, resultSetPath, resultSetProvider, true);
+                if (unpublished != null)
+                    return served = unpublished;
+                final CachedOnDiskResultSet resultSet =
+                        open(statement, resultSetPath, dictionary, false, resultSetProvider);
+                if (resultSet != null)
+                    return served = resultSet;
+            }
+            // The published entry cannot be opened: the result is served without being cached
+            if (!isNewer(resultSetPath))
+                Driver.LOGGER.warning(() -> "The cache entry cannot be opened after its build: " + resultSetPath);
+            return served = buildCache(statement, template, key, resultSetPath, resultSetProvider, false);
+        } finally {
+            statistics.get(System.nanoTime() - start);
+            CacheEvents.INSTANCE.commitGet(event, key, statement, hit,
+                    served instanceof CachedOnDiskResultSet ? ((CachedOnDiskResultSet) served).getRowCount() : 0,
+                    index.size(key));
         }
+    }
+
+    /**
+     * Open the entry. If the entry is found corrupt while it is read, it is quarantined.
+     * If no row has been returned yet, the rows are then read from the backend, if a provider is given,
+     * otherwise the read fails.
+     *
+     * @param dictionary the dictionary the entry is expected to use
+     * @return the opened ResultSet, or null if the entry has been removed or is not readable
+     */
+    private CachedOnDiskResultSet open(final CachedStatement statement, final Path resultSetPath,
+            final StringDictionary dictionary, final boolean deleteOnClose, final Provider resultSetProvider)
+            throws SQLException {
+        final long start = System.nanoTime();
         try {
-            return new CachedOnDiskResultSet(statement, resultSetPath);
+            return new CachedOnDiskResultSet(statement, resultSetPath, schemas, dictionary, deleteOnClose,
+                    (cause, rows) -> {
+                        quarantine(resultSetPath, cause);
+                        // The rows of the backend may not be returned in the same order
+                        if (resultSetProvider == null || rows > 0)
+                            throw new SQLException("The cache entry is corrupt: " + resultSetPath, cause);
+                        try {
+                            return resultSetProvider.provide();
+                        } catch (IOException e) {
+                            throw new SQLException(e);
+                        }
+                    });
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            return null;
+        } catch (CorruptEntryException e) {
+            // Handled as a miss, the entry is built again
+            quarantine(resultSetPath, e);
+            return null;
+        } catch (IncompatibleEntryException e) {
+            // Handled as a miss, but kept for the newer version of the driver which has written it
+            if (e.newer) {
+                Driver.LOGGER.fine(() -> "Cache entry written by a newer version " + resultSetPath);
+                return null;
+            }
+            // The entry may use the dictionary reset by another JVM since it was opened
+            if (dictionary == this.dictionary && reopenDictionary())
+                return open(statement, resultSetPath, this.dictionary, deleteOnClose, resultSetProvider);
+            // Handled as a miss, the entry is built again
+            Driver.LOGGER.fine(() -> "Incompatible cache entry " + resultSetPath + ": " + e.getMessage());
+            discard(resultSetPath);
+            return null;
         } catch (IOException e) {
             throw new SQLException("Can not read cache", e);
+        } finally {
+            statistics.read(System.nanoTime() - start);
         }
     }
 
-    private void buildCache(final String key, final Path resultSetPath, final Provider resultSetProvider)
+    /**
+     * @return true if the entry has been written by a newer version of the driver
+     */
+    private static boolean isNewer(final Path resultSetPath) {
+        try {
+            EntryHeader.read(resultSetPath);
+            return false;
+        } catch (IncompatibleEntryException e) {
+            return e.newer;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reopen the dictionary if its file has been reset by another JVM.
+     *
+     * @return true if the dictionary has been reopened
+     */
+    private synchronized boolean reopenDictionary() throws SQLException {
+        final StringDictionary current = dictionary;
+        try {
+            if (current.isCurrent())
+                return false;
+            dictionary = StringDictionary.of(cacheDirectory, dictionarySize);
+        } catch (IOException e) {
+            throw new SQLException("Cannot open the string dictionary of the cache directory: " + cacheDirectory, e);
+        }
+        try {
+            current.close();
+        } catch (IOException e) {
+            // Quiet
+        }
+        return true;
+    }
+
+    /**
+     * Start a new dictionary, the entries using the previous one are no longer readable
+     */
+    private synchronized void resetDictionary() throws SQLException {
+        try {
+            dictionary = dictionary.reset();
+        } catch (IOException e) {
+            throw new SQLException("Cannot reset the string dictionary of the cache directory: " + cacheDirectory,
+                    e);
+        }
+    }
+
+    /**
+     * Delete an entry which cannot be read
+     */
+    private void discard(final Path resultSetPath) throws SQLException {
+        try {
+            final String key = resultSetPath.getFileName().toString();
+            untag(key);
+            index.remove(key);
+            statistics.evictions(DiskCacheLayout.delete(resultSetPath) ? 1 : 0);
+        } catch (IOException e) {
+            throw new SQLException("Cannot delete the cache entry " + resultSetPath, e);
+        }
+    }
+
+    /**
+     * Move a corrupt entry to the quarantine directory, it is no longer served
+     */
+    private void quarantine(final Path resultSetPath, final CorruptEntryException cause) {
+        statistics.corruption();
+        final String key = resultSetPath.getFileName().toString();
+        untag(key);
+        index.remove(key);
+        try {
+            if (DiskCacheLayout.quarantine(cacheDirectory, resultSetPath))
+                Driver.LOGGER.log(Level.WARNING,
+                        "Corrupt cache entry moved to quarantine: " + resultSetPath + " - " + cause.getMessage());
+        } catch (IOException e) {
+            Driver.LOGGER.log(Level.WARNING, "Cannot quarantine the corrupt cache entry " + resultSetPath, e);
+            try {
+                DiskCacheLayout.delete(resultSetPath);
+            } catch (IOException ex) {
+                // Quiet
+            }
+        }
+    }
+
+    /**
+     * The number of rows is read from the header of the entry, the body is not read.
+     */
+    @Override
+    public long getRowCount(final Statement stmt) throws SQLException {
+        try {
+            return EntryHeader.read(DiskCacheLayout.entryPath(cacheDirectory, checkKey(stmt))).rows;
+        } catch (FileNotFoundException | NoSuchFileException | IncompatibleEntryException e) {
+            return -1;
+        } catch (IOException e) {
+            throw new SQLException("Can not read cache", e);
+        }
+    }
+
+    /**
+     * Build the cache entry. The build is protected by a lock shared with the other JVMs using the same directory.
+     * If the entry has been invalidated (by any JVM) during the build, the entry is not published.
+     * If the entry exceeds the maximum size, the returned ResultSet reads the remaining rows from the backend.
+     * A ResultSet having a column type which cannot be cached is returned as is.
+     *
+     * @param publish false to never publish the entry
+     * @return null if the entry is available at the given path, or the ResultSet of the unpublished entry
+     */
+    private ResultSet buildCache(final CachedStatement statement, final QueryTemplateStatistics.Template template,
+            final String key, final Path resultSetPath, final Provider resultSetProvider, final boolean publish)
             throws SQLException {
         final Lock keyLock = activeKeys.computeIfAbsent(key, s -> new ReentrantLock(true));
         try {
             keyLock.lock();
-            try {
-                final Path tempPath = cacheDirectory.resolve(key + ".tmp");
+            try (final CacheBuildLocks.Lock buildLock = buildLocks.lock(key)) {
+                // The entry may have been built by another thread or another JVM while we were waiting
+                if (publish && Files.exists(resultSetPath))
+                    return null;
+                final Path tempPath = DiskCacheLayout.tempPath(cacheDirectory, key);
+                boolean keepTemp = false;
+                boolean rejected = false;
+                long bytes = -1;
+                int rows = 0;
+                final long start = System.nanoTime();
+                final Object event = CacheEvents.INSTANCE.beginPopulate();
                 try {
-                    final ResultSet providedResultSet = resultSetProvider.provide();
-                    ResultSetWriter.write(tempPath, providedResultSet);
-                    Files.move(tempPath, resultSetPath, StandardCopyOption.REPLACE_EXISTING,
-                            StandardCopyOption.ATOMIC_MOVE);
+                    reopenDictionary();
+                    final StringDictionary dictionary = this.dictionary;
+                    final CacheJournal.Mark mark = journal.mark();
+                    final long invalidationMark = invalidationMark();
+                    final ResultSet providedResultSet;
+                    try {
+                        providedResultSet = resultSetProvider.provide();
+                    } catch (EntryLimitException e) {
+                        // Thrown by a provider capturing several results (see CachedResults.Capture)
+                        oversized(template, System.nanoTime() - start);
+                        rejected = true;
+                        rows = e.rows;
+                        bytes = 0;
+                        throw e;
+                    }
+                    if (!ResultSetWriter.isSupported(ResultSetWriter.getColumnTypes(providedResultSet))) {
+                        // Served by the backend
+                        oversized(template, System.nanoTime() - start);
+                        rejected = true;
+                        bytes = 0;
+                        return providedResultSet;
+                    }
+                    // An invalidation issued from now on is recorded in the journal
+                    tag(key, tags(statement, resultSetProvider, providedResultSet.getMetaData()), invalidationMark);
+                    try {
+                        rows = ResultSetWriter.write(tempPath, providedResultSet, schemas, dictionary,
+                                statement == null ? null : statement.getAdmissionPolicy());
+                    } catch (EntryLimitException e) {
+                        untag(key);
+                        oversized(template, System.nanoTime() - start);
+                        rejected = keepTemp = true;
+                        rows = e.rows;
+                        bytes = DiskCacheLayout.size(tempPath);
+                        return stream(statement, tempPath, dictionary, providedResultSet, e.rows);
+                    }
+                    final long size = DiskCacheLayout.size(tempPath);
+                    if (!admit(statement, template, key, System.nanoTime() - start, size)) {
+                        // Not stored, the temporary file is deleted when the ResultSet is closed
+                        untag(key);
+                        rejected = keepTemp = true;
+                        bytes = size;
+                        return openTemporary(statement, tempPath, dictionary, resultSetProvider);
+                    }
+                    if (publish && journal.ifNotInvalidated(mark, key,
+                            () -> DiskCacheLayout.publish(tempPath, resultSetPath))) {
+                        bytes = size;
+                        index.put(key, size);
+                        if (evictor != null)
+                            evictor.check();
+                        return null;
+                    }
+                    untag(key);
+                    keepTemp = true;
+                    bytes = size;
+                    return openTemporary(statement, tempPath, dictionary, resultSetProvider);
                 } catch (IOException e) {
                     throw new SQLException("Failed in renaming the file " + tempPath, e);
-
                 } finally {
-                    try {
-                        Files.deleteIfExists(tempPath);
-                    } catch (IOException e) {
-                        // Quiet
+                    // A rejection has already been recorded by the admission
+                    if (bytes < 0) {
+                        untag(key);
+                        statistics.loadFailure(System.nanoTime() - start);
+                    }
+                    else if (!rejected)
+                        loaded(template, System.nanoTime() - start, bytes, rows);
+                    CacheEvents.INSTANCE.commitPopulate(event, key, statement, rows, Math.max(bytes, 0), bytes >= 0);
+                    if (!keepTemp) {
+                        try {
+                            DiskCacheLayout.delete(tempPath);
+                        } catch (IOException e) {
+                            // Quiet
+                        }
                     }
                 }
+            } catch (IOException e) {
+                throw new SQLException("Cannot lock the cache entry " + key, e);
             } finally {
                 keyLock.unlock();
             }
@@ -106,34 +450,65 @@ class ResultSetOnDiskCacheImpl extends ResultSetCacheImpl {
         }
     }
 
+    /**
+     * Open an unpublished entry, deleted when the ResultSet is closed.
+     * Unlike a published entry, a fresh entry which cannot be read is an error.
+     */
+    private CachedOnDiskResultSet openTemporary(final CachedStatement statement, final Path tempPath,
+            final StringDictionary dictionary, final Provider resultSetProvider) throws SQLException {
+        final CachedOnDiskResultSet resultSet = open(statement, tempPath, dictionary, true, resultSetProvider);
+        if (resultSet == null)
+            throw new SQLException("The cache entry cannot be read after its build: " + tempPath);
+        return resultSet;
+    }
+
+    /**
+     * Open the rows already written in the temporary file, followed by the remaining rows of the backend.
+     * The temporary file is deleted when the ResultSet is closed.
+     */
+    private CachedResultSet stream(final CachedStatement statement, final Path tempPath,
+            final StringDictionary dictionary, final ResultSet backend, final int pos)
+            throws SQLException, IOException {
+        final long start = System.nanoTime();
+        try {
+            final CachedOnDiskResultSet.Entry entry = CachedOnDiskResultSet.openEntry(tempPath, schemas, dictionary);
+            return new CachedStreamingResultSet(statement, entry, dictionary, tempPath, backend, pos);
+        } catch (SQLException | IOException e) {
+            DiskCacheLayout.delete(tempPath);
+            throw e;
+        } finally {
+            statistics.read(System.nanoTime() - start);
+        }
+    }
+
     /**
      * Check if an entry is available for this key.
+     * An entry not indexed yet (e.g. built by another JVM) is looked up in the directory.
      *
      * @param key the computed key
      * @return always true if the cache entry exists
      */
-
     public boolean checkIfExists(final String key) {
-        final Path resultSetPath = cacheDirectory.resolve(key);
-        return Files.exists(resultSetPath);
+        return index.contains(key) || Files.exists(DiskCacheLayout.entryPath(cacheDirectory, key));
     }
 
+    /**
+     * Visit every entry, each one under the lock of its key.
+     */
     private void parse(final Consumer<Path> consumer) throws SQLException {
-        try (final Stream<Path> stream = Files.list(cacheDirectory)) {
-            stream.forEach(path -> {
+        try {
+            DiskCacheLayout.forEachEntry(cacheDirectory, path -> {
                 final String name = path.getFileName().toString();
-                if (!name.endsWith(".tmp")) {
-                    final Lock keyLock = activeKeys.computeIfAbsent(name, s -> new ReentrantLock(true));
+                final Lock keyLock = activeKeys.computeIfAbsent(name, s -> new ReentrantLock(true));
+                try {
+                    keyLock.lock();
                     try {
-                        keyLock.lock();
-                        try {
-                            consumer.accept(path);
-                        } finally {
-                            keyLock.unlock();
-                        }
+                        consumer.accept(path);
                     } finally {
-                        activeKeys.remove(name);
+                        keyLock.unlock();
                     }
+                } finally {
+                    activeKeys.remove(name);
                 }
             });
         } catch (CacheException e) {
@@ -145,40 +520,168 @@ class ResultSetOnDiskCacheImpl extends ResultSetCacheImpl {
 
     @Override
     public void flush() throws SQLException {
-        parse(path -> {
+        final Object event = CacheEvents.INSTANCE.beginFlush();
+        super.flush();
+        try {
+            journal.invalidateAll();
+            tags.clear();
+        } catch (IOException e) {
+            throw CacheException.of(e).getSQLException();
+        }
+        resetDictionary();
+        index.clear();
+        final AtomicInteger entries = new AtomicInteger();
+        try {
+            parse(path -> {
+                try {
+                    if (DiskCacheLayout.delete(path))
+                        entries.incrementAndGet();
+                } catch (IOException e) {
+                    throw CacheException.of(e);
+                }
+            });
+        } finally {
+            statistics.evictions(entries.get());
+            CacheEvents.INSTANCE.commitFlush(event, null, null, entries.get());
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        super.close();
+        if (evictor != null)
+            evictor.stop();
+        IOException error = null;
+        for (Closeable closeable : new Closeable[] { index, dictionary, buildLocks, journal }) {
             try {
-                Files.deleteIfExists(path);
+                closeable.close();
             } catch (IOException e) {
-                throw CacheException.of(e);
+                if (error == null)
+                    error = e;
             }
-        });
+        }
+        if (error != null)
+            throw new SQLException("Cannot close the files of the cache directory " + cacheDirectory, error);
+    }
+
+    @Override
+    void persistTags(final String key, final Set<String> tags) throws SQLException {
+        try {
+            this.tags.add(key, tags);
+        } catch (IOException e) {
+            throw new SQLException("Cannot persist the tags of the cache entry " + key, e);
+        }
     }
 
-    private Path checkCacheDirectory() {
-        return Objects.requireNonNull(cacheDirectory, "No cache directory");
+    @Override
+    Set<String> takePersistedKeys(final String tag) throws SQLException {
+        try {
+            return tags.take(tag);
+        } catch (IOException e) {
+            throw new SQLException("Cannot read the tag " + tag + " of the cache directory " + cacheDirectory, e);
+        }
     }
 
     @Override
     public void flush(final Statement stmt) throws SQLException {
+        remove(checkKey(stmt));
+    }
+
+    @Override
+    boolean remove(final String key) throws SQLException {
+        final Object event = CacheEvents.INSTANCE.beginFlush();
+        try {
+            journal.invalidate(key);
+            untag(key);
+            index.remove(key);
+            final int entries = DiskCacheLayout.delete(DiskCacheLayout.entryPath(cacheDirectory, key)) ? 1 : 0;
+            statistics.evictions(entries);
+            CacheEvents.INSTANCE.commitFlush(event, key, null, entries);
+            return entries > 0;
+        } catch (IOException e) {
+            throw CacheException.of(e).getSQLException();
+        }
+    }
+
+    /**
+     * Delete a least recently used entry. The entry is skipped if its key is locked.
+     *
+     * @param key the key of the entry
+     * @return true if the entry has been deleted
+     * @throws SQLException if the file cannot be deleted
+     */
+    boolean evict(final String key) throws SQLException {
+        final Lock keyLock = activeKeys.computeIfAbsent(key, s -> new ReentrantLock(true));
+        if (!keyLock.tryLock())
+            return false;
+        try {
+            final Object event = CacheEvents.INSTANCE.beginFlush();
+            untag(key);
+            index.remove(key);
+            final int entries = DiskCacheLayout.delete(DiskCacheLayout.entryPath(cacheDirectory, key)) ? 1 : 0;
+            statistics.evictions(entries);
+            CacheEvents.INSTANCE.commitFlush(event, key, null, entries);
+            return entries > 0;
+        } catch (IOException e) {
+            throw CacheException.of(e).getSQLException();
+        } finally {
+            keyLock.unlock();
+            activeKeys.remove(key);
+        }
+    }
+
+    /**
+     * @return the total size of the indexed entries in bytes
+     */
+    long getDiskUsage() {
+        return index.getBytes();
+    }
+
+    /**
+     * @return the disk quota in bytes, 0 if there is no quota
+     */
+    long getDiskQuota() {
+        return evictor == null ? 0 : evictor.getQuota();
+    }
+
+    /**
+     * @return the total size of the temporary files in bytes, the entries being built or not published
+     * @throws SQLException if the temporary directory cannot be listed
+     */
+    long getTemporaryUsage() throws SQLException {
         try {
-            Files.deleteIfExists(cacheDirectory.resolve(checkKey(stmt)));
+            return DiskCacheLayout.temporarySize(cacheDirectory);
         } catch (IOException e) {
-            throw CacheException.of(e);
+            throw CacheException.of(e).getSQLException();
         }
     }
 
+    /**
+     * @return the total size of the quarantined entries in bytes
+     * @throws SQLException if the quarantine directory cannot be listed
+     */
+    long getQuarantineUsage() throws SQLException {
+        try {
+            return DiskCacheLayout.quarantineSize(cacheDirectory);
+        } catch (IOException e) {
+            throw CacheException.of(e).getSQLException();
+        }
+    }
+
+    /**
+     * @return the evictor, or null if there is no quota
+     */
+    DiskCacheEvictor getEvictor() {
+        return evictor;
+    }
+
     @Override
     public int size() throws SQLException {
-        final AtomicInteger counter = new AtomicInteger();
-        parse(path -> {
-            if (!path.endsWith(".tmp"))
-                counter.incrementAndGet();
-        });
-        return counter.get();
+        return index.size();
     }
 
     @Override
     public boolean exists(Statement stmt) throws SQLException {
-        return Files.exists(checkCacheDirectory().resolve(checkKey(stmt)));
+        return checkIfExists(checkKey(stmt));
     }
 }
@@ -15,52 +15,145 @@
  */
 package com.qwazr.jdbc.cache;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.JDBCType;
 import java.sql.Clob;
 import java.sql.Date;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.RowId;
 import java.sql.SQLException;
+import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.sql.Types;
-import java.util.zip.GZIPOutputStream;
 
 class ResultSetWriter {
 
-    static void write(final Path resultSetPath, final ResultSet resultSet) throws SQLException {
-        try (final FileOutputStream fos = new FileOutputStream(resultSetPath.toFile())) {
-            try (final GZIPOutputStream zos = new GZIPOutputStream(fos)) {
-                try (final DataOutputStream output = new DataOutputStream(zos)) {
-                    writeMetadata(output, resultSet.getMetaData());
-                    writeResultSet(output, resultSet);
-                }
+    static int write(final Path resultSetPath, final ResultSet resultSet) throws SQLException {
+        return write(resultSetPath, resultSet, SchemaRegistry.MEMORY, null, null);
+    }
+
+    /**
+     * Write the ResultSet in a GZIP compressed file, through the block pipeline of {@link BlockStreams}.
+     * The {@link EntryHeader}, giving the schema id, is written at the start of the file once the rows are written.
+     * The large binary and CLOB values are written in a sidecar file (see {@link BlobSidecar}).
+     *
+     * @param resultSetPath the path of the file
+     * @param resultSet     the ResultSet to write
+     * @param registry      the registry of the schema
+     * @param dictionary    the optional dictionary of the frequent strings
+     * @param policy        the optional policy giving the maximum size of the entry
+     * @return the number of rows
+     * @throws EntryLimitException if the entry exceeds the limits, the file contains the rows already written
+     * @throws SQLException        if the ResultSet or the file cannot be written
+     */
+    static int write(final Path resultSetPath, final ResultSet resultSet, final SchemaRegistry registry,
+            final StringDictionary dictionary, final AdmissionPolicy policy) throws SQLException {
+        final Object event = CacheEvents.INSTANCE.beginWrite();
+        final int rows;
+        try (final BlobSidecar sidecar = new BlobSidecar(resultSetPath);
+                final FileChannel channel = FileChannel.open(resultSetPath, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final long schemaId = registry.register(resultSet.getMetaData());
+            channel.position(EntryHeader.SIZE);
+            try (final DataOutputStream output = BlockStreams.write(channel)) {
+                rows = writeResultSet(output, resultSet, policy, sidecar, dictionary, 0, 0);
+            } catch (EntryLimitException e) {
+                // The rows already written are still readable
+                writeHeader(channel, schemaId, e.rows, sidecar, dictionary);
+                throw e;
             }
+            writeHeader(channel, schemaId, rows, sidecar, dictionary);
+            if (event != null)
+                CacheEvents.INSTANCE.commitWrite(event, rows, Files.size(resultSetPath) + sidecar.size());
+            return rows;
         } catch (IOException e) {
             throw new SQLException("Error while writing the ResultSet cache file: " + resultSetPath, e);
         }
     }
 
-    static ByteArrayOutputStream write(final ResultSet resultSet) throws SQLException {
-        try (final ByteArrayOutputStream fos = new ByteArrayOutputStream()) {
+    private static void writeHeader(final FileChannel channel, final long schemaId, final int rows,
+            final BlobSidecar sidecar, final StringDictionary dictionary) throws IOException {
+        new EntryHeader(EntryHeader.FORMAT_VERSION, EntryHeader.CODEC_GZIP, schemaId, rows, sidecar.getWrittenId(),
+                dictionary == null ? 0 : dictionary.getGeneration()).write(channel);
+    }
+
+    static int write(final ByteArrayOutputStream fos, final ResultSet resultSet) throws SQLException {
+        return write(fos, resultSet, SchemaRegistry.MEMORY, null, null);
+    }
+
+    /**
+     * Write the ResultSet in memory.
+     *
+     * @param fos        the output buffer
+     * @param resultSet  the ResultSet to write
+     * @param registry   the registry of the schema
+     * @param dictionary the optional dictionary of the frequent strings
+     * @param policy     the optional policy giving the maximum size of the entry
+     * @return the number of rows
+     * @throws EntryLimitException if the entry exceeds the limits, the buffer contains the rows already written
+     * @throws SQLException        if the ResultSet cannot be written
+     */
+    static int write(final ByteArrayOutputStream fos, final ResultSet resultSet, final SchemaRegistry registry,
+            final StringDictionary dictionary, final AdmissionPolicy policy) throws SQLException {
+        final Object event = CacheEvents.INSTANCE.beginWrite();
+        try {
             try (final DataOutputStream output = new DataOutputStream(fos)) {
-                writeMetadata(output, resultSet.getMetaData());
-                writeResultSet(output, resultSet);
-                return fos;
+                output.writeLong(registry.register(resultSet.getMetaData()));
+                final int rows = writeResultSet(output, resultSet, policy, null, dictionary, 0, 0);
+                output.flush();
+                CacheEvents.INSTANCE.commitWrite(event, rows, fos.size());
+                return rows;
             }
         } catch (IOException e) {
             throw new SQLException("Error while writing the ResultSet cache", e);
         }
     }
 
-    private static void writeMetadata(final DataOutputStream output, final ResultSetMetaData metadata)
+    /**
+     * Write the ResultSet with its column definitions, to be embedded in a value of another entry
+     * (see {@link CachedResults}). The binary values are written inline.
+     * The limits of the policy apply to the whole entry: the rows and the bytes already embedded are counted.
+     *
+     * @param bytes     the buffer receiving the serialized ResultSet
+     * @param resultSet the ResultSet to write
+     * @param policy    the optional policy giving the maximum size of the entry
+     * @param rows      the number of rows already embedded in the entry
+     * @param size      the number of bytes already embedded in the entry
+     * @return the number of rows
+     * @throws EntryLimitException if the entry exceeds the limits, the buffer contains the rows already written
+     * @throws SQLException        if the ResultSet cannot be written
+     */
+    static int writeEmbedded(final ByteArrayOutputStream bytes, final ResultSet resultSet,
+            final AdmissionPolicy policy, final long rows, final long size) throws SQLException {
+        try (final DataOutputStream output = new DataOutputStream(bytes)) {
+            writeMetadata(output, resultSet.getMetaData());
+            return writeResultSet(output, resultSet, policy, null, null, rows, size);
+        } catch (IOException e) {
+            throw new SQLException("Error while writing the embedded ResultSet", e);
+        }
+    }
+
+    static void writeMetadata(final DataOutputStream output, final ResultSetMetaData metadata)
             throws IOException, SQLException {
         final int columnCount = metadata.getColumnCount();
         output.writeInt(columnCount);
@@ -144,91 +237,157 @@ class ResultSetWriter {
         }
     }
 
-    private static void writeResultSet(final DataOutputStream output, final ResultSet resultSet)
-            throws SQLException, IOException {
+    static int[] getColumnTypes(final ResultSet resultSet) throws SQLException {
         final ResultSetMetaData metaData = resultSet.getMetaData();
         final int[] types = new int[metaData.getColumnCount()];
         for (int i = 0; i < types.length; i++)
             types[i] = metaData.getColumnType(i + 1);
+        return types;
+    }
+
+    /**
+     * Write the rows. The limits of the policy are checked after each row, counting the given rows and bytes
+     * already written in the entry: when they are exceeded the output ends with a complete row.
+     */
+    private static int writeResultSet(final DataOutputStream output, final ResultSet resultSet,
+            final AdmissionPolicy policy, final BlobSidecar sidecar, final StringDictionary dictionary,
+            final long rows, final long size) throws SQLException, IOException {
+        final int[] types = getColumnTypes(resultSet);
         int pos = 0;
         while (resultSet.next()) {
             output.writeInt(++pos);
-            int i = 0;
-            for (int type : types) {
-                i++;
-                switch (type) {
-                case Types.BIT:
-                case Types.BOOLEAN:
-                    writeBoolean(i, resultSet, output);
-                    break;
-                case Types.TINYINT:
-                    writeByte(i, resultSet, output);
-                    break;
-                case Types.SMALLINT:
-                    writeShort(i, resultSet, output);
-                    break;
-                case Types.INTEGER:
-                    writeInteger(i, resultSet, output);
-                    break;
-                case Types.BIGINT:
-                    writeLong(i, resultSet, output);
-                    break;
-                case Types.FLOAT:
-                case Types.REAL:
-                    writeFloat(i, resultSet, output);
-                    break;
-                case Types.DOUBLE:
-                    writeDouble(i, resultSet, output);
-                    break;
-                case Types.NUMERIC:
-                case Types.DECIMAL:
-                    writeBigDecimal(i, resultSet, output);
-                    break;
-                case Types.CHAR:
-                case Types.VARCHAR:
-                case Types.LONGVARCHAR:
-                case Types.NCHAR:
-                case Types.NVARCHAR:
-                case Types.LONGNVARCHAR:
-                    writeString(i, resultSet, output);
-                    break;
-                case Types.DATE:
-                    writeDate(i, resultSet, output);
-                    break;
-                case Types.TIME:
-                case Types.TIME_WITH_TIMEZONE:
-                    writeTime(i, resultSet, output);
-                    break;
-                case Types.TIMESTAMP:
-                case Types.TIMESTAMP_WITH_TIMEZONE:
-                    writeTimestamp(i, resultSet, output);
-                    break;
-                case Types.ROWID:
-                    writeRowId(i, resultSet, output);
-                    break;
-                case Types.CLOB:
-                    writeClob(i, resultSet, output);
-                    break;
-                case Types.BINARY:
-                case Types.VARBINARY:
-                case Types.LONGVARBINARY:
-                case Types.NULL:
-                case Types.OTHER:
-                case Types.JAVA_OBJECT:
-                case Types.DISTINCT:
-                case Types.STRUCT:
-                case Types.ARRAY:
-                case Types.BLOB:
-                case Types.REF:
-                case Types.DATALINK:
-                case Types.NCLOB:
-                case Types.SQLXML:
-                case Types.REF_CURSOR:
-                    writeNull(output);
-                    break;
+            writeRow(output, resultSet, types, sidecar, dictionary);
+            if (policy != null && policy.exceeds(rows + pos,
+                    size + output.size() + (sidecar == null ? 0 : sidecar.size())))
+                throw new EntryLimitException(pos);
+        }
+        return pos;
+    }
+
+    static void writeRow(final DataOutputStream output, final ResultSet resultSet, final int[] types)
+            throws SQLException, IOException {
+        writeRow(output, resultSet, types, null, null);
+    }
+
+    /**
+     * Write the columns of the current row. Without sidecar the binary values are always written inline,
+     * without dictionary the strings are always written as is.
+     */
+    static void writeRow(final DataOutputStream output, final ResultSet resultSet, final int[] types,
+            final BlobSidecar sidecar, final StringDictionary dictionary) throws SQLException, IOException {
+        int i = 0;
+        for (int type : types) {
+            i++;
+            switch (type) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                writeBoolean(i, resultSet, output);
+                break;
+            case Types.TINYINT:
+                writeByte(i, resultSet, output);
+                break;
+            case Types.SMALLINT:
+                writeShort(i, resultSet, output);
+                break;
+            case Types.INTEGER:
+                writeInteger(i, resultSet, output);
+                break;
+            case Types.BIGINT:
+                writeLong(i, resultSet, output);
+                break;
+            case Types.FLOAT:
+            case Types.REAL:
+                writeFloat(i, resultSet, output);
+                break;
+            case Types.DOUBLE:
+                writeDouble(i, resultSet, output);
+                break;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                writeBigDecimal(i, resultSet, output);
+                break;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                writeString(i, resultSet, output, dictionary);
+                break;
+            case Types.DATE:
+                writeDate(i, resultSet, output);
+                break;
+            case Types.TIME:
+            case Types.TIME_WITH_TIMEZONE:
+                writeTime(i, resultSet, output);
+                break;
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                writeTimestamp(i, resultSet, output);
+                break;
+            case Types.ROWID:
+                writeRowId(i, resultSet, output);
+                break;
+            case Types.CLOB:
+            case Types.NCLOB:
+                writeClob(i, resultSet, output, sidecar);
+                break;
+            case Types.SQLXML:
+                writeSqlXml(i, resultSet, output);
+                break;
+            case Types.BINARY:
+            case Types.VARBINARY:
+                writeBytes(i, resultSet, output, sidecar);
+                break;
+            case Types.LONGVARBINARY:
+                writeBinaryStream(i, resultSet, output, sidecar);
+                break;
+            case Types.BLOB:
+                writeBlob(i, resultSet, output, sidecar);
+                break;
+            case Types.ARRAY:
+                writeArray(i, resultSet, output);
+                break;
+            case Types.OTHER:
+            case Types.DATALINK:
+                // Vendor specific values (JSON, UUID...) and URLs are kept as their text
+                writeString(i, resultSet, output, null);
+                break;
+            case Types.NULL:
+                writeNull(output);
+                break;
+            default:
+                throw new SQLException("Column type not supported: " + type);
+            }
+        }
+    }
+
+    /**
+     * The values of the JAVA_OBJECT, DISTINCT, STRUCT, REF and REF_CURSOR columns, like the vendor specific types,
+     * cannot be written in an entry: a ResultSet having such a column is not cached.
+     *
+     * @param types the SQL types of the columns
+     * @return true if every column can be written by {@link #writeRow(DataOutputStream, ResultSet, int[])}
+     */
+    static boolean isSupported(final int[] types) {
+        for (int type : types) {
+            switch (type) {
+            case Types.JAVA_OBJECT:
+            case Types.DISTINCT:
+            case Types.STRUCT:
+            case Types.REF:
+            case Types.REF_CURSOR:
+                return false;
+            default:
+                try {
+                    JDBCType.valueOf(type);
+                } catch (IllegalArgumentException e) {
+                    // Vendor specific type
+                    return false;
                 }
             }
         }
+        return true;
     }
 
     private static void writeBoolean(final int column, final ResultSet resultSet, final DataOutputStream output)
@@ -294,13 +453,83 @@ class ResultSetWriter {
             output.writeDouble(val);
     }
 
-    private static void writeString(final int column, final ResultSet resultSet, final DataOutputStream output)
-            throws SQLException, IOException {
+    /**
+     * The presence byte of a string replaced by its id in the dictionary.
+     * The other values are written as a boolean (false for null, true for a value written as is).
+     */
+    private final static byte STRING_DICTIONARY = 2;
+
+    private static void writeString(final int column, final ResultSet resultSet, final DataOutputStream output,
+            final StringDictionary dictionary) throws SQLException, IOException {
         final String val = resultSet.getString(column);
-        final boolean wasNull = resultSet.wasNull();
+        final boolean wasNull = resultSet.wasNull() || val == null;
+        if (!wasNull && dictionary != null) {
+            final int id = dictionary.encode(val);
+            if (id >= 0) {
+                output.writeByte(STRING_DICTIONARY);
+                writeVarLong(id, output);
+                return;
+            }
+        }
         output.writeBoolean(!wasNull);
         if (!wasNull)
-            output.writeUTF(val);
+            writeText(val, output);
+    }
+
+    /**
+     * The number of characters of a text chunk. Encoded in modified UTF-8 (at most 3 bytes per character),
+     * a chunk always fits in a writeUTF record (65535 bytes).
+     */
+    final static int TEXT_CHUNK = 16384;
+
+    /**
+     * Write a text of any length as a sequence of writeUTF chunks.
+     * Every chunk but the last one has exactly {@link #TEXT_CHUNK} characters, so the last chunk is shorter
+     * (possibly empty). A text shorter than a chunk is written as a single writeUTF record.
+     */
+    static void writeText(final String value, final DataOutputStream output) throws IOException {
+        final int length = value.length();
+        int start = 0;
+        for (; ; ) {
+            final int end = Math.min(length, start + TEXT_CHUNK);
+            output.writeUTF(start == 0 && end == length ? value : value.substring(start, end));
+            if (end - start < TEXT_CHUNK)
+                return;
+            start = end;
+        }
+    }
+
+    /**
+     * Write the text given by a reader, streamed through a buffer of {@link #TEXT_CHUNK} characters.
+     *
+     * @return the number of characters
+     */
+    static long writeText(final Reader reader, final DataOutputStream output) throws IOException {
+        final char[] buffer = new char[TEXT_CHUNK];
+        long chars = 0;
+        for (; ; ) {
+            int length = 0;
+            int read;
+            while (length < TEXT_CHUNK && (read = reader.read(buffer, length, TEXT_CHUNK - length)) != -1)
+                length += read;
+            output.writeUTF(new String(buffer, 0, length));
+            chars += length;
+            if (length < TEXT_CHUNK)
+                return chars;
+        }
+    }
+
+    static String readText(final DataInputStream input) throws IOException {
+        final String first = input.readUTF();
+        if (first.length() < TEXT_CHUNK)
+            return first;
+        final StringBuilder sb = new StringBuilder(first);
+        String chunk;
+        do {
+            chunk = input.readUTF();
+            sb.append(chunk);
+        } while (chunk.length() == TEXT_CHUNK);
+        return sb.toString();
     }
 
     private static void writeBigDecimal(final int column, final ResultSet resultSet, final DataOutputStream output)
@@ -308,9 +537,66 @@ class ResultSetWriter {
         final BigDecimal val = resultSet.getBigDecimal(column);
         final boolean wasNull = resultSet.wasNull();
         output.writeBoolean(!wasNull);
-        if (wasNull)
-            return;
-        output.writeDouble(val.doubleValue());
+        if (!wasNull)
+            writeDecimal(val, output);
+    }
+
+    private final static byte DECIMAL_LONG = 0;
+    private final static byte DECIMAL_BIG = 1;
+
+    /**
+     * Write an exact decimal: the scale, then the unscaled value as a variable-length long
+     * when it fits in 64 bits, or as the bytes of the BigInteger otherwise.
+     */
+    static void writeDecimal(final BigDecimal value, final DataOutputStream output) throws IOException {
+        final BigInteger unscaled = value.unscaledValue();
+        if (unscaled.bitLength() < Long.SIZE) {
+            output.writeByte(DECIMAL_LONG);
+            writeVarLong(value.scale(), output);
+            writeVarLong(unscaled.longValue(), output);
+        } else {
+            final byte[] bytes = unscaled.toByteArray();
+            output.writeByte(DECIMAL_BIG);
+            writeVarLong(value.scale(), output);
+            writeVarLong(bytes.length, output);
+            output.write(bytes);
+        }
+    }
+
+    static BigDecimal readDecimal(final DataInputStream input) throws IOException {
+        final byte kind = input.readByte();
+        final int scale = (int) readVarLong(input);
+        if (kind == DECIMAL_LONG)
+            return BigDecimal.valueOf(readVarLong(input), scale);
+        final byte[] bytes = new byte[(int) readVarLong(input)];
+        input.readFully(bytes);
+        return new BigDecimal(new BigInteger(bytes), scale);
+    }
+
+    /**
+     * ZigZag then 7 bits per byte, so the small positive and negative values take one or two bytes
+     */
+    static void writeVarLong(final long value, final DataOutputStream output) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            output.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        output.writeByte((int) v);
+    }
+
+    static long readVarLong(final DataInputStream input) throws IOException {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift >= Long.SIZE)
+                throw new IOException("Malformed variable-length long");
+            b = input.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (v >>> 1) ^ -(v & 1);
     }
 
     private static void writeDate(final int column, final ResultSet resultSet, final DataOutputStream output)
@@ -349,17 +635,47 @@ class ResultSetWriter {
             output.writeUTF(val.toString());
     }
 
-    private static void writeClob(final int column, final ResultSet resultSet, final DataOutputStream output)
-            throws SQLException, IOException {
+    private final static byte TEXT_INLINE = 0;
+    private final static byte TEXT_SPILLED = 1;
+
+    /**
+     * Write a CLOB: inline as a chunked text, or in UTF-8 in the sidecar if it is larger than
+     * {@link BlobSidecar#INLINE_THRESHOLD} characters. The value is streamed in both cases.
+     */
+    private static void writeClob(final int column, final ResultSet resultSet, final DataOutputStream output,
+            final BlobSidecar sidecar) throws SQLException, IOException {
         final Clob clob = resultSet.getClob(column);
         try {
-            final boolean wasNull = resultSet.wasNull();
+            final boolean wasNull = resultSet.wasNull() || clob == null;
             output.writeBoolean(!wasNull);
             if (wasNull)
                 return;
-            // TODO Support reader for long sized string
-            final long size = clob.length();
-            output.writeUTF(size == 0 ? "" : clob.getSubString(1, (int) clob.length()));
+            try (final Reader reader = clob.getCharacterStream()) {
+                if (sidecar == null || clob.length() <= BlobSidecar.INLINE_THRESHOLD) {
+                    output.writeByte(TEXT_INLINE);
+                    writeText(reader, output);
+                    return;
+                }
+                final char[] buffer = new char[TEXT_CHUNK];
+                final long offset;
+                long chars = 0;
+                try (final OutputStream stream = sidecar.append()) {
+                    offset = sidecar.size();
+                    final Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+                    int read;
+                    while ((read = reader.read(buffer)) != -1) {
+                        writer.write(buffer, 0, read);
+                        chars += read;
+                    }
+                    writer.flush();
+                }
+                output.writeByte(TEXT_SPILLED);
+                output.writeLong(sidecar.getId());
+                output.writeLong(offset);
+                output.writeLong(sidecar.size() - offset);
+                output.writeLong(chars);
+                output.writeInt(sidecar.getChecksum());
+            }
         } finally {
             if (clob != null) {
                 try {
@@ -371,13 +687,175 @@ class ResultSetWriter {
         }
     }
 
+    private static Object readClob(final DataInputStream input, final BlobSidecar.Source sidecar)
+            throws IOException {
+        if (input.readByte() == TEXT_INLINE)
+            return readText(input);
+        final long id = input.readLong();
+        final long offset = input.readLong();
+        final long length = input.readLong();
+        final long chars = input.readLong();
+        final int checksum = input.readInt();
+        if (sidecar == null)
+            throw new IOException("The blob file of the entry is missing");
+        return sidecar.clob(id, offset, length, chars, checksum);
+    }
+
+    private static void writeSqlXml(final int column, final ResultSet resultSet, final DataOutputStream output)
+            throws SQLException, IOException {
+        final SQLXML xml = resultSet.getSQLXML(column);
+        try {
+            final boolean wasNull = resultSet.wasNull() || xml == null;
+            output.writeBoolean(!wasNull);
+            if (wasNull)
+                return;
+            try (final Reader reader = xml.getCharacterStream()) {
+                writeText(reader, output);
+            }
+        } finally {
+            if (xml != null)
+                xml.free();
+        }
+    }
+
+    private final static byte BINARY_INLINE = 0;
+    private final static byte BINARY_SPILLED = 1;
+
+    private static void writeBytes(final int column, final ResultSet resultSet, final DataOutputStream output,
+            final BlobSidecar sidecar) throws SQLException, IOException {
+        final byte[] val = resultSet.getBytes(column);
+        final boolean wasNull = resultSet.wasNull() || val == null;
+        output.writeBoolean(!wasNull);
+        if (wasNull)
+            return;
+        if (sidecar == null || val.length <= BlobSidecar.INLINE_THRESHOLD) {
+            output.writeByte(BINARY_INLINE);
+            output.writeInt(val.length);
+            output.write(val);
+        } else
+            writeSpilled(sidecar, sidecar.append(val, val.length, new ByteArrayInputStream(new byte[0])), output);
+    }
+
+    private static void writeBinaryStream(final int column, final ResultSet resultSet,
+            final DataOutputStream output, final BlobSidecar sidecar) throws SQLException, IOException {
+        try (final InputStream val = resultSet.getBinaryStream(column)) {
+            final boolean wasNull = resultSet.wasNull() || val == null;
+            output.writeBoolean(!wasNull);
+            if (!wasNull)
+                writeBinary(val, output, sidecar);
+        }
+    }
+
+    private static void writeBlob(final int column, final ResultSet resultSet, final DataOutputStream output,
+            final BlobSidecar sidecar) throws SQLException, IOException {
+        final Blob blob = resultSet.getBlob(column);
+        try {
+            final boolean wasNull = resultSet.wasNull() || blob == null;
+            output.writeBoolean(!wasNull);
+            if (wasNull)
+                return;
+            try (final InputStream input = blob.getBinaryStream()) {
+                writeBinary(input, output, sidecar);
+            }
+        } finally {
+            if (blob != null) {
+                try {
+                    blob.free();
+                } catch (AbstractMethodError e) {
+                    // May occur with old JDBC drivers
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a binary value: inline if it is small enough (or if there is no sidecar), in the sidecar otherwise.
+     * Only the first bytes are buffered, a spilled value is streamed to the sidecar.
+     */
+    private static void writeBinary(final InputStream input, final DataOutputStream output,
+            final BlobSidecar sidecar) throws IOException {
+        final long threshold = sidecar == null ? Integer.MAX_VALUE - 8 : BlobSidecar.INLINE_THRESHOLD;
+        final ByteArrayOutputStream head = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while (head.size() <= threshold
+                && (read = input.read(buffer, 0, (int) Math.min(buffer.length, threshold + 1 - head.size()))) != -1)
+            head.write(buffer, 0, read);
+        if (head.size() <= threshold) {
+            output.writeByte(BINARY_INLINE);
+            output.writeInt(head.size());
+            head.writeTo(output);
+        } else
+            writeSpilled(sidecar, sidecar.append(head.toByteArray(), head.size(), input), output);
+    }
+
+    private static void writeSpilled(final BlobSidecar sidecar, final long offset, final DataOutputStream output)
+            throws IOException {
+        output.writeByte(BINARY_SPILLED);
+        output.writeLong(sidecar.getId());
+        output.writeLong(offset);
+        output.writeLong(sidecar.size() - offset);
+        output.writeInt(sidecar.getChecksum());
+    }
+
+    private static Object readBinary(final DataInputStream input, final BlobSidecar.Source sidecar)
+            throws IOException {
+        final byte kind = input.readByte();
+        if (kind == BINARY_INLINE) {
+            final byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            return bytes;
+        }
+        final long id = input.readLong();
+        final long offset = input.readLong();
+        final long length = input.readLong();
+        final int checksum = input.readInt();
+        if (sidecar == null)
+            throw new IOException("The blob file of the entry is missing");
+        return sidecar.blob(id, offset, length, checksum);
+    }
+
+    private static void writeArray(final int column, final ResultSet resultSet, final DataOutputStream output)
+            throws SQLException, IOException {
+        final Array array = resultSet.getArray(column);
+        try {
+            final boolean wasNull = resultSet.wasNull() || array == null;
+            output.writeBoolean(!wasNull);
+            if (!wasNull)
+                CachedArray.write(array, output);
+        } finally {
+            if (array != null) {
+                try {
+                    array.free();
+                } catch (AbstractMethodError e) {
+                    // May occur with old JDBC drivers
+                }
+            }
+        }
+    }
+
     private static void writeNull(final DataOutputStream output) throws IOException {
         output.writeBoolean(false);
     }
 
     public static Object readRow(final int type, final DataInputStream input) throws IOException {
-        final boolean wasNull = !input.readBoolean();
-        if (wasNull)
+        return readRow(type, input, null, null);
+    }
+
+    /**
+     * Read a column value.
+     *
+     * @param type       the SQL type of the column
+     * @param input      the entry
+     * @param sidecar    the optional sidecar of the entry, holding the large binary values
+     * @param dictionary the optional dictionary of the frequent strings
+     * @return the value, or null
+     * @throws IOException if the value cannot be read
+     */
+    static Object readRow(final int type, final DataInputStream input, final BlobSidecar.Source sidecar,
+            final StringDictionary dictionary) throws IOException {
+        final byte presence = input.readByte();
+        if (presence == 0)
             return null;
         switch (type) {
         case Types.BIT:
@@ -395,16 +873,21 @@ class ResultSetWriter {
         case Types.REAL:
             return input.readFloat();
         case Types.DOUBLE:
+            return input.readDouble();
         case Types.NUMERIC:
         case Types.DECIMAL:
-            return input.readDouble();
+            return readDecimal(input);
         case Types.CHAR:
         case Types.VARCHAR:
         case Types.LONGVARCHAR:
         case Types.NCHAR:
         case Types.NVARCHAR:
         case Types.LONGNVARCHAR:
-            return input.readUTF();
+            if (presence != STRING_DICTIONARY)
+                return readText(input);
+            if (dictionary == null)
+                throw new IOException("The dictionary of the entry is missing");
+            return dictionary.decode((int) readVarLong(input));
         case Types.DATE:
             return new java.sql.Date(input.readLong());
         case Types.TIME:
@@ -416,22 +899,20 @@ class ResultSetWriter {
         case Types.ROWID:
             return input.readUTF();
         case Types.CLOB:
-            return input.readUTF();
+        case Types.NCLOB:
+            return readClob(input, sidecar);
+        case Types.SQLXML:
+            return readText(input);
         case Types.BINARY:
         case Types.VARBINARY:
         case Types.LONGVARBINARY:
-        case Types.NULL:
-        case Types.OTHER:
-        case Types.JAVA_OBJECT:
-        case Types.DISTINCT:
-        case Types.STRUCT:
-        case Types.ARRAY:
         case Types.BLOB:
-        case Types.REF:
+            return readBinary(input, sidecar);
+        case Types.ARRAY:
+            return CachedArray.read(input);
+        case Types.OTHER:
         case Types.DATALINK:
-        case Types.NCLOB:
-        case Types.SQLXML:
-        case Types.REF_CURSOR:
+            return readText(input);
         default:
             throw new IOException("Column type no supported: " + type);
         }
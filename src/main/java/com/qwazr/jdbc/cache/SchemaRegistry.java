@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The schemas (the column definitions) of the entries, stored once per distinct schema.
+ * An entry starts with the id of its schema: the first 8 bytes of the SHA-256 of the serialized definitions.
+ * <p>
+ * The decoded schemas are interned by the registry of each cache, so the ResultSets having the same schema
+ * share one CachedResultSetMetaData. The registry of an on-disk cache also writes each schema
+ * in the ".schemas" directory (one immutable file per schema), so the entries can be read
+ * after a restart or by another JVM sharing the directory. It only keeps the most recently used schemas,
+ * the other ones are read again from their file.
+ * The registry of an in-memory cache keeps every schema, as long as the cache.
+ */
+class SchemaRegistry {
+
+    /**
+     * The registry of the ResultSets serialized outside of a cache
+     */
+    final static SchemaRegistry MEMORY = memory();
+
+    final static String DIRECTORY = ".schemas";
+
+    /**
+     * The number of decoded schemas kept by the registry of an on-disk cache
+     */
+    final static int MAX_DECODED_SCHEMAS = 1024;
+
+    private final Path directory;
+    private final Map<Long, CachedResultSetMetaData> schemas;
+    private final Set<Long> stored;
+
+    private SchemaRegistry(final Path directory, final Map<Long, CachedResultSetMetaData> schemas) {
+        this.directory = directory;
+        this.schemas = schemas;
+        this.stored = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * @return a new registry of an in-memory cache, keeping every schema
+     */
+    static SchemaRegistry memory() {
+        return new SchemaRegistry(null, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @param cacheDirectory the cache directory
+     * @return the registry storing the schemas in the cache directory
+     */
+    static SchemaRegistry of(final Path cacheDirectory) {
+        return new SchemaRegistry(cacheDirectory.resolve(DIRECTORY),
+                Collections.synchronizedMap(new LinkedHashMap<Long, CachedResultSetMetaData>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(final Map.Entry<Long, CachedResultSetMetaData> eldest) {
+                        return size() > MAX_DECODED_SCHEMAS;
+                    }
+                }));
+    }
+
+    private static long hash(final byte[] schema) throws SQLException {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(schema)).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new SQLException("SHA-256 is not available");
+        }
+    }
+
+    private static CachedResultSetMetaData decode(final byte[] schema) throws IOException {
+        try (final DataInputStream input = new DataInputStream(new ByteArrayInputStream(schema))) {
+            return new CachedResultSetMetaData(ResultSetWriter.readColumns(input));
+        }
+    }
+
+    private Path path(final long id) {
+        return directory.resolve(String.format("%016X", id));
+    }
+
+    /**
+     * Register the schema of a ResultSet.
+     *
+     * @param metaData the metadata of the ResultSet
+     * @return the id of the schema
+     * @throws SQLException if the metadata cannot be read
+     * @throws IOException  if the schema cannot be stored
+     */
+    long register(final ResultSetMetaData metaData) throws SQLException, IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream output = new DataOutputStream(bytes)) {
+            ResultSetWriter.writeMetadata(output, metaData);
+        }
+        final byte[] schema = bytes.toByteArray();
+        final long id = hash(schema);
+        if (!schemas.containsKey(id))
+            schemas.putIfAbsent(id, decode(schema));
+        if (directory != null && !stored.contains(id)) {
+            store(id, schema);
+            stored.add(id);
+        }
+        return id;
+    }
+
+    /**
+     * The file is written once, a concurrent writer (thread or JVM) writes the same content.
+     */
+    private void store(final long id, final byte[] schema) throws IOException {
+        final Path path = path(id);
+        if (Files.exists(path))
+            return;
+        Files.createDirectories(directory);
+        final Path tempPath = directory.resolve(
+                path.getFileName().toString() + '.' + Long.toHexString(ThreadLocalRandom.current().nextLong())
+                        + ".tmp");
+        try {
+            Files.write(tempPath, schema);
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * @param id the id of the schema
+     * @return the shared metadata of the schema
+     * @throws IOException if the schema is unknown or cannot be read
+     */
+    CachedResultSetMetaData get(final long id) throws IOException {
+        final CachedResultSetMetaData metaData = schemas.get(id);
+        if (metaData != null)
+            return metaData;
+        if (directory == null)
+            throw new IOException("Unknown schema: " + String.format("%016X", id));
+        final byte[] schema;
+        try {
+            schema = Files.readAllBytes(path(id));
+        } catch (NoSuchFileException e) {
+            // The schema will be stored again by the next entry using it
+            stored.remove(id);
+            throw e;
+        }
+        try {
+            if (hash(schema) != id)
+                throw new IOException("Corrupted schema file: " + path(id));
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        final CachedResultSetMetaData decoded = decode(schema);
+        final CachedResultSetMetaData previous = schemas.putIfAbsent(id, decoded);
+        return previous == null ? decoded : previous;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.zip.CRC32;
+
+/**
+ * A large binary value stored in the sidecar of an entry. The value is read on demand,
+ * it stays available until the ResultSet is closed. Its CRC32 is verified before the first read.
+ */
+class SpilledBlob implements Blob {
+
+    private final FileChannel channel;
+    private final long offset;
+    private final long length;
+    private final int checksum;
+    private volatile boolean verified;
+
+    SpilledBlob(final FileChannel channel, final long offset, final long length, final int checksum) {
+        this.channel = channel;
+        this.offset = offset;
+        this.length = length;
+        this.checksum = checksum;
+        this.verified = false;
+    }
+
+    /**
+     * Check the CRC32 of the whole value, once
+     */
+    private void verify() throws SQLException {
+        if (verified)
+            return;
+        final CRC32 crc = new CRC32();
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, 65536));
+        final long end = offset + length;
+        long position = offset;
+        try {
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                final int read = channel.read(buffer, position);
+                if (read < 0)
+                    throw new CorruptEntryException("Truncated blob file");
+                position += read;
+                buffer.flip();
+                crc.update(buffer);
+            }
+            if ((int) crc.getValue() != checksum)
+                throw new CorruptEntryException("Wrong CRC32 of the blob at offset " + offset);
+        } catch (IOException e) {
+            throw new SQLException("Cannot read the blob", e);
+        }
+        verified = true;
+    }
+
+    @Override
+    public long length() throws SQLException {
+        return length;
+    }
+
+    private void checkRange(final long pos, final long len) throws SQLException {
+        if (pos < 1 || len < 0 || pos - 1 + len > length)
+            throw new SQLException("Out of the blob bounds: " + pos + " / " + len);
+    }
+
+    @Override
+    public byte[] getBytes(final long pos, final int len) throws SQLException {
+        final int size = (int) Math.min(len, Math.max(0, length - pos + 1));
+        checkRange(pos, size);
+        verify();
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        long position = offset + pos - 1;
+        try {
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer, position);
+                if (read < 0)
+                    throw new SQLException("Truncated blob file");
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new SQLException("Cannot read the blob", e);
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public InputStream getBinaryStream() throws SQLException {
+        verify();
+        return new ChannelInputStream(offset, length);
+    }
+
+    @Override
+    public InputStream getBinaryStream(final long pos, final long len) throws SQLException {
+        checkRange(pos, len);
+        verify();
+        return new ChannelInputStream(offset + pos - 1, len);
+    }
+
+    @Override
+    public long position(final byte[] pattern, final long start) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public long position(final Blob pattern, final long start) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public int setBytes(final long pos, final byte[] bytes) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public int setBytes(final long pos, final byte[] bytes, final int offset, final int len) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public OutputStream setBinaryStream(final long pos) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void truncate(final long len) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void free() throws SQLException {
+    }
+
+    /**
+     * Positional reads, so several streams can share the channel
+     */
+    private class ChannelInputStream extends InputStream {
+
+        private long position;
+        private final long end;
+
+        private ChannelInputStream(final long position, final long length) {
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (position >= end)
+                return -1;
+            if (len == 0)
+                return 0;
+            final int size = (int) Math.min(len, end - position);
+            final int read = channel.read(ByteBuffer.wrap(b, off, size), position);
+            if (read < 0)
+                throw new IOException("Truncated blob file");
+            position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Clob;
+import java.sql.NClob;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+
+/**
+ * A large text value stored in UTF-8 in the sidecar of an entry. The characters are decoded on demand,
+ * the value stays available until the ResultSet is closed.
+ */
+class SpilledClob implements NClob {
+
+    private final SpilledBlob bytes;
+    private final long length;
+
+    SpilledClob(final SpilledBlob bytes, final long length) {
+        this.bytes = bytes;
+        this.length = length;
+    }
+
+    @Override
+    public long length() throws SQLException {
+        return length;
+    }
+
+    @Override
+    public String getSubString(final long pos, final int len) throws SQLException {
+        if (pos < 1 || len < 0)
+            throw new SQLException("Out of the clob bounds: " + pos + " / " + len);
+        final int size = (int) Math.min(len, Math.max(0, length - pos + 1));
+        final char[] chars = new char[size];
+        try (final Reader reader = getCharacterStream(pos, size)) {
+            int offset = 0;
+            int read;
+            while (offset < size && (read = reader.read(chars, offset, size - offset)) != -1)
+                offset += read;
+            if (offset < size)
+                throw new SQLException("Truncated blob file");
+        } catch (IOException e) {
+            throw new SQLException("Cannot read the clob", e);
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public Reader getCharacterStream() throws SQLException {
+        return new InputStreamReader(bytes.getBinaryStream(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Reader getCharacterStream(final long pos, final long len) throws SQLException {
+        if (pos < 1 || len < 0 || pos - 1 + len > length)
+            throw new SQLException("Out of the clob bounds: " + pos + " / " + len);
+        final Reader reader = getCharacterStream();
+        try {
+            // UTF-8 has a variable length, the characters before the position are decoded and skipped
+            long toSkip = pos - 1;
+            while (toSkip > 0) {
+                final long skipped = reader.skip(toSkip);
+                if (skipped <= 0)
+                    throw new SQLException("Truncated blob file");
+                toSkip -= skipped;
+            }
+        } catch (IOException e) {
+            throw new SQLException("Cannot read the clob", e);
+        }
+        return new BoundedReader(reader, len);
+    }
+
+    /**
+     * @return the UTF-8 bytes, which are the ASCII bytes for an ASCII text
+     */
+    @Override
+    public InputStream getAsciiStream() throws SQLException {
+        return bytes.getBinaryStream();
+    }
+
+    @Override
+    public long position(final String searchstr, final long start) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public long position(final Clob searchstr, final long start) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public int setString(final long pos, final String str) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public int setString(final long pos, final String str, final int offset, final int len) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public OutputStream setAsciiStream(final long pos) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public Writer setCharacterStream(final long pos) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void truncate(final long len) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void free() throws SQLException {
+    }
+
+    private static class BoundedReader extends Reader {
+
+        private final Reader reader;
+        private long remaining;
+
+        private BoundedReader(final Reader reader, final long length) {
+            this.reader = reader;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            final int read = reader.read(cbuf, off, (int) Math.min(len, remaining));
+            if (read > 0)
+                remaining -= read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
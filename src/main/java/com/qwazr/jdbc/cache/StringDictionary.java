@@ -0,0 +1,309 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An append-only dictionary of the frequent short strings, shared by the entries of a cache.
+ * The writer replaces a string of the dictionary by its id, the reader returns the shared String instance.
+ * <p>
+ * A string is added once it has been seen {@link #ADMISSION_COUNT} times, until the dictionary is full.
+ * An id is never reused nor removed, so an entry stays readable as long as the dictionary exists.
+ * Each dictionary has a random generation, stored by the entries using it: a flush of the cache
+ * {@link #reset() resets} the dictionary, the entries written with the previous generation are then rejected.
+ * <p>
+ * The dictionary of an on-disk cache is the ".dictionary" file: a header (magic, generation) followed by
+ * a sequence of length-prefixed UTF-8 strings, the id being the rank of the string. Several JVMs may share the file:
+ * every access is done under an exclusive FileLock, and the strings appended by the other processes are loaded
+ * before appending a new one. A partial record left by a crash is dropped, a file which is not a dictionary
+ * is replaced by an empty one.
+ */
+class StringDictionary implements Closeable {
+
+    final static String FILENAME = ".dictionary";
+
+    /**
+     * The longest string which can be added
+     */
+    final static int MAX_LENGTH = 64;
+
+    final static int ADMISSION_COUNT = 2;
+
+    private final static int MAGIC = 0x514A4432; // QJD2
+    private final static int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Integer> ids;
+    private final ConcurrentHashMap<String, AtomicInteger> candidates;
+    private final Path path;
+    private final FileChannel channel;
+    private final Object fileKey;
+
+    private long generation;
+    private volatile String[] strings;
+    private volatile int count;
+    private long position;
+
+    /**
+     * @param path     the file of the dictionary, or null for an in-memory dictionary
+     * @param capacity the maximum number of strings, 0 to only read the strings added by other JVMs
+     * @throws IOException if the file cannot be opened
+     */
+    StringDictionary(final Path path, final int capacity) throws IOException {
+        this.capacity = capacity;
+        this.ids = new ConcurrentHashMap<>();
+        this.candidates = new ConcurrentHashMap<>();
+        this.strings = new String[256];
+        this.count = 0;
+        this.path = path;
+        if (path == null) {
+            this.channel = null;
+            this.fileKey = null;
+            this.generation = newGeneration();
+            return;
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            this.fileKey = fileKey(path);
+            load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param cacheDirectory the cache directory
+     * @param capacity       the maximum number of strings, 0 to only read the strings added by other JVMs
+     * @return the dictionary of the cache directory
+     * @throws IOException if the file cannot be opened
+     */
+    static StringDictionary of(final Path cacheDirectory, final int capacity) throws IOException {
+        return new StringDictionary(cacheDirectory.resolve(FILENAME), capacity);
+    }
+
+    private static long newGeneration() {
+        long generation;
+        do {
+            generation = ThreadLocalRandom.current().nextLong();
+        } while (generation == 0);
+        return generation;
+    }
+
+    private static Object fileKey(final Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * @return the generation of the dictionary, never 0
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return true if the file has not been replaced by another instance (see {@link #reset()})
+     * @throws IOException if the file cannot be read
+     */
+    boolean isCurrent() throws IOException {
+        return path == null || fileKey == null || Objects.equals(fileKey, fileKey(path));
+    }
+
+    /**
+     * Start a new empty dictionary. The file is atomically replaced, this instance is closed but keeps
+     * the strings already loaded for the readers opened before the reset.
+     *
+     * @return the new dictionary
+     * @throws IOException if the new file cannot be created
+     */
+    StringDictionary reset() throws IOException {
+        if (path == null)
+            return new StringDictionary(null, capacity);
+        final Path tempPath = Files.createTempFile(path.getParent(), FILENAME, ".tmp");
+        try {
+            Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        close();
+        return new StringDictionary(path, capacity);
+    }
+
+    /**
+     * @return the number of strings
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @param value the string to write
+     * @return the id of the string, or -1 if the string must be written as is
+     * @throws IOException if the string cannot be added to the file
+     */
+    int encode(final String value) throws IOException {
+        final Integer id = ids.get(value);
+        if (id != null)
+            return id;
+        if (capacity == 0 || value.length() > MAX_LENGTH || count >= capacity)
+            return -1;
+        // The candidates are forgotten when there are too many of them
+        if (candidates.size() >= capacity)
+            candidates.clear();
+        if (candidates.computeIfAbsent(value, v -> new AtomicInteger()).incrementAndGet() < ADMISSION_COUNT)
+            return -1;
+        candidates.remove(value);
+        return add(value);
+    }
+
+    /**
+     * @param id the id of a string
+     * @return the shared String instance
+     * @throws IOException if the id is unknown
+     */
+    String decode(final int id) throws IOException {
+        if (id < count)
+            return strings[id];
+        if (channel != null) {
+            synchronized (this) {
+                try (final FileLock ignored = channel.lock()) {
+                    catchUp();
+                }
+            }
+            if (id < count)
+                return strings[id];
+        }
+        throw new IOException("Unknown dictionary string: " + id);
+    }
+
+    private synchronized int add(final String value) throws IOException {
+        final Integer known = ids.get(value);
+        if (known != null)
+            return known;
+        if (channel == null)
+            return count >= capacity ? -1 : ids.computeIfAbsent(value, this::put);
+        try (final FileLock ignored = channel.lock()) {
+            catchUp();
+            final Integer id = ids.get(value);
+            if (id != null)
+                return id;
+            if (count >= capacity)
+                return -1;
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            final ByteBuffer record = ByteBuffer.allocate(Short.BYTES + bytes.length);
+            record.putShort((short) bytes.length);
+            record.put(bytes);
+            record.flip();
+            while (record.hasRemaining())
+                position += channel.write(record, position);
+            final int newId = put(value);
+            ids.put(value, newId);
+            return newId;
+        } catch (ClosedChannelException e) {
+            // The dictionary has been reset, the string is written as is
+            return -1;
+        }
+    }
+
+    /**
+     * Store the string in the next slot, the slot is published by the volatile count
+     */
+    private int put(final String value) {
+        final int id = count;
+        if (id == strings.length)
+            strings = Arrays.copyOf(strings, id * 2);
+        strings[id] = value;
+        count = id + 1;
+        return id;
+    }
+
+    private synchronized void load() throws IOException {
+        try (final FileLock ignored = channel.lock()) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining())
+                if (channel.read(header, header.position()) < 0)
+                    break;
+            header.flip();
+            if (header.remaining() == HEADER_SIZE && header.getInt() == MAGIC && header.getLong() != 0)
+                generation = header.getLong(Integer.BYTES);
+            else {
+                // A new file, or a file which is not a dictionary: the entries referencing it will be rejected
+                if (channel.size() > 0)
+                    Driver.LOGGER.warning("The string dictionary is not readable and is replaced: " + path);
+                generation = newGeneration();
+                header.clear();
+                header.putInt(MAGIC).putLong(generation);
+                header.flip();
+                channel.truncate(0);
+                while (header.hasRemaining())
+                    channel.write(header, header.position());
+            }
+            position = HEADER_SIZE;
+            catchUp();
+        }
+    }
+
+    /**
+     * Load the complete records written after the current position. A partial record is dropped.
+     */
+    private void catchUp() throws IOException {
+        final long size = channel.size();
+        if (size == position)
+            return;
+        final ByteBuffer records = ByteBuffer.allocate((int) (size - position));
+        while (records.hasRemaining())
+            if (channel.read(records, position + records.position()) < 0)
+                break;
+        records.flip();
+        while (records.remaining() >= Short.BYTES) {
+            final int length = records.getShort(records.position()) & 0xFFFF;
+            if (records.remaining() < Short.BYTES + length)
+                break;
+            records.position(records.position() + Short.BYTES);
+            final byte[] bytes = new byte[length];
+            records.get(bytes);
+            final String value = new String(bytes, StandardCharsets.UTF_8);
+            ids.putIfAbsent(value, put(value));
+            position += Short.BYTES + length;
+        }
+        if (position != size)
+            channel.truncate(position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null)
+            channel.close();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+/**
+ * Detect the changes of tables modified outside of the application.
+ * A cheap probe query is given for each table (e.g. SELECT MAX(UPDATED_AT) FROM MYTABLE).
+ * All the probes are executed in one query at each interval,
+ * and when the value returned by a probe changes, the entries tagged with the table are invalidated.
+ * The probe query is executed without holding any lock: stopping the poller closes the backend connection,
+ * which aborts a probe query still running.
+ */
+class TableChangePoller {
+
+    interface ConnectionProvider {
+        Connection getConnection() throws SQLException;
+    }
+
+    private final ResultSetCacheImpl resultSetCache;
+    private final ConnectionProvider connectionProvider;
+    private final String[] tables;
+    private final String probeSql;
+    private final Object[] lastValues;
+
+    private final AtomicReference<Connection> connection;
+    private final AtomicReference<ScheduledExecutorService> executor;
+    private boolean initialized;
+    private volatile boolean stopped;
+
+    /**
+     * @param resultSetCache     the cache to invalidate
+     * @param connectionProvider provides the connection to the backend
+     * @param probes             the probe query for each table
+     * @param from               the optional dummy table (e.g. DUAL) used to execute the probes
+     */
+    TableChangePoller(final ResultSetCacheImpl resultSetCache, final ConnectionProvider connectionProvider,
+            final Map<String, String> probes, final String from) {
+        this.resultSetCache = resultSetCache;
+        this.connectionProvider = connectionProvider;
+        this.tables = probes.keySet().toArray(new String[0]);
+        this.probeSql = buildProbeSql(probes.values().toArray(new String[0]), from);
+        this.lastValues = new Object[tables.length];
+        this.connection = new AtomicReference<>();
+        this.executor = new AtomicReference<>();
+        this.initialized = false;
+        this.stopped = false;
+        for (String table : tables)
+            resultSetCache.watchTag(table);
+    }
+
+    /**
+     * Build one query returning one row with the result of every probe as a column.
+     *
+     * @param probes the probe queries
+     * @param from   the optional dummy table (e.g. DUAL)
+     * @return the SQL query
+     */
+    static String buildProbeSql(final String[] probes, final String from) {
+        final StringBuilder sb = new StringBuilder();
+        for (String probe : probes) {
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append('(').append(probe).append(')');
+        }
+        if (from == null || from.isEmpty())
+            return "VALUES (" + sb + ')';
+        return "SELECT " + sb + " FROM " + from;
+    }
+
+    /**
+     * Execute the probes and invalidate the tables whose probe value has changed.
+     * The changes done before the first execution are unknown (e.g. while the application was stopped,
+     * the entries of an on-disk cache being kept): the first execution invalidates every polled table
+     * and collects the initial values. It is not counted as a change.
+     *
+     * @return the number of changed tables
+     * @throws SQLException if the probes cannot be executed
+     */
+    int poll() throws SQLException {
+        final Object[] values = new Object[tables.length];
+        try (final Statement statement = connection().createStatement()) {
+            try (final ResultSet resultSet = statement.executeQuery(probeSql)) {
+                if (!resultSet.next())
+                    throw new SQLException("The probe query returned no row: " + probeSql);
+                for (int i = 0; i < tables.length; i++)
+                    values[i] = resultSet.getObject(i + 1);
+            }
+        }
+        synchronized (lastValues) {
+            int changes = 0;
+            for (int i = 0; i < tables.length; i++) {
+                if (!initialized)
+                    resultSetCache.invalidateTag(tables[i]);
+                else if (!Objects.equals(values[i], lastValues[i])) {
+                    resultSetCache.invalidateTag(tables[i]);
+                    changes++;
+                }
+                lastValues[i] = values[i];
+            }
+            initialized = true;
+            return changes;
+        }
+    }
+
+    /**
+     * @return the backend connection, opened again if it has been closed
+     * @throws SQLException if the connection cannot be opened, or if the poller is stopped
+     */
+    private Connection connection() throws SQLException {
+        final Connection current = connection.get();
+        if (current != null && !current.isClosed())
+            return current;
+        final Connection opened = connectionProvider.getConnection();
+        if (!connection.compareAndSet(current, opened))
+            close(opened);
+        // A connection opened while the poller is stopped would never be closed
+        if (stopped || connection.get() != opened) {
+            closeConnection();
+            throw new SQLException("The table change poller is stopped");
+        }
+        return opened;
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (SQLException | RuntimeException e) {
+            // The probe query aborted by a stop is not an error
+            if (!stopped)
+                Driver.LOGGER.log(Level.WARNING, "The table change poller failed: " + e.getMessage(), e);
+            closeConnection();
+        }
+    }
+
+    private void closeConnection() {
+        final Connection current = connection.getAndSet(null);
+        if (current != null)
+            close(current);
+    }
+
+    private static void close(final Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Quiet
+        }
+    }
+
+    /**
+     * Start polling in a background (daemon) thread.
+     *
+     * @param interval the delay between two polls in milliseconds
+     * @return this instance
+     */
+    synchronized TableChangePoller start(final long interval) {
+        if (executor.get() == null && !stopped) {
+            final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "jdbc-cache-table-poller");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.set(scheduler);
+            scheduler.scheduleWithFixedDelay(this::pollQuietly, 0, interval, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * Stop polling and release the backend connection. A running probe query is aborted by closing the connection,
+     * so the stop never waits for the backend.
+     */
+    void stop() {
+        stopped = true;
+        final ScheduledExecutorService scheduler = executor.getAndSet(null);
+        if (scheduler != null)
+            scheduler.shutdownNow();
+        closeConnection();
+    }
+}
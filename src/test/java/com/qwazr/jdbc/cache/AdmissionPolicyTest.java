@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+public class AdmissionPolicyTest {
+
+    private final static String DB_NAME = "admission";
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        DbTestUtil.initTestDb(DB_NAME);
+    }
+
+    @Test
+    public void costModel() {
+        final AdmissionPolicy policy = new AdmissionPolicy(1000, 2, Long.MAX_VALUE, Long.MAX_VALUE);
+        // 400ns saved once does not pay 1000ns + 100 bytes * 2ns
+        Assert.assertFalse(policy.admit(400, 100, 1));
+        // But it does when the entry is expected to be read three times
+        Assert.assertTrue(policy.admit(400, 100, 3));
+        Assert.assertFalse(policy.admit(400, 1000, 3));
+    }
+
+    @Test
+    public void expectedReuse() {
+        Assert.assertEquals(1, AdmissionPolicy.expectedReuse(null, 0), 0);
+        Assert.assertEquals(3, AdmissionPolicy.expectedReuse(null, 2), 0);
+        final QueryTemplateStatistics stats = new QueryTemplateStatistics(16);
+        QueryTemplateStatistics.Template template = null;
+        for (int i = 0; i < 10; i++)
+            template = stats.execution("SELECT * FROM T WHERE ID = " + i);
+        // 10 executions of the template, one entry built
+        template.load(1000, 100, 1);
+        Assert.assertEquals(5, AdmissionPolicy.expectedReuse(template, 0), 0);
+        Assert.assertEquals(8, AdmissionPolicy.expectedReuse(template, 7), 0);
+    }
+
+    @Test(expected = SQLException.class)
+    public void wrongProperty() throws SQLException {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_ADMISSION_ENTRY_COST, "ten");
+        AdmissionPolicy.of(info);
+    }
+
+    private static Properties info(final String entryCostMicros) {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, "jdbc:derby:memory:" + DB_NAME + ";create=true");
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        if (entryCostMicros != null)
+            info.setProperty(Driver.CACHE_ADMISSION_ENTRY_COST, entryCostMicros);
+        return info;
+    }
+
+    private static void query(final Connection connection) throws SQLException, IOException {
+        try (final Statement statement = connection.createStatement()) {
+            try (final ResultSet resultSet = statement.executeQuery(DbTestUtil.SQL_SIMPLE)) {
+                DbTestUtil.checkResultSet(resultSet, DbTestUtil.ROWS);
+            }
+        }
+    }
+
+    private static void checkAdmission(final String url) throws SQLException, IOException {
+        try (final Connection expensive = DriverManager.getConnection(url, info("60000000"));
+                final Connection free = DriverManager.getConnection(url, info(null))) {
+            final ResultSetCache cache = Driver.getCache(expensive);
+            cache.flush();
+            final long rejections = cache.getStatistics().getRejections();
+
+            // One minute per entry is never paid back: the results are served but not kept
+            query(expensive);
+            query(expensive);
+            Assert.assertEquals(0, cache.size());
+            Assert.assertEquals(rejections + 2, cache.getStatistics().getRejections());
+
+            // The same cache used by a connection without admission policy stores the entry
+            query(free);
+            Assert.assertEquals(1, cache.size());
+            query(expensive);
+            Assert.assertEquals(rejections + 2, cache.getStatistics().getRejections());
+            cache.flush();
+        }
+    }
+
+    @Test
+    public void inMemory() throws SQLException, IOException {
+        checkAdmission(Driver.URL_MEM_PREFIX + DB_NAME);
+    }
+
+    @Test
+    public void onDisk() throws SQLException, IOException {
+        checkAdmission(Driver.URL_FILE_PREFIX + Files.createTempDirectory("jdbc-cache-admission"));
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Blob;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+public class BinaryColumnsTest {
+
+    private final static String DB_NAME = "binary";
+
+    private final static String SQL_SELECT = "SELECT ID, BIN, LBIN, DATA FROM BINTABLE ORDER BY ID";
+
+    private final static byte[] SMALL = { 1, 2, 3, 0, -1 };
+    private final static byte[] MEDIUM = new byte[32000];
+    private final static byte[] LARGE = new byte[BlobSidecar.INLINE_THRESHOLD * 3 + 17];
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        final Random random = new Random(0);
+        random.nextBytes(MEDIUM);
+        random.nextBytes(LARGE);
+        try (final Connection connection = DriverManager.getConnection(
+                "jdbc:derby:memory:" + DB_NAME + ";create=true")) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE BINTABLE (ID INT PRIMARY KEY, BIN VARCHAR(16) FOR BIT DATA, "
+                        + "LBIN LONG VARCHAR FOR BIT DATA, DATA BLOB(1M))");
+            }
+            try (final PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO BINTABLE VALUES (?, ?, ?, ?)")) {
+                statement.setInt(1, 1);
+                statement.setBytes(2, SMALL);
+                statement.setBytes(3, MEDIUM);
+                statement.setBytes(4, LARGE);
+                statement.executeUpdate();
+                statement.setInt(1, 2);
+                statement.setNull(2, Types.VARBINARY);
+                statement.setBytes(3, SMALL);
+                statement.setBytes(4, SMALL);
+                statement.executeUpdate();
+                statement.setInt(1, 3);
+                statement.setBytes(2, new byte[0]);
+                statement.setNull(3, Types.LONGVARBINARY);
+                statement.setNull(4, Types.BLOB);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    private static Properties info() {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, "jdbc:derby:memory:" + DB_NAME);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        return info;
+    }
+
+    private static void checkBinary(final byte[] expected, final ResultSet resultSet, final int column)
+            throws SQLException, IOException {
+        Assert.assertArrayEquals(expected, resultSet.getBytes(column));
+        try (final InputStream input = resultSet.getBinaryStream(column)) {
+            Assert.assertArrayEquals(expected, input == null ? null : IOUtils.toByteArray(input));
+        }
+        final Blob blob = resultSet.getBlob(column);
+        if (expected == null) {
+            Assert.assertNull(blob);
+            Assert.assertTrue(resultSet.wasNull());
+            return;
+        }
+        Assert.assertEquals(expected.length, blob.length());
+        if (expected.length > 10)
+            Assert.assertArrayEquals(Arrays.copyOfRange(expected, 5, 15), blob.getBytes(6, 10));
+        try (final InputStream input = blob.getBinaryStream()) {
+            Assert.assertArrayEquals(expected, IOUtils.toByteArray(input));
+        }
+    }
+
+    private static void checkResultSet(final ResultSet resultSet) throws SQLException, IOException {
+        Assert.assertTrue(resultSet.next());
+        checkBinary(SMALL, resultSet, 2);
+        checkBinary(MEDIUM, resultSet, 3);
+        checkBinary(LARGE, resultSet, 4);
+        Assert.assertTrue(resultSet.next());
+        checkBinary(null, resultSet, 2);
+        checkBinary(SMALL, resultSet, 3);
+        checkBinary(SMALL, resultSet, 4);
+        Assert.assertTrue(resultSet.next());
+        checkBinary(new byte[0], resultSet, 2);
+        checkBinary(null, resultSet, 3);
+        checkBinary(null, resultSet, 4);
+        Assert.assertFalse(resultSet.next());
+    }
+
+    private static void checkCache(final String url) throws SQLException, IOException {
+        try (final Connection connection = DriverManager.getConnection(url, info())) {
+            final ResultSetCache cache = Driver.getCache(connection);
+            cache.flush();
+            // The first execution populates the entry, the second one reads it
+            for (int i = 0; i < 2; i++) {
+                try (final Statement statement = connection.createStatement()) {
+                    try (final ResultSet resultSet = statement.executeQuery(SQL_SELECT)) {
+                        checkResultSet(resultSet);
+                    }
+                }
+            }
+            Assert.assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    public void inMemory() throws SQLException, IOException {
+        checkCache(Driver.URL_MEM_PREFIX + DB_NAME);
+    }
+
+    @Test
+    public void onDisk() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-binary");
+        checkCache(Driver.URL_FILE_PREFIX + directory);
+        // The large value is in the sidecar of the entry
+        final String key = CachedStatement.generateCacheKey(SQL_SELECT);
+        final Path entry = DiskCacheLayout.entryPath(directory, key);
+        final Path sidecar = BlobSidecar.of(entry, EntryHeader.read(entry).sidecar);
+        Assert.assertTrue(Files.size(sidecar) > LARGE.length);
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info())) {
+            Driver.getCache(connection).flush();
+        }
+        Assert.assertFalse(Files.exists(sidecar));
+    }
+
+    /**
+     * A value of the sidecar is verified using its CRC32 before it is read
+     */
+    @Test
+    public void corruptSidecar() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-binary");
+        checkCache(Driver.URL_FILE_PREFIX + directory);
+        final Path entry = DiskCacheLayout.entryPath(directory, CachedStatement.generateCacheKey(SQL_SELECT));
+        final Path sidecar = BlobSidecar.of(entry, EntryHeader.read(entry).sidecar);
+        final byte[] bytes = Files.readAllBytes(sidecar);
+        bytes[bytes.length - 10] ^= 0x55;
+        Files.write(sidecar, bytes);
+        try (final StringDictionary dictionary = StringDictionary.of(directory, 0);
+                final CachedOnDiskResultSet resultSet = new CachedOnDiskResultSet(null, entry,
+                        SchemaRegistry.of(directory), dictionary, false)) {
+            Assert.assertTrue(resultSet.next());
+            checkBinary(MEDIUM, resultSet, 3);
+            resultSet.getBlob(4).getBinaryStream();
+            Assert.fail("SQLException expected");
+        } catch (SQLException e) {
+            Assert.assertTrue(e.getCause() instanceof CorruptEntryException);
+        }
+    }
+
+    /**
+     * A new build of the entry writes a new sidecar, the readers of the replaced entry keep their own sidecar
+     */
+    @Test
+    public void replacedEntryKeepsItsSidecar() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-binary");
+        final Path entry = DiskCacheLayout.entryPath(directory, CachedStatement.generateCacheKey(SQL_SELECT));
+        final SchemaRegistry registry = SchemaRegistry.of(directory);
+        try (final Connection backend = DriverManager.getConnection("jdbc:derby:memory:" + DB_NAME)) {
+            final long[] ids = new long[2];
+            for (int i = 0; i < ids.length; i++) {
+                final Path tempPath = DiskCacheLayout.tempPath(directory, entry.getFileName().toString());
+                try (final Statement statement = backend.createStatement()) {
+                    try (final ResultSet resultSet = statement.executeQuery(SQL_SELECT)) {
+                        ResultSetWriter.write(tempPath, resultSet, registry, null, null);
+                    }
+                }
+                ids[i] = EntryHeader.read(tempPath).sidecar;
+                if (i == 0) {
+                    DiskCacheLayout.publish(tempPath, entry);
+                    continue;
+                }
+                try (final CachedOnDiskResultSet replaced = new CachedOnDiskResultSet(null, entry, registry, null,
+                        false)) {
+                    DiskCacheLayout.publish(tempPath, entry);
+                    checkResultSet(replaced);
+                }
+            }
+            Assert.assertNotEquals(ids[0], ids[1]);
+            Assert.assertEquals(Arrays.asList(BlobSidecar.of(entry, ids[1])), BlobSidecar.list(entry));
+            try (final CachedOnDiskResultSet resultSet = new CachedOnDiskResultSet(null, entry, registry, null,
+                    false)) {
+                checkResultSet(resultSet);
+            }
+        }
+    }
+
+    @Test
+    public void array() throws SQLException, IOException {
+        final Object[] elements = { 1, "two", null, 3L, new BigDecimal("4.5"), new byte[] { 6 } };
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream output = new DataOutputStream(bytes)) {
+            CachedArray.write(new CachedArray(Types.OTHER, "ANY", elements), output);
+        }
+        final CachedArray array = CachedArray.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertEquals(Types.OTHER, array.getBaseType());
+        Assert.assertEquals("ANY", array.getBaseTypeName());
+        final Object[] read = (Object[]) array.getArray();
+        Assert.assertEquals(elements.length, read.length);
+        for (int i = 0; i < 5; i++)
+            Assert.assertEquals(elements[i], read[i]);
+        Assert.assertArrayEquals((byte[]) elements[5], (byte[]) read[5]);
+        Assert.assertArrayEquals(new Object[] { "two", null }, (Object[]) array.getArray(2, 2));
+    }
+
+    @Test
+    public void arrayWithoutBaseTypeName() throws SQLException, IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream output = new DataOutputStream(bytes)) {
+            CachedArray.write(new CachedArray(Types.INTEGER, null, new Object[] { 1 }), output);
+        }
+        final CachedArray array = CachedArray.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertNull(array.getBaseTypeName());
+        Assert.assertArrayEquals(new Object[] { 1 }, (Object[]) array.getArray());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+public class BlockStreamsTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        final Path path = Files.createTempFile("jdbc-cache-block", ".gz");
+        final byte[] large = new byte[BlockStreams.BLOCK_SIZE * 2 + 3];
+        new Random(0).nextBytes(large);
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            try (final DataOutputStream output = BlockStreams.write(channel)) {
+                for (int i = 0; i < 100000; i++)
+                    output.writeInt(i);
+                output.write(large);
+                output.writeUTF("end");
+            }
+            // The channel is left open
+            Assert.assertTrue(channel.isOpen());
+        }
+        // Still a plain GZIP file, starting with the length of the first block
+        try (final DataInputStream input = new DataInputStream(new GZIPInputStream(Files.newInputStream(path)))) {
+            Assert.assertEquals(BlockStreams.BLOCK_SIZE, input.readInt());
+        }
+        // Several streams open at the same time on the same thread
+        try (final DataInputStream input1 = new DataInputStream(BlockStreams.read(FileChannel.open(path)))) {
+            try (final DataInputStream input2 = new DataInputStream(BlockStreams.read(FileChannel.open(path)))) {
+                for (int i = 0; i < 100000; i++) {
+                    Assert.assertEquals(i, input1.readInt());
+                    Assert.assertEquals(i, input2.readInt());
+                }
+                final byte[] read = new byte[large.length];
+                input1.readFully(read);
+                Assert.assertArrayEquals(large, read);
+                Assert.assertEquals("end", input1.readUTF());
+                Assert.assertEquals(-1, input1.read());
+                long skipped = 0;
+                while (skipped < large.length)
+                    skipped += input2.skip(large.length - skipped);
+                Assert.assertEquals(large.length, skipped);
+                Assert.assertEquals("end", input2.readUTF());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static Path write(final int blocks) throws IOException {
+        final Path path = Files.createTempFile("jdbc-cache-block", ".gz");
+        final byte[] bytes = new byte[BlockStreams.BLOCK_SIZE * blocks];
+        new Random(1).nextBytes(bytes);
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            try (final DataOutputStream output = BlockStreams.write(channel)) {
+                output.write(bytes);
+            }
+        }
+        return path;
+    }
+
+    private static void readAll(final Path path) throws IOException {
+        try (final InputStream input = BlockStreams.read(FileChannel.open(path))) {
+            final byte[] buffer = new byte[1024];
+            while (input.read(buffer) != -1)
+                ;
+        }
+    }
+
+    @Test(expected = CorruptEntryException.class)
+    public void corrupted() throws IOException {
+        final Path path = write(4);
+        try {
+            final byte[] bytes = Files.readAllBytes(path);
+            bytes[bytes.length * 3 / 4] ^= 0x55;
+            Files.write(path, bytes);
+            readAll(path);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = CorruptEntryException.class)
+    public void truncated() throws IOException {
+        final Path path = write(4);
+        try {
+            final byte[] bytes = Files.readAllBytes(path);
+            Files.write(path, Arrays.copyOf(bytes, bytes.length / 2));
+            readAll(path);
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+public class CacheJournalTest {
+
+    private static Path cacheDirectory;
+
+    @BeforeClass
+    public static void createTmpDir() throws IOException, SQLException {
+        cacheDirectory = Files.createTempDirectory("jdbc-cache-journal");
+        DbTestUtil.initTestDb("journal");
+    }
+
+    @Test
+    public void invalidationSinceMark() throws IOException, SQLException {
+        final CacheJournal journal = new CacheJournal(Files.createTempDirectory("jdbc-cache-journal"));
+        final String key = CachedStatement.generateCacheKey("key");
+        final String otherKey = CachedStatement.generateCacheKey("other");
+        final AtomicBoolean executed = new AtomicBoolean();
+
+        CacheJournal.Mark mark = journal.mark();
+        journal.invalidate(otherKey);
+        Assert.assertTrue(journal.ifNotInvalidated(mark, key, () -> executed.set(true)));
+        Assert.assertTrue(executed.getAndSet(false));
+
+        mark = journal.mark();
+        journal.invalidate(key);
+        Assert.assertFalse(journal.ifNotInvalidated(mark, key, () -> executed.set(true)));
+        Assert.assertFalse(executed.get());
+
+        mark = journal.mark();
+        journal.invalidateAll();
+        Assert.assertFalse(journal.ifNotInvalidated(mark, otherKey, () -> executed.set(true)));
+        Assert.assertFalse(executed.get());
+    }
+
+    @Test
+    public void entryInvalidatedDuringBuildIsNotPublished() throws SQLException, IOException {
+        final ResultSetOnDiskCacheImpl cache = new ResultSetOnDiskCacheImpl(cacheDirectory);
+        final CachedStatement<?> statement = new CachedStatement<>(null, cache, null);
+        statement.executedSql = DbTestUtil.SQL_SIMPLE;
+        final String key = statement.getOrGenerateKey();
+
+        try (final Connection backend = DriverManager.getConnection("jdbc:derby:memory:journal")) {
+            final ResultSet resultSet = cache.get(statement, key, () -> {
+                // Another JVM (or thread) flushes the entry while it is built
+                cache.flush(statement);
+                return backend.createStatement().executeQuery(DbTestUtil.SQL_SIMPLE);
+            });
+            // The caller still gets the result
+            DbTestUtil.checkResultSet(resultSet, DbTestUtil.ROWS);
+        }
+        // But the entry has not been published, and the temporary file is gone
+        Assert.assertFalse(cache.exists(statement));
+        try (final Stream<Path> stream = Files.walk(cacheDirectory)) {
+            Assert.assertFalse(stream.anyMatch(path -> path.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    public void orphanedTemporaryFilesAreDeleted() throws IOException, SQLException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-journal");
+        new ResultSetOnDiskCacheImpl(directory).close();
+        final Path orphan = DiskCacheLayout.tempPath(directory, CachedStatement.generateCacheKey("orphan"));
+        Files.write(orphan, new byte[16]);
+        Files.write(orphan.resolveSibling(orphan.getFileName() + ".blob"), new byte[16]);
+
+        // A file whose key is locked is being built by another process
+        final String buildingKey = CachedStatement.generateCacheKey("building");
+        final Path building = DiskCacheLayout.tempPath(directory, buildingKey);
+        Files.write(building, new byte[16]);
+
+        try (final CacheBuildLocks otherProcess = new CacheBuildLocks(directory)) {
+            try (final CacheBuildLocks.Lock ignored = otherProcess.lock(buildingKey)) {
+                new ResultSetOnDiskCacheImpl(directory).close();
+            }
+        }
+        Assert.assertEquals(Collections.singletonList(building), DiskCacheLayout.listTemporary(directory));
+    }
+
+    @Test
+    public void entryBuiltByAnotherProcessExists() throws IOException, SQLException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-journal");
+        final ResultSetOnDiskCacheImpl cache = new ResultSetOnDiskCacheImpl(directory);
+        final ResultSetOnDiskCacheImpl otherProcess = new ResultSetOnDiskCacheImpl(directory);
+        final CachedStatement<?> statement = new CachedStatement<>(null, cache, null);
+        statement.executedSql = DbTestUtil.SQL_SIMPLE;
+        try (final Connection backend = DriverManager.getConnection("jdbc:derby:memory:journal")) {
+            try (final ResultSet resultSet = otherProcess.get(statement, statement.getOrGenerateKey(),
+                    () -> backend.createStatement().executeQuery(DbTestUtil.SQL_SIMPLE))) {
+                DbTestUtil.checkResultSet(resultSet, DbTestUtil.ROWS);
+            }
+        }
+        // Not indexed yet by the first cache, but found in the directory
+        Assert.assertTrue(cache.exists(statement));
+        otherProcess.close();
+        cache.close();
+    }
+}
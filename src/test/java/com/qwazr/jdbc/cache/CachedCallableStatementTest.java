@@ -0,0 +1,237 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Properties;
+
+public class CachedCallableStatementTest {
+
+    private final static String DB_NAME = "callable";
+
+    private final static String CALL = "{call FIND_ITEMS(?, ?, ?)}";
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        DbTestUtil.initProcedureDb(DB_NAME, "CREATE PROCEDURE FIND_ITEMS(IN MIN_ID INT, OUT TOTAL INT, OUT LABEL "
+                + "VARCHAR(32)) PARAMETER STYLE JAVA READS SQL DATA LANGUAGE JAVA DYNAMIC RESULT SETS 2 "
+                + "EXTERNAL NAME '" + CachedCallableStatementTest.class.getName() + ".findItems'");
+    }
+
+    /**
+     * The stored procedure: the items from the given id, then the maximum id.
+     * The OUT parameters are the number of items, and a label which is null if there is no item.
+     */
+    public static void findItems(final int minId, final int[] total, final String[] label, final ResultSet[] items,
+            final ResultSet[] maxId) throws SQLException {
+        DbTestUtil.CALLS.incrementAndGet();
+        final Connection connection = DriverManager.getConnection("jdbc:default:connection");
+        final PreparedStatement statement =
+                connection.prepareStatement("SELECT ID, NAME FROM ITEMS WHERE ID >= ? ORDER BY ID");
+        statement.setInt(1, minId);
+        items[0] = statement.executeQuery();
+        maxId[0] = connection.createStatement().executeQuery("SELECT MAX(ID) FROM ITEMS");
+        try (final PreparedStatement count = connection.prepareStatement(
+                "SELECT COUNT(*) FROM ITEMS WHERE ID >= ?")) {
+            count.setInt(1, minId);
+            try (final ResultSet resultSet = count.executeQuery()) {
+                resultSet.next();
+                total[0] = resultSet.getInt(1);
+            }
+        }
+        label[0] = total[0] == 0 ? null : "from " + minId;
+    }
+
+    private static Properties info() {
+        final Properties info = DbTestUtil.procedureInfo(DB_NAME);
+        info.setProperty(Driver.CACHE_CALLABLE, "true");
+        return info;
+    }
+
+    private static void checkCall(final Connection connection, final int minId, final String... names)
+            throws SQLException {
+        try (final CallableStatement call = connection.prepareCall(CALL)) {
+            call.setInt(1, minId);
+            call.registerOutParameter(2, Types.INTEGER);
+            call.registerOutParameter(3, Types.VARCHAR);
+            Assert.assertTrue(call.execute());
+            try (final ResultSet resultSet = call.getResultSet()) {
+                DbTestUtil.checkItems(resultSet, names);
+            }
+            Assert.assertEquals(-1, call.getUpdateCount());
+            Assert.assertTrue(call.getMoreResults());
+            try (final ResultSet resultSet = call.getResultSet()) {
+                Assert.assertTrue(resultSet.next());
+                Assert.assertEquals(3, resultSet.getInt(1));
+            }
+            Assert.assertFalse(call.getMoreResults());
+            Assert.assertNull(call.getResultSet());
+            Assert.assertEquals(-1, call.getUpdateCount());
+            Assert.assertEquals(names.length, call.getInt(2));
+            Assert.assertFalse(call.wasNull());
+            if (names.length == 0) {
+                Assert.assertNull(call.getString(3));
+                Assert.assertTrue(call.wasNull());
+            } else
+                Assert.assertEquals("from " + minId, call.getString(3));
+        }
+    }
+
+    private static void checkCalls(final Connection connection) throws SQLException {
+        checkCall(connection, 2, "two", "three");
+        checkCall(connection, 5);
+    }
+
+    /**
+     * The calls are populated by the first pass, then served by the cache without calling the procedure
+     */
+    private static void checkCached(final Connection connection) throws SQLException {
+        final ResultSetCache cache = Driver.getCache(connection);
+        cache.flush();
+        final int calls = DbTestUtil.CALLS.get();
+        for (int i = 0; i < 2; i++)
+            checkCalls(connection);
+        Assert.assertEquals(calls + 2, DbTestUtil.CALLS.get());
+        Assert.assertEquals(2, cache.size());
+        // executeQuery returns the first ResultSet
+        try (final CallableStatement call = connection.prepareCall(CALL)) {
+            call.setInt(1, 3);
+            call.registerOutParameter(2, Types.INTEGER);
+            call.registerOutParameter(3, Types.VARCHAR);
+            for (int i = 0; i < 2; i++) {
+                try (final ResultSet resultSet = call.executeQuery()) {
+                    Assert.assertTrue(resultSet.next());
+                    Assert.assertEquals("three", resultSet.getString(2));
+                }
+                Assert.assertEquals(1, call.getInt(2));
+            }
+        }
+        Assert.assertEquals(calls + 3, DbTestUtil.CALLS.get());
+    }
+
+    @Test
+    public void inMemory() throws SQLException {
+        DbTestUtil.checkInMemory(DB_NAME, info(), CachedCallableStatementTest::checkCached);
+    }
+
+    @Test
+    public void onDisk() throws SQLException, IOException {
+        final Path directory = DbTestUtil.checkOnDisk(info(), CachedCallableStatementTest::checkCached);
+        // Without backend, the cached calls are still available
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_CALLABLE, "true");
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info)) {
+            checkCalls(connection);
+            try (final CallableStatement call = connection.prepareCall(CALL)) {
+                call.setInt(1, 1);
+                call.registerOutParameter(2, Types.INTEGER);
+                call.registerOutParameter(3, Types.VARCHAR);
+                call.execute();
+                Assert.fail("SQLException expected");
+            } catch (SQLException e) {
+                Assert.assertEquals("No cache available", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The tags given for the procedure invalidate the entry
+     */
+    private static void checkTagged(final Connection connection) throws SQLException {
+        final ResultSetCache cache = Driver.getCache(connection);
+        cache.flush();
+        checkCall(connection, 2, "two", "three");
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, cache.invalidateTag("prices"));
+        Assert.assertEquals(0, cache.size());
+        // The tables of the returned ResultSets are also tags
+        checkCall(connection, 2, "two", "three");
+        Assert.assertEquals(1, cache.invalidateTag("ITEMS"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void callableTags() throws SQLException, IOException {
+        final Properties info = info();
+        info.setProperty(Driver.CACHE_CALLABLE_TAGS_PREFIX + "find_items", "Prices, ");
+        DbTestUtil.checkInMemory(DB_NAME, info, CachedCallableStatementTest::checkTagged);
+        DbTestUtil.checkOnDisk(info, CachedCallableStatementTest::checkTagged);
+    }
+
+    /**
+     * The call exceeds the limits of an entry: it is served by the database and not stored
+     */
+    private static void checkNotStored(final Connection connection) throws SQLException {
+        final ResultSetCache cache = Driver.getCache(connection);
+        cache.flush();
+        final int calls = DbTestUtil.CALLS.get();
+        for (int i = 0; i < 2; i++)
+            checkCall(connection, 2, "two", "three");
+        Assert.assertEquals(calls + 2, DbTestUtil.CALLS.get());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void entryLimit() throws SQLException, IOException {
+        final Properties info = info();
+        // Two items, then the maximum id
+        info.setProperty(Driver.CACHE_ENTRY_MAX_ROWS, "2");
+        DbTestUtil.checkInMemory(DB_NAME, info, CachedCallableStatementTest::checkNotStored);
+        DbTestUtil.checkOnDisk(info, CachedCallableStatementTest::checkNotStored);
+    }
+
+    @Test
+    public void notCached() throws SQLException {
+        final Properties info = info();
+        info.remove(Driver.CACHE_CALLABLE);
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_MEM_PREFIX + DB_NAME, info)) {
+            final int calls = DbTestUtil.CALLS.get();
+            for (int i = 0; i < 2; i++) {
+                try (final CallableStatement call = connection.prepareCall(CALL)) {
+                    call.setInt(1, 2);
+                    call.registerOutParameter(2, Types.INTEGER);
+                    call.registerOutParameter(3, Types.VARCHAR);
+                    Assert.assertTrue(call.execute());
+                    Assert.assertEquals(2, call.getInt(2));
+                    Assert.assertEquals("from 2", call.getString(3));
+                }
+            }
+            Assert.assertEquals(calls + 2, DbTestUtil.CALLS.get());
+        }
+    }
+
+    @Test
+    public void namedParametersAreDelimited() throws SQLException {
+        final CachedCallableStatement first = new CachedCallableStatement(null, null, null, CALL);
+        first.setString("A", "1x");
+        final CachedCallableStatement second = new CachedCallableStatement(null, null, null, CALL);
+        second.setString("A1", "x");
+        Assert.assertNotEquals(first.keySource().toString(), second.keySource().toString());
+    }
+}
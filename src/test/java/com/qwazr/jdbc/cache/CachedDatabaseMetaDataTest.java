@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Properties;
+
+public class CachedDatabaseMetaDataTest {
+
+    private final static String DB_NAME = "metadata";
+
+    private final static String[] TABLE_TYPES = { "TABLE" };
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        try (final Connection connection = DriverManager.getConnection(
+                "jdbc:derby:memory:" + DB_NAME + ";create=true")) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE ITEMS (ID INT PRIMARY KEY, NAME VARCHAR(32))");
+                statement.executeUpdate("CREATE INDEX ITEMS_NAME ON ITEMS (NAME)");
+            }
+        }
+    }
+
+    private static Properties info() {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, "jdbc:derby:memory:" + DB_NAME);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        return info;
+    }
+
+    private static void checkTables(final DatabaseMetaData metaData) throws SQLException {
+        try (final ResultSet resultSet = metaData.getTables(null, "APP", "ITEMS", TABLE_TYPES)) {
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals("ITEMS", resultSet.getString("TABLE_NAME"));
+            Assert.assertEquals("TABLE", resultSet.getString("TABLE_TYPE"));
+            Assert.assertFalse(resultSet.next());
+        }
+    }
+
+    private static void checkMetaData(final DatabaseMetaData metaData) throws SQLException {
+        checkTables(metaData);
+        try (final ResultSet resultSet = metaData.getColumns(null, "APP", "ITEMS", null)) {
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals("ID", resultSet.getString("COLUMN_NAME"));
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals("NAME", resultSet.getString("COLUMN_NAME"));
+            Assert.assertEquals(32, resultSet.getInt("COLUMN_SIZE"));
+            Assert.assertFalse(resultSet.next());
+        }
+        try (final ResultSet resultSet = metaData.getPrimaryKeys(null, "APP", "ITEMS")) {
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals("ID", resultSet.getString("COLUMN_NAME"));
+            Assert.assertFalse(resultSet.next());
+        }
+        boolean nameIndex = false;
+        try (final ResultSet resultSet = metaData.getIndexInfo(null, "APP", "ITEMS", false, true)) {
+            while (resultSet.next())
+                nameIndex |= "ITEMS_NAME".equals(resultSet.getString("INDEX_NAME"));
+        }
+        Assert.assertTrue(nameIndex);
+    }
+
+    /**
+     * The ResultSets are populated by the first pass, then read from the cache
+     */
+    private static void checkCached(final Connection connection) throws SQLException {
+        final ResultSetCache cache = Driver.getCache(connection);
+        cache.flush();
+        final long hits = cache.getStatistics().getHits();
+        for (int i = 0; i < 2; i++)
+            checkMetaData(connection.getMetaData());
+        Assert.assertEquals(4, cache.size());
+        Assert.assertEquals(hits + 4, cache.getStatistics().getHits());
+        final DatabaseMetaData metaData = connection.getMetaData();
+        Assert.assertSame(connection, metaData.getConnection());
+        Assert.assertEquals("Apache Derby", metaData.getDatabaseProductName());
+    }
+
+    @Test
+    public void inMemory() throws SQLException {
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_MEM_PREFIX + DB_NAME, info())) {
+            checkCached(connection);
+        }
+    }
+
+    @Test
+    public void onDisk() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-metadata");
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info())) {
+            checkCached(connection);
+        }
+        // Without backend, the cached ResultSets are still available
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory)) {
+            final DatabaseMetaData metaData = connection.getMetaData();
+            checkMetaData(metaData);
+            try {
+                metaData.getDatabaseProductName();
+                Assert.fail("SQLFeatureNotSupportedException expected");
+            } catch (SQLFeatureNotSupportedException e) {
+                // Expected
+            }
+            try {
+                metaData.getTables(null, "APP", "OTHER", TABLE_TYPES);
+                Assert.fail("SQLException expected");
+            } catch (SQLException e) {
+                Assert.assertEquals("No cache available", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void keysAreNotAmbiguous() throws SQLException {
+        Assert.assertNotEquals(CachedDatabaseMetaData.generateKey("getTables", "a', 'b"),
+                CachedDatabaseMetaData.generateKey("getTables", "a", "b"));
+        Assert.assertNotEquals(CachedDatabaseMetaData.generateKey("getTables", "null"),
+                CachedDatabaseMetaData.generateKey("getTables", (Object) null));
+        Assert.assertNotEquals(CachedDatabaseMetaData.generateKey("getTables", (Object) new String[] { "A, B" }),
+                CachedDatabaseMetaData.generateKey("getTables", (Object) new String[] { "A", "B" }));
+        Assert.assertEquals(CachedDatabaseMetaData.generateKey("getTables", "APP", TABLE_TYPES),
+                CachedDatabaseMetaData.generateKey("getTables", "APP", new String[] { "TABLE" }));
+    }
+}
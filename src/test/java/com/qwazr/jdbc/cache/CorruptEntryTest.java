@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+public class CorruptEntryTest {
+
+    private final static String DB_NAME = "corrupt";
+
+    private final static String SQL = "SELECT ID, NAME FROM ITEMS ORDER BY ID";
+
+    private final static int ROWS = 3000;
+
+    private final static String[] NAMES = new String[ROWS];
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        final Random random = new Random(0);
+        try (final Connection connection = DriverManager.getConnection(
+                "jdbc:derby:memory:" + DB_NAME + ";create=true")) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE ITEMS (ID INT PRIMARY KEY, NAME VARCHAR(100))");
+            }
+            try (final PreparedStatement statement = connection.prepareStatement("INSERT INTO ITEMS VALUES (?, ?)")) {
+                for (int i = 0; i < ROWS; i++) {
+                    // Random names, so the entry spans several compressed blocks
+                    final char[] chars = new char[100];
+                    for (int j = 0; j < chars.length; j++)
+                        chars[j] = (char) ('a' + random.nextInt(26));
+                    NAMES[i] = new String(chars);
+                    statement.setInt(1, i);
+                    statement.setString(2, NAMES[i]);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        }
+    }
+
+    private static Properties info() {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, "jdbc:derby:memory:" + DB_NAME);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        return info;
+    }
+
+    private static void checkRows(final ResultSet resultSet) throws SQLException {
+        for (int i = 0; i < ROWS; i++) {
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals(i, resultSet.getInt(1));
+            Assert.assertEquals(NAMES[i], resultSet.getString(2));
+        }
+        Assert.assertFalse(resultSet.next());
+    }
+
+    private static void checkRows(final Connection connection) throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            try (final ResultSet resultSet = statement.executeQuery(SQL)) {
+                checkRows(resultSet);
+            }
+        }
+    }
+
+    private static Path entry(final Path directory) throws IOException {
+        final List<Path> entries = new ArrayList<>();
+        DiskCacheLayout.forEachEntry(directory, entries::add);
+        Assert.assertEquals(1, entries.size());
+        return entries.get(0);
+    }
+
+    /**
+     * Flip one byte of the entry at the given ratio of its size
+     */
+    private static void corrupt(final Path entry, final double ratio) throws IOException {
+        final byte[] bytes = Files.readAllBytes(entry);
+        bytes[EntryHeader.SIZE + (int) ((bytes.length - EntryHeader.SIZE) * ratio)] ^= 0x55;
+        Files.write(entry, bytes);
+    }
+
+    /**
+     * The rows already returned cannot be replaced by the ones of the backend: the read fails
+     */
+    private static void checkFails(final Connection connection) throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            try (final ResultSet resultSet = statement.executeQuery(SQL)) {
+                checkRows(resultSet);
+                Assert.fail("SQLException expected");
+            } catch (SQLException e) {
+                Assert.assertTrue(e.getCause() instanceof CorruptEntryException);
+            }
+        }
+    }
+
+    private static void checkRecovered(final Connection connection, final Path directory, final Path entry,
+            final long corruptions) throws SQLException, IOException {
+        Assert.assertEquals(corruptions, Driver.getCache(connection).getStatistics().getCorruptions());
+        Assert.assertTrue(Files.exists(directory.resolve(DiskCacheLayout.QUARANTINE).resolve(entry.getFileName())));
+        // The entry is built again, then read from the cache
+        for (int i = 0; i < 2; i++)
+            checkRows(connection);
+        Assert.assertEquals(ROWS, EntryHeader.read(entry).rows);
+    }
+
+    /**
+     * A block found corrupt while iterating: the entry is quarantined and the read fails
+     */
+    @Test
+    public void corruptWhileReading() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-corrupt");
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info())) {
+            for (int i = 0; i < 2; i++)
+                checkRows(connection);
+            final Path entry = entry(directory);
+            corrupt(entry, 0.8);
+            checkFails(connection);
+            checkRecovered(connection, directory, entry, 1);
+        }
+    }
+
+    /**
+     * A first block found corrupt when the entry is opened: handled as a miss
+     */
+    @Test
+    public void corruptWhenOpening() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-corrupt");
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info())) {
+            checkRows(connection);
+            final Path entry = entry(directory);
+            corrupt(entry, 0.01);
+            // The entry found corrupt is counted as a miss
+            final ResultSetCacheStatistics statistics = Driver.getCache(connection).getStatistics();
+            final long hits = statistics.getHits();
+            final long misses = statistics.getMisses();
+            checkRows(connection);
+            Assert.assertEquals(hits, statistics.getHits());
+            Assert.assertEquals(misses + 1, statistics.getMisses());
+            checkRecovered(connection, directory, entry, 1);
+
+            // Truncated entry
+            final byte[] bytes = Files.readAllBytes(entry);
+            Files.write(entry, Arrays.copyOf(bytes, bytes.length / 2));
+            checkFails(connection);
+            checkRecovered(connection, directory, entry, 2);
+        }
+    }
+
+    /**
+     * Without backend, the corruption is reported
+     */
+    @Test
+    public void noBackend() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-corrupt");
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info())) {
+            checkRows(connection);
+        }
+        final Path entry = entry(directory);
+        corrupt(entry, 0.8);
+        try (final StringDictionary dictionary = StringDictionary.of(directory, 0);
+                final ResultSet resultSet = new CachedOnDiskResultSet(null, entry, SchemaRegistry.of(directory),
+                        dictionary, false)) {
+            checkRows(resultSet);
+            Assert.fail("SQLException expected");
+        } catch (SQLException e) {
+            Assert.assertTrue(e.getCause() instanceof CorruptEntryException);
+        }
+    }
+
+    @Test
+    public void quarantineIsBounded() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-corrupt");
+        final Path quarantine = directory.resolve(DiskCacheLayout.QUARANTINE);
+        for (int i = 0; i < DiskCacheLayout.MAX_QUARANTINED + 5; i++) {
+            final Path entry = DiskCacheLayout.entryPath(directory, CachedStatement.generateCacheKey("SELECT " + i));
+            Files.createDirectories(entry.getParent());
+            Files.write(entry, new byte[100]);
+            Assert.assertTrue(DiskCacheLayout.quarantine(directory, entry));
+        }
+        final List<Path> entries = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(quarantine)) {
+            stream.forEach(entries::add);
+        }
+        Assert.assertEquals(DiskCacheLayout.MAX_QUARANTINED, entries.size());
+        Assert.assertEquals(DiskCacheLayout.MAX_QUARANTINED * 100, DiskCacheLayout.quarantineSize(directory));
+    }
+}
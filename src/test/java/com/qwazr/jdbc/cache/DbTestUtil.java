@@ -23,6 +23,8 @@ import org.junit.Assert;
 import java.io.IOException;
 import java.io.StringReader;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.CallableStatement;
 import java.sql.Clob;
 import java.sql.Connection;
@@ -36,6 +38,8 @@ import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.Calendar;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class DbTestUtil {
 
@@ -61,6 +65,69 @@ class DbTestUtil {
 
     final static String SQL_PREP_NO_ARG = "SELECT * FROM FIRSTTABLE WHERE ID = " + ROW2[0];
 
+    /**
+     * The number of calls of the stored procedures of the tests
+     */
+    final static AtomicInteger CALLS = new AtomicInteger();
+
+    /**
+     * Init a backend database having the ITEMS table, used by the stored procedures of the tests.
+     *
+     * @param dbName    the name of the in-memory database
+     * @param procedure the statement creating the procedure
+     */
+    static void initProcedureDb(String dbName, String procedure) throws SQLException {
+        try (final Connection connection = DriverManager.getConnection(
+                "jdbc:derby:memory:" + dbName + ";create=true")) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE ITEMS (ID INT PRIMARY KEY, NAME VARCHAR(32))");
+                statement.executeUpdate("INSERT INTO ITEMS VALUES (1, 'one'), (2, 'two'), (3, 'three')");
+                statement.executeUpdate(procedure);
+            }
+        }
+    }
+
+    static Properties procedureInfo(String dbName) {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, "jdbc:derby:memory:" + dbName);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        return info;
+    }
+
+    static void checkItems(ResultSet resultSet, String... names) throws SQLException {
+        for (String name : names) {
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals(name, resultSet.getString("NAME"));
+        }
+        Assert.assertFalse(resultSet.next());
+    }
+
+    interface ConnectionCheck {
+        void check(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Run the check using an in-memory cache
+     */
+    static void checkInMemory(String dbName, Properties info, ConnectionCheck check) throws SQLException {
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_MEM_PREFIX + dbName, info)) {
+            check.check(connection);
+        }
+    }
+
+    /**
+     * Run the check using an on-disk cache
+     *
+     * @return the directory of the cache
+     */
+    static Path checkOnDisk(Properties info, ConnectionCheck check) throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-procedure");
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info)) {
+            check.check(connection);
+        }
+        return directory;
+    }
+
     static boolean initTestDb(String dbName) throws SQLException {
         // Init the backend database so we can run our tests on it
         Connection connection = DriverManager.getConnection("jdbc:derby:memory:" + dbName + ";create=true");
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Properties;
+
+public class DecimalColumnsTest {
+
+    private final static String DB_NAME = "decimal";
+
+    private final static String SQL_SELECT = "SELECT ID, AMOUNT, BIG FROM DECTABLE ORDER BY ID";
+
+    private final static BigDecimal[][] ROWS = {
+            { new BigDecimal("12345.67"), new BigDecimal("1234567890123456789012.123456789") },
+            { new BigDecimal("-0.10"), new BigDecimal("-9999999999999999999999.999999999") },
+            { new BigDecimal("0.00"), new BigDecimal("0.000000001") },
+            { null, null } };
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        try (final Connection connection = DriverManager.getConnection(
+                "jdbc:derby:memory:" + DB_NAME + ";create=true")) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeUpdate(
+                        "CREATE TABLE DECTABLE (ID INT PRIMARY KEY, AMOUNT DECIMAL(15,2), BIG NUMERIC(31,9))");
+            }
+            try (final PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO DECTABLE VALUES (?, ?, ?)")) {
+                for (int i = 0; i < ROWS.length; i++) {
+                    statement.setInt(1, i);
+                    for (int j = 0; j < 2; j++) {
+                        if (ROWS[i][j] == null)
+                            statement.setNull(j + 2, Types.DECIMAL);
+                        else
+                            statement.setBigDecimal(j + 2, ROWS[i][j]);
+                    }
+                    statement.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private static Properties info() {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, "jdbc:derby:memory:" + DB_NAME);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        return info;
+    }
+
+    private static void checkResultSet(final ResultSet resultSet) throws SQLException {
+        for (BigDecimal[] row : ROWS) {
+            Assert.assertTrue(resultSet.next());
+            for (int j = 0; j < 2; j++) {
+                // equals() also checks the scale
+                Assert.assertEquals(row[j], resultSet.getBigDecimal(j + 2));
+                Assert.assertEquals(row[j], resultSet.getObject(j + 2));
+                Assert.assertEquals(row[j] == null ? null : row[j].toString(), resultSet.getString(j + 2));
+                Assert.assertEquals(row[j] == null, resultSet.wasNull());
+            }
+        }
+        Assert.assertFalse(resultSet.next());
+    }
+
+    private static void checkCache(final String url) throws SQLException {
+        try (final Connection connection = DriverManager.getConnection(url, info())) {
+            final ResultSetCache cache = Driver.getCache(connection);
+            cache.flush();
+            // The first execution populates the entry, the second one reads it
+            for (int i = 0; i < 2; i++) {
+                try (final Statement statement = connection.createStatement()) {
+                    try (final ResultSet resultSet = statement.executeQuery(SQL_SELECT)) {
+                        checkResultSet(resultSet);
+                    }
+                }
+            }
+            Assert.assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    public void inMemory() throws SQLException {
+        checkCache(Driver.URL_MEM_PREFIX + DB_NAME);
+    }
+
+    @Test
+    public void onDisk() throws SQLException, IOException {
+        checkCache(Driver.URL_FILE_PREFIX + Files.createTempDirectory("jdbc-cache-decimal"));
+    }
+
+    @Test
+    public void encoding() throws IOException {
+        final BigDecimal[] values = { BigDecimal.ZERO, new BigDecimal("1E+5"), new BigDecimal("-1.5"),
+                BigDecimal.valueOf(Long.MAX_VALUE, 4), BigDecimal.valueOf(Long.MIN_VALUE, -3),
+                new BigDecimal(BigInteger.ONE.shiftLeft(63), 2),
+                new BigDecimal(BigInteger.ONE.shiftLeft(200).negate(), 40) };
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream output = new DataOutputStream(bytes)) {
+            ResultSetWriter.writeDecimal(new BigDecimal("12345.67"), output);
+            // The money amounts take a few bytes: kind, scale and unscaled value
+            Assert.assertEquals(6, output.size());
+            for (BigDecimal value : values)
+                ResultSetWriter.writeDecimal(value, output);
+        }
+        try (final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Assert.assertEquals(new BigDecimal("12345.67"), ResultSetWriter.readDecimal(input));
+            for (BigDecimal value : values)
+                Assert.assertEquals(value, ResultSetWriter.readDecimal(input));
+            Assert.assertEquals(-1, input.read());
+        }
+    }
+}
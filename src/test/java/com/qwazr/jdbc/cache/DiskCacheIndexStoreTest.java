@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class DiskCacheIndexStoreTest {
+
+    private final static String KEY1 = "00000000000000000000000000000001";
+    private final static String KEY2 = "00000000000000000000000000000002";
+    private final static String KEY3 = "00000000000000000000000000000003";
+
+    private static void write(final Path directory, final String key, final int size) throws IOException {
+        final Path path = DiskCacheLayout.entryPath(directory, key);
+        Files.createDirectories(path.getParent());
+        Files.write(path, new byte[size]);
+    }
+
+    private static DiskCacheIndex open(final Path directory) throws IOException {
+        final DiskCacheIndex index = new DiskCacheIndex(new DiskCacheIndexStore(directory));
+        index.load(directory);
+        return index;
+    }
+
+    @Test
+    public void snapshotAndLog() throws IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-index");
+        // The first startup scans the directory
+        write(directory, KEY1, 10);
+        final DiskCacheIndex index = open(directory);
+        Assert.assertTrue(index.contains(KEY1));
+        index.put(KEY2, 20);
+        index.put(KEY3, 30);
+        index.remove(KEY1);
+
+        // The next startups do not scan the directory: a file added behind the index is not seen
+        write(directory, "00000000000000000000000000000004", 40);
+        final DiskCacheIndex reloaded = open(directory);
+        Assert.assertEquals(2, reloaded.size());
+        Assert.assertEquals(50, reloaded.getBytes());
+        Assert.assertFalse(reloaded.contains(KEY1));
+        Assert.assertTrue(reloaded.contains(KEY2));
+        Assert.assertTrue(reloaded.contains(KEY3));
+
+        reloaded.clear();
+        Assert.assertEquals(0, open(directory).size());
+    }
+
+    @Test
+    public void partialRecordIsDropped() throws IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-index");
+        open(directory).put(KEY1, 10);
+        // A crash in the middle of an append
+        Files.write(directory.resolve(DiskCacheIndexStore.LOG_FILENAME), new byte[] { DiskCacheIndexStore.PUT, 'A' },
+                StandardOpenOption.APPEND);
+        final DiskCacheIndex index = open(directory);
+        Assert.assertEquals(1, index.size());
+        index.put(KEY2, 20);
+        Assert.assertEquals(30, open(directory).getBytes());
+    }
+
+    @Test
+    public void corruptedSnapshotRebuilds() throws IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-index");
+        write(directory, KEY1, 10);
+        open(directory);
+        Files.write(directory.resolve(DiskCacheIndexStore.SNAPSHOT_FILENAME), new byte[] { 1, 2, 3 });
+        final DiskCacheIndex index = open(directory);
+        Assert.assertTrue(index.contains(KEY1));
+        Assert.assertEquals(10, index.getBytes());
+    }
+
+    @Test
+    public void sharedByTwoProcesses() throws IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-index");
+        final DiskCacheIndex first = open(directory);
+        final DiskCacheIndex second = open(directory);
+        first.put(KEY1, 10);
+        // The changes of the other process are applied before an append
+        second.put(KEY2, 20);
+        Assert.assertTrue(second.contains(KEY1));
+        Assert.assertEquals(30, second.getBytes());
+        first.remove(KEY2);
+        Assert.assertEquals(10, open(directory).getBytes());
+    }
+
+    @Test
+    public void reloadNeverExposesAnEmptyIndex() throws IOException, InterruptedException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-index");
+        final DiskCacheIndex first = open(directory);
+        first.put(KEY1, 10);
+        final DiskCacheIndexStore otherStore = new DiskCacheIndexStore(directory);
+        final DiskCacheIndex otherProcess = new DiskCacheIndex(otherStore);
+        otherProcess.load(directory);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicBoolean missed = new AtomicBoolean();
+        final Thread reader = new Thread(() -> {
+            while (running.get())
+                if (!first.contains(KEY1))
+                    missed.set(true);
+        });
+        reader.start();
+        try {
+            for (int i = 1; i <= 200; i++) {
+                // Each compaction of the other process makes the next append reload the index
+                otherStore.snapshot(otherProcess);
+                first.put(KEY2, i);
+            }
+        } finally {
+            running.set(false);
+            reader.join();
+        }
+        Assert.assertFalse(missed.get());
+        Assert.assertEquals(210, first.getBytes());
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+public class DiskQuotaTest {
+
+    private final static String DB_NAME = "quota";
+
+    @BeforeClass
+    public static void init() throws SQLException {
+        DbTestUtil.initTestDb(DB_NAME);
+    }
+
+    @Test
+    public void leastRecentlyUsed() {
+        final DiskCacheIndex index = new DiskCacheIndex();
+        index.put("A", 10);
+        index.put("B", 20);
+        index.put("C", 30);
+        index.touch("A", null);
+        Assert.assertEquals(60, index.getBytes());
+        Assert.assertEquals(Arrays.asList("B"), index.leastRecentlyUsed(20));
+        Assert.assertEquals(Arrays.asList("B", "C"), index.leastRecentlyUsed(21));
+        index.put("B", 5);
+        index.remove("C");
+        Assert.assertEquals(15, index.getBytes());
+        Assert.assertEquals(Arrays.asList("A"), index.leastRecentlyUsed(1));
+    }
+
+    @Test
+    public void rebuildAndMigrate() throws IOException, SQLException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-quota");
+        final String newKey = CachedStatement.generateCacheKey("NEW");
+        final String oldKey = CachedStatement.generateCacheKey("OLD");
+        Files.write(directory.resolve(newKey), new byte[100]);
+        Files.write(directory.resolve(oldKey), new byte[50]);
+        Files.write(directory.resolve(oldKey + ".1234.tmp"), new byte[1000]);
+        Files.setLastModifiedTime(directory.resolve(oldKey), FileTime.fromMillis(0));
+        // The flat layout of the previous versions is migrated to the shards
+        final ResultSetOnDiskCacheImpl cache = new ResultSetOnDiskCacheImpl(directory, 0);
+        Assert.assertEquals(150, cache.getDiskUsage());
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.getEvictor());
+        Assert.assertFalse(Files.exists(directory.resolve(newKey)));
+        Assert.assertTrue(Files.exists(DiskCacheLayout.entryPath(directory, newKey)));
+        Assert.assertEquals(0, Files.getLastModifiedTime(DiskCacheLayout.entryPath(directory, oldKey)).toMillis());
+        cache.close();
+
+        // The directory is not listed again by the next openings
+        Assert.assertTrue(Files.exists(directory.resolve(DiskCacheLayout.LAYOUT_FILENAME)));
+        final String lateKey = CachedStatement.generateCacheKey("LATE");
+        Files.write(directory.resolve(lateKey), new byte[10]);
+        new ResultSetOnDiskCacheImpl(directory, 0).close();
+        Assert.assertTrue(Files.exists(directory.resolve(lateKey)));
+    }
+
+    @Test
+    public void emptyShardsAreRemoved() throws IOException, SQLException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-quota");
+        try (final Connection backend = DriverManager.getConnection("jdbc:derby:memory:" + DB_NAME)) {
+            final ResultSetOnDiskCacheImpl cache = new ResultSetOnDiskCacheImpl(directory, 0);
+            get(cache, backend, "A");
+            final Path entry = DiskCacheLayout.entryPath(directory, CachedStatement.generateCacheKey("A"));
+            Assert.assertTrue(Files.exists(entry));
+            Assert.assertTrue(cache.evict(CachedStatement.generateCacheKey("A")));
+            Assert.assertFalse(Files.exists(entry.getParent()));
+            Assert.assertFalse(Files.exists(entry.getParent().getParent()));
+            // Only the shards are removed
+            Assert.assertTrue(Files.isDirectory(directory.resolve(DiskCacheLayout.TEMPORARY)));
+            // The shards are created again
+            get(cache, backend, "A");
+            Assert.assertTrue(Files.exists(entry));
+            cache.close();
+        }
+    }
+
+    @Test
+    public void forEachEntryVisitsEveryShard() throws IOException, SQLException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-quota");
+        final Set<String> keys = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 100; i++) {
+            final Path entry = DiskCacheLayout.entryPath(directory, CachedStatement.generateCacheKey("K" + i));
+            Files.createDirectories(entry.getParent());
+            Files.write(entry, new byte[1]);
+        }
+        final Set<String> visited = ConcurrentHashMap.newKeySet();
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        DiskCacheLayout.forEachEntry(directory, path -> {
+            Assert.assertTrue(visited.add(path.getFileName().toString()));
+            threads.add(Thread.currentThread().getName());
+        });
+        Assert.assertEquals(100, visited.size());
+        Assert.assertEquals(Collections.singleton("jdbc-cache-shard-visitor"), threads);
+
+        // A failure of the consumer is thrown once every shard has been visited
+        visited.clear();
+        try {
+            DiskCacheLayout.forEachEntry(directory, path -> {
+                visited.add(path.getFileName().toString());
+                throw new IllegalStateException("failure");
+            });
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("failure", e.getMessage());
+        }
+        // Each first level shard has been visited until its first entry
+        try (final Stream<Path> shards = Files.list(directory)) {
+            Assert.assertEquals(shards.count(), visited.size());
+        }
+    }
+
+    private static void get(final ResultSetOnDiskCacheImpl cache, final Connection backend, final String name)
+            throws SQLException, IOException {
+        final CachedStatement<?> statement = new CachedStatement<>(null, cache, null);
+        statement.executedSql = DbTestUtil.SQL_SIMPLE;
+        try (final ResultSet resultSet = cache.get(statement, CachedStatement.generateCacheKey(name),
+                () -> backend.createStatement().executeQuery(DbTestUtil.SQL_SIMPLE))) {
+            DbTestUtil.checkResultSet(resultSet, DbTestUtil.ROWS);
+        }
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws SQLException, IOException, InterruptedException {
+        try (final Connection backend = DriverManager.getConnection("jdbc:derby:memory:" + DB_NAME)) {
+            // Measure the size of an entry
+            final ResultSetOnDiskCacheImpl unbounded =
+                    new ResultSetOnDiskCacheImpl(Files.createTempDirectory("jdbc-cache-quota"), 0);
+            get(unbounded, backend, "ENTRY");
+            final long entrySize = unbounded.getDiskUsage();
+            Assert.assertTrue(entrySize > 0);
+
+            // Room for two entries and a half
+            final Path directory = Files.createTempDirectory("jdbc-cache-quota");
+            final ResultSetOnDiskCacheImpl cache = new ResultSetOnDiskCacheImpl(directory, entrySize * 5 / 2);
+            get(cache, backend, "A");
+            get(cache, backend, "B");
+            get(cache, backend, "A");
+            get(cache, backend, "C");
+
+            final long timeout = System.currentTimeMillis() + 10000;
+            while ((cache.getDiskUsage() > cache.getEvictor().getQuota() || cache.getStatistics().getEvictions() < 1)
+                    && System.currentTimeMillis() < timeout)
+                Thread.sleep(10);
+            Assert.assertEquals(entrySize * 2, cache.getDiskUsage());
+            Assert.assertTrue(exists(directory, "A"));
+            Assert.assertFalse(exists(directory, "B"));
+            Assert.assertTrue(exists(directory, "C"));
+            Assert.assertEquals(1, cache.getStatistics().getEvictions());
+        }
+    }
+
+    @Test
+    public void temporaryFilesCountInTheQuota() throws SQLException, IOException, InterruptedException {
+        try (final Connection backend = DriverManager.getConnection("jdbc:derby:memory:" + DB_NAME)) {
+            final ResultSetOnDiskCacheImpl unbounded =
+                    new ResultSetOnDiskCacheImpl(Files.createTempDirectory("jdbc-cache-quota"), 0);
+            get(unbounded, backend, "ENTRY");
+            final long entrySize = unbounded.getDiskUsage();
+
+            // Room for two entries and a half, one entry is being built
+            final Path directory = Files.createTempDirectory("jdbc-cache-quota");
+            final ResultSetOnDiskCacheImpl cache = new ResultSetOnDiskCacheImpl(directory, entrySize * 5 / 2);
+            Files.write(DiskCacheLayout.tempPath(directory, CachedStatement.generateCacheKey("BUILD")),
+                    new byte[(int) entrySize]);
+            Assert.assertEquals(entrySize, cache.getTemporaryUsage());
+            get(cache, backend, "A");
+            get(cache, backend, "B");
+
+            final long timeout = System.currentTimeMillis() + 10000;
+            while (cache.getDiskUsage() > entrySize && System.currentTimeMillis() < timeout)
+                Thread.sleep(10);
+            Assert.assertEquals(entrySize, cache.getDiskUsage());
+            Assert.assertFalse(exists(directory, "A"));
+            Assert.assertTrue(exists(directory, "B"));
+        }
+    }
+
+    private static boolean exists(final Path directory, final String key) throws SQLException {
+        return Files.exists(DiskCacheLayout.entryPath(directory, CachedStatement.generateCacheKey(key)));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+public class EntryHeaderTest {
+
+    private final static String DB_NAME = "headers";
+
+    private final static String SQL = "SELECT ID, NAME FROM LOOKUP ORDER BY ID";
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        try (final Connection connection = DriverManager.getConnection(
+                "jdbc:derby:memory:" + DB_NAME + ";create=true")) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE LOOKUP (ID INT PRIMARY KEY, NAME VARCHAR(32))");
+                statement.executeUpdate("INSERT INTO LOOKUP VALUES (1, 'one'), (2, 'two'), (3, 'three')");
+            }
+        }
+    }
+
+    private static Properties info() {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, "jdbc:derby:memory:" + DB_NAME);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        return info;
+    }
+
+    private static void checkRows(final Connection connection) throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            try (final ResultSet resultSet = statement.executeQuery(SQL)) {
+                for (String name : Arrays.asList("one", "two", "three")) {
+                    Assert.assertTrue(resultSet.next());
+                    Assert.assertEquals(name, resultSet.getString("NAME"));
+                }
+                Assert.assertFalse(resultSet.next());
+            }
+        }
+    }
+
+    private static Path entry(final Path directory) throws IOException {
+        final List<Path> entries = new ArrayList<>();
+        DiskCacheLayout.forEachEntry(directory, entries::add);
+        Assert.assertEquals(1, entries.size());
+        return entries.get(0);
+    }
+
+    @Test
+    public void rowCount() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-headers");
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info())) {
+            for (int i = 0; i < 2; i++)
+                checkRows(connection);
+            final Path entry = entry(directory);
+            final EntryHeader header = EntryHeader.read(entry);
+            Assert.assertEquals(EntryHeader.FORMAT_VERSION, header.version);
+            Assert.assertEquals(EntryHeader.CODEC_GZIP, header.codec);
+            Assert.assertEquals(3, header.rows);
+            try (final StringDictionary dictionary = StringDictionary.of(directory, 0);
+                    final CachedOnDiskResultSet resultSet = new CachedOnDiskResultSet(null, entry,
+                            SchemaRegistry.of(directory), dictionary, false)) {
+                Assert.assertEquals(3, resultSet.getRowCount());
+            }
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeQuery(SQL).close();
+                final ResultSetCache cache = Driver.getCache(connection);
+                Assert.assertEquals(3, cache.getRowCount(statement));
+                cache.flush();
+                Assert.assertEquals(-1, cache.getRowCount(statement));
+            }
+        }
+    }
+
+    @Test
+    public void rowCountInMemory() throws SQLException {
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_MEM_PREFIX + DB_NAME, info())) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeQuery(SQL).close();
+                final ResultSetCache cache = Driver.getCache(connection);
+                Assert.assertEquals(3, cache.getRowCount(statement));
+                cache.flush();
+                Assert.assertEquals(-1, cache.getRowCount(statement));
+            }
+        }
+    }
+
+    /**
+     * An entry written with an older format version, or without header, is a miss and is built again.
+     * An entry written with a newer format version is kept, the result is served without being cached.
+     */
+    @Test
+    public void incompatibleEntries() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-headers");
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info())) {
+            checkRows(connection);
+            final Path entry = entry(directory);
+
+            writeVersion(entry, 99);
+            checkNewer(entry, true);
+            checkRows(connection);
+            checkNewer(entry, true);
+
+            writeVersion(entry, 1);
+            checkNewer(entry, false);
+            checkRows(connection);
+            Assert.assertEquals(3, EntryHeader.read(entry).rows);
+
+            // The body without the header, as written by the previous versions
+            final byte[] bytes = Files.readAllBytes(entry);
+            Files.write(entry, Arrays.copyOfRange(bytes, EntryHeader.SIZE, bytes.length));
+            checkRows(connection);
+            Assert.assertEquals(3, EntryHeader.read(entry).rows);
+            checkRows(connection);
+            Assert.assertEquals(1, Driver.getCache(connection).size());
+        }
+    }
+
+    private static void writeVersion(final Path entry, final int version) throws IOException {
+        try (final FileChannel channel = FileChannel.open(entry, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Short.BYTES).putShort(0, (short) version), Integer.BYTES);
+        }
+    }
+
+    private static void checkNewer(final Path entry, final boolean newer) throws IOException {
+        try {
+            EntryHeader.read(entry);
+            Assert.fail("IncompatibleEntryException expected");
+        } catch (IncompatibleEntryException e) {
+            Assert.assertEquals(newer, e.newer);
+        }
+    }
+}
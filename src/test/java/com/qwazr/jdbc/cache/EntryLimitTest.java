@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+public class EntryLimitTest {
+
+    private final static String DB_NAME = "entryLimit";
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        DbTestUtil.initTestDb(DB_NAME);
+    }
+
+    @Test
+    public void limits() throws SQLException {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_ENTRY_MAX_ROWS, "2");
+        final AdmissionPolicy policy = AdmissionPolicy.of(info);
+        Assert.assertNotNull(policy);
+        Assert.assertFalse(policy.exceeds(2, Long.MAX_VALUE - 1));
+        Assert.assertTrue(policy.exceeds(3, 0));
+        // Without cost the entries are always admitted
+        Assert.assertTrue(policy.admit(0, 1000, 1));
+    }
+
+    private static Properties info(final String name, final String value) {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, "jdbc:derby:memory:" + DB_NAME + ";create=true");
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        info.setProperty(name, value);
+        return info;
+    }
+
+    private static void checkLimit(final String url, final Properties info, final Path directory)
+            throws SQLException, IOException {
+        try (final Connection connection = DriverManager.getConnection(url, info)) {
+            final ResultSetCache cache = Driver.getCache(connection);
+            cache.flush();
+            final long rejections = cache.getStatistics().getRejections();
+            for (int i = 0; i < 2; i++) {
+                try (final Statement statement = connection.createStatement()) {
+                    try (final ResultSet resultSet = statement.executeQuery(DbTestUtil.SQL_SIMPLE)) {
+                        // Every row is returned, the rows after the limit are read from the backend
+                        Assert.assertEquals(CachedStreamingResultSet.class, resultSet.getClass());
+                        DbTestUtil.checkResultSet(resultSet, DbTestUtil.ROWS);
+                    }
+                }
+            }
+            Assert.assertEquals(0, cache.size());
+            Assert.assertEquals(rejections + 2, cache.getStatistics().getRejections());
+            if (directory != null) {
+                try (final Stream<Path> files = Files.walk(directory)) {
+                    Assert.assertFalse(files.anyMatch(path -> path.toString().endsWith(".tmp")));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void maxRowsInMemory() throws SQLException, IOException {
+        checkLimit(Driver.URL_MEM_PREFIX + DB_NAME, info(Driver.CACHE_ENTRY_MAX_ROWS, "2"), null);
+    }
+
+    @Test
+    public void maxRowsOnDisk() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-limit");
+        checkLimit(Driver.URL_FILE_PREFIX + directory, info(Driver.CACHE_ENTRY_MAX_ROWS, "2"), directory);
+    }
+
+    @Test
+    public void maxBytesOnDisk() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-limit");
+        checkLimit(Driver.URL_FILE_PREFIX + directory, info(Driver.CACHE_ENTRY_MAX_BYTES, "1"), directory);
+    }
+}
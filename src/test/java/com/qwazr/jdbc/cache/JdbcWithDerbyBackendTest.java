@@ -21,7 +21,12 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
 import java.sql.CallableStatement;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -37,6 +42,7 @@ import static com.qwazr.jdbc.cache.DbTestUtil.ROW1;
 import static com.qwazr.jdbc.cache.DbTestUtil.ROW2;
 import static com.qwazr.jdbc.cache.DbTestUtil.ROW4;
 import static com.qwazr.jdbc.cache.DbTestUtil.ROWS;
+import static com.qwazr.jdbc.cache.DbTestUtil.SQL_SIMPLE;
 import static com.qwazr.jdbc.cache.DbTestUtil.checkNotSupported;
 import static com.qwazr.jdbc.cache.DbTestUtil.checkResultSet;
 import static com.qwazr.jdbc.cache.DbTestUtil.executeQuery;
@@ -266,6 +272,108 @@ abstract public class JdbcWithDerbyBackendTest extends JdbcTest {
         Assert.assertEquals(0, cache.size());
     }
 
+    @Test
+    public void test910TestCacheStatistics() throws SQLException {
+        ResultSetCache cache = com.qwazr.jdbc.cache.Driver.getCache(getConnection());
+        Assume.assumeNotNull(cache);
+        cache.flush();
+
+        final ResultSetCacheStatistics stats = cache.getStatistics();
+        Assert.assertNotNull(stats);
+        final long hits = stats.getHits();
+        final long misses = stats.getMisses();
+        final long loads = stats.getLoads();
+        final long bytes = stats.getBytesStored();
+        final long gets = stats.getGetLatency().getCount();
+        final long evictions = stats.getEvictions();
+
+        // First call is a miss, the second one a hit
+        executeQuery(getConnection()).close();
+        executeQuery(getConnection()).close();
+
+        Assert.assertEquals(hits + 1, stats.getHits());
+        Assert.assertEquals(misses + 1, stats.getMisses());
+        Assert.assertEquals(loads + 1, stats.getLoads());
+        Assert.assertTrue(stats.getBytesStored() > bytes);
+        Assert.assertEquals(gets + 2, stats.getGetLatency().getCount());
+        Assert.assertTrue(stats.getPopulateLatency().getCount() > 0);
+        Assert.assertTrue(stats.getReadLatency().getPercentileNanos(99) > 0);
+        Assert.assertTrue(stats.getGetLatency().getMaxNanos() >= stats.getGetLatency().getPercentileNanos(50));
+
+        cache.flush();
+        Assert.assertEquals(evictions + 1, stats.getEvictions());
+    }
+
+    @Test
+    public void test915TestTemplateStatistics() throws SQLException {
+        ResultSetCache cache = com.qwazr.jdbc.cache.Driver.getCache(getConnection());
+        Assume.assumeNotNull(cache);
+        cache.flush();
+
+        final QueryTemplateStatistics templateStats = cache.getTemplateStatistics();
+        final String sql = QueryTemplateStatistics.normalize(SQL_SIMPLE);
+        final QueryTemplateStatistics.Template before = templateStats.getTemplates()
+                .stream()
+                .filter(t -> t.getSql().equals(sql))
+                .findFirst()
+                .orElse(null);
+        final long executions = before == null ? 0 : before.getExecutions();
+        final long hits = before == null ? 0 : before.getHits();
+
+        executeQuery(getConnection()).close();
+        executeQuery(getConnection()).close();
+
+        final QueryTemplateStatistics.Template template =
+                templateStats.getTop(templateStats.getCapacity(), QueryTemplateStatistics.BY_EXECUTIONS)
+                        .stream()
+                        .filter(t -> t.getSql().equals(sql))
+                        .findFirst()
+                        .orElseThrow(AssertionError::new);
+        Assert.assertEquals(executions + 2, template.getExecutions());
+        Assert.assertEquals(hits + 1, template.getHits());
+        Assert.assertEquals(ROWS.length, template.getMeanEntryRows());
+        Assert.assertTrue(template.getMeanEntryBytes() > 0);
+        Assert.assertTrue(template.getTimeSavedNanos() > 0);
+        cache.flush();
+    }
+
+    @Test
+    public void test920TestCacheMBean() throws SQLException, JMException {
+        ResultSetCache cache = com.qwazr.jdbc.cache.Driver.getCache(getConnection());
+        Assume.assumeNotNull(cache);
+        cache.flush();
+
+        final String url = getOrSetJdbcCacheUrl();
+        final boolean onDisk = url.startsWith(com.qwazr.jdbc.cache.Driver.URL_FILE_PREFIX);
+        final ObjectName objectName = ResultSetCacheManagement.objectName(onDisk ? "file" : "mem", onDisk ?
+                Paths.get(url.substring(com.qwazr.jdbc.cache.Driver.URL_FILE_PREFIX.length()))
+                        .toAbsolutePath()
+                        .normalize()
+                        .toString() :
+                url.substring(com.qwazr.jdbc.cache.Driver.URL_MEM_PREFIX.length()));
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        Assert.assertTrue(mBeanServer.isRegistered(objectName));
+
+        executeQuery(getConnection()).close();
+        Assert.assertEquals(1, mBeanServer.getAttribute(objectName, "Size"));
+        Assert.assertEquals(0, mBeanServer.getAttribute(objectName, "ActiveBuilds"));
+        Assert.assertTrue((Long) mBeanServer.getAttribute(objectName, "Loads") > 0);
+        final long diskUsage = (Long) mBeanServer.getAttribute(objectName, "DiskUsage");
+        if (onDisk)
+            Assert.assertEquals(((ResultSetOnDiskCacheImpl) cache).getDiskUsage(), diskUsage);
+        Assert.assertTrue(onDisk ? diskUsage > 0 : diskUsage == 0);
+        Assert.assertEquals(0L, mBeanServer.getAttribute(objectName, "DiskQuota"));
+
+        Assert.assertEquals(1, mBeanServer.invoke(objectName, "invalidateTag", new Object[] { "firsttable" },
+                new String[] { String.class.getName() }));
+        Assert.assertEquals(0, cache.size());
+
+        executeQuery(getConnection()).close();
+        Assert.assertEquals(1, cache.size());
+        mBeanServer.invoke(objectName, "flush", null, null);
+        Assert.assertEquals(0, cache.size());
+    }
+
     private ResultSet checkCache(ResultSet resultSet) {
         Assert.assertEquals(expectedResultSetClass().getName(), resultSet.getClass().getName());
         return resultSet;
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+public class JfrCacheEventsTest {
+
+    private final static String DB_NAME = "jfrEvents";
+
+    private final static String[] EVENTS = { "com.qwazr.jdbc.cache.Get", "com.qwazr.jdbc.cache.Populate",
+            "com.qwazr.jdbc.cache.Write", "com.qwazr.jdbc.cache.Flush" };
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Assume.assumeTrue("JFR is not available", CacheEvents.INSTANCE instanceof JfrCacheEvents);
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        DbTestUtil.initTestDb(DB_NAME);
+    }
+
+    @Test
+    public void recordEvents() throws SQLException, IOException {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, "jdbc:derby:memory:" + DB_NAME + ";create=true");
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+
+        final Path dump = Files.createTempFile("jdbc-cache", ".jfr");
+        final Map<String, RecordedEvent> recorded = new HashMap<>();
+        try (final Recording recording = new Recording()) {
+            for (String event : EVENTS)
+                recording.enable(event).withThreshold(Duration.ZERO);
+            recording.start();
+            try (final Connection connection = DriverManager.getConnection("jdbc:cache:mem:" + DB_NAME, info)) {
+                try (final Statement statement = connection.createStatement()) {
+                    try (final ResultSet resultSet = statement.executeQuery(DbTestUtil.SQL_SIMPLE)) {
+                        while (resultSet.next())
+                            resultSet.getObject(1);
+                    }
+                }
+                Driver.getCache(connection).flush();
+            }
+            recording.stop();
+            recording.dump(dump);
+            for (RecordedEvent event : RecordingFile.readAllEvents(dump))
+                recorded.putIfAbsent(event.getEventType().getName(), event);
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+
+        for (String event : EVENTS)
+            Assert.assertTrue("Missing event " + event, recorded.containsKey(event));
+
+        final RecordedEvent get = recorded.get("com.qwazr.jdbc.cache.Get");
+        Assert.assertFalse(get.getBoolean("hit"));
+        Assert.assertEquals(32, get.getString("key").length());
+        Assert.assertEquals(QueryTemplateStatistics.normalize(DbTestUtil.SQL_SIMPLE).hashCode(),
+                get.getInt("templateHash"));
+        Assert.assertEquals(DbTestUtil.ROWS.length, get.getLong("rows"));
+        Assert.assertTrue(get.getLong("bytes") > 0);
+
+        final RecordedEvent populate = recorded.get("com.qwazr.jdbc.cache.Populate");
+        Assert.assertTrue(populate.getBoolean("success"));
+        Assert.assertEquals(DbTestUtil.ROWS.length, populate.getLong("rows"));
+        Assert.assertTrue(populate.getLong("bytes") > 0);
+
+        final RecordedEvent write = recorded.get("com.qwazr.jdbc.cache.Write");
+        Assert.assertEquals(DbTestUtil.ROWS.length, write.getLong("rows"));
+        Assert.assertTrue(write.getLong("bytes") > 0);
+
+        Assert.assertEquals(1, recorded.get("com.qwazr.jdbc.cache.Flush").getLong("entries"));
+    }
+
+    @Test
+    public void noEventWithoutRecording() {
+        Assert.assertNull(CacheEvents.INSTANCE.beginGet());
+        Assert.assertNull(CacheEvents.INSTANCE.beginPopulate());
+        Assert.assertNull(CacheEvents.INSTANCE.beginWrite());
+        Assert.assertNull(CacheEvents.INSTANCE.beginFlush());
+    }
+
+    @Test
+    public void templateHashIgnoresTheLiterals() {
+        final CachedStatement<?> first = new CachedStatement<>(null, null, null);
+        first.executedSql = "SELECT * FROM T WHERE ID = 1 AND NAME = 'ONE'";
+        final CachedStatement<?> second = new CachedStatement<>(null, null, null);
+        second.executedSql = "SELECT * FROM T  WHERE ID = 22 AND NAME = 'TWO'";
+        Assert.assertEquals(CacheEvents.templateHash(first), CacheEvents.templateHash(second));
+        second.executedSql = "SELECT * FROM U WHERE ID = 1";
+        Assert.assertNotEquals(CacheEvents.templateHash(first), CacheEvents.templateHash(second));
+        Assert.assertEquals(0, CacheEvents.templateHash(null));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The distribution of the requested keys, used by the benchmarks and by the load generator.
+ */
+public enum KeyDistribution {
+
+    UNIFORM {
+        @Override
+        Sampler sampler(final int keys) {
+            return random -> random.nextInt(keys);
+        }
+    },
+
+    /**
+     * Zipf distribution with an exponent of 0.99 (as in YCSB), the key 0 being the most requested.
+     */
+    ZIPFIAN {
+        @Override
+        Sampler sampler(final int keys) {
+            final double[] cumulative = new double[keys];
+            double sum = 0;
+            for (int i = 0; i < keys; i++)
+                cumulative[i] = sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            for (int i = 0; i < keys; i++)
+                cumulative[i] /= sum;
+            return random -> {
+                final int pos = Arrays.binarySearch(cumulative, random.nextDouble());
+                return Math.min(pos >= 0 ? pos : -pos - 1, keys - 1);
+            };
+        }
+    },
+
+    HOT_KEY {
+        @Override
+        Sampler sampler(final int keys) {
+            return random -> 0;
+        }
+    };
+
+    private final static double ZIPF_EXPONENT = 0.99;
+
+    interface Sampler {
+
+        /**
+         * @param random the random generator of the calling thread
+         * @return a key index between 0 and keys - 1
+         */
+        int next(Random random);
+    }
+
+    /**
+     * @param keys the number of distinct keys
+     * @return a thread-safe generator of key indexes
+     */
+    abstract Sampler sampler(int keys);
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load test: a mixed read/write workload is replayed at a target rate,
+ * first directly against Derby, then through the cache driver, and both runs are reported.
+ * <p>
+ * The reads are range queries whose start follows the given key distribution,
+ * the writes update one row and invalidate the cached entries of the table.
+ * The latencies are measured from the scheduled start of each operation (open loop),
+ * so a slow operation also accounts for the delay it causes to the next ones.
+ * <p>
+ * Usage: LoadGenerator [key=value ...], see {@link Config} for the keys.
+ */
+public class LoadGenerator {
+
+    final static String TABLE = "LOAD_ITEMS";
+
+    private final static String SQL_READ = "SELECT ID, NAME, PRICE, QTY, UPDATED FROM " + TABLE
+            + " WHERE ID >= ? AND ID < ?";
+    private final static String SQL_WRITE = "UPDATE " + TABLE + " SET QTY = QTY + 1, UPDATED = ? WHERE ID = ?";
+
+    /**
+     * The configuration, every field can be set with a key=value argument.
+     */
+    static class Config {
+
+        /**
+         * The number of rows of the table
+         */
+        int rows = 100000;
+
+        /**
+         * The number of rows returned by a read
+         */
+        int range = 20;
+
+        /**
+         * The number of distinct reads
+         */
+        int queries = 1000;
+
+        /**
+         * The distribution of the reads
+         */
+        KeyDistribution distribution = KeyDistribution.ZIPFIAN;
+
+        /**
+         * The ratio of writes (between 0 and 1)
+         */
+        double writeRatio = 0.01;
+
+        /**
+         * The target rate in operations per second for all the threads, 0 for no limit
+         */
+        int rate = 2000;
+
+        /**
+         * The number of threads (one connection per thread)
+         */
+        int threads = 8;
+
+        /**
+         * The duration of the warmup in seconds
+         */
+        int warmup = 5;
+
+        /**
+         * The duration of the measure in seconds
+         */
+        int duration = 30;
+
+        /**
+         * The cache storage: mem or file
+         */
+        String storage = "mem";
+
+        /**
+         * The seed of the random generators
+         */
+        long seed = 42;
+
+        static Config parse(final String... args) {
+            final Config config = new Config();
+            for (String arg : args) {
+                final int i = arg.indexOf('=');
+                if (i == -1)
+                    throw new IllegalArgumentException("Expected key=value: " + arg);
+                config.set(arg.substring(0, i).trim(), arg.substring(i + 1).trim());
+            }
+            return config;
+        }
+
+        private void set(final String key, final String value) {
+            switch (key) {
+            case "rows":
+                rows = Integer.parseInt(value);
+                break;
+            case "range":
+                range = Integer.parseInt(value);
+                break;
+            case "queries":
+                queries = Integer.parseInt(value);
+                break;
+            case "distribution":
+                distribution = KeyDistribution.valueOf(value.toUpperCase());
+                break;
+            case "writeRatio":
+                writeRatio = Double.parseDouble(value);
+                break;
+            case "rate":
+                rate = Integer.parseInt(value);
+                break;
+            case "threads":
+                threads = Integer.parseInt(value);
+                break;
+            case "warmup":
+                warmup = Integer.parseInt(value);
+                break;
+            case "duration":
+                duration = Integer.parseInt(value);
+                break;
+            case "storage":
+                storage = value;
+                break;
+            case "seed":
+                seed = Long.parseLong(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown key: " + key);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "rows=" + rows + ", range=" + range + ", queries=" + queries + ", distribution=" + distribution
+                    + ", writeRatio=" + writeRatio + ", rate=" + rate + ", threads=" + threads + ", warmup="
+                    + warmup + ", duration=" + duration + ", storage=" + storage + ", seed=" + seed;
+        }
+    }
+
+    /**
+     * The result of one run.
+     */
+    static class Report {
+
+        final String name;
+        final long reads;
+        final long writes;
+        final long errors;
+        final double seconds;
+        final long[] latencies;
+        final double hitRatio;
+
+        private Report(final String name, final List<Worker> workers, final double seconds, final double hitRatio) {
+            this.name = name;
+            long r = 0, w = 0, e = 0;
+            int count = 0;
+            for (Worker worker : workers) {
+                r += worker.reads;
+                w += worker.writes;
+                e += worker.errors;
+                count += worker.count;
+            }
+            this.reads = r;
+            this.writes = w;
+            this.errors = e;
+            this.seconds = seconds;
+            this.latencies = new long[count];
+            int pos = 0;
+            for (Worker worker : workers) {
+                System.arraycopy(worker.latencies, 0, latencies, pos, worker.count);
+                pos += worker.count;
+            }
+            Arrays.sort(latencies);
+            this.hitRatio = hitRatio;
+        }
+
+        double getThroughput() {
+            return (reads + writes) / seconds;
+        }
+
+        /**
+         * @param percentile the percentile (between 0 and 100)
+         * @return the latency in microseconds
+         */
+        double getLatencyMicros(final double percentile) {
+            if (latencies.length == 0)
+                return 0;
+            final int rank = (int) Math.ceil(latencies.length * percentile / 100);
+            return latencies[Math.min(Math.max(rank - 1, 0), latencies.length - 1)] / 1000d;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%-8s ops/s=%9.1f reads=%d writes=%d errors=%d hitRatio=%s latency(us) p50=%.1f p90=%.1f "
+                            + "p99=%.1f p99.9=%.1f max=%.1f", name, getThroughput(), reads, writes, errors,
+                    Double.isNaN(hitRatio) ? "-" : String.format("%.3f", hitRatio), getLatencyMicros(50),
+                    getLatencyMicros(90), getLatencyMicros(99), getLatencyMicros(99.9), getLatencyMicros(100));
+        }
+    }
+
+    private final Config config;
+    private final String dbName;
+    private final String backendUrl;
+
+    LoadGenerator(final Config config, final String dbName) {
+        this.config = config;
+        this.dbName = dbName;
+        this.backendUrl = "jdbc:derby:memory:" + dbName + ";create=true";
+    }
+
+    /**
+     * Create and fill the table
+     *
+     * @throws SQLException if the table cannot be created
+     */
+    void createSchema() throws SQLException {
+        final Random random = new Random(config.seed);
+        try (final Connection connection = DriverManager.getConnection(backendUrl)) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE " + TABLE
+                        + " (ID INT PRIMARY KEY, NAME VARCHAR(64), PRICE DOUBLE, QTY INT, UPDATED TIMESTAMP)");
+            }
+            connection.setAutoCommit(false);
+            try (final PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO " + TABLE + " VALUES (?,?,?,?,?)")) {
+                for (int i = 0; i < config.rows; i++) {
+                    insert.setInt(1, i);
+                    insert.setString(2, "Item " + Long.toHexString(random.nextLong()));
+                    insert.setDouble(3, random.nextInt(100000) / 100d);
+                    insert.setInt(4, random.nextInt(1000));
+                    insert.setTimestamp(5, new Timestamp(System.currentTimeMillis()));
+                    insert.addBatch();
+                    if (i % 1000 == 999)
+                        insert.executeBatch();
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final String url;
+        private final Properties info;
+        private final Random random;
+        private final KeyDistribution.Sampler sampler;
+        private final long intervalNanos;
+        private final long startNanos;
+        private final long endNanos;
+        private final boolean record;
+
+        private long[] latencies;
+        private int count;
+        private long reads;
+        private long writes;
+        private long errors;
+
+        private Worker(final int index, final String url, final Properties info, final long startNanos,
+                final long endNanos, final boolean record) {
+            this.url = url;
+            this.info = info;
+            this.random = new Random(config.seed + index);
+            this.sampler = config.distribution.sampler(config.queries);
+            this.intervalNanos = config.rate <= 0 ? 0 : TimeUnit.SECONDS.toNanos(config.threads) / config.rate;
+            // The threads are shifted to spread the operations over the interval
+            this.startNanos = startNanos + intervalNanos * index / config.threads;
+            this.endNanos = endNanos;
+            this.record = record;
+            this.latencies = new long[1024];
+        }
+
+        @Override
+        public void run() {
+            final int step = Math.max(1, config.rows / config.queries);
+            try (final Connection connection = DriverManager.getConnection(url, info)) {
+                final ResultSetCache cache = info == null ? null : Driver.getCache(connection);
+                try (final PreparedStatement read = connection.prepareStatement(SQL_READ);
+                        final PreparedStatement write = connection.prepareStatement(SQL_WRITE)) {
+                    long scheduled = startNanos;
+                    while (scheduled < endNanos) {
+                        long now = System.nanoTime();
+                        if (intervalNanos > 0 && now < scheduled) {
+                            LockSupport.parkNanos(scheduled - now);
+                            now = System.nanoTime();
+                        }
+                        final long begin = intervalNanos > 0 ? scheduled : now;
+                        try {
+                            if (random.nextDouble() < config.writeRatio) {
+                                write.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+                                write.setInt(2, random.nextInt(config.rows));
+                                write.executeUpdate();
+                                if (cache != null)
+                                    cache.invalidateTag(TABLE);
+                                writes++;
+                            } else {
+                                final int from = sampler.next(random) * step;
+                                read.setInt(1, from);
+                                read.setInt(2, from + config.range);
+                                try (final ResultSet resultSet = read.executeQuery()) {
+                                    while (resultSet.next())
+                                        resultSet.getString(2);
+                                }
+                                reads++;
+                            }
+                        } catch (SQLException e) {
+                            errors++;
+                        }
+                        if (record)
+                            record(System.nanoTime() - begin);
+                        scheduled = intervalNanos > 0 ? scheduled + intervalNanos : System.nanoTime();
+                    }
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void record(final long latency) {
+            if (count == latencies.length)
+                latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = latency;
+        }
+    }
+
+    private List<Worker> execute(final String url, final Properties info, final int seconds, final boolean record)
+            throws InterruptedException, ExecutionException {
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        final List<Worker> workers = new ArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(config.threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < config.threads; i++) {
+                final Worker worker = new Worker(i, url, info, start, end, record);
+                workers.add(worker);
+                futures.add(executor.submit(worker));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        return workers;
+    }
+
+    /**
+     * Run the workload (warmup then measure)
+     *
+     * @param name the name of the run
+     * @param url  the JDBC URL
+     * @param info the properties of the cache driver, or null for a direct connection
+     * @return the report
+     * @throws SQLException         if the cache cannot be reached
+     * @throws InterruptedException if the run has been interrupted
+     * @throws ExecutionException   if a worker failed
+     */
+    Report run(final String name, final String url, final Properties info)
+            throws SQLException, InterruptedException, ExecutionException {
+        if (config.warmup > 0)
+            execute(url, info, config.warmup, false);
+        ResultSetCacheStatistics statistics = null;
+        long hits = 0, misses = 0;
+        if (info != null) {
+            try (final Connection connection = DriverManager.getConnection(url, info)) {
+                statistics = Driver.getCache(connection).getStatistics();
+                hits = statistics.getHits();
+                misses = statistics.getMisses();
+            }
+        }
+        final long start = System.nanoTime();
+        final List<Worker> workers = execute(url, info, config.duration, true);
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        double hitRatio = Double.NaN;
+        if (statistics != null) {
+            final long h = statistics.getHits() - hits;
+            final long total = h + statistics.getMisses() - misses;
+            hitRatio = total == 0 ? Double.NaN : (double) h / total;
+        }
+        return new Report(name, workers, seconds, hitRatio);
+    }
+
+    /**
+     * Run the workload through the cache driver, using the configured storage.
+     *
+     * @return the report
+     * @throws Exception if the load test failed
+     */
+    Report runCached() throws Exception {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, backendUrl);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        switch (config.storage) {
+        case "mem":
+            return run("cache", Driver.URL_MEM_PREFIX + dbName, info);
+        case "file":
+            return run("cache", Driver.URL_FILE_PREFIX + Files.createTempDirectory("jdbc-cache-load"), info);
+        default:
+            throw new IllegalArgumentException("Unknown storage: " + config.storage);
+        }
+    }
+
+    /**
+     * Create the schema, then run the workload directly against Derby and through the cache.
+     *
+     * @return the report of the direct run and the report of the cached run
+     * @throws Exception if the load test failed
+     */
+    Report[] compare() throws Exception {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        createSchema();
+        final Report direct = run("direct", backendUrl, null);
+        final Report cached = runCached();
+        return new Report[] { direct, cached };
+    }
+
+    public static void main(final String... args) throws Exception {
+        final Config config = Config.parse(args);
+        System.out.println(config);
+        for (Report report : new LoadGenerator(config, "load").compare())
+            System.out.println(report);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void smokeTest() throws Exception {
+        final LoadGenerator.Config config = LoadGenerator.Config.parse("rows=2000", "queries=50", "rate=500",
+                "threads=2", "warmup=0", "duration=1", "writeRatio=0.02");
+        final LoadGenerator.Report[] reports = new LoadGenerator(config, "loadGenerator").compare();
+
+        final LoadGenerator.Report direct = reports[0];
+        Assert.assertTrue(Double.isNaN(direct.hitRatio));
+        final LoadGenerator.Report cached = reports[1];
+        for (LoadGenerator.Report report : reports) {
+            Assert.assertEquals(0, report.errors);
+            Assert.assertTrue(report.reads > 0);
+            Assert.assertEquals(report.reads + report.writes, report.latencies.length);
+            Assert.assertTrue(report.getLatencyMicros(99) >= report.getLatencyMicros(50));
+        }
+        // 50 distinct queries, the most of the reads are hits
+        Assert.assertTrue(cached.hitRatio > 0.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownKey() {
+        LoadGenerator.Config.parse("unknown=1");
+    }
+}
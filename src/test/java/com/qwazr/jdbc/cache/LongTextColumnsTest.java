@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Properties;
+import java.util.Random;
+
+public class LongTextColumnsTest {
+
+    private final static String DB_NAME = "longtext";
+
+    private final static String SQL_SELECT = "SELECT ID, TXT, DOC FROM TEXTTABLE ORDER BY ID";
+
+    /**
+     * Three bytes per character in UTF-8: more than 64KB for the longest LONG VARCHAR
+     */
+    private final static String MEDIUM = randomText(32000);
+    private final static String LARGE = randomText(BlobSidecar.INLINE_THRESHOLD * 3 + 17);
+
+    private static String randomText(final int length) {
+        final Random random = new Random(length);
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) (random.nextBoolean() ? 'a' + random.nextInt(26) : '€' + random.nextInt(16));
+        return new String(chars);
+    }
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        try (final Connection connection = DriverManager.getConnection(
+                "jdbc:derby:memory:" + DB_NAME + ";create=true")) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE TEXTTABLE (ID INT PRIMARY KEY, TXT LONG VARCHAR, DOC CLOB(1M))");
+            }
+            try (final PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO TEXTTABLE VALUES (?, ?, ?)")) {
+                statement.setInt(1, 1);
+                statement.setString(2, MEDIUM);
+                statement.setString(3, LARGE);
+                statement.executeUpdate();
+                statement.setInt(1, 2);
+                statement.setString(2, "");
+                statement.setString(3, MEDIUM);
+                statement.executeUpdate();
+                statement.setInt(1, 3);
+                statement.setNull(2, Types.LONGVARCHAR);
+                statement.setNull(3, Types.CLOB);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    private static Properties info() {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, "jdbc:derby:memory:" + DB_NAME);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        return info;
+    }
+
+    private static void checkText(final String expected, final ResultSet resultSet, final int column)
+            throws SQLException, IOException {
+        Assert.assertEquals(expected, resultSet.getString(column));
+        try (final Reader reader = resultSet.getCharacterStream(column)) {
+            Assert.assertEquals(expected, reader == null ? null : IOUtils.toString(reader));
+        }
+        final Clob clob = resultSet.getClob(column);
+        if (expected == null) {
+            Assert.assertNull(clob);
+            Assert.assertTrue(resultSet.wasNull());
+            return;
+        }
+        Assert.assertEquals(expected.length(), clob.length());
+        if (expected.length() > 20000) {
+            Assert.assertEquals(expected.substring(19999, 20009), clob.getSubString(20000, 10));
+            try (final Reader reader = clob.getCharacterStream(20000, 10)) {
+                Assert.assertEquals(expected.substring(19999, 20009), IOUtils.toString(reader));
+            }
+        }
+        try (final Reader reader = clob.getCharacterStream()) {
+            Assert.assertEquals(expected, IOUtils.toString(reader));
+        }
+    }
+
+    private static void checkResultSet(final ResultSet resultSet) throws SQLException, IOException {
+        Assert.assertTrue(resultSet.next());
+        checkText(MEDIUM, resultSet, 2);
+        checkText(LARGE, resultSet, 3);
+        Assert.assertTrue(resultSet.next());
+        checkText("", resultSet, 2);
+        checkText(MEDIUM, resultSet, 3);
+        Assert.assertTrue(resultSet.next());
+        checkText(null, resultSet, 2);
+        checkText(null, resultSet, 3);
+        Assert.assertFalse(resultSet.next());
+    }
+
+    private static void checkCache(final String url) throws SQLException, IOException {
+        try (final Connection connection = DriverManager.getConnection(url, info())) {
+            final ResultSetCache cache = Driver.getCache(connection);
+            cache.flush();
+            // The first execution populates the entry, the second one reads it
+            for (int i = 0; i < 2; i++) {
+                try (final Statement statement = connection.createStatement()) {
+                    try (final ResultSet resultSet = statement.executeQuery(SQL_SELECT)) {
+                        checkResultSet(resultSet);
+                    }
+                }
+            }
+            Assert.assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    public void inMemory() throws SQLException, IOException {
+        checkCache(Driver.URL_MEM_PREFIX + DB_NAME);
+    }
+
+    @Test
+    public void onDisk() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-longtext");
+        checkCache(Driver.URL_FILE_PREFIX + directory);
+        // The large CLOB is in the sidecar of the entry
+        final String key = CachedStatement.generateCacheKey(SQL_SELECT);
+        final Path entry = DiskCacheLayout.entryPath(directory, key);
+        final Path sidecar = BlobSidecar.of(entry, EntryHeader.read(entry).sidecar);
+        Assert.assertTrue(Files.size(sidecar) > LARGE.length());
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info())) {
+            Driver.getCache(connection).flush();
+        }
+        Assert.assertFalse(Files.exists(sidecar));
+    }
+
+    @Test
+    public void chunks() throws IOException {
+        final int chunk = ResultSetWriter.TEXT_CHUNK;
+        for (int length : new int[] { 0, 1, chunk - 1, chunk, chunk + 1, chunk * 2, chunk * 3 + 5 }) {
+            final String text = randomText(length);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (final DataOutputStream output = new DataOutputStream(bytes)) {
+                ResultSetWriter.writeText(text, output);
+                Assert.assertEquals(length, ResultSetWriter.writeText(new StringReader(text), output));
+                output.writeInt(length);
+            }
+            try (final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                Assert.assertEquals(text, ResultSetWriter.readText(input));
+                Assert.assertEquals(text, ResultSetWriter.readText(input));
+                Assert.assertEquals(length, input.readInt());
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Properties;
+
+public class MultipleResultsTest {
+
+    private final static String DB_NAME = "results";
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        DbTestUtil.initProcedureDb(DB_NAME, "CREATE PROCEDURE TWO_RESULTS(IN MIN_ID INT) PARAMETER STYLE JAVA "
+                + "READS SQL DATA LANGUAGE JAVA DYNAMIC RESULT SETS 2 EXTERNAL NAME '"
+                + MultipleResultsTest.class.getName() + ".twoResults'");
+    }
+
+    /**
+     * The stored procedure: the items from the given id, then the number of items.
+     */
+    public static void twoResults(final int minId, final ResultSet[] items, final ResultSet[] count)
+            throws SQLException {
+        DbTestUtil.CALLS.incrementAndGet();
+        final Connection connection = DriverManager.getConnection("jdbc:default:connection");
+        final PreparedStatement statement =
+                connection.prepareStatement("SELECT ID, NAME FROM ITEMS WHERE ID >= ? ORDER BY ID");
+        statement.setInt(1, minId);
+        items[0] = statement.executeQuery();
+        count[0] = connection.createStatement().executeQuery("SELECT COUNT(*) FROM ITEMS");
+    }
+
+    private static void checkTwoResults(final Statement statement, final boolean isResultSet)
+            throws SQLException {
+        Assert.assertTrue(isResultSet);
+        Assert.assertEquals(-1, statement.getUpdateCount());
+        final ResultSet items = statement.getResultSet();
+        DbTestUtil.checkItems(items, "two", "three");
+        Assert.assertTrue(statement.getMoreResults());
+        Assert.assertTrue(items.isClosed());
+        try (final ResultSet resultSet = statement.getResultSet()) {
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals(3, resultSet.getInt(1));
+        }
+        Assert.assertFalse(statement.getMoreResults());
+        Assert.assertNull(statement.getResultSet());
+        Assert.assertEquals(-1, statement.getUpdateCount());
+    }
+
+    private static void checkExecutions(final Connection connection) throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            checkTwoResults(statement, statement.execute("CALL TWO_RESULTS(2)"));
+            // A single ResultSet is a regular entry, shared with executeQuery
+            Assert.assertTrue(statement.execute("SELECT NAME FROM ITEMS WHERE ID = 1"));
+            DbTestUtil.checkItems(statement.getResultSet(), "one");
+            DbTestUtil.checkItems(statement.getResultSet(), "one");
+            Assert.assertFalse(statement.getMoreResults());
+            Assert.assertEquals(-1, statement.getUpdateCount());
+            DbTestUtil.checkItems(statement.executeQuery("SELECT NAME FROM ITEMS WHERE ID = 1"), "one");
+        }
+        try (final PreparedStatement statement = connection.prepareStatement("CALL TWO_RESULTS(?)")) {
+            statement.setInt(1, 2);
+            checkTwoResults(statement, statement.execute());
+        }
+    }
+
+    /**
+     * The executions are populated by the first pass, then served by the cache without calling the procedure
+     */
+    private static void checkCached(final Connection connection) throws SQLException {
+        final ResultSetCache cache = Driver.getCache(connection);
+        cache.flush();
+        final int calls = DbTestUtil.CALLS.get();
+        for (int i = 0; i < 2; i++)
+            checkExecutions(connection);
+        Assert.assertEquals(calls + 2, DbTestUtil.CALLS.get());
+        // The first ResultSet of each sequence is also a regular entry, shared with executeQuery
+        Assert.assertEquals(5, cache.size());
+        try (final Statement statement = connection.createStatement()) {
+            DbTestUtil.checkItems(statement.executeQuery("CALL TWO_RESULTS(2)"), "two", "three");
+        }
+        Assert.assertEquals(calls + 2, DbTestUtil.CALLS.get());
+        // An execution starting with an update count is not cached
+        try (final Statement statement = connection.createStatement()) {
+            for (int i = 0; i < 2; i++) {
+                Assert.assertFalse(statement.execute("UPDATE ITEMS SET NAME = 'one' WHERE ID = 1"));
+                Assert.assertEquals(1, statement.getUpdateCount());
+                Assert.assertFalse(statement.getMoreResults());
+                Assert.assertEquals(-1, statement.getUpdateCount());
+            }
+        }
+        Assert.assertEquals(5, cache.size());
+    }
+
+    @Test
+    public void inMemory() throws SQLException {
+        DbTestUtil.checkInMemory(DB_NAME, DbTestUtil.procedureInfo(DB_NAME), MultipleResultsTest::checkCached);
+    }
+
+    @Test
+    public void onDisk() throws SQLException, IOException {
+        final Path directory =
+                DbTestUtil.checkOnDisk(DbTestUtil.procedureInfo(DB_NAME), MultipleResultsTest::checkCached);
+        // Without backend, the results are replayed from the cache
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory)) {
+            checkExecutions(connection);
+            try (final Statement statement = connection.createStatement()) {
+                statement.execute("CALL TWO_RESULTS(1)");
+                Assert.fail("SQLException expected");
+            } catch (SQLException e) {
+                Assert.assertEquals("No cache entry", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The results entry is invalidated with the tables of its ResultSets
+     */
+    private static void checkTagged(final Connection connection) throws SQLException {
+        final ResultSetCache cache = Driver.getCache(connection);
+        cache.flush();
+        try (final Statement statement = connection.createStatement()) {
+            checkTwoResults(statement, statement.execute("CALL TWO_RESULTS(2)"));
+        }
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(2, cache.invalidateTag("ITEMS"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void resultsEntryIsTagged() throws SQLException, IOException {
+        DbTestUtil.checkInMemory(DB_NAME, DbTestUtil.procedureInfo(DB_NAME), MultipleResultsTest::checkTagged);
+        DbTestUtil.checkOnDisk(DbTestUtil.procedureInfo(DB_NAME), MultipleResultsTest::checkTagged);
+    }
+
+    /**
+     * The first ResultSet exceeds the limit of an entry: it is not stored, the next results are read from the backend
+     */
+    private static void checkNotStored(final Connection connection) throws SQLException {
+        final ResultSetCache cache = Driver.getCache(connection);
+        cache.flush();
+        final int calls = DbTestUtil.CALLS.get();
+        for (int i = 0; i < 2; i++) {
+            try (final Statement statement = connection.createStatement()) {
+                checkTwoResults(statement, statement.execute("CALL TWO_RESULTS(2)"));
+            }
+        }
+        Assert.assertEquals(calls + 2, DbTestUtil.CALLS.get());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void entryLimit() throws SQLException, IOException {
+        final Properties info = DbTestUtil.procedureInfo(DB_NAME);
+        info.setProperty(Driver.CACHE_ENTRY_MAX_ROWS, "1");
+        DbTestUtil.checkInMemory(DB_NAME, info, MultipleResultsTest::checkNotStored);
+        DbTestUtil.checkOnDisk(info, MultipleResultsTest::checkNotStored);
+    }
+
+    /**
+     * A backend statement returning the given results: a ResultSet or an update count
+     */
+    private static Statement backend(final Object... results) {
+        final Iterator<Object> iterator = Arrays.asList(results).iterator();
+        final Object[] current = { null };
+        return (Statement) Proxy.newProxyInstance(MultipleResultsTest.class.getClassLoader(),
+                new Class<?>[] { Statement.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getMoreResults":
+                        current[0] = iterator.hasNext() ? iterator.next() : -1;
+                        return current[0] instanceof ResultSet;
+                    case "getResultSet":
+                        return current[0] instanceof ResultSet ? current[0] : null;
+                    case "getUpdateCount":
+                        return current[0] instanceof Integer ? current[0] : -1;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Test
+    public void updateCounts() throws SQLException {
+        try (final Connection connection = DriverManager.getConnection("jdbc:derby:memory:" + DB_NAME)) {
+            try (final Statement first = connection.createStatement();
+                    final Statement second = connection.createStatement()) {
+                final Statement backend =
+                        backend(first.executeQuery("SELECT NAME FROM ITEMS WHERE ID = 1"), 2, 0,
+                                second.executeQuery("SELECT NAME FROM ITEMS WHERE ID > 1 ORDER BY ID"));
+                Assert.assertTrue(backend.getMoreResults());
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ResultSetWriter.write(bytes,
+                        new CachedResults.Capture(null, backend, false, () -> true, null, null,
+                                Collections.emptySet()).provide());
+
+                final CachedResults results =
+                        CachedResults.of(null, new CachedInMemoryResultSet(null, bytes.toByteArray()));
+                Assert.assertTrue(results.isResultSet());
+                DbTestUtil.checkItems(results.getResultSet(), "one");
+                Assert.assertFalse(results.getMoreResults(Statement.CLOSE_CURRENT_RESULT));
+                Assert.assertEquals(2, results.getUpdateCount());
+                Assert.assertNull(results.getResultSet());
+                Assert.assertFalse(results.getMoreResults(Statement.CLOSE_CURRENT_RESULT));
+                Assert.assertEquals(0, results.getUpdateCount());
+                Assert.assertTrue(results.getMoreResults(Statement.CLOSE_CURRENT_RESULT));
+                final ResultSet kept = results.getResultSet();
+                Assert.assertFalse(results.getMoreResults(Statement.KEEP_CURRENT_RESULT));
+                Assert.assertFalse(kept.isClosed());
+                DbTestUtil.checkItems(kept, "two", "three");
+                Assert.assertEquals(-1, results.getUpdateCount());
+                Assert.assertNull(results.getOutParameters());
+                results.close();
+                Assert.assertTrue(kept.isClosed());
+            }
+        }
+    }
+
+    @Test
+    public void captureLimit() throws SQLException {
+        try (final Connection connection = DriverManager.getConnection("jdbc:derby:memory:" + DB_NAME)) {
+            try (final Statement first = connection.createStatement();
+                    final Statement second = connection.createStatement()) {
+                final ResultSet streamed = second.executeQuery("SELECT NAME FROM ITEMS WHERE ID > 1 ORDER BY ID");
+                final Statement backend =
+                        backend(first.executeQuery("SELECT NAME FROM ITEMS WHERE ID = 1"), 2, streamed);
+                Assert.assertTrue(backend.getMoreResults());
+                // The rows of the whole entry are counted: the limit is exceeded by the last row
+                final CachedResults.Capture capture = new CachedResults.Capture(null, backend, false, () -> true, null,
+                        new AdmissionPolicy(0, 0, Long.MAX_VALUE, 2), Collections.emptySet());
+                try {
+                    capture.provide();
+                    Assert.fail("EntryLimitException expected");
+                } catch (EntryLimitException e) {
+                    Assert.assertEquals(2, e.rows);
+                }
+                Assert.assertFalse(streamed.isClosed());
+
+                // The captured results, then the remaining rows and results of the backend
+                final CachedResults results = capture.getPartial(null, null);
+                Assert.assertTrue(results.isResultSet());
+                DbTestUtil.checkItems(results.getResultSet(), "one");
+                Assert.assertFalse(results.getMoreResults(Statement.CLOSE_CURRENT_RESULT));
+                Assert.assertEquals(2, results.getUpdateCount());
+                Assert.assertTrue(results.getMoreResults(Statement.CLOSE_CURRENT_RESULT));
+                DbTestUtil.checkItems(results.getResultSet(), "two", "three");
+                Assert.assertFalse(results.getMoreResults(Statement.CLOSE_CURRENT_RESULT));
+                Assert.assertEquals(-1, results.getUpdateCount());
+                results.close();
+            }
+        }
+    }
+
+    @Test
+    public void firstResultSetIsReferenced() throws SQLException {
+        try (final Connection connection = DriverManager.getConnection("jdbc:derby:memory:" + DB_NAME)) {
+            try (final Statement first = connection.createStatement();
+                    final Statement second = connection.createStatement()) {
+                // The backend is positioned on the second result, the first one is already stored
+                final Statement backend = backend(3);
+                Assert.assertFalse(backend.getMoreResults());
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ResultSetWriter.write(bytes,
+                        new CachedResults.Capture(null, backend, true, () -> false, null, null,
+                                Collections.emptySet()).provide());
+
+                final CachedResults results = CachedResults.of(null, new CachedInMemoryResultSet(null,
+                                bytes.toByteArray()), first.executeQuery("SELECT NAME FROM ITEMS WHERE ID = 1"),
+                        () -> second.executeQuery("SELECT NAME FROM ITEMS WHERE ID = 2"));
+                Assert.assertTrue(results.isResultSet());
+                // The ResultSet opened by the execution, then the one read from its entry
+                DbTestUtil.checkItems(results.getResultSet(), "one");
+                DbTestUtil.checkItems(results.getResultSet(), "two");
+                Assert.assertFalse(results.getMoreResults(Statement.CLOSE_CURRENT_RESULT));
+                Assert.assertEquals(3, results.getUpdateCount());
+                Assert.assertFalse(results.getMoreResults(Statement.CLOSE_CURRENT_RESULT));
+                Assert.assertEquals(-1, results.getUpdateCount());
+                results.close();
+
+                // Without the entry of the first ResultSet the results cannot be read
+                try {
+                    CachedResults.of(null, new CachedInMemoryResultSet(null, bytes.toByteArray()));
+                    Assert.fail("SQLException expected");
+                } catch (SQLException e) {
+                    Assert.assertEquals("The entry of the first ResultSet is not available", e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void captureTags() throws SQLException {
+        try (final Connection connection = DriverManager.getConnection("jdbc:derby:memory:" + DB_NAME)) {
+            try (final Statement statement = connection.createStatement()) {
+                final Statement backend = backend(statement.executeQuery("SELECT NAME FROM ITEMS WHERE ID = 1"));
+                Assert.assertTrue(backend.getMoreResults());
+                final CachedResults.Capture capture = new CachedResults.Capture(null, backend, true, () -> true,
+                        null, null, Collections.singleton("FIRST"));
+                capture.provide().close();
+                Assert.assertEquals(new HashSet<>(Arrays.asList("FIRST", "ITEMS")), capture.getTags());
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.sql.rowset.CachedRowSet;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Properties;
+
+public class ObjectColumnsTest {
+
+    private final static String DB_NAME = "objects";
+
+    private final static String SQL_SELECT = "SELECT ID, VAL FROM OBJTABLE ORDER BY ID";
+
+    private final static BigInteger VALUE = new BigInteger("123456789012345678901234567890");
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        try (final Connection connection = DriverManager.getConnection(
+                "jdbc:derby:memory:" + DB_NAME + ";create=true")) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TYPE BIG EXTERNAL NAME 'java.math.BigInteger' LANGUAGE JAVA");
+                statement.executeUpdate("CREATE TABLE OBJTABLE (ID INT PRIMARY KEY, VAL BIG)");
+            }
+            try (final PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO OBJTABLE VALUES (?, ?)")) {
+                statement.setInt(1, 1);
+                statement.setObject(2, VALUE);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    private static Properties info() {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, "jdbc:derby:memory:" + DB_NAME);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        return info;
+    }
+
+    /**
+     * A JAVA_OBJECT column is not cached: the ResultSet is read from the backend, never with a NULL value
+     */
+    private static void checkNotCached(final String url) throws SQLException {
+        try (final Connection connection = DriverManager.getConnection(url, info())) {
+            final ResultSetCache cache = Driver.getCache(connection);
+            cache.flush();
+            final long rejections = cache.getStatistics().getRejections();
+            for (int i = 0; i < 2; i++) {
+                try (final Statement statement = connection.createStatement()) {
+                    try (final ResultSet resultSet = statement.executeQuery(SQL_SELECT)) {
+                        Assert.assertEquals(Types.JAVA_OBJECT, resultSet.getMetaData().getColumnType(2));
+                        Assert.assertTrue(resultSet.next());
+                        Assert.assertEquals(VALUE, resultSet.getObject(2));
+                        Assert.assertFalse(resultSet.next());
+                    }
+                }
+            }
+            Assert.assertEquals(0, cache.size());
+            Assert.assertEquals(rejections + 2, cache.getStatistics().getRejections());
+        }
+    }
+
+    @Test
+    public void inMemory() throws SQLException {
+        checkNotCached(Driver.URL_MEM_PREFIX + DB_NAME);
+    }
+
+    @Test
+    public void onDisk() throws SQLException, IOException {
+        checkNotCached(Driver.URL_FILE_PREFIX + Files.createTempDirectory("jdbc-cache-objects"));
+    }
+
+    @Test
+    public void supportedTypes() {
+        Assert.assertTrue(ResultSetWriter.isSupported(new int[] { Types.INTEGER, Types.OTHER, Types.DATALINK,
+                Types.NULL }));
+        Assert.assertFalse(ResultSetWriter.isSupported(new int[] { Types.INTEGER, Types.JAVA_OBJECT }));
+        Assert.assertFalse(ResultSetWriter.isSupported(new int[] { Types.STRUCT }));
+        Assert.assertFalse(ResultSetWriter.isSupported(new int[] { -100 }));
+    }
+
+    /**
+     * The vendor specific values (JSON, UUID...) are kept as their text
+     */
+    @Test
+    public void otherIsText() throws SQLException, IOException {
+        final int[] types = { Types.OTHER, Types.OTHER };
+        final CachedRowSet rowSet = CachedResults.newRowSet(new String[] { "JSON", "NONE" }, types);
+        CachedResults.insert(rowSet, "{\"a\":1}", null);
+        rowSet.beforeFirst();
+        Assert.assertTrue(rowSet.next());
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream output = new DataOutputStream(bytes)) {
+            ResultSetWriter.writeRow(output, rowSet, types);
+        }
+        try (final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Assert.assertEquals("{\"a\":1}", ResultSetWriter.readRow(Types.OTHER, input));
+            Assert.assertNull(ResultSetWriter.readRow(Types.OTHER, input));
+        }
+    }
+
+    @Test(expected = SQLException.class)
+    public void unsupportedTypeIsNeverWritten() throws SQLException, IOException {
+        final int[] types = { Types.STRUCT };
+        final CachedRowSet rowSet = CachedResults.newRowSet(new String[] { "S" }, types);
+        CachedResults.insert(rowSet, (Object) null);
+        rowSet.beforeFirst();
+        Assert.assertTrue(rowSet.next());
+        ResultSetWriter.writeRow(new DataOutputStream(new ByteArrayOutputStream()), rowSet, types);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class QueryTemplateStatisticsTest {
+
+    @Test
+    public void normalize() {
+        Assert.assertEquals("SELECT * FROM T1 WHERE ID = ? AND NAME = ?",
+                QueryTemplateStatistics.normalize("SELECT *  FROM T1\n WHERE ID = 42 AND NAME = 'O''Brien' "));
+        Assert.assertEquals("SELECT \"COL 1\" FROM T WHERE X IN (?, ?) AND Y > -?",
+                QueryTemplateStatistics.normalize("SELECT \"COL 1\" FROM T WHERE X IN (1, 2.5) AND Y > -1E3"));
+        Assert.assertEquals("SELECT * FROM T WHERE ID = ?",
+                QueryTemplateStatistics.normalize("SELECT * FROM T WHERE ID = ?"));
+    }
+
+    @Test
+    public void literalsShareTheirTemplate() {
+        final QueryTemplateStatistics stats = new QueryTemplateStatistics(16);
+        final QueryTemplateStatistics.Template t1 = stats.execution("SELECT * FROM T WHERE ID = 1");
+        final QueryTemplateStatistics.Template t2 = stats.execution("SELECT * FROM T WHERE ID = 2");
+        Assert.assertSame(t1, t2);
+        Assert.assertEquals(2, t1.getExecutions());
+        t1.hit();
+        t1.load(1000, 200, 4);
+        Assert.assertEquals(1000, t1.getTimeSavedNanos());
+        Assert.assertEquals(200, t1.getMeanEntryBytes());
+        Assert.assertEquals(4, t1.getMeanEntryRows());
+        Assert.assertNull(stats.execution(null));
+    }
+
+    @Test
+    public void spaceSavingKeepsHeavyHitters() {
+        final int capacity = 8;
+        final QueryTemplateStatistics stats = new QueryTemplateStatistics(capacity);
+        for (int i = 0; i < 1000; i++) {
+            // Two heavy hitters, and a long tail of distinct templates
+            stats.execution("SELECT * FROM HEAVY1");
+            if (i % 2 == 0)
+                stats.execution("SELECT * FROM HEAVY2");
+            stats.execution("SELECT * FROM TAIL" + i);
+        }
+        // Any template executed more than total/capacity (here 2500/8) times is guaranteed to be kept
+        Assert.assertEquals(capacity, stats.getTemplates().size());
+        final List<QueryTemplateStatistics.Template> top = stats.getTop(2, QueryTemplateStatistics.BY_EXECUTIONS);
+        Assert.assertEquals(2, top.size());
+        checkCount(top.get(0), "SELECT * FROM HEAVY1", 1000);
+        checkCount(top.get(1), "SELECT * FROM HEAVY2", 500);
+    }
+
+    private static void checkCount(final QueryTemplateStatistics.Template template, final String sql,
+            final long count) {
+        Assert.assertEquals(sql, template.getSql());
+        // The count is an over-estimation bounded by the error
+        Assert.assertTrue(template.getExecutions() >= count);
+        Assert.assertTrue(template.getExecutions() - template.getError() <= count);
+    }
+}
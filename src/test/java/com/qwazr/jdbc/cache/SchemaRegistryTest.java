@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+public class SchemaRegistryTest {
+
+    private final static String DB_NAME = "schemas";
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        try (final Connection connection = DriverManager.getConnection(
+                "jdbc:derby:memory:" + DB_NAME + ";create=true")) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE LOOKUP (ID INT PRIMARY KEY, NAME VARCHAR(32))");
+                statement.executeUpdate("INSERT INTO LOOKUP VALUES (1, 'one'), (2, 'two'), (3, 'three')");
+            }
+        }
+    }
+
+    private static Properties info() {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, "jdbc:derby:memory:" + DB_NAME);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        return info;
+    }
+
+    /**
+     * Two lookups with the same schema, each one executed twice (populate then read)
+     */
+    private static void checkShared(final Connection connection) throws SQLException {
+        Driver.getCache(connection).flush();
+        ResultSetMetaData shared = null;
+        for (int i = 0; i < 2; i++) {
+            for (int id = 1; id <= 2; id++) {
+                try (final Statement statement = connection.createStatement()) {
+                    try (final ResultSet resultSet = statement.executeQuery(
+                            "SELECT ID, NAME FROM LOOKUP WHERE ID = " + id)) {
+                        Assert.assertTrue(resultSet.next());
+                        Assert.assertEquals(id, resultSet.getInt("ID"));
+                        Assert.assertEquals(2, resultSet.findColumn("NAME"));
+                        Assert.assertFalse(resultSet.next());
+                        if (shared == null)
+                            shared = resultSet.getMetaData();
+                        else
+                            Assert.assertSame(shared, resultSet.getMetaData());
+                    }
+                }
+            }
+        }
+        Assert.assertEquals(2, Driver.getCache(connection).size());
+    }
+
+    @Test
+    public void inMemory() throws SQLException {
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_MEM_PREFIX + DB_NAME, info())) {
+            checkShared(connection);
+        }
+    }
+
+    @Test
+    public void onDisk() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-schemas");
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info())) {
+            checkShared(connection);
+        }
+        // One schema file for both entries, kept by a flush
+        try (final Stream<Path> files = Files.list(directory.resolve(SchemaRegistry.DIRECTORY))) {
+            Assert.assertEquals(1, files.count());
+        }
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info())) {
+            checkShared(connection);
+        }
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void unknownSchema() throws IOException {
+        SchemaRegistry.of(Files.createTempDirectory("jdbc-cache-schemas")).get(0x0123456789ABCDEFL);
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownMemorySchema() throws IOException {
+        SchemaRegistry.MEMORY.get(0x0123456789ABCDEFL);
+    }
+
+    /**
+     * A missing schema file makes the entry incompatible: it is discarded and built again, writing the schema again
+     */
+    @Test
+    public void missingSchemaFile() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-schemas");
+        final ResultSetOnDiskCacheImpl cache = new ResultSetOnDiskCacheImpl(directory);
+        final CachedStatement<?> statement = new CachedStatement<>(null, cache, null);
+        statement.executedSql = "SELECT ID, NAME FROM LOOKUP ORDER BY ID";
+        try (final Connection backend = DriverManager.getConnection("jdbc:derby:memory:" + DB_NAME)) {
+            final ResultSetCache.Provider provider =
+                    () -> backend.createStatement().executeQuery(statement.executedSql);
+            cache.get(statement, statement.getOrGenerateKey(), provider).close();
+            cache.close();
+            try (final Stream<Path> files = Files.list(directory.resolve(SchemaRegistry.DIRECTORY))) {
+                files.forEach(path -> path.toFile().delete());
+            }
+            // A new registry, as after a restart
+            final ResultSetOnDiskCacheImpl restarted = new ResultSetOnDiskCacheImpl(directory);
+            for (int i = 0; i < 2; i++) {
+                try (final ResultSet resultSet = restarted.get(statement, statement.getOrGenerateKey(), provider)) {
+                    for (int id = 1; id <= 3; id++) {
+                        Assert.assertTrue(resultSet.next());
+                        Assert.assertEquals(id, resultSet.getInt(1));
+                    }
+                    Assert.assertFalse(resultSet.next());
+                }
+            }
+            try (final Stream<Path> files = Files.list(directory.resolve(SchemaRegistry.DIRECTORY))) {
+                Assert.assertEquals(1, files.count());
+            }
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void registriesAreScoped() throws SQLException, IOException {
+        final SchemaRegistry registry = SchemaRegistry.memory();
+        final long id;
+        try (final Connection backend = DriverManager.getConnection("jdbc:derby:memory:" + DB_NAME)) {
+            try (final Statement statement = backend.createStatement()) {
+                try (final ResultSet resultSet = statement.executeQuery("SELECT ID, NAME FROM LOOKUP")) {
+                    id = registry.register(resultSet.getMetaData());
+                }
+            }
+        }
+        Assert.assertNotNull(registry.get(id));
+        try {
+            SchemaRegistry.memory().get(id);
+            Assert.fail("IOException expected");
+        } catch (IOException e) {
+            // Expected: the schemas are not shared by the registries
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class StringDictionaryTest {
+
+    private final static String DB_NAME = "dictionary";
+
+    private final static String[] STATUS = { "ACTIVE", "INACTIVE", "PENDING" };
+    private final static String[] COUNTRY = { "France", "Germany", "Italy", "Spain", "United Kingdom" };
+    private final static int ROWS = 500;
+
+    @BeforeClass
+    public static void init() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        try (final Connection connection = DriverManager.getConnection(
+                "jdbc:derby:memory:" + DB_NAME + ";create=true")) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeUpdate(
+                        "CREATE TABLE ORDERS (ID INT PRIMARY KEY, STATUS VARCHAR(16), COUNTRY VARCHAR(32))");
+            }
+            try (final PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO ORDERS VALUES (?, ?, ?)")) {
+                for (int i = 0; i < ROWS; i++) {
+                    statement.setInt(1, i);
+                    statement.setString(2, STATUS[i % STATUS.length]);
+                    statement.setString(3, i % 10 == 0 ? null : COUNTRY[i % COUNTRY.length]);
+                    statement.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private static Properties info() {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, "jdbc:derby:memory:" + DB_NAME);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        info.setProperty(Driver.CACHE_DICTIONARY_SIZE, "100");
+        return info;
+    }
+
+    private static void checkCache(final String url) throws SQLException {
+        try (final Connection connection = DriverManager.getConnection(url, info())) {
+            Driver.getCache(connection).flush();
+            for (int i = 0; i < 2; i++) {
+                try (final Statement statement = connection.createStatement()) {
+                    try (final ResultSet resultSet = statement.executeQuery(
+                            "SELECT ID, STATUS, COUNTRY FROM ORDERS ORDER BY ID")) {
+                        final String[] shared = new String[STATUS.length];
+                        for (int row = 0; row < ROWS; row++) {
+                            Assert.assertTrue(resultSet.next());
+                            final String status = resultSet.getString(2);
+                            Assert.assertEquals(STATUS[row % STATUS.length], status);
+                            Assert.assertEquals(row % 10 == 0 ? null : COUNTRY[row % COUNTRY.length],
+                                    resultSet.getString(3));
+                            Assert.assertEquals(row % 10 == 0, resultSet.wasNull());
+                            // Once in the dictionary, the reader returns the same instance
+                            if (i == 1 && row >= STATUS.length * StringDictionary.ADMISSION_COUNT) {
+                                final int s = row % STATUS.length;
+                                if (shared[s] == null)
+                                    shared[s] = status;
+                                else
+                                    Assert.assertSame(shared[s], status);
+                            }
+                        }
+                        Assert.assertFalse(resultSet.next());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void inMemory() throws SQLException {
+        checkCache(Driver.URL_MEM_PREFIX + DB_NAME);
+    }
+
+    @Test
+    public void onDisk() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-dictionary");
+        checkCache(Driver.URL_FILE_PREFIX + directory);
+        Assert.assertTrue(Files.size(directory.resolve(StringDictionary.FILENAME)) > 0);
+    }
+
+    @Test
+    public void admission() throws IOException {
+        final StringDictionary dictionary = new StringDictionary(null, 2);
+        Assert.assertEquals(-1, dictionary.encode("one"));
+        Assert.assertEquals(0, dictionary.encode("one"));
+        Assert.assertEquals(0, dictionary.encode("one"));
+        final String longString = new String(new char[StringDictionary.MAX_LENGTH + 1]).replace('\0', 'x');
+        Assert.assertEquals(-1, dictionary.encode(longString));
+        Assert.assertEquals(-1, dictionary.encode(longString));
+        Assert.assertEquals(-1, dictionary.encode("two"));
+        Assert.assertEquals(1, dictionary.encode("two"));
+        // Full
+        Assert.assertEquals(-1, dictionary.encode("three"));
+        Assert.assertEquals(-1, dictionary.encode("three"));
+        Assert.assertEquals(2, dictionary.size());
+        Assert.assertEquals("two", dictionary.decode(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownId() throws IOException {
+        new StringDictionary(null, 10).decode(0);
+    }
+
+    @Test
+    public void sharedFile() throws IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-dictionary");
+        try (final StringDictionary first = StringDictionary.of(directory, 10)) {
+            first.encode("alpha");
+            Assert.assertEquals(0, first.encode("alpha"));
+            try (final StringDictionary second = StringDictionary.of(directory, 10)) {
+                Assert.assertEquals("alpha", second.decode(0));
+                Assert.assertEquals(0, second.encode("alpha"));
+                second.encode("beta");
+                Assert.assertEquals(1, second.encode("beta"));
+                // Added by the other instance
+                Assert.assertEquals("beta", first.decode(1));
+                first.encode("gamma");
+                Assert.assertEquals(2, first.encode("gamma"));
+            }
+        }
+        // A partial record left by a crash is dropped
+        final Path path = directory.resolve(StringDictionary.FILENAME);
+        final long size = Files.size(path);
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0, 10, 'x' }));
+        }
+        try (final StringDictionary dictionary = StringDictionary.of(directory, 0)) {
+            Assert.assertEquals(3, dictionary.size());
+            Assert.assertEquals("gamma", dictionary.decode(2));
+            Assert.assertEquals(-1, dictionary.encode("gamma2"));
+            Assert.assertEquals(-1, dictionary.encode("gamma2"));
+        }
+        Assert.assertEquals(size, Files.size(path));
+    }
+
+    @Test
+    public void corruptFileIsReplaced() throws IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-dictionary");
+        final Path path = directory.resolve(StringDictionary.FILENAME);
+        Files.write(path, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13 });
+        try (final StringDictionary dictionary = StringDictionary.of(directory, 10)) {
+            Assert.assertEquals(0, dictionary.size());
+            Assert.assertNotEquals(0, dictionary.getGeneration());
+            dictionary.encode("alpha");
+            Assert.assertEquals(0, dictionary.encode("alpha"));
+        }
+        try (final StringDictionary dictionary = StringDictionary.of(directory, 10)) {
+            Assert.assertEquals("alpha", dictionary.decode(0));
+        }
+    }
+
+    @Test
+    public void resetStartsANewGeneration() throws IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-dictionary");
+        try (final StringDictionary first = StringDictionary.of(directory, 10)) {
+            first.encode("alpha");
+            Assert.assertEquals(0, first.encode("alpha"));
+            try (final StringDictionary second = StringDictionary.of(directory, 10)) {
+                Assert.assertEquals(first.getGeneration(), second.getGeneration());
+                try (final StringDictionary reset = second.reset()) {
+                    Assert.assertNotEquals(first.getGeneration(), reset.getGeneration());
+                    Assert.assertEquals(0, reset.size());
+                    Assert.assertTrue(reset.isCurrent());
+                    Assert.assertFalse(first.isCurrent());
+                    // The readers of the previous generation still get its strings
+                    Assert.assertEquals("alpha", second.decode(0));
+                    // A closed dictionary no longer adds strings
+                    second.encode("beta");
+                    Assert.assertEquals(-1, second.encode("beta"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void flushResetsTheDictionary() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-dictionary");
+        final Path path = directory.resolve(StringDictionary.FILENAME);
+        checkCache(Driver.URL_FILE_PREFIX + directory);
+        final long size = Files.size(path);
+        Assert.assertTrue(size > 12);
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info())) {
+            Driver.getCache(connection).flush();
+        }
+        Assert.assertTrue(Files.size(path) < size);
+    }
+
+    @Test
+    public void capacityIsNotExceeded() throws Exception {
+        final int capacity = 10;
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (Path directory : new Path[] { null, Files.createTempDirectory("jdbc-cache-dictionary") }) {
+                try (final StringDictionary dictionary = directory == null ?
+                        new StringDictionary(null, capacity) :
+                        StringDictionary.of(directory, capacity)) {
+                    final List<Future<?>> futures = new ArrayList<>();
+                    for (int t = 0; t < 8; t++) {
+                        futures.add(executor.submit(() -> {
+                            for (int i = 0; i < 1000; i++)
+                                for (int j = 0; j < StringDictionary.ADMISSION_COUNT; j++)
+                                    dictionary.encode("value" + i);
+                            return null;
+                        }));
+                    }
+                    for (Future<?> future : futures)
+                        future.get();
+                    Assert.assertEquals(capacity, dictionary.size());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2016-2017 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.jdbc.cache;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class TableChangePollerTest {
+
+    private final static String BACKEND_URL = "jdbc:derby:memory:poller;create=true";
+
+    @BeforeClass
+    public static void initDb() throws SQLException, ClassNotFoundException {
+        Class.forName("com.qwazr.jdbc.cache.Driver");
+        try (final Connection connection = DriverManager.getConnection(BACKEND_URL)) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE POLLED (ID INT PRIMARY KEY, NAME VARCHAR(12))");
+                statement.executeUpdate("CREATE TABLE OTHER (ID INT PRIMARY KEY)");
+                statement.executeUpdate("INSERT INTO POLLED VALUES (1, 'ONE')");
+                statement.executeUpdate("INSERT INTO OTHER VALUES (1)");
+            }
+        }
+    }
+
+    @Test
+    public void buildProbeSql() {
+        Assert.assertEquals("VALUES ((SELECT COUNT(*) FROM A), (SELECT MAX(TS) FROM B))",
+                TableChangePoller.buildProbeSql(
+                        new String[] { "SELECT COUNT(*) FROM A", "SELECT MAX(TS) FROM B" }, null));
+        Assert.assertEquals("SELECT (SELECT COUNT(*) FROM A) FROM DUAL",
+                TableChangePoller.buildProbeSql(new String[] { "SELECT COUNT(*) FROM A" }, "DUAL"));
+    }
+
+    private static int count(final Connection connection, final String sql) throws SQLException {
+        try (final ResultSet resultSet = connection.createStatement().executeQuery(sql)) {
+            Assert.assertTrue(resultSet.next());
+            return resultSet.getInt(1);
+        }
+    }
+
+    /**
+     * Counts the polls, so the tests wait for them instead of sleeping
+     */
+    private static class CountingPoller extends TableChangePoller {
+
+        private final Semaphore polls = new Semaphore(0);
+        private final Semaphore changes = new Semaphore(0);
+
+        private CountingPoller(final ResultSetCacheImpl resultSetCache, final Map<String, String> probes) {
+            super(resultSetCache, () -> DriverManager.getConnection(BACKEND_URL), probes, null);
+        }
+
+        @Override
+        int poll() throws SQLException {
+            final int changed = super.poll();
+            polls.release();
+            changes.release(changed);
+            return changed;
+        }
+    }
+
+    @Test
+    public void changeInvalidatesDependentEntries() throws SQLException, InterruptedException {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, BACKEND_URL);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+
+        try (final Connection connection = DriverManager.getConnection("jdbc:cache:mem:poller", info)) {
+            final ResultSetCacheImpl cache = (ResultSetCacheImpl) Driver.getCache(connection);
+            // Created first, so the entries are tagged with the polled tables
+            final CountingPoller poller =
+                    new CountingPoller(cache, Collections.singletonMap("POLLED", "SELECT COUNT(*) FROM POLLED"));
+            final String polledSql = "SELECT COUNT(*) FROM POLLED";
+            final String otherSql = "SELECT * FROM OTHER";
+            Assert.assertEquals(1, count(connection, polledSql));
+            count(connection, otherSql);
+
+            final Statement polledStatement = connection.createStatement();
+            polledStatement.execute(polledSql);
+            final Statement otherStatement = connection.createStatement();
+            otherStatement.execute(otherSql);
+            Assert.assertTrue(cache.exists(polledStatement));
+            Assert.assertTrue(cache.exists(otherStatement));
+
+            poller.start(20);
+            try {
+                // The first poll collects the initial values and removes the entries of the polled table
+                Assert.assertTrue(poller.polls.tryAcquire(10, TimeUnit.SECONDS));
+                Assert.assertFalse(cache.exists(polledStatement));
+                Assert.assertTrue(cache.exists(otherStatement));
+                polledStatement.execute(polledSql);
+                Assert.assertTrue(cache.exists(polledStatement));
+
+                // Modify the table outside of the cache
+                try (final Connection backend = DriverManager.getConnection(BACKEND_URL)) {
+                    backend.createStatement().executeUpdate("INSERT INTO POLLED VALUES (2, 'TWO')");
+                }
+                Assert.assertTrue(poller.changes.tryAcquire(10, TimeUnit.SECONDS));
+            } finally {
+                poller.stop();
+            }
+            Assert.assertFalse(cache.exists(polledStatement));
+            Assert.assertTrue(cache.exists(otherStatement));
+            Assert.assertEquals(2, count(connection, polledSql));
+        }
+    }
+
+    @Test
+    public void invalidationDuringBuildIsNotLost() throws SQLException {
+        for (ResultSetCacheImpl cache : new ResultSetCacheImpl[] { new ResultSetInMemoryCacheImpl(),
+                new ResultSetOnDiskCacheImpl(Paths.get("target", "poller-" + System.nanoTime())) }) {
+            final CachedStatement<?> statement = new CachedStatement<>(null, cache, null);
+            statement.executedSql = "SELECT * FROM OTHER";
+            final String key = statement.getOrGenerateKey();
+            try (final Connection backend = DriverManager.getConnection(BACKEND_URL)) {
+                // The table changes while the entry is built, before the entry is tagged
+                cache.get(statement, key, () -> {
+                    final ResultSet resultSet = backend.createStatement().executeQuery(statement.executedSql);
+                    cache.invalidateTag("OTHER");
+                    return resultSet;
+                }).close();
+            }
+            Assert.assertFalse(cache.exists(statement));
+            cache.close();
+        }
+    }
+
+    @Test
+    public void removedEntriesAreUntagged() throws SQLException {
+        final ResultSetOnDiskCacheImpl diskCache =
+                new ResultSetOnDiskCacheImpl(Paths.get("target", "poller-" + System.nanoTime()));
+        for (ResultSetCacheImpl cache : new ResultSetCacheImpl[] { new ResultSetInMemoryCacheImpl(), diskCache }) {
+            final CachedStatement<?> statement = new CachedStatement<>(null, cache, null);
+            statement.executedSql = "SELECT * FROM OTHER";
+            final String key = statement.getOrGenerateKey();
+            try (final Connection backend = DriverManager.getConnection(BACKEND_URL)) {
+                for (int i = 0; i < 2; i++) {
+                    cache.get(statement, key,
+                            () -> backend.createStatement().executeQuery(statement.executedSql)).close();
+                    Assert.assertEquals(1, cache.taggedEntries());
+                    cache.flush(statement);
+                    Assert.assertEquals(0, cache.taggedEntries());
+                }
+                if (cache == diskCache) {
+                    cache.get(statement, key,
+                            () -> backend.createStatement().executeQuery(statement.executedSql)).close();
+                    Assert.assertTrue(diskCache.evict(key));
+                    Assert.assertEquals(0, cache.taggedEntries());
+                }
+            }
+            cache.close();
+        }
+    }
+
+    @Test
+    public void tagsSurviveARestart() throws SQLException {
+        final Path directory = Paths.get("target", "poller-" + System.nanoTime());
+        final String sql = "SELECT * FROM OTHER";
+        try (final Connection backend = DriverManager.getConnection(BACKEND_URL)) {
+            final ResultSetOnDiskCacheImpl first = new ResultSetOnDiskCacheImpl(directory);
+            final CachedStatement<?> firstStatement = new CachedStatement<>(null, first, null);
+            firstStatement.executedSql = sql;
+            first.get(firstStatement, firstStatement.getOrGenerateKey(),
+                    () -> backend.createStatement().executeQuery(sql)).close();
+            first.close();
+        }
+        // The entry built by the previous instance is invalidated by its tag
+        final ResultSetOnDiskCacheImpl second = new ResultSetOnDiskCacheImpl(directory);
+        final CachedStatement<?> secondStatement = new CachedStatement<>(null, second, null);
+        secondStatement.executedSql = sql;
+        Assert.assertTrue(second.exists(secondStatement));
+        Assert.assertEquals(0, second.taggedEntries());
+        Assert.assertEquals(1, second.invalidateTag("OTHER"));
+        Assert.assertFalse(second.exists(secondStatement));
+        Assert.assertEquals(0, second.invalidateTag("OTHER"));
+        second.close();
+    }
+
+    private static Set<Thread> pollerThreads() {
+        final Set<Thread> threads = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if ("jdbc-cache-table-poller".equals(thread.getName()))
+                threads.add(thread);
+        return threads;
+    }
+
+    /**
+     * A backend connection whose probe query hangs until the connection is closed
+     */
+    private static Connection hangingConnection(final Semaphore probing) {
+        final CountDownLatch closed = new CountDownLatch(1);
+        return (Connection) Proxy.newProxyInstance(TableChangePollerTest.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "isClosed":
+                        return closed.getCount() == 0;
+                    case "close":
+                        closed.countDown();
+                        return null;
+                    case "createStatement":
+                        return Proxy.newProxyInstance(TableChangePollerTest.class.getClassLoader(),
+                                new Class<?>[] { Statement.class }, (statement, call, callArgs) -> {
+                                    if ("executeQuery".equals(call.getName())) {
+                                        probing.release();
+                                        closed.await();
+                                        throw new SQLException("The connection is closed");
+                                    }
+                                    return null;
+                                });
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Test
+    public void stopDoesNotWaitForAHangingProbe() throws InterruptedException {
+        final Semaphore probing = new Semaphore(0);
+        final TableChangePoller poller = new TableChangePoller(new ResultSetInMemoryCacheImpl(),
+                () -> hangingConnection(probing), Collections.singletonMap("POLLED", "SELECT COUNT(*) FROM POLLED"),
+                null).start(20);
+        Assert.assertTrue(probing.tryAcquire(10, TimeUnit.SECONDS));
+        final Thread stopper = new Thread(poller::stop);
+        stopper.start();
+        stopper.join(10000);
+        Assert.assertFalse(stopper.isAlive());
+    }
+
+    @Test
+    public void wrongPollIntervalIsRejected() throws SQLException, IOException {
+        final Path directory = Files.createTempDirectory("jdbc-cache-poller");
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, BACKEND_URL);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        info.setProperty(Driver.CACHE_POLL_PROBE_PREFIX + "POLLED", "SELECT COUNT(*) FROM POLLED");
+        for (String interval : new String[] { "five", "0", "-1" }) {
+            info.setProperty(Driver.CACHE_POLL_INTERVAL, interval);
+            try {
+                DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info).close();
+                Assert.fail("SQLException expected");
+            } catch (SQLException e) {
+                Assert.assertEquals("Wrong poll interval: " + interval, e.getMessage());
+            }
+        }
+        // No cache has been opened
+        info.setProperty(Driver.CACHE_POLL_INTERVAL, "50");
+        try (final Connection connection = DriverManager.getConnection(Driver.URL_FILE_PREFIX + directory, info)) {
+            Driver.getCache(connection).close();
+        }
+    }
+
+    @Test
+    public void pollerIsStoppedWhenTheCacheIsClosed() throws SQLException, InterruptedException {
+        final Properties info = new Properties();
+        info.setProperty(Driver.CACHE_DRIVER_URL, BACKEND_URL);
+        info.setProperty(Driver.CACHE_DRIVER_CLASS, "org.apache.derby.jdbc.EmbeddedDriver");
+        info.setProperty(Driver.CACHE_POLL_INTERVAL, "50");
+        info.setProperty(Driver.CACHE_POLL_PROBE_PREFIX + "POLLED", "SELECT COUNT(*) FROM POLLED");
+
+        final Set<Thread> previousThreads = pollerThreads();
+        try (final Connection connection = DriverManager.getConnection("jdbc:cache:mem:poller-closed", info)) {
+            final ResultSetCache cache = Driver.getCache(connection);
+            final Set<Thread> threads = pollerThreads();
+            threads.removeAll(previousThreads);
+            Assert.assertEquals(1, threads.size());
+
+            cache.close();
+            final Thread thread = threads.iterator().next();
+            thread.join(10000);
+            Assert.assertFalse(thread.isAlive());
+
+            // The next connection opens the cache again
+            try (final Connection other = DriverManager.getConnection("jdbc:cache:mem:poller-closed", info)) {
+                final ResultSetCache reopened = Driver.getCache(other);
+                Assert.assertNotSame(cache, reopened);
+                reopened.close();
+            }
+        }
+    }
+}